@@ -34,6 +34,7 @@ import org.openpnp.gui.components.ThemeSettingsPanel;
 import org.openpnp.logging.ConsoleWriter;
 import org.openpnp.logging.SystemLogger;
 import org.openpnp.model.Configuration;
+import org.openpnp.model.JobRunner;
 import org.openpnp.api.listeners.RealtimeWebSocketListener;
 import org.pmw.tinylog.Configurator;
 import org.pmw.tinylog.Level;
@@ -177,22 +178,67 @@ public class Main {
         }
     }
 
-    public static void main(String[] args) {
-        monkeyPatchBeansBinding();
+    /**
+     * Запуск без Swing GUI: загружается конфигурация, а управление машиной и заданиями идет только
+     * через API. Задания выполняет {@link JobRunner}, тот же, что использует JobPanel в GUI.
+     */
+    private static void startHeadless(Configuration configuration) {
+        try {
+            configuration.load();
+        } catch (Exception e) {
+            Logger.error(e, "Ошибка загрузки конфигурации из "
+                    + configuration.getConfigurationDirectory().getAbsolutePath());
+            System.exit(1);
+        }
+
+        startApiServer();
+        if (apiServer == null) {
+            Logger.error("В режиме без GUI API сервер обязателен, завершаем работу");
+            System.exit(1);
+        }
+
+        Logger.info(String.format("OpenPnP version %s запущен без GUI (JobRunner: %s).", Main.getVersion(),
+                JobRunner.get().getState()));
+        try {
+            configuration.getScripting().on("Startup", null);
+        } catch (Exception e) {
+            Logger.error(e, "Ошибка выполнения скрипта Startup");
+        }
+        if (configuration.getMachine() != null) {
+            RealtimeWebSocketListener realtimeListener = new RealtimeWebSocketListener();
+            realtimeListener.initialize(configuration.getMachine());
+            Logger.info("Realtime WebSocket listener initialized");
+        }
+        // Процесс продолжает работу за счет потоков HTTP сервера
+    }
 
+    public static void main(String[] args) {
+        // Режим без GUI: -Dopenpnp.headless=true или --headless
+        boolean headless = Boolean.getBoolean("openpnp.headless");
         for (String s : args) {
             if (s.equals("--version")) {
                 System.out.println(getVersion());
                 System.exit(0);
             }
+            if (s.equals("--headless")) {
+                headless = true;
+            }
         }
 
-        // http://developer.apple.com/library/mac/#documentation/Java/Conceptual/Java14Development/07-NativePlatformIntegration/NativePlatformIntegration.html#//apple_ref/doc/uid/TP40001909-212952-TPXREF134
-        System.setProperty("apple.laf.useScreenMenuBar", "true");
-        try {
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (Exception e) {
-            throw new Error(e);
+        if (headless) {
+            // AWT не инициализируется, Swing классы GUI не загружаются
+            System.setProperty("java.awt.headless", "true");
+        }
+        else {
+            monkeyPatchBeansBinding();
+
+            // http://developer.apple.com/library/mac/#documentation/Java/Conceptual/Java14Development/07-NativePlatformIntegration/NativePlatformIntegration.html#//apple_ref/doc/uid/TP40001909-212952-TPXREF134
+            System.setProperty("apple.laf.useScreenMenuBar", "true");
+            try {
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+            } catch (Exception e) {
+                throw new Error(e);
+            }
         }
 
         File configurationDirectory = new File(System.getProperty("user.home"));
@@ -210,6 +256,11 @@ public class Main {
         final Configuration configuration = Configuration.get();
         Locale.setDefault(Configuration.get().getLocale());
 
+        if (headless) {
+            startHeadless(configuration);
+            return;
+        }
+
         ThemeInfo theme = configuration.getThemeInfo();
         new ThemeSettingsPanel().setTheme(theme, configuration.getFontSize(), configuration.isAlternateRows());
         ThemeDialog.getInstance().setOldTheme(theme);
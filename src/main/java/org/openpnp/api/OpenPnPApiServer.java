@@ -10,8 +10,10 @@ import org.openpnp.api.controllers.JobController;
 import org.openpnp.api.controllers.DiagnosticsController;
 import org.openpnp.api.controllers.WebSocketController;
 import org.openpnp.api.controllers.CameraStreamController;
+import org.openpnp.api.listeners.JobEventWebSocketListener;
 import org.openpnp.api.services.WebSocketService;
 import org.openpnp.api.services.CameraStreamService;
+import org.openpnp.model.Configuration;
 import org.pmw.tinylog.Logger;
 
 import static io.javalin.apibuilder.ApiBuilder.*;
@@ -26,6 +28,7 @@ import java.util.concurrent.TimeUnit;
 public class OpenPnPApiServer {
 
     private Javalin app;
+    private final JobEventWebSocketListener jobEventListener = new JobEventWebSocketListener();
 
     public void start(int port) {
         try {
@@ -74,6 +77,8 @@ public class OpenPnPApiServer {
                             post("/load", JobController::loadJob);
                             post("/start", JobController::startJob);
                             post("/pause", JobController::pauseJob);
+                            post("/resume", JobController::resumeJob);
+                            post("/step", JobController::stepJob);
                             post("/stop", JobController::stopJob);
                         });
 
@@ -134,6 +139,11 @@ public class OpenPnPApiServer {
             // Запускаем периодическую очистку неактивных сессий камеры
             startCameraSessionCleanup();
 
+            // Рассылаем события задания клиентам WebSocket
+            if (Configuration.isInstanceInitialized()) {
+                jobEventListener.initialize();
+            }
+
         } catch (Exception e) {
             Logger.error("Ошибка запуска API сервера", e);
             throw new RuntimeException("Не удалось запустить API сервер", e);
@@ -159,6 +169,7 @@ public class OpenPnPApiServer {
     public void stop() {
         if (app != null) {
             // Останавливаем WebSocket сервисы
+            jobEventListener.cleanup();
             WebSocketService.cleanup();
             CameraStreamService.cleanup();
 
@@ -132,6 +132,30 @@ public class CameraStreamController {
                 request.quality = "medium"; // Качество по умолчанию
             }
 
+            if (jsonNode.has("transport")) {
+                request.transport = jsonNode.get("transport").asText();
+            } else {
+                request.transport = CameraStreamService.TRANSPORT_JSON; // JSON + Base64 по умолчанию
+            }
+
+            if (jsonNode.has("adaptive")) {
+                request.adaptive = jsonNode.get("adaptive").asBoolean(true);
+            }
+
+            if (jsonNode.hasNonNull("roi")) {
+                var roiNode = jsonNode.get("roi");
+                CameraStreamService.Roi roi = new CameraStreamService.Roi();
+                roi.x = roiNode.path("x").asInt();
+                roi.y = roiNode.path("y").asInt();
+                roi.width = roiNode.path("width").asInt();
+                roi.height = roiNode.path("height").asInt();
+                request.roi = roi;
+            }
+
+            if (jsonNode.has("targetWidth")) {
+                request.targetWidth = jsonNode.get("targetWidth").asInt();
+            }
+
             // Запускаем стрим
             CameraStreamService.startCameraStream(ctx, request);
 
@@ -234,6 +258,7 @@ public class CameraStreamController {
             response.put("timestamp", System.currentTimeMillis());
             response.put("active_streams", CameraStreamService.getActiveStreamCount());
             response.set("streams", objectMapper.valueToTree(CameraStreamService.getActiveStreams()));
+            response.set("sessions", objectMapper.valueToTree(CameraStreamService.getStreamSessionInfo()));
 
             ctx.send(objectMapper.writeValueAsString(response));
 
@@ -5,6 +5,7 @@ import io.javalin.openapi.HttpMethod;
 import io.javalin.openapi.OpenApi;
 import io.javalin.openapi.OpenApiContent;
 import io.javalin.openapi.OpenApiResponse;
+import org.openpnp.api.exceptions.JobModifiedException;
 import org.openpnp.api.exceptions.JobNotLoadedException;
 import org.openpnp.api.exceptions.MachineNotEnabledException;
 import org.openpnp.api.models.ApiResponse;
@@ -62,6 +63,7 @@ public class JobController {
             "Job" }, responses = {
                     @OpenApiResponse(status = "200", content = @OpenApiContent(from = ApiResponse.class)),
                     @OpenApiResponse(status = "400", content = @OpenApiContent(from = ApiResponse.class)),
+                    @OpenApiResponse(status = "409", content = @OpenApiContent(from = ApiResponse.class)),
                     @OpenApiResponse(status = "500", content = @OpenApiContent(from = ApiResponse.class))
             })
     public static void loadJob(Context ctx) {
@@ -76,6 +78,9 @@ public class JobController {
             jobService.loadJob(filePath);
             ApiResponse<Void> response = ApiResponse.success("Задание успешно загружено");
             ctx.json(response);
+        } catch (JobModifiedException e) {
+            ApiResponse<Void> response = ApiResponse.error(e.getMessage());
+            ctx.json(response).status(e.getStatusCode());
         } catch (Exception e) {
             ApiResponse<Void> response = ApiResponse.error("Ошибка при загрузке задания: " + e.getMessage());
             ctx.json(response).status(500);
@@ -122,6 +127,46 @@ public class JobController {
         }
     }
 
+    @OpenApi(path = "/api/job/resume", methods = HttpMethod.POST, summary = "Продолжить задание", description = "Продолжает выполнение приостановленного задания", tags = {
+            "Job" }, responses = {
+                    @OpenApiResponse(status = "200", content = @OpenApiContent(from = ApiResponse.class)),
+                    @OpenApiResponse(status = "400", content = @OpenApiContent(from = ApiResponse.class)),
+                    @OpenApiResponse(status = "500", content = @OpenApiContent(from = ApiResponse.class))
+            })
+    public static void resumeJob(Context ctx) {
+        try {
+            jobService.resumeJob();
+            ApiResponse<Void> response = ApiResponse.success("Задание продолжено");
+            ctx.json(response);
+        } catch (JobNotLoadedException e) {
+            ApiResponse<Void> response = ApiResponse.error(e.getMessage());
+            ctx.json(response).status(e.getStatusCode());
+        } catch (Exception e) {
+            ApiResponse<Void> response = ApiResponse.error("Ошибка при продолжении задания: " + e.getMessage());
+            ctx.json(response).status(500);
+        }
+    }
+
+    @OpenApi(path = "/api/job/step", methods = HttpMethod.POST, summary = "Шаг задания", description = "Выполняет один шаг задания и приостанавливает его", tags = {
+            "Job" }, responses = {
+                    @OpenApiResponse(status = "200", content = @OpenApiContent(from = ApiResponse.class)),
+                    @OpenApiResponse(status = "400", content = @OpenApiContent(from = ApiResponse.class)),
+                    @OpenApiResponse(status = "500", content = @OpenApiContent(from = ApiResponse.class))
+            })
+    public static void stepJob(Context ctx) {
+        try {
+            jobService.stepJob();
+            ApiResponse<Void> response = ApiResponse.success("Шаг задания запущен");
+            ctx.json(response);
+        } catch (JobNotLoadedException | MachineNotEnabledException e) {
+            ApiResponse<Void> response = ApiResponse.error(e.getMessage());
+            ctx.json(response).status(e.getStatusCode());
+        } catch (Exception e) {
+            ApiResponse<Void> response = ApiResponse.error("Ошибка при выполнении шага задания: " + e.getMessage());
+            ctx.json(response).status(500);
+        }
+    }
+
     @OpenApi(path = "/api/job/stop", methods = HttpMethod.POST, summary = "Остановить задание", description = "Останавливает выполнение задания", tags = {
             "Job" }, responses = {
                     @OpenApiResponse(status = "200", content = @OpenApiContent(from = ApiResponse.class)),
@@ -3,7 +3,9 @@ package org.openpnp.api.controllers;
 import io.javalin.websocket.WsContext;
 import io.javalin.websocket.WsMessageContext;
 import io.javalin.http.Context;
+import org.openpnp.api.services.MotionCommandService;
 import org.openpnp.api.services.WebSocketService;
+import org.openpnp.api.services.WsOutboundQueue;
 import org.openpnp.api.services.MachineService;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Location;
@@ -17,6 +19,7 @@ import org.openpnp.spi.Nozzle;
 import org.openpnp.spi.MotionPlanner;
 import org.pmw.tinylog.Logger;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 
 /**
@@ -27,16 +30,20 @@ public class WebSocketController {
     private static final MachineService machineService = new MachineService();
 
     /**
-     * Обработчик подключения WebSocket
+     * Обработчик подключения WebSocket. Режим статуса выбирается параметром запроса
+     * ?status=delta (снимок + дельты), по умолчанию полный статус в каждом обновлении.
      */
     public static void onConnect(WsContext ctx) {
-        WebSocketService.addConnection(ctx);
+        String statusMode = ctx.queryParam("status");
+        WebSocketService.addConnection(ctx,
+                statusMode != null ? statusMode : WebSocketService.STATUS_MODE_FULL);
     }
 
     /**
      * Обработчик отключения WebSocket
      */
     public static void onClose(WsContext ctx) {
+        MotionCommandService.removeConnection(ctx);
         WebSocketService.removeConnection(ctx);
     }
 
@@ -49,11 +56,17 @@ public class WebSocketController {
             Logger.debug("Получено WebSocket сообщение: " + message);
 
             // Обрабатываем команды от клиента
-            if ("ping".equals(message)) {
+            if (MotionCommandService.isCommand(message)) {
+                // JSON команда с идентификатором запроса
+                MotionCommandService.handleCommand(ctx, message);
+            } else if ("ping".equals(message)) {
                 ctx.send("pong");
             } else if ("getStatus".equals(message)) {
                 // Отправляем текущий статус по запросу
-                WebSocketService.broadcastStatusUpdate();
+                WebSocketService.requestStatus(ctx);
+            } else if ("resync".equals(message)) {
+                // Клиент в режиме дельт обнаружил пропуск версии и запрашивает новый снимок
+                WebSocketService.sendStatusSnapshot(ctx);
             } else if ("getHeadMountables".equals(message)) {
                 // Получаем список доступных HeadMountable компонентов
                 handleGetHeadMountables(ctx);
@@ -492,21 +505,7 @@ public class WebSocketController {
      * Поиск HeadMountable по ID или имени
      */
     private static HeadMountable findHeadMountable(Machine machine, String identifier) {
-        for (Head head : machine.getHeads()) {
-            // Ищем среди камер
-            for (Camera camera : head.getCameras()) {
-                if (camera.getId().equals(identifier) || camera.getName().equals(identifier)) {
-                    return camera;
-                }
-            }
-            // Ищем среди сопел
-            for (Nozzle nozzle : head.getNozzles()) {
-                if (nozzle.getId().equals(identifier) || nozzle.getName().equals(identifier)) {
-                    return nozzle;
-                }
-            }
-        }
-        return null;
+        return MotionCommandService.findHeadMountable(machine, identifier);
     }
 
     /**
@@ -524,7 +523,11 @@ public class WebSocketController {
      */
     public static void getWebSocketInfo(Context ctx) {
         try {
-            ctx.json(new WebSocketInfo(WebSocketService.getConnectionCount()));
+            ctx.json(new WebSocketInfo(WebSocketService.getConnectionCount(),
+                    WebSocketService.getDeltaConnectionCount(), WebSocketService.getStatusSequence(),
+                    WebSocketService.getMaxStatusRateHz(), WebSocketService.getStatusUpdatesEmitted(),
+                    WebSocketService.getStatusUpdatesSuppressed(), WebSocketService.getOutboundQueueStats(),
+                    WsOutboundQueue.getTotalDropped(), WsOutboundQueue.getSlowConsumerDisconnects()));
         } catch (Exception e) {
             Logger.error("Ошибка получения информации о WebSocket: " + e.getMessage());
             ctx.status(500).json(new ErrorResponse("Ошибка получения информации о WebSocket"));
@@ -536,9 +539,27 @@ public class WebSocketController {
      */
     private static class WebSocketInfo {
         public final int connectionCount;
-
-        public WebSocketInfo(int connectionCount) {
+        public final int deltaConnectionCount;
+        public final long statusSequence;
+        public final double maxStatusRateHz;
+        public final long statusUpdatesEmitted;
+        public final long statusUpdatesSuppressed;
+        public final List<WsOutboundQueue.Stats> outboundQueues;
+        public final long outboundDropped;
+        public final long slowConsumerDisconnects;
+
+        public WebSocketInfo(int connectionCount, int deltaConnectionCount, long statusSequence,
+                double maxStatusRateHz, long statusUpdatesEmitted, long statusUpdatesSuppressed,
+                List<WsOutboundQueue.Stats> outboundQueues, long outboundDropped, long slowConsumerDisconnects) {
             this.connectionCount = connectionCount;
+            this.deltaConnectionCount = deltaConnectionCount;
+            this.statusSequence = statusSequence;
+            this.maxStatusRateHz = maxStatusRateHz;
+            this.statusUpdatesEmitted = statusUpdatesEmitted;
+            this.statusUpdatesSuppressed = statusUpdatesSuppressed;
+            this.outboundQueues = outboundQueues;
+            this.outboundDropped = outboundDropped;
+            this.slowConsumerDisconnects = slowConsumerDisconnects;
         }
     }
 
@@ -0,0 +1,11 @@
+package org.openpnp.api.exceptions;
+
+/**
+ * Исключение выбрасывается при попытке заменить задание, содержащее несохраненные изменения
+ */
+public class JobModifiedException extends ApiException {
+    public JobModifiedException() {
+        super(409, "JOB_MODIFIED",
+                "Текущее задание содержит несохраненные изменения. Сохраните его перед загрузкой другого задания.");
+    }
+}
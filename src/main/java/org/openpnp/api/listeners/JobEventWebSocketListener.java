@@ -0,0 +1,75 @@
+package org.openpnp.api.listeners;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.eventbus.Subscribe;
+import org.openpnp.api.services.JobService;
+import org.openpnp.api.services.WebSocketService;
+import org.openpnp.events.JobLoadedEvent;
+import org.openpnp.events.JobStateChangedEvent;
+import org.openpnp.model.Configuration;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Слушатель событий {@link org.openpnp.model.JobRunner} на шине конфигурации. Каждое изменение
+ * состояния задания и загрузка задания рассылаются клиентам /ws/machine-status, независимо от
+ * того, кто их вызвал: API или GUI.
+ */
+public class JobEventWebSocketListener {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private boolean registered = false;
+
+    /**
+     * Подписаться на шину событий конфигурации
+     */
+    public void initialize() {
+        if (!registered) {
+            Configuration.get().getBus().register(this);
+            registered = true;
+            Logger.info("JobEventWebSocketListener инициализирован");
+        }
+    }
+
+    /**
+     * Отписаться от шины событий
+     */
+    public void cleanup() {
+        if (registered) {
+            Configuration.get().getBus().unregister(this);
+            registered = false;
+        }
+    }
+
+    @Subscribe
+    public void jobStateChanged(JobStateChangedEvent event) {
+        try {
+            ObjectNode message = objectMapper.createObjectNode();
+            message.put("type", "job_state");
+            message.put("state", JobService.toApiState(event.state).name());
+            message.put("previousState", JobService.toApiState(event.oldState).name());
+            if (event.error != null) {
+                message.put("error", event.error.getMessage());
+            }
+            message.put("timestamp", System.currentTimeMillis());
+            WebSocketService.broadcastMessage(objectMapper.writeValueAsString(message));
+        } catch (Exception e) {
+            Logger.error("Ошибка рассылки состояния задания: " + e.getMessage());
+        }
+    }
+
+    @Subscribe
+    public void jobLoaded(JobLoadedEvent event) {
+        try {
+            ObjectNode message = objectMapper.createObjectNode();
+            message.put("type", "job_loaded");
+            if (event.job != null && event.job.getFile() != null) {
+                message.put("file", event.job.getFile().getAbsolutePath());
+            }
+            message.put("timestamp", System.currentTimeMillis());
+            WebSocketService.broadcastMessage(objectMapper.writeValueAsString(message));
+        } catch (Exception e) {
+            Logger.error("Ошибка рассылки загрузки задания: " + e.getMessage());
+        }
+    }
+}
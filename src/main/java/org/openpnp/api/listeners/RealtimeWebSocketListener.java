@@ -3,9 +3,6 @@ package org.openpnp.api.listeners;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import org.openpnp.api.services.WebSocketService;
 import org.openpnp.model.AbstractModelObject;
@@ -20,12 +17,13 @@ import org.pmw.tinylog.Logger;
 /**
  * Слушатель для реалтаймовых WebSocket обновлений
  * Отслеживает изменения координат осей и других свойств машины
+ *
+ * Каждое изменение только отмечает статус как измененный; сама рассылка объединяется и
+ * ограничивается по частоте в {@link WebSocketService#requestStatusUpdate()}.
  */
 public class RealtimeWebSocketListener implements MachineListener, PropertyChangeListener {
 
     private final ConcurrentHashMap<String, Object> lastValues = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService debounceExecutor = Executors.newSingleThreadScheduledExecutor();
-    private final ConcurrentHashMap<String, Runnable> pendingUpdates = new ConcurrentHashMap<>();
 
     private Machine machine;
     private boolean isInitialized = false;
@@ -105,30 +103,12 @@ public class RealtimeWebSocketListener implements MachineListener, PropertyChang
     }
 
     /**
-     * Запланировать обновление с дебаунсингом
+     * Запланировать обновление. Причина используется только для отладки, все изменения
+     * объединяются в одну рассылку.
      */
-    private void scheduleUpdate(String updateKey) {
-        // Отменяем предыдущее обновление для этого ключа
-        Runnable existingUpdate = pendingUpdates.remove(updateKey);
-        if (existingUpdate != null) {
-            // К сожалению, ScheduledExecutorService не позволяет отменить конкретную задачу
-            // Поэтому мы просто игнорируем предыдущие обновления
-        }
-
-        // Создаем новое обновление
-        Runnable update = () -> {
-            try {
-                WebSocketService.broadcastStatusUpdate();
-                pendingUpdates.remove(updateKey);
-            } catch (Exception e) {
-                Logger.error("Ошибка отправки реалтаймового обновления: " + e.getMessage());
-            }
-        };
-
-        pendingUpdates.put(updateKey, update);
-
-        // Запускаем обновление с небольшой задержкой для дебаунсинга
-        debounceExecutor.schedule(update, 50, TimeUnit.MILLISECONDS);
+    private void scheduleUpdate(String reason) {
+        Logger.trace("Изменение статуса машины: {}", reason);
+        WebSocketService.requestStatusUpdate();
     }
 
     /**
@@ -152,17 +132,6 @@ public class RealtimeWebSocketListener implements MachineListener, PropertyChang
         }
 
         lastValues.clear();
-        pendingUpdates.clear();
-        debounceExecutor.shutdown();
-
-        try {
-            if (!debounceExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
-                debounceExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            debounceExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
 
         isInitialized = false;
         Logger.info("RealtimeWebSocketListener очищен");
@@ -2,26 +2,67 @@ package org.openpnp.api.services;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.websocket.WsContext;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.CameraListener;
 import org.openpnp.model.Configuration;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Machine;
+import org.openpnp.util.OpenCvUtils;
 import org.pmw.tinylog.Logger;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Сервис для управления WebSocket стримами камер
+ *
+ * Кадры не захватываются сервисом самостоятельно: общий кодировщик камеры (см.
+ * {@link CameraFrameBroadcaster}) подписывается на камеру как {@link CameraListener} и получает
+ * уже трансформированные кадры из потока трансляции камеры. Каждый кадр кодируется один раз,
+ * после чего одни и те же байты рассылаются всем подписанным сессиям.
  */
 public class CameraStreamService {
 
+    /**
+     * Транспорт JSON: кадр передается как Base64 строка внутри JSON сообщения
+     */
+    public static final String TRANSPORT_JSON = "json";
+
+    /**
+     * Транспорт binary: кадр передается бинарным WebSocket сообщением с заголовком и JPEG данными
+     */
+    public static final String TRANSPORT_BINARY = "binary";
+
+    /**
+     * Версия формата заголовка бинарного кадра
+     */
+    public static final int BINARY_FRAME_VERSION = 1;
+
     private static final ConcurrentHashMap<String, CameraStreamSession> sessions = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, CameraFrameBroadcaster> broadcasters = new ConcurrentHashMap<>();
     private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    // Пул кодирования кадров; отправка кадров выполняется в очередях сессий (WsOutboundQueue)
+    private static final ExecutorService frameExecutor = Executors.newFixedThreadPool(4);
     private static final Object sessionsLock = new Object(); // Объект для синхронизации
 
     /**
@@ -31,10 +72,89 @@ public class CameraStreamService {
         public String cameraId;
         public int fps;
         public String quality; // "low", "medium", "high"
+        public String transport; // "json" (по умолчанию) или "binary"
+        public boolean adaptive = true; // Адаптивное качество/разрешение/FPS по состоянию канала
+        public Roi roi; // Область интереса в пикселях кадра камеры (опционально)
+        public int targetWidth; // Ширина кадра в стриме, 0 - без уменьшения
     }
 
     /**
-     * Сессия стрима камеры
+     * Область интереса кадра в пикселях уже трансформированного изображения камеры
+     */
+    public static class Roi {
+        public int x;
+        public int y;
+        public int width;
+        public int height;
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Roi)) {
+                return false;
+            }
+            Roi other = (Roi) obj;
+            return x == other.x && y == other.y && width == other.width && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(x, y, width, height);
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "+" + x + "+" + y;
+        }
+    }
+
+    /**
+     * Геометрия кадра сессии для конкретного изображения: прямоугольник вырезки (ROI, уже
+     * ограниченный размерами изображения) и итоговый размер после уменьшения
+     */
+    private static class ViewGeometry {
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final int outputWidth;
+        private final int outputHeight;
+
+        /**
+         * @param roi Запрошенная область интереса или null для всего кадра
+         * @param targetWidth Запрошенная ширина или 0
+         * @param rungScale Дополнительный масштаб ступени контроллера перегрузки
+         */
+        ViewGeometry(int imageWidth, int imageHeight, Roi roi, int targetWidth, double rungScale) {
+            if (roi != null) {
+                x = Math.max(0, Math.min(roi.x, imageWidth - 1));
+                y = Math.max(0, Math.min(roi.y, imageHeight - 1));
+                width = Math.max(1, Math.min(roi.width, imageWidth - x));
+                height = Math.max(1, Math.min(roi.height, imageHeight - y));
+            } else {
+                x = 0;
+                y = 0;
+                width = imageWidth;
+                height = imageHeight;
+            }
+            // Только уменьшаем, увеличение не дает информации и лишь раздувает трафик
+            double scale = targetWidth > 0 ? Math.min(1.0, (double) targetWidth / width) : 1.0;
+            scale *= rungScale;
+            outputWidth = Math.max(1, (int) Math.round(width * scale));
+            outputHeight = Math.max(1, (int) Math.round(height * scale));
+        }
+
+        boolean isFullFrame(int imageWidth, int imageHeight) {
+            return x == 0 && y == 0 && width == imageWidth && height == imageHeight
+                    && outputWidth == width && outputHeight == height;
+        }
+
+        String getKey() {
+            return x + "," + y + "," + width + "x" + height + "->" + outputWidth + "x" + outputHeight;
+        }
+    }
+
+    /**
+     * Сессия стрима камеры (подписчик на кадры общего кодировщика камеры)
      */
     private static class CameraStreamSession {
         private final String sessionId;
@@ -42,384 +162,573 @@ public class CameraStreamService {
         private final WsContext wsContext;
         private final int fps;
         private final String quality;
-        private final ScheduledFuture<?> streamTask;
+        private final String transport;
+        private final Roi roi;
+        private final int targetWidth;
+        private final StreamCongestionController congestionController;
         private final AtomicBoolean isActive;
+        private final AtomicLong framesSent = new AtomicLong();
+        private final AtomicLong framesDropped = new AtomicLong();
+        private final WsOutboundQueue outbound;
+        private long lastFrameTime = 0;
         private long lastErrorTime = 0;
         private static final long ERROR_THROTTLE_MS = 5000; // 5 секунд между ошибками
 
-        public CameraStreamSession(String sessionId, String cameraId, WsContext wsContext, int fps, String quality) {
+        public CameraStreamSession(String sessionId, String cameraId, WsContext wsContext, int fps, String quality,
+                String transport, boolean adaptive, Roi roi, int targetWidth) {
             this.sessionId = sessionId;
             this.cameraId = cameraId;
             this.wsContext = wsContext;
             this.fps = fps;
             this.quality = quality;
+            this.transport = transport;
+            this.roi = roi;
+            this.targetWidth = targetWidth;
+            this.congestionController = new StreamCongestionController(getCompressionQuality(quality), fps,
+                    adaptive);
             this.isActive = new AtomicBoolean(true);
+            // В очереди хранится только последний кадр: если клиент не успевает забрать
+            // предыдущий, тот отбрасывается
+            this.outbound = new WsOutboundQueue(wsContext, "camera:" + sessionId, 1,
+                    WsOutboundQueue.OverflowPolicy.LATEST_WINS, WsOutboundQueue.DEFAULT_MAX_LAG_MS,
+                    () -> stopCameraStream(sessionId));
+
+            Logger.info("Создана сессия стрима камеры: {} для камеры: {} с FPS: {}, транспорт: {}, адаптивный: {}, "
+                    + "ROI: {}, ширина: {}", sessionId, cameraId, fps, transport, adaptive, roi, targetWidth);
+        }
 
-            // Запускаем поток стрима
-            this.streamTask = scheduler.scheduleAtFixedRate(
-                    this::streamFrame,
-                    0,
-                    1000 / fps,
-                    TimeUnit.MILLISECONDS);
-
-            Logger.info("Создана сессия стрима камеры: {} для камеры: {} с FPS: {}", sessionId, cameraId, fps);
+        /**
+         * Совпадают ли параметры кадра сессии с запросом (тогда перезапуск стрима не нужен)
+         */
+        private boolean matches(StreamRequest request) {
+            return cameraId.equals(request.cameraId)
+                    && transport.equals(request.transport)
+                    && Objects.equals(roi, request.roi)
+                    && targetWidth == request.targetWidth;
         }
 
-        private void streamFrame() {
-            // Проверяем активность сессии в самом начале
-            if (!isActive.get()) {
-                Logger.debug("Сессия {} неактивна, пропускаем отправку кадра", sessionId);
-                return;
-            }
+        /**
+         * Текущая ступень параметров кодирования, выбранная контроллером перегрузки
+         */
+        private StreamCongestionController.Rung getRung() {
+            return congestionController.getCurrentRung();
+        }
 
-            try {
-                // Дополнительная проверка состояния WebSocket соединения
-                if (wsContext == null || !wsContext.session.isOpen()) {
-                    Logger.warn("WebSocket соединение закрыто для сессии {}, останавливаем стрим", sessionId);
-                    stop();
-                    return;
-                }
+        /**
+         * Проверить, пора ли отправлять очередной кадр с учетом FPS текущей ступени. Допускается
+         * опережение на четверть периода, чтобы не терять кадры из-за дрожания потока камеры.
+         */
+        private boolean isFrameDue(long now) {
+            long framePeriodMs = 1000 / getRung().fps;
+            return now - lastFrameTime >= framePeriodMs - framePeriodMs / 4;
+        }
 
-                // Еще раз проверяем активность после проверки соединения
-                if (!isActive.get()) {
-                    Logger.debug("Сессия {} стала неактивной после проверки соединения", sessionId);
-                    return;
-                }
+        /**
+         * Поставить кадр в очередь на отправку. Отправка выполняется в потоке очереди сессии,
+         * поэтому медленный клиент не задерживает камеру и других подписчиков.
+         */
+        private void offerFrame(EncodedFrame frame) {
+            lastFrameTime = frame.timestamp;
+            congestionController.onFrameQueued(frame.size());
+            outbound.offer(new FrameMessage(frame));
+        }
 
-                Machine machine = Configuration.get().getMachine();
-                Camera camera = machine.getCamera(cameraId);
+        /**
+         * Кадр в очереди сессии
+         */
+        private class FrameMessage extends WsOutboundQueue.Message {
+            private final EncodedFrame frame;
 
-                if (camera == null) {
-                    // Проверяем камеры в головках
-                    for (var head : machine.getHeads()) {
-                        camera = head.getCamera(cameraId);
-                        if (camera != null) {
-                            break;
-                        }
-                    }
-                }
+            FrameMessage(EncodedFrame frame) {
+                super(true);
+                this.frame = frame;
+            }
 
-                if (camera == null) {
-                    Logger.warn("Камера с ID '{}' не найдена для сессии {}", cameraId, sessionId);
-                    sendError("Камера с ID '" + cameraId + "' не найдена");
-                    return;
-                }
+            @Override
+            protected void send(WsContext ctx) throws Exception {
+                sendFrame(frame);
+            }
 
-                // Захватываем изображение
-                BufferedImage image = camera.capture();
-                if (image == null) {
-                    Logger.warn("Не удалось захватить изображение с камеры {} для сессии {}", cameraId, sessionId);
-                    sendError("Не удалось захватить изображение с камеры");
-                    return;
-                }
+            @Override
+            protected void onDropped() {
+                framesDropped.incrementAndGet();
+                congestionController.onFrameDropped(frame.size());
+            }
+        }
 
-                // Проверяем валидность изображения
-                if (image.getWidth() <= 0 || image.getHeight() <= 0) {
-                    Logger.warn("Получено изображение с некорректными размерами: {}x{} для камеры {} сессии {}",
-                            image.getWidth(), image.getHeight(), cameraId, sessionId);
-                    sendError("Получено изображение с некорректными размерами: " + image.getWidth() + "x"
-                            + image.getHeight());
-                    return;
-                }
+        private boolean isBinary() {
+            return TRANSPORT_BINARY.equals(transport);
+        }
 
-                // Финальная проверка активности перед отправкой
-                if (!isActive.get()) {
-                    Logger.debug("Сессия {} стала неактивной перед отправкой кадра", sessionId);
-                    return;
-                }
+        private boolean isConnected() {
+            return isActive.get() && wsContext != null && wsContext.session.isOpen();
+        }
 
-                // Конвертируем изображение в Base64
-                String base64Image = convertToBase64(image, quality);
+        /**
+         * Отправить закодированный кадр в выбранном сессией транспорте. Вызывается в потоке
+         * очереди сессии; ошибка отправки закрывает очередь и останавливает стрим.
+         */
+        private void sendFrame(EncodedFrame frame) throws Exception {
+            if (!isConnected()) {
+                Logger.debug("Сессия {} неактивна или соединение закрыто перед отправкой", sessionId);
+                congestionController.onFrameDropped(frame.size());
+                return;
+            }
 
-                // Создаем данные кадра
+            if (isBinary()) {
+                wsContext.send(frame.toBinaryMessage());
+            } else {
                 CameraFrameData frameData = new CameraFrameData();
                 frameData.type = "frame";
                 frameData.cameraId = cameraId;
-                frameData.timestamp = System.currentTimeMillis();
-                frameData.image = base64Image;
-                frameData.width = image.getWidth();
-                frameData.height = image.getHeight();
+                frameData.timestamp = frame.timestamp;
+                frameData.image = frame.toBase64();
+                frameData.width = frame.width;
+                frameData.height = frame.height;
                 frameData.fps = fps;
 
-                // Отправляем кадр с дополнительной проверкой
+                wsContext.send(objectMapper.writeValueAsString(frameData));
+            }
+            congestionController.onFrameSent(frame.size(), System.currentTimeMillis() - frame.timestamp);
+
+            // Логируем успешную отправку кадра (только каждые 100 кадров для
+            // производительности)
+            if (framesSent.incrementAndGet() % 100 == 0) {
+                Logger.debug("Отправлен кадр камеры {} для сессии {}: {}x{}",
+                        cameraId, sessionId, frame.width, frame.height);
+            }
+        }
+
+        private void sendError(String error) {
+            long currentTime = System.currentTimeMillis();
+            if (currentTime - lastErrorTime > ERROR_THROTTLE_MS) {
                 try {
-                    // Последняя проверка активности и соединения
-                    if (!isActive.get() || wsContext == null || !wsContext.session.isOpen()) {
-                        Logger.debug("Сессия {} неактивна или соединение закрыто перед отправкой", sessionId);
+                    // Проверяем состояние соединения перед отправкой
+                    if (wsContext == null || !wsContext.session.isOpen()) {
+                        Logger.debug("WebSocket соединение закрыто, пропускаем отправку ошибки для сессии {}",
+                                sessionId);
                         return;
                     }
 
-                    String json = objectMapper.writeValueAsString(frameData);
-                    wsContext.send(json);
+                    CameraFrameData errorData = new CameraFrameData();
+                    errorData.type = "error";
+                    errorData.cameraId = cameraId;
+                    errorData.timestamp = currentTime;
+                    errorData.error = error;
 
-                    // Логируем успешную отправку кадра (только каждые 100 кадров для
-                    // производительности)
-                    if (System.currentTimeMillis() % 100 == 0) {
-                        Logger.debug("Отправлен кадр камеры {} для сессии {}: {}x{}",
-                                cameraId, sessionId, image.getWidth(), image.getHeight());
-                    }
-                } catch (Exception sendError) {
-                    Logger.error("Ошибка отправки данных WebSocket для сессии {}: {}", sessionId,
-                            sendError.getMessage());
-                    // Если не можем отправить, останавливаем стрим
-                    stop();
-                    return;
+                    String json = objectMapper.writeValueAsString(errorData);
+                    outbound.offer(WsOutboundQueue.text(json, false));
+                    lastErrorTime = currentTime;
+                } catch (Exception e) {
+                    Logger.error("Ошибка отправки сообщения об ошибке для сессии {}: {}", sessionId, e.getMessage());
                 }
-
-            } catch (Exception e) {
-                Logger.error("Ошибка обработки кадра камеры {} для сессии {}: {}", cameraId, sessionId, e.getMessage(),
-                        e);
-                sendError("Ошибка обработки кадра: " + e.getMessage());
             }
         }
 
-        private String convertToBase64(BufferedImage image, String quality) throws Exception {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        public void stop() {
+            Logger.info("Начало остановки сессии стрима камеры: {} для камеры: {}", sessionId, cameraId);
 
-            // Настройки качества
-            float compressionQuality = 0.8f; // по умолчанию
-            switch (quality) {
-                case "low":
-                    compressionQuality = 0.5f;
-                    break;
-                case "medium":
-                    compressionQuality = 0.8f;
-                    break;
-                case "high":
-                    compressionQuality = 0.95f;
-                    break;
+            // Сначала помечаем как неактивную
+            isActive.set(false);
+            outbound.close();
+
+            // Отписываемся от общего кодировщика камеры
+            CameraFrameBroadcaster broadcaster = broadcasters.get(cameraId);
+            if (broadcaster != null) {
+                broadcaster.unsubscribe(this);
+                if (broadcaster.isIdle()) {
+                    broadcasters.remove(cameraId, broadcaster);
+                    broadcaster.stop();
+                }
             }
 
-            // Принудительно конвертируем изображение в стандартный формат
-            BufferedImage standardImage = forceConvertToStandard(image);
+            Logger.info("Остановлена сессия стрима камеры: {} для камеры: {}", sessionId, cameraId);
+        }
 
-            // Конвертируем изображение в RGB формат если необходимо
-            BufferedImage rgbImage = convertToRGB(standardImage);
+        public String getSessionId() {
+            return sessionId;
+        }
 
-            try {
-                // Конвертируем в JPEG с настраиваемым качеством
-                javax.imageio.ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
-                javax.imageio.ImageWriteParam param = writer.getDefaultWriteParam();
-                param.setCompressionMode(javax.imageio.ImageWriteParam.MODE_EXPLICIT);
-                param.setCompressionQuality(compressionQuality);
+        public String getCameraId() {
+            return cameraId;
+        }
 
-                javax.imageio.stream.ImageOutputStream ios = ImageIO.createImageOutputStream(baos);
-                writer.setOutput(ios);
-                writer.write(null, new javax.imageio.IIOImage(rgbImage, null, null), param);
-                writer.dispose();
-                ios.close();
+        public WsContext getWsContext() {
+            return wsContext;
+        }
+    }
 
-                return Base64.getEncoder().encodeToString(baos.toByteArray());
-            } catch (Exception e) {
-                Logger.warn("Ошибка при конвертации в JPEG, пробуем альтернативный метод: {}", e.getMessage());
+    /**
+     * Закодированный кадр, общий для всех подписчиков с одинаковыми параметрами кодирования.
+     * Base64 представление и бинарное сообщение строятся лениво и только один раз.
+     */
+    private static class EncodedFrame {
+        private final String cameraId;
+        private final long timestamp;
+        private final int width;
+        private final int height;
+        private final byte[] data;
+        private volatile String base64;
+        private volatile byte[] binaryMessage;
+
+        EncodedFrame(String cameraId, long timestamp, int width, int height, byte[] data) {
+            this.cameraId = cameraId;
+            this.timestamp = timestamp;
+            this.width = width;
+            this.height = height;
+            this.data = data;
+        }
 
-                // Альтернативный метод - используем стандартный ImageIO.write
-                baos.reset();
-                if (ImageIO.write(rgbImage, "jpeg", baos)) {
-                    return Base64.getEncoder().encodeToString(baos.toByteArray());
-                } else {
-                    // Если JPEG не работает, пробуем PNG
-                    Logger.warn("JPEG не работает, пробуем PNG формат");
-                    baos.reset();
-                    if (ImageIO.write(rgbImage, "png", baos)) {
-                        return Base64.getEncoder().encodeToString(baos.toByteArray());
-                    } else {
-                        throw new Exception("Не удалось конвертировать изображение ни в JPEG, ни в PNG");
-                    }
-                }
+        int size() {
+            return data.length;
+        }
+
+        String toBase64() {
+            if (base64 == null) {
+                base64 = Base64.getEncoder().encodeToString(data);
             }
+            return base64;
         }
 
         /**
-         * Конвертирует изображение в RGB формат для совместимости с JPEG
+         * Бинарное сообщение кадра (big-endian):
+         * <pre>
+         * uint16  длина заголовка в байтах (включая это поле)
+         * uint8   версия формата ({@link #BINARY_FRAME_VERSION})
+         * uint8   длина ID камеры в байтах
+         * byte[]  ID камеры (UTF-8)
+         * int64   timestamp, мс
+         * int32   ширина
+         * int32   высота
+         * byte[]  JPEG данные до конца сообщения
+         * </pre>
+         * Каждый вызов возвращает новый ByteBuffer поверх общего массива, т.к. отправка
+         * сдвигает позицию буфера.
          */
-        private BufferedImage convertToRGB(BufferedImage image) {
-            // Всегда конвертируем для надежности
-            Logger.debug("Конвертируем изображение из типа {} в RGB", image.getType());
-
-            try {
-                // Создаем новое RGB изображение
-                BufferedImage rgbImage = new BufferedImage(
-                        image.getWidth(),
-                        image.getHeight(),
-                        BufferedImage.TYPE_INT_RGB);
-
-                // Копируем пиксели через Graphics2D
-                java.awt.Graphics2D g2d = rgbImage.createGraphics();
-                g2d.drawImage(image, 0, 0, null);
-                g2d.dispose();
-
-                return rgbImage;
-            } catch (Exception e) {
-                Logger.warn("Ошибка при конвертации изображения типа {}: {}", image.getType(), e.getMessage());
-
-                // Пробуем альтернативный метод - создаем изображение из данных пикселей
-                try {
-                    return createRGBFromPixels(image);
-                } catch (Exception e2) {
-                    Logger.warn("Альтернативная конвертация также не удалась: {}", e2.getMessage());
-
-                    // Создаем пустое RGB изображение как fallback
-                    BufferedImage fallbackImage = new BufferedImage(
-                            image.getWidth(),
-                            image.getHeight(),
-                            BufferedImage.TYPE_INT_RGB);
-
-                    // Заполняем черным цветом
-                    java.awt.Graphics2D g2d = fallbackImage.createGraphics();
-                    g2d.setColor(java.awt.Color.BLACK);
-                    g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
-                    g2d.dispose();
-
-                    return fallbackImage;
-                }
+        ByteBuffer toBinaryMessage() {
+            if (binaryMessage == null) {
+                byte[] id = cameraId.getBytes(StandardCharsets.UTF_8);
+                int idLength = Math.min(id.length, 255);
+                int headerLength = 2 + 1 + 1 + idLength + 8 + 4 + 4;
+                ByteBuffer buffer = ByteBuffer.allocate(headerLength + data.length);
+                buffer.putShort((short) headerLength);
+                buffer.put((byte) BINARY_FRAME_VERSION);
+                buffer.put((byte) idLength);
+                buffer.put(id, 0, idLength);
+                buffer.putLong(timestamp);
+                buffer.putInt(width);
+                buffer.putInt(height);
+                buffer.put(data);
+                binaryMessage = buffer.array();
             }
+            return ByteBuffer.wrap(binaryMessage);
+        }
+    }
+
+    /**
+     * Общий кодировщик кадров камеры. Подписывается на камеру как {@link CameraListener} пока
+     * есть хотя бы одна сессия, кодирует каждый полученный кадр в JPEG не более одного раза на
+     * уровень качества и раздает результат сессиям, у которых подошло время следующего кадра.
+     *
+     * Поток камеры только сохраняет ссылку на кадр; кодирование выполняется в пуле сервиса.
+     * Если кодирование не успевает за камерой, промежуточные кадры отбрасываются, и кодируется
+     * всегда самый свежий.
+     */
+    private static class CameraFrameBroadcaster implements CameraListener {
+        private final String cameraId;
+        private final CopyOnWriteArrayList<CameraStreamSession> subscribers = new CopyOnWriteArrayList<>();
+        private final AtomicReference<BufferedImage> latestImage = new AtomicReference<>();
+        private final AtomicBoolean encoding = new AtomicBoolean();
+        private final AtomicLong framesReceived = new AtomicLong();
+        private final AtomicLong framesSkipped = new AtomicLong();
+        private final AtomicLong framesEncoded = new AtomicLong();
+        private Camera camera;
+        private ImageWriter jpegWriter;
+
+        CameraFrameBroadcaster(String cameraId) {
+            this.cameraId = cameraId;
         }
 
         /**
-         * Альтернативный метод конвертации через данные пикселей
+         * @return false, если камера не найдена; сессия в этом случае не подписывается
          */
-        private BufferedImage createRGBFromPixels(BufferedImage image) {
-            int width = image.getWidth();
-            int height = image.getHeight();
-
-            BufferedImage rgbImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-            // Получаем данные пикселей
-            int[] pixels = new int[width * height];
-            image.getRGB(0, 0, width, height, pixels, 0, width);
+        synchronized boolean subscribe(CameraStreamSession session) {
+            if (camera == null) {
+                camera = findCamera(cameraId);
+                if (camera == null) {
+                    return false;
+                }
+                camera.startContinuousCapture(this);
+                Logger.info("Кодировщик кадров камеры {} подписан на поток камеры", cameraId);
+            }
+            subscribers.add(session);
+            return true;
+        }
 
-            // Устанавливаем пиксели в RGB изображение
-            rgbImage.setRGB(0, 0, width, height, pixels, 0, width);
+        synchronized void unsubscribe(CameraStreamSession session) {
+            subscribers.remove(session);
+        }
 
-            return rgbImage;
+        synchronized boolean isIdle() {
+            return subscribers.isEmpty();
         }
 
-        /**
-         * Принудительно конвертирует изображение в стандартный формат
-         */
-        private BufferedImage forceConvertToStandard(BufferedImage image) {
-            try {
-                // Создаем новое изображение с принудительной конвертацией
-                BufferedImage converted = new BufferedImage(
-                        image.getWidth(),
-                        image.getHeight(),
-                        BufferedImage.TYPE_INT_RGB);
-
-                // Используем более надежный метод копирования
-                java.awt.Graphics2D g2d = converted.createGraphics();
-                g2d.setRenderingHint(java.awt.RenderingHints.KEY_INTERPOLATION,
-                        java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-                g2d.setRenderingHint(java.awt.RenderingHints.KEY_RENDERING,
-                        java.awt.RenderingHints.VALUE_RENDER_QUALITY);
-                g2d.setRenderingHint(java.awt.RenderingHints.KEY_ANTIALIASING,
-                        java.awt.RenderingHints.VALUE_ANTIALIAS_ON);
-
-                g2d.drawImage(image, 0, 0, null);
-                g2d.dispose();
-
-                return converted;
-            } catch (Exception e) {
-                Logger.warn("Принудительная конвертация не удалась: {}", e.getMessage());
-                return image; // Возвращаем оригинал если не удалось
+        synchronized void stop() {
+            if (camera != null) {
+                camera.stopContinuousCapture(this);
+                camera = null;
             }
+            latestImage.set(null);
+            Logger.info("Остановлен кодировщик кадров камеры {}", cameraId);
         }
 
         /**
-         * Создает тестовое изображение с информацией о камере
+         * Вызывается потоком трансляции камеры. Не блокирует его: кадр сохраняется, а
+         * кодирование запускается в пуле, если оно еще не выполняется.
          */
-        private BufferedImage createTestImage(int width, int height) {
-            BufferedImage testImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-            java.awt.Graphics2D g2d = testImage.createGraphics();
-
-            // Заполняем фон
-            g2d.setColor(java.awt.Color.DARK_GRAY);
-            g2d.fillRect(0, 0, width, height);
-
-            // Добавляем текст
-            g2d.setColor(java.awt.Color.WHITE);
-            g2d.setFont(new java.awt.Font("Arial", java.awt.Font.BOLD, 16));
-            String text = "Camera: " + cameraId;
-            java.awt.FontMetrics fm = g2d.getFontMetrics();
-            int textX = (width - fm.stringWidth(text)) / 2;
-            int textY = height / 2;
-            g2d.drawString(text, textX, textY);
-
-            g2d.setFont(new java.awt.Font("Arial", java.awt.Font.PLAIN, 12));
-            String info = "Stream Error - Using Test Image";
-            fm = g2d.getFontMetrics();
-            textX = (width - fm.stringWidth(info)) / 2;
-            textY = height / 2 + 20;
-            g2d.drawString(info, textX, textY);
+        @Override
+        public void frameReceived(BufferedImage image) {
+            framesReceived.incrementAndGet();
+            if (latestImage.getAndSet(image) != null) {
+                framesSkipped.incrementAndGet();
+            }
+            if (encoding.compareAndSet(false, true)) {
+                frameExecutor.execute(this::encodeLatest);
+            }
+        }
 
-            g2d.dispose();
-            return testImage;
+        private void encodeLatest() {
+            try {
+                BufferedImage image = latestImage.getAndSet(null);
+                if (image != null) {
+                    encodeAndDistribute(image);
+                }
+            } finally {
+                encoding.set(false);
+            }
+            // Кадр мог прийти между последней проверкой и сбросом флага
+            if (latestImage.get() != null && encoding.compareAndSet(false, true)) {
+                frameExecutor.execute(this::encodeLatest);
+            }
         }
 
-        private void sendError(String error) {
-            long currentTime = System.currentTimeMillis();
-            if (currentTime - lastErrorTime > ERROR_THROTTLE_MS) {
-                try {
-                    // Проверяем состояние соединения перед отправкой
-                    if (wsContext == null || !wsContext.session.isOpen()) {
-                        Logger.debug("WebSocket соединение закрыто, пропускаем отправку ошибки для сессии {}",
-                                sessionId);
-                        return;
-                    }
+        private void encodeAndDistribute(BufferedImage image) {
+            long now = System.currentTimeMillis();
 
-                    CameraFrameData errorData = new CameraFrameData();
-                    errorData.type = "error";
-                    errorData.cameraId = cameraId;
-                    errorData.timestamp = currentTime;
-                    errorData.error = error;
+            // Определяем сессии, которым нужен этот кадр
+            java.util.List<CameraStreamSession> due = new java.util.ArrayList<>();
+            for (CameraStreamSession session : subscribers) {
+                if (!session.isActive.get()) {
+                    continue;
+                }
+                if (session.wsContext == null || !session.wsContext.session.isOpen()) {
+                    Logger.warn("WebSocket соединение закрыто для сессии {}, останавливаем стрим", session.sessionId);
+                    stopCameraStream(session.sessionId);
+                    continue;
+                }
+                if (session.isFrameDue(now)) {
+                    due.add(session);
+                }
+            }
+            if (due.isEmpty()) {
+                return;
+            }
 
-                    String json = objectMapper.writeValueAsString(errorData);
-                    wsContext.send(json);
-                    lastErrorTime = currentTime;
-                } catch (Exception e) {
-                    Logger.error("Ошибка отправки сообщения об ошибке для сессии {}: {}", sessionId, e.getMessage());
-                    // Если не можем отправить ошибку, возможно соединение разорвано
-                    if (e.getMessage() != null && e.getMessage().contains("closed")) {
-                        Logger.warn("WebSocket соединение разорвано для сессии {}, останавливаем стрим", sessionId);
-                        stop();
+            Mat frameMat = null;
+            try {
+                // Проверяем валидность изображения
+                if (image.getWidth() <= 0 || image.getHeight() <= 0) {
+                    Logger.warn("Получено изображение с некорректными размерами: {}x{} для камеры {}",
+                            image.getWidth(), image.getHeight(), cameraId);
+                    due.forEach(session -> session.sendError("Получено изображение с некорректными размерами: "
+                            + image.getWidth() + "x" + image.getHeight()));
+                    return;
+                }
+
+                // Вырезаем/уменьшаем не более одного раза на каждую геометрию кадра, кодируем не
+                // более одного раза на каждую комбинацию геометрии и качества
+                Map<String, BufferedImage> views = new HashMap<>();
+                Map<String, EncodedFrame> encodedFrames = new HashMap<>();
+                for (CameraStreamSession session : due) {
+                    StreamCongestionController.Rung rung = session.getRung();
+                    ViewGeometry view = new ViewGeometry(image.getWidth(), image.getHeight(), session.roi,
+                            session.targetWidth, rung.scale);
+                    String encodingKey = view.getKey() + "@" + rung.jpegQuality;
+                    EncodedFrame frame = encodedFrames.get(encodingKey);
+                    if (frame == null) {
+                        BufferedImage viewImage = views.get(view.getKey());
+                        if (viewImage == null) {
+                            if (view.isFullFrame(image.getWidth(), image.getHeight())) {
+                                viewImage = convertToRGB(image);
+                            } else {
+                                if (frameMat == null) {
+                                    frameMat = OpenCvUtils.toMat(image);
+                                }
+                                viewImage = convertToRGB(renderView(frameMat, view));
+                            }
+                            views.put(view.getKey(), viewImage);
+                        }
+                        byte[] jpeg = encodeJpeg(viewImage, rung.jpegQuality);
+                        frame = new EncodedFrame(cameraId, now, viewImage.getWidth(), viewImage.getHeight(), jpeg);
+                        encodedFrames.put(encodingKey, frame);
+                        framesEncoded.incrementAndGet();
                     }
+                    session.offerFrame(frame);
+                }
+            } catch (Exception e) {
+                Logger.error("Ошибка обработки кадра камеры {}: {}", cameraId, e.getMessage(), e);
+                due.forEach(session -> session.sendError("Ошибка обработки кадра: " + e.getMessage()));
+            } finally {
+                if (frameMat != null) {
+                    frameMat.release();
                 }
             }
         }
 
-        public void stop() {
-            Logger.info("Начало остановки сессии стрима камеры: {} для камеры: {}", sessionId, cameraId);
+        /**
+         * Кодирование в JPEG. Кодирование одного кодировщика никогда не выполняется
+         * параллельно (см. {@link #encodeLatest()}), поэтому ImageWriter переиспользуется
+         * между кадрами.
+         */
+        private byte[] encodeJpeg(BufferedImage rgbImage, float compressionQuality) throws Exception {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try {
+                if (jpegWriter == null) {
+                    jpegWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+                }
+                ImageWriteParam param = jpegWriter.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(compressionQuality);
 
-            // Сначала помечаем как неактивную
-            isActive.set(false);
+                try (ImageOutputStream ios = ImageIO.createImageOutputStream(baos)) {
+                    jpegWriter.setOutput(ios);
+                    jpegWriter.write(null, new IIOImage(rgbImage, null, null), param);
+                } finally {
+                    jpegWriter.setOutput(null);
+                }
+                return baos.toByteArray();
+            } catch (Exception e) {
+                Logger.warn("Ошибка при конвертации в JPEG, пробуем альтернативный метод: {}", e.getMessage());
+                if (jpegWriter != null) {
+                    jpegWriter.dispose();
+                    jpegWriter = null;
+                }
 
-            // Останавливаем поток стрима
-            if (streamTask != null && !streamTask.isCancelled()) {
-                streamTask.cancel(true);
-                try {
-                    // Ждем завершения потока максимум 1 секунду
-                    streamTask.get(1, TimeUnit.SECONDS);
-                } catch (Exception e) {
-                    Logger.warn("Поток стрима не завершился корректно для сессии {}: {}", sessionId, e.getMessage());
+                // Альтернативный метод - используем стандартный ImageIO.write
+                baos.reset();
+                if (ImageIO.write(rgbImage, "jpeg", baos)) {
+                    return baos.toByteArray();
                 }
+                throw new Exception("Не удалось конвертировать изображение в JPEG");
             }
+        }
+    }
 
-            Logger.info("Остановлена сессия стрима камеры: {} для камеры: {}", sessionId, cameraId);
+    /**
+     * Коэффициент сжатия JPEG для уровня качества
+     */
+    private static float getCompressionQuality(String quality) {
+        switch (quality) {
+            case "low":
+                return 0.5f;
+            case "high":
+                return 0.95f;
+            case "medium":
+            default:
+                return 0.8f;
         }
+    }
 
-        public String getSessionId() {
-            return sessionId;
+    /**
+     * Вырезать ROI и уменьшить кадр средствами OpenCV. Вырезка - это подматрица без копирования,
+     * уменьшение выполняется с INTER_AREA (без муара на мелких деталях), поэтому кодируется уже
+     * маленькое изображение.
+     */
+    private static BufferedImage renderView(Mat frameMat, ViewGeometry view) {
+        Mat roi = new Mat(frameMat, new Rect(view.x, view.y, view.width, view.height));
+        Mat output = new Mat();
+        try {
+            if (view.outputWidth == view.width && view.outputHeight == view.height) {
+                roi.copyTo(output);
+            } else {
+                Imgproc.resize(roi, output, new Size(view.outputWidth, view.outputHeight), 0, 0,
+                        Imgproc.INTER_AREA);
+            }
+            return OpenCvUtils.toBufferedImage(output);
+        } finally {
+            roi.release();
+            output.release();
         }
+    }
 
-        public String getCameraId() {
-            return cameraId;
+    /**
+     * Конвертирует изображение в RGB формат для совместимости с JPEG. Изображения, уже
+     * находящиеся в RGB/BGR формате без альфа-канала, используются как есть, остальные
+     * перерисовываются один раз.
+     */
+    private static BufferedImage convertToRGB(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return image;
         }
 
-        public WsContext getWsContext() {
-            return wsContext;
+        Logger.debug("Конвертируем изображение из типа {} в RGB", image.getType());
+        try {
+            BufferedImage rgbImage = new BufferedImage(
+                    image.getWidth(),
+                    image.getHeight(),
+                    BufferedImage.TYPE_INT_RGB);
+
+            // Копируем пиксели через Graphics2D
+            java.awt.Graphics2D g2d = rgbImage.createGraphics();
+            g2d.drawImage(image, 0, 0, null);
+            g2d.dispose();
+
+            return rgbImage;
+        } catch (Exception e) {
+            Logger.warn("Ошибка при конвертации изображения типа {}: {}", image.getType(), e.getMessage());
+            // Пробуем альтернативный метод - создаем изображение из данных пикселей
+            return createRGBFromPixels(image);
         }
     }
 
+    /**
+     * Альтернативный метод конвертации через данные пикселей
+     */
+    private static BufferedImage createRGBFromPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        BufferedImage rgbImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        // Получаем данные пикселей
+        int[] pixels = new int[width * height];
+        image.getRGB(0, 0, width, height, pixels, 0, width);
+
+        // Устанавливаем пиксели в RGB изображение
+        rgbImage.setRGB(0, 0, width, height, pixels, 0, width);
+
+        return rgbImage;
+    }
+
+    /**
+     * Найти камеру машины или головки по ID
+     */
+    private static Camera findCamera(String cameraId) {
+        Machine machine = Configuration.get().getMachine();
+        Camera camera = machine.getCamera(cameraId);
+
+        if (camera == null) {
+            // Проверяем камеры в головках
+            for (var head : machine.getHeads()) {
+                camera = head.getCamera(cameraId);
+                if (camera != null) {
+                    break;
+                }
+            }
+        }
+        return camera;
+    }
+
     /**
      * Данные кадра камеры
      */
@@ -431,17 +740,43 @@ public class CameraStreamService {
         public int width;
         public int height;
         public int fps;
+        public String transport; // Транспорт кадров (только в "stream_started")
+        public Roi roi; // Область интереса (только в "stream_started")
+        public Integer targetWidth; // Запрошенная ширина (только в "stream_started")
         public String error; // Сообщение об ошибке
     }
 
+    /**
+     * Состояние сессии стрима, включая выбранную контроллером перегрузки ступень
+     */
+    public static class StreamSessionInfo {
+        public String sessionId;
+        public String cameraId;
+        public String transport;
+        public String quality;
+        public int requestedFps;
+        public Roi roi;
+        public int targetWidth;
+        public boolean adaptive;
+        public int rung;
+        public int rungCount;
+        public float jpegQuality;
+        public double scale;
+        public int fps;
+        public long latencyMs;
+        public long outstandingBytes;
+        public long framesSent;
+        public long framesDropped;
+    }
+
     /**
      * Начать стрим камеры
      */
     public static void startCameraStream(WsContext ctx, StreamRequest request) {
         String sessionId = ctx.sessionId();
 
-        Logger.info("Запрос на запуск стрима камеры: сессия={}, камера={}, fps={}, качество={}",
-                sessionId, request.cameraId, request.fps, request.quality);
+        Logger.info("Запрос на запуск стрима камеры: сессия={}, камера={}, fps={}, качество={}, транспорт={}",
+                sessionId, request.cameraId, request.fps, request.quality, request.transport);
 
         // Проверяем параметры
         if (request.cameraId == null || request.cameraId.isEmpty()) {
@@ -460,6 +795,34 @@ public class CameraStreamService {
             request.quality = "medium";
         }
 
+        if (request.transport == null || request.transport.isEmpty()) {
+            request.transport = TRANSPORT_JSON;
+        }
+
+        if (!TRANSPORT_JSON.equals(request.transport) && !TRANSPORT_BINARY.equals(request.transport)) {
+            Logger.warn("Неизвестный транспорт '{}' для сессии {}", request.transport, sessionId);
+            sendError(ctx, "Неизвестный транспорт: " + request.transport);
+            return;
+        }
+
+        if (request.roi != null && (request.roi.width <= 0 || request.roi.height <= 0)) {
+            Logger.warn("Некорректная область интереса {} для сессии {}", request.roi, sessionId);
+            sendError(ctx, "Некорректная область интереса: ширина и высота должны быть больше 0");
+            return;
+        }
+
+        if (request.targetWidth < 0) {
+            Logger.info("Корректировка ширины с {} на 0 для сессии {}", request.targetWidth, sessionId);
+            request.targetWidth = 0;
+        }
+
+        // Неизвестная камера: текущий стрим сессии не трогаем, новую сессию не создаем
+        if (findCamera(request.cameraId) == null) {
+            Logger.warn("Камера с ID '{}' не найдена для сессии {}", request.cameraId, sessionId);
+            sendError(ctx, "Камера с ID '" + request.cameraId + "' не найдена");
+            return;
+        }
+
         // Проверяем, есть ли уже активная сессия для этой камеры
         CameraStreamSession existingSession;
         synchronized (sessionsLock) {
@@ -468,10 +831,11 @@ public class CameraStreamService {
 
         if (existingSession != null) {
             String existingCameraId = existingSession.getCameraId();
-            if (existingCameraId.equals(request.cameraId)) {
+            if (existingSession.matches(request)) {
                 Logger.info("Стрим камеры {} уже запущен для сессии {}", request.cameraId, sessionId);
                 // Отправляем подтверждение без перезапуска
-                sendStreamStarted(ctx, request.cameraId, existingSession.fps, existingSession.quality);
+                sendStreamStarted(ctx, request.cameraId, existingSession.fps, existingSession.quality,
+                        existingSession.transport, existingSession.roi, existingSession.targetWidth);
                 return;
             } else {
                 Logger.info("Переключение с камеры {} на камеру {} для сессии {}",
@@ -487,17 +851,33 @@ public class CameraStreamService {
                 request.cameraId,
                 ctx,
                 request.fps,
-                request.quality);
-
+                request.quality,
+                request.transport,
+                request.adaptive,
+                request.roi,
+                request.targetWidth);
+
+        // Отправляем подтверждение до первого кадра, чтобы клиент успел подготовиться к
+        // бинарным сообщениям
+        sendStreamStarted(ctx, request.cameraId, request.fps, request.quality, request.transport, request.roi,
+                request.targetWidth);
+
+        boolean subscribed;
         synchronized (sessionsLock) {
             sessions.put(sessionId, session);
+            subscribed = broadcasters.computeIfAbsent(request.cameraId, CameraFrameBroadcaster::new)
+                    .subscribe(session);
+        }
+        if (!subscribed) {
+            // Камера удалена после проверки выше
+            Logger.warn("Камера с ID '{}' не найдена для сессии {}", request.cameraId, sessionId);
+            stopCameraStream(sessionId);
+            sendError(ctx, "Камера с ID '" + request.cameraId + "' не найдена");
+            return;
         }
 
         Logger.info("Стрим камеры запущен: сессия={}, камера={}, активных сессий={}",
                 sessionId, request.cameraId, getActiveStreamCount());
-
-        // Отправляем подтверждение
-        sendStreamStarted(ctx, request.cameraId, request.fps, request.quality);
     }
 
     /**
@@ -538,6 +918,39 @@ public class CameraStreamService {
         }
     }
 
+    /**
+     * Получить состояние всех сессий стрима
+     */
+    public static List<StreamSessionInfo> getStreamSessionInfo() {
+        synchronized (sessionsLock) {
+            List<StreamSessionInfo> result = new ArrayList<>();
+            sessions.values().forEach(session -> {
+                StreamCongestionController controller = session.congestionController;
+                StreamCongestionController.Rung rung = controller.getCurrentRung();
+                StreamSessionInfo info = new StreamSessionInfo();
+                info.sessionId = session.getSessionId();
+                info.cameraId = session.getCameraId();
+                info.transport = session.transport;
+                info.quality = session.quality;
+                info.requestedFps = session.fps;
+                info.roi = session.roi;
+                info.targetWidth = session.targetWidth;
+                info.adaptive = controller.isAdaptive();
+                info.rung = rung.level;
+                info.rungCount = controller.getLadder().size();
+                info.jpegQuality = rung.jpegQuality;
+                info.scale = rung.scale;
+                info.fps = rung.fps;
+                info.latencyMs = Math.round(controller.getLatencyMs());
+                info.outstandingBytes = controller.getOutstandingBytes();
+                info.framesSent = session.framesSent.get();
+                info.framesDropped = session.framesDropped.get();
+                result.add(info);
+            });
+            return result;
+        }
+    }
+
     /**
      * Получить количество активных стримов
      */
@@ -574,11 +987,37 @@ public class CameraStreamService {
                             .append(", Камера: ").append(session.getCameraId())
                             .append(", FPS: ").append(session.fps)
                             .append(", Качество: ").append(session.quality)
+                            .append(", Транспорт: ").append(session.transport)
+                            .append(", ROI: ").append(session.roi != null ? session.roi : "весь кадр")
+                            .append(", Ширина: ").append(session.targetWidth > 0 ? session.targetWidth : "исходная")
+                            .append(", Отправлено кадров: ").append(session.framesSent.get())
+                            .append(", Пропущено кадров: ").append(session.framesDropped.get())
+                            .append(", Ступень: ").append(session.getRung())
+                            .append(session.congestionController.isAdaptive() ? "" : " (фиксированная)")
+                            .append(", Задержка: ").append(Math.round(session.congestionController.getLatencyMs()))
+                            .append(" мс")
+                            .append(", Не отправлено: ").append(session.congestionController.getOutstandingBytes())
+                            .append(" байт")
+                            .append(", Переключений вниз/вверх: ")
+                            .append(session.congestionController.getStepsDown()).append("/")
+                            .append(session.congestionController.getStepsUp())
                             .append(", Активна: ").append(session.isActive.get())
                             .append("\n");
                 });
             }
 
+            if (!broadcasters.isEmpty()) {
+                stats.append("Кодировщики камер:\n");
+                broadcasters.forEach((cameraId, broadcaster) -> {
+                    stats.append("  - Камера: ").append(cameraId)
+                            .append(", Подписчиков: ").append(broadcaster.subscribers.size())
+                            .append(", Получено кадров: ").append(broadcaster.framesReceived.get())
+                            .append(", Пропущено кадров: ").append(broadcaster.framesSkipped.get())
+                            .append(", Закодировано кадров: ").append(broadcaster.framesEncoded.get())
+                            .append("\n");
+                });
+            }
+
             return stats.toString();
         }
     }
@@ -603,18 +1042,23 @@ public class CameraStreamService {
     /**
      * Отправить подтверждение начала стрима
      */
-    private static void sendStreamStarted(WsContext ctx, String cameraId, int fps, String quality) {
+    private static void sendStreamStarted(WsContext ctx, String cameraId, int fps, String quality,
+            String transport, Roi roi, int targetWidth) {
         try {
             CameraFrameData startData = new CameraFrameData();
             startData.type = "stream_started";
             startData.cameraId = cameraId;
             startData.timestamp = System.currentTimeMillis();
             startData.fps = fps;
+            startData.transport = transport;
+            startData.roi = roi;
+            startData.targetWidth = targetWidth;
 
             String json = objectMapper.writeValueAsString(startData);
             ctx.send(json);
 
-            Logger.info("Стрим камеры {} запущен с FPS: {} и качеством: {}", cameraId, fps, quality);
+            Logger.info("Стрим камеры {} запущен с FPS: {}, качеством: {} и транспортом: {}", cameraId, fps,
+                    quality, transport);
         } catch (Exception e) {
             Logger.error("Ошибка отправки подтверждения стрима: {}", e.getMessage());
         }
@@ -665,7 +1109,9 @@ public class CameraStreamService {
             });
 
             sessions.clear();
+            broadcasters.values().forEach(CameraFrameBroadcaster::stop);
+            broadcasters.clear();
             Logger.info("CameraStreamService очищен");
         }
     }
-}
\ No newline at end of file
+}
@@ -1,30 +1,32 @@
 package org.openpnp.api.services;
 
+import org.openpnp.api.exceptions.JobModifiedException;
 import org.openpnp.api.exceptions.JobNotLoadedException;
 import org.openpnp.api.exceptions.MachineNotEnabledException;
 import org.openpnp.api.models.job.JobInfo;
 import org.openpnp.api.models.job.JobStatus;
 import org.openpnp.api.models.job.PlacementInfo;
-import org.openpnp.gui.MainFrame;
-import org.openpnp.gui.JobPanel;
 import org.openpnp.model.*;
 import org.openpnp.spi.Machine;
+import org.pmw.tinylog.Logger;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Сервис для работы с заданиями OpenPnP
+ * Сервис для работы с заданиями OpenPnP. Работает через {@link JobRunner} и не зависит от GUI,
+ * поэтому доступен и в режиме без MainFrame.
  */
 public class JobService {
 
+    private final JobRunner jobRunner = JobRunner.get();
+
     /**
      * Получить информацию о текущем задании
      */
     public JobInfo getCurrentJobInfo() throws Exception {
-        JobPanel jobPanel = getJobPanel();
-        Job job = jobPanel.getJob();
+        Job job = jobRunner.getJob();
 
         if (job == null) {
             throw new JobNotLoadedException();
@@ -91,43 +93,24 @@ public class JobService {
      * Получить статус выполнения задания
      */
     public JobStatus getJobStatus() throws Exception {
-        JobPanel jobPanel = getJobPanel();
-        Job job = jobPanel.getJob();
+        Job job = jobRunner.getJob();
 
         if (job == null) {
             throw new JobNotLoadedException();
         }
 
         JobStatus jobStatus = new JobStatus();
+        jobStatus.setState(toApiState(jobRunner.getState()));
 
-        // Определяем состояние задания через рефлексию к private полю state
-        try {
-            java.lang.reflect.Field stateField = JobPanel.class.getDeclaredField("state");
-            stateField.setAccessible(true);
-            Object state = stateField.get(jobPanel);
-
-            switch (state.toString()) {
-                case "Stopped":
-                    jobStatus.setState(JobStatus.State.STOPPED);
-                    break;
-                case "Running":
-                    jobStatus.setState(JobStatus.State.RUNNING);
-                    break;
-                case "Paused":
-                    jobStatus.setState(JobStatus.State.PAUSED);
-                    break;
-                case "Pausing":
-                    jobStatus.setState(JobStatus.State.PAUSING);
-                    break;
-                case "Stopping":
-                    jobStatus.setState(JobStatus.State.STOPPING);
-                    break;
-                default:
-                    jobStatus.setState(JobStatus.State.STOPPED);
-            }
-        } catch (Exception e) {
-            // Если не удается получить состояние, считаем что остановлено
-            jobStatus.setState(JobStatus.State.STOPPED);
+        long startTime = jobRunner.getStartTime();
+        if (startTime > 0) {
+            jobStatus.setStartTime(startTime);
+            jobStatus.setElapsedTime(System.currentTimeMillis() - startTime);
+        }
+        Throwable lastError = jobRunner.getLastError();
+        if (lastError != null) {
+            jobStatus.setErrorCount(1);
+            jobStatus.setLastError(lastError.getMessage());
         }
 
         // Получаем общее количество размещений из всех BoardLocation
@@ -164,16 +147,25 @@ public class JobService {
         if (!jobFile.exists()) {
             throw new Exception("Файл задания не найден: " + filePath);
         }
+        if (jobRunner.getState() != JobRunner.State.Stopped) {
+            throw new Exception("Нельзя загрузить задание, пока выполняется текущее");
+        }
+        // Не заменяем молча задание, измененное в GUI
+        Job currentJob = jobRunner.getJob();
+        if (currentJob != null && currentJob.isDirty()) {
+            throw new JobModifiedException();
+        }
 
         Configuration config = Configuration.get();
         Job job = config.loadJob(jobFile);
 
-        JobPanel jobPanel = getJobPanel();
-        jobPanel.setJob(job);
+        // Панель заданий, если GUI запущен, получит задание через JobLoadedEvent
+        jobRunner.setJob(job);
     }
 
     /**
-     * Запустить выполнение задания
+     * Запустить выполнение задания. Если все размещения уже выполнены, их статус сбрасывается,
+     * как при подтверждении в GUI.
      */
     public void startJob() throws Exception {
         Machine machine = Configuration.get().getMachine();
@@ -181,78 +173,74 @@ public class JobService {
             throw new MachineNotEnabledException();
         }
 
-        JobPanel jobPanel = getJobPanel();
-        Job job = jobPanel.getJob();
-
-        if (job == null) {
-            throw new JobNotLoadedException();
+        Job job = getLoadedJob();
+        if (jobRunner.getState() == JobRunner.State.Stopped && jobRunner.isAllPlaced()) {
+            Logger.info("Все размещения задания выполнены, сбрасываем статус для повторного запуска");
+            job.removeAllPlacedStatus();
         }
 
-        // Запускаем задание через метод jobStart()
-        jobPanel.jobStart();
+        jobRunner.start();
     }
 
     /**
      * Приостановить выполнение задания
      */
     public void pauseJob() throws Exception {
-        JobPanel jobPanel = getJobPanel();
-        Job job = jobPanel.getJob();
+        getLoadedJob();
+        jobRunner.pause();
+    }
 
-        if (job == null) {
-            throw new JobNotLoadedException();
-        }
+    /**
+     * Продолжить приостановленное задание
+     */
+    public void resumeJob() throws Exception {
+        getLoadedJob();
+        jobRunner.resume();
+    }
 
-        // Устанавливаем состояние паузы через рефлексию
-        try {
-            java.lang.reflect.Method setStateMethod = JobPanel.class.getDeclaredMethod("setState",
-                    Class.forName("org.openpnp.gui.JobPanel$State"));
-            setStateMethod.setAccessible(true);
-
-            // Получаем enum значение State.Pausing
-            Class<?> stateClass = Class.forName("org.openpnp.gui.JobPanel$State");
-            Object pausingState = Enum.valueOf((Class<Enum>) stateClass, "Pausing");
-            setStateMethod.invoke(jobPanel, pausingState);
-        } catch (Exception e) {
-            throw new Exception("Не удалось приостановить задание: " + e.getMessage());
+    /**
+     * Выполнить один шаг задания, запустив его, если оно остановлено
+     */
+    public void stepJob() throws Exception {
+        Machine machine = Configuration.get().getMachine();
+        if (machine == null || !machine.isEnabled()) {
+            throw new MachineNotEnabledException();
         }
+        getLoadedJob();
+        jobRunner.step();
     }
 
     /**
      * Остановить выполнение задания
      */
     public void stopJob() throws Exception {
-        JobPanel jobPanel = getJobPanel();
-        Job job = jobPanel.getJob();
-
-        if (job == null) {
-            throw new JobNotLoadedException();
-        }
-
-        // Устанавливаем состояние остановки через рефлексию
-        try {
-            java.lang.reflect.Method setStateMethod = JobPanel.class.getDeclaredMethod("setState",
-                    Class.forName("org.openpnp.gui.JobPanel$State"));
-            setStateMethod.setAccessible(true);
-
-            // Получаем enum значение State.Stopping
-            Class<?> stateClass = Class.forName("org.openpnp.gui.JobPanel$State");
-            Object stoppingState = Enum.valueOf((Class<Enum>) stateClass, "Stopping");
-            setStateMethod.invoke(jobPanel, stoppingState);
-        } catch (Exception e) {
-            throw new Exception("Не удалось остановить задание: " + e.getMessage());
-        }
+        getLoadedJob();
+        jobRunner.stop();
     }
 
     /**
-     * Получить панель заданий из MainFrame
+     * Преобразовать состояние JobRunner в состояние API
      */
-    private JobPanel getJobPanel() throws Exception {
-        MainFrame mainFrame = MainFrame.get();
-        if (mainFrame == null) {
-            throw new Exception("MainFrame не инициализирован");
+    public static JobStatus.State toApiState(JobRunner.State state) {
+        switch (state) {
+            case Running:
+                return JobStatus.State.RUNNING;
+            case Paused:
+                return JobStatus.State.PAUSED;
+            case Pausing:
+                return JobStatus.State.PAUSING;
+            case Stopping:
+                return JobStatus.State.STOPPING;
+            default:
+                return JobStatus.State.STOPPED;
         }
+    }
 
-        return mainFrame.getJobTab();
+    private Job getLoadedJob() throws Exception {
+        Job job = jobRunner.getJob();
+        if (job == null) {
+            throw new JobNotLoadedException();
+        }
+        return job;
     }
-}
\ No newline at end of file
+}
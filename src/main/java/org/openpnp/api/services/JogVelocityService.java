@@ -0,0 +1,280 @@
+package org.openpnp.api.services;
+
+import com.google.common.util.concurrent.FutureCallback;
+import io.javalin.websocket.WsContext;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Motion.MotionOption;
+import org.openpnp.spi.Axis;
+import org.openpnp.spi.ControllerAxis;
+import org.openpnp.spi.HeadMountable;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.MotionPlanner;
+import org.openpnp.spi.base.AbstractAxis;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Непрерывный джог по вектору скорости с контролем присутствия оператора ("мертвая рука").
+ *
+ * Клиент примерно 20 раз в секунду присылает скорости осей. На все время джога в очередь задач машины
+ * ставится одна долгая задача. Каждые {@link #TICK_MS} мс она превращает текущую скорость в короткий
+ * отрезок {@link MotionOption#JogMotion} и передает его драйверам через
+ * {@link MotionPlanner.CompletionType#CommandJog}, без остановки в конце. Так между отрезками нет
+ * ожидания завершения задачи машины, и контроллер сливает их в плавное движение. Запланированная
+ * позиция опережает реальную примерно на {@link #PREFILL_SEGMENTS} отрезка, поэтому остановка
+ * происходит почти сразу.
+ *
+ * Если сообщения перестают приходить дольше {@link #DEADMAN_MS} мс, джог останавливается
+ * автоматически. Одновременно джогом может управлять только один клиент.
+ */
+public class JogVelocityService {
+
+    /**
+     * Период формирования отрезков, мс
+     */
+    public static final long TICK_MS = 50;
+
+    /**
+     * Время без сообщений от клиента, после которого джог останавливается, мс
+     */
+    public static final long DEADMAN_MS = Long.getLong("openpnp.websocket.jog.deadman.ms", 300);
+
+    /**
+     * Длина первого отрезка в периодах: запас, чтобы контроллер не останавливался между отрезками
+     */
+    private static final int PREFILL_SEGMENTS = 2;
+
+    public static final String REASON_CLIENT = "client";
+    public static final String REASON_KEEPALIVE_TIMEOUT = "keepalive_timeout";
+    public static final String REASON_DISCONNECTED = "disconnected";
+    public static final String REASON_ERROR = "error";
+
+    private static final Object lock = new Object();
+    private static JogState active;
+
+    /**
+     * Состояние активного джога
+     */
+    private static class JogState {
+        final WsContext ctx;
+        final String connectionId;
+        final Machine machine;
+        final HeadMountable headMountable;
+        // Скорости в мм/с и град/с
+        double vx;
+        double vy;
+        double vz;
+        double vc;
+        long lastKeepalive;
+        long segments;
+
+        JogState(WsContext ctx, Machine machine, HeadMountable headMountable) {
+            this.ctx = ctx;
+            this.connectionId = ctx.sessionId();
+            this.machine = machine;
+            this.headMountable = headMountable;
+        }
+    }
+
+    /**
+     * Очередной отрезок джога
+     */
+    private static class Segment {
+        final double dx;
+        final double dy;
+        final double dz;
+        final double dc;
+        final double speed;
+
+        Segment(double dx, double dy, double dz, double dc, double speed) {
+            this.dx = dx;
+            this.dy = dy;
+            this.dz = dz;
+            this.dc = dc;
+            this.speed = speed;
+        }
+    }
+
+    private JogVelocityService() {
+    }
+
+    /**
+     * Обновить вектор скорости джога. Каждый вызов продлевает контроль присутствия. Нулевой
+     * вектор останавливает джог.
+     *
+     * @return true, если джог активен после обновления
+     */
+    public static boolean update(WsContext ctx, Machine machine, HeadMountable headMountable, double vx, double vy,
+            double vz, double vc) throws Exception {
+        synchronized (lock) {
+            if (active != null && !active.connectionId.equals(ctx.sessionId())) {
+                throw new Exception("Джогом уже управляет другой клиент");
+            }
+            if (vx == 0 && vy == 0 && vz == 0 && vc == 0) {
+                if (active != null) {
+                    stopLocked(REASON_CLIENT);
+                }
+                return false;
+            }
+            if (active != null && active.headMountable != headMountable) {
+                stopLocked(REASON_CLIENT);
+            }
+            boolean starting = (active == null);
+            if (starting) {
+                active = new JogState(ctx, machine, headMountable);
+            }
+            active.vx = vx;
+            active.vy = vy;
+            active.vz = vz;
+            active.vc = vc;
+            active.lastKeepalive = System.currentTimeMillis();
+            if (starting) {
+                submitJogTask(active);
+                Logger.info("Начат джог по скорости {} для клиента {}", headMountable.getName(), ctx.sessionId());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Остановить джог клиента, если он активен
+     */
+    public static void stop(WsContext ctx, String reason) {
+        synchronized (lock) {
+            if (active != null && active.connectionId.equals(ctx.sessionId())) {
+                stopLocked(reason);
+            }
+        }
+    }
+
+    public static boolean isActive() {
+        synchronized (lock) {
+            return active != null;
+        }
+    }
+
+    /**
+     * Поставить в очередь машины задачу, которая передает отрезки планировщику, пока джог активен.
+     * Вызывается под блокировкой.
+     */
+    private static void submitJogTask(JogState state) {
+        HeadMountable headMountable = state.headMountable;
+        MotionPlanner motionPlanner = state.machine.getMotionPlanner();
+        state.machine.submit(() -> {
+            try {
+                long next = System.currentTimeMillis();
+                Segment segment;
+                while ((segment = nextSegment(state)) != null) {
+                    // Отрезок строится от запланированной позиции, т.е. от конца предыдущего отрезка
+                    Location current = headMountable.getLocation().convertToUnits(LengthUnit.Millimeters);
+                    Location target = current.addWithRotation(
+                            new Location(LengthUnit.Millimeters, segment.dx, segment.dy, segment.dz, segment.dc));
+                    headMountable.moveTo(target, segment.speed, MotionOption.JogMotion);
+                    // Передать отрезок драйверам без остановки в конце
+                    motionPlanner.waitForCompletion(headMountable, MotionPlanner.CompletionType.CommandJog);
+                    next += TICK_MS;
+                    long delay = next - System.currentTimeMillis();
+                    if (delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                    else {
+                        // Не догоняем пропущенные периоды
+                        next = System.currentTimeMillis();
+                    }
+                }
+            }
+            finally {
+                // Отрезки передавались без требования остановки, завершаем последовательность
+                motionPlanner.waitForCompletion(headMountable, MotionPlanner.CompletionType.CommandStillstand);
+            }
+            return null;
+        }, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Logger.error("Ошибка джога {}: {}", headMountable.getName(), t.getMessage());
+                synchronized (lock) {
+                    if (active == state) {
+                        stopLocked(REASON_ERROR + ": " + t.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Следующий отрезок джога или null, если джог остановлен.
+     */
+    private static Segment nextSegment(JogState state) {
+        synchronized (lock) {
+            if (active != state) {
+                return null;
+            }
+            if (System.currentTimeMillis() - state.lastKeepalive > DEADMAN_MS) {
+                Logger.warn("Нет сообщений джога от клиента {} дольше {} мс, останавливаем", state.connectionId,
+                        DEADMAN_MS);
+                stopLocked(REASON_KEEPALIVE_TIMEOUT);
+                return null;
+            }
+            double speed = getSpeedFactor(state);
+            double seconds = TICK_MS * (state.segments == 0 ? PREFILL_SEGMENTS : 1) / 1000.0;
+            state.segments++;
+            return new Segment(state.vx * seconds, state.vy * seconds, state.vz * seconds, state.vc * seconds, speed);
+        }
+    }
+
+    /**
+     * Остановить активный джог. Задача джога завершается на следующем периоде. Вызывается под
+     * блокировкой.
+     */
+    private static void stopLocked(String reason) {
+        JogState state = active;
+        active = null;
+        Logger.info("Джог по скорости {} остановлен: {} (отрезков: {})", state.headMountable.getName(), reason,
+                state.segments);
+        if (!REASON_DISCONNECTED.equals(reason)) {
+            WebSocketService.sendMessage(state.ctx,
+                    "{\"type\":\"jog_stopped\",\"reason\":\"" + reason.replace("\"", "'") + "\"}");
+        }
+    }
+
+    /**
+     * Коэффициент скорости планировщика, при котором отрезок занимает примерно период тика: по
+     * самой загруженной оси, относительно ее предельной скорости. Если скорость больше предельной,
+     * вектор уменьшается с сохранением направления.
+     */
+    private static double getSpeedFactor(JogState state) {
+        double factor = 0;
+        factor = Math.max(factor, getAxisFactor(state, state.headMountable.getAxisX(), state.vx));
+        factor = Math.max(factor, getAxisFactor(state, state.headMountable.getAxisY(), state.vy));
+        factor = Math.max(factor, getAxisFactor(state, state.headMountable.getAxisZ(), state.vz));
+        factor = Math.max(factor, getAxisFactor(state, state.headMountable.getAxisRotation(), state.vc));
+        if (factor > 1) {
+            state.vx /= factor;
+            state.vy /= factor;
+            state.vz /= factor;
+            state.vc /= factor;
+            return 1;
+        }
+        // Без известных ограничений осей используем полную скорость, темп задают отрезки
+        return factor > 0 ? factor : 1;
+    }
+
+    private static double getAxisFactor(JogState state, Axis axis, double velocity) {
+        if (velocity == 0 || !(axis instanceof AbstractAxis)) {
+            return 0;
+        }
+        double factor = 0;
+        for (ControllerAxis controllerAxis : ((AbstractAxis) axis).getCoordinateAxes(state.machine)
+                .getControllerAxes()) {
+            double limit = controllerAxis.getMotionLimit(1);
+            if (limit > 0) {
+                factor = Math.max(factor, Math.abs(velocity) / limit);
+            }
+        }
+        return factor;
+    }
+}
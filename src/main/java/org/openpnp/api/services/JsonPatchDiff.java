@@ -0,0 +1,71 @@
+package org.openpnp.api.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Вычисление разницы между двумя JSON документами в виде операций JSON Patch (RFC 6902).
+ *
+ * Используются только операции "add", "remove" и "replace". Объекты сравниваются по ключам
+ * рекурсивно, массивы одинаковой длины - поэлементно, массивы разной длины заменяются целиком
+ * (списки осей, головок и фидеров меняются редко, а поэлементная вставка/удаление усложнила бы
+ * клиентов без заметной выгоды).
+ */
+public class JsonPatchDiff {
+
+    private JsonPatchDiff() {
+    }
+
+    /**
+     * @return Массив операций, переводящих source в target. Пустой, если документы равны.
+     */
+    public static ArrayNode diff(JsonNode source, JsonNode target) {
+        ArrayNode ops = JsonNodeFactory.instance.arrayNode();
+        diff("", source, target, ops);
+        return ops;
+    }
+
+    private static void diff(String path, JsonNode source, JsonNode target, ArrayNode ops) {
+        if (source.equals(target)) {
+            return;
+        }
+        if (source.isObject() && target.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = source.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                String fieldPath = path + "/" + escape(field.getKey());
+                JsonNode targetValue = target.get(field.getKey());
+                if (targetValue == null) {
+                    ops.addObject().put("op", "remove").put("path", fieldPath);
+                } else {
+                    diff(fieldPath, field.getValue(), targetValue, ops);
+                }
+            }
+            fields = target.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (!source.has(field.getKey())) {
+                    ops.addObject().put("op", "add").put("path", path + "/" + escape(field.getKey()))
+                            .set("value", field.getValue());
+                }
+            }
+        } else if (source.isArray() && target.isArray() && source.size() == target.size()) {
+            for (int i = 0; i < source.size(); i++) {
+                diff(path + "/" + i, source.get(i), target.get(i), ops);
+            }
+        } else {
+            ops.addObject().put("op", "replace").put("path", path).set("value", target);
+        }
+    }
+
+    /**
+     * Экранирование сегмента пути по RFC 6901
+     */
+    private static String escape(String key) {
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+}
@@ -0,0 +1,574 @@
+package org.openpnp.api.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.FutureCallback;
+import io.javalin.websocket.WsContext;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Location;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.spi.Camera;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.HeadMountable;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.MotionPlanner;
+import org.openpnp.spi.Nozzle;
+import org.pmw.tinylog.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Команды управления движением по WebSocket в формате JSON с идентификаторами запросов.
+ *
+ * Запрос: <code>{"id": 17, "cmd": "jog", "target": "N1", "axis": "X", "offset": 1.0}</code>.
+ * Команды движения (move, moveAxis, jog, home, wait) не выполняются в потоке сокета: они
+ * ставятся в общую очередь, клиент сразу получает подтверждение "ack" со статусом "queued", а
+ * после выполнения каждой команды - отдельный "result" с тем же id. Очередь выполняется одной
+ * задачей машины, поэтому несколько команд подряд попадают в планировщик движения без пауз между
+ * задачами. Относительные перемещения вычисляются в момент выполнения, от позиции после
+ * предыдущих команд очереди.
+ *
+ * Ошибка команды отменяет ожидающие команды того же подключения: они получают "result" со
+ * статусом "cancelled", команды других подключений выполняются дальше. Если задача очереди
+ * завершилась ошибкой или была отменена машиной из-за ошибки другой задачи, отменяются все
+ * ожидающие команды (как и очередь задач машины).
+ */
+public class MotionCommandService {
+
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_DONE = "done";
+    public static final String STATUS_ERROR = "error";
+    public static final String STATUS_CANCELLED = "cancelled";
+
+    /**
+     * Максимальное количество ожидающих команд одного подключения
+     */
+    public static final int MAX_PENDING_COMMANDS = 32;
+
+    private static final double DEFAULT_SPEED = 0.5;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final MachineService machineService = new MachineService();
+
+    private static final Object lock = new Object();
+    private static final ArrayDeque<PendingCommand> queue = new ArrayDeque<>();
+    private static boolean pumpScheduled = false;
+
+    /**
+     * Действие команды движения, выполняется в потоке задачи машины
+     */
+    @FunctionalInterface
+    private interface MotionAction {
+        void run(Machine machine) throws Exception;
+    }
+
+    /**
+     * Команда в очереди
+     */
+    private static class PendingCommand {
+        final WsContext ctx;
+        final String connectionId;
+        final JsonNode id;
+        final String cmd;
+        final HeadMountable headMountable;
+        final MotionAction action;
+
+        PendingCommand(WsContext ctx, JsonNode id, String cmd, HeadMountable headMountable, MotionAction action) {
+            this.ctx = ctx;
+            this.connectionId = ctx.sessionId();
+            this.id = id;
+            this.cmd = cmd;
+            this.headMountable = headMountable;
+            this.action = action;
+        }
+    }
+
+    private MotionCommandService() {
+    }
+
+    /**
+     * Является ли сообщение JSON командой
+     */
+    public static boolean isCommand(String message) {
+        return message.startsWith("{");
+    }
+
+    /**
+     * Обработать JSON команду
+     */
+    public static void handleCommand(WsContext ctx, String message) {
+        JsonNode request;
+        try {
+            request = objectMapper.readTree(message);
+        } catch (Exception e) {
+            sendResult(ctx, null, STATUS_ERROR, createError("Неверный JSON: " + e.getMessage()));
+            return;
+        }
+
+        JsonNode id = request.get("id");
+        String cmd = request.path("cmd").asText("");
+        try {
+            switch (cmd) {
+                case "ping":
+                    sendResult(ctx, id, STATUS_DONE, null);
+                    break;
+                case "getHeadMountables":
+                    handleGetHeadMountables(ctx, id);
+                    break;
+                case "getPosition":
+                    handleGetPosition(ctx, id, request);
+                    break;
+                case "stop":
+                    handleStop(ctx, id, request);
+                    break;
+                case "move":
+                    enqueueMove(ctx, id, request);
+                    break;
+                case "moveAxis":
+                    enqueueMoveAxis(ctx, id, request);
+                    break;
+                case "jog":
+                    enqueueJog(ctx, id, request);
+                    break;
+                case "home":
+                    enqueueHome(ctx, id, request);
+                    break;
+                case "wait":
+                    enqueueWait(ctx, id, request);
+                    break;
+                case "jogVelocity":
+                    handleJogVelocity(ctx, id, request);
+                    break;
+                case "jogStop":
+                    JogVelocityService.stop(ctx, JogVelocityService.REASON_CLIENT);
+                    sendResult(ctx, id, STATUS_DONE, null);
+                    break;
+                default:
+                    sendResult(ctx, id, STATUS_ERROR, createError("Неизвестная команда: " + cmd));
+            }
+        } catch (Exception e) {
+            Logger.warn("Ошибка команды {} (id={}): {}", cmd, id, e.getMessage());
+            sendResult(ctx, id, STATUS_ERROR, createError(e.getMessage()));
+        }
+    }
+
+    /**
+     * Отменить команды закрытого подключения без ответа
+     */
+    public static void removeConnection(WsContext ctx) {
+        JogVelocityService.stop(ctx, JogVelocityService.REASON_DISCONNECTED);
+        synchronized (lock) {
+            takeCommands(ctx.sessionId());
+        }
+    }
+
+    /**
+     * Количество команд в очереди
+     */
+    public static int getQueueDepth() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    // ========== Немедленные команды ==========
+
+    private static void handleGetHeadMountables(WsContext ctx, JsonNode id) throws Exception {
+        Machine machine = getMachine();
+        ArrayNode list = objectMapper.createArrayNode();
+        for (Head head : machine.getHeads()) {
+            for (Camera camera : head.getCameras()) {
+                list.addObject().put("id", camera.getId()).put("name", camera.getName()).put("type", "camera");
+            }
+            for (Nozzle nozzle : head.getNozzles()) {
+                list.addObject().put("id", nozzle.getId()).put("name", nozzle.getName()).put("type", "nozzle");
+            }
+        }
+        ObjectNode data = objectMapper.createObjectNode();
+        data.set("headMountables", list);
+        sendResult(ctx, id, STATUS_DONE, data);
+    }
+
+    private static void handleGetPosition(WsContext ctx, JsonNode id, JsonNode request) throws Exception {
+        HeadMountable headMountable = getTarget(getMachine(), request);
+        ObjectNode data = objectMapper.createObjectNode();
+        data.set("location", toJson(headMountable.getLocation()));
+        sendResult(ctx, id, STATUS_DONE, data);
+    }
+
+    /**
+     * Отменить ожидающие команды подключения. С "target": "all" дополнительно выполняется
+     * аварийная остановка машины.
+     */
+    private static void handleStop(WsContext ctx, JsonNode id, JsonNode request) throws Exception {
+        JogVelocityService.stop(ctx, JogVelocityService.REASON_CLIENT);
+        List<PendingCommand> cancelled;
+        synchronized (lock) {
+            cancelled = takeCommands(ctx.sessionId());
+        }
+        sendCancelled(cancelled, "Отменено командой stop");
+
+        if ("all".equals(request.path("target").asText())) {
+            machineService.emergencyStop();
+            Logger.info("Выполнена аварийная остановка машины");
+        }
+        ObjectNode data = objectMapper.createObjectNode();
+        data.put("cancelled", cancelled.size());
+        sendResult(ctx, id, STATUS_DONE, data);
+    }
+
+    /**
+     * Джог по скорости: скорости осей vx, vy, vz (мм/с) и vc (град/с). Каждое сообщение продлевает
+     * контроль присутствия, поэтому ответ отправляется, только если указан id.
+     */
+    private static void handleJogVelocity(WsContext ctx, JsonNode id, JsonNode request) throws Exception {
+        Machine machine = getEnabledMachine();
+        HeadMountable headMountable = getTarget(machine, request);
+        boolean jogging = JogVelocityService.update(ctx, machine, headMountable, getVelocity(request, "vx"),
+                getVelocity(request, "vy"), getVelocity(request, "vz"), getVelocity(request, "vc"));
+        if (id != null) {
+            ObjectNode data = objectMapper.createObjectNode();
+            data.put("jogging", jogging);
+            sendResult(ctx, id, STATUS_DONE, data);
+        }
+    }
+
+    // ========== Команды движения ==========
+
+    private static void enqueueMove(WsContext ctx, JsonNode id, JsonNode request) throws Exception {
+        Machine machine = getEnabledMachine();
+        HeadMountable headMountable = getTarget(machine, request);
+        Location targetLocation = new Location(LengthUnit.Millimeters, getCoordinate(request, "x"),
+                getCoordinate(request, "y"), getCoordinate(request, "z"), getCoordinate(request, "rotation"));
+        double speed = getSpeed(request);
+        enqueue(machine, new PendingCommand(ctx, id, "move", headMountable,
+                m -> headMountable.moveTo(targetLocation, speed)));
+    }
+
+    private static void enqueueMoveAxis(WsContext ctx, JsonNode id, JsonNode request) throws Exception {
+        Machine machine = getEnabledMachine();
+        HeadMountable headMountable = getTarget(machine, request);
+        String axis = getAxis(request);
+        double coordinate = getRequiredNumber(request, "coordinate");
+        double speed = getSpeed(request);
+        enqueue(machine, new PendingCommand(ctx, id, "moveAxis", headMountable, m -> {
+            Location current = headMountable.getLocation().convertToUnits(LengthUnit.Millimeters);
+            headMountable.moveTo(deriveAxis(current, axis, coordinate), speed);
+        }));
+    }
+
+    private static void enqueueJog(WsContext ctx, JsonNode id, JsonNode request) throws Exception {
+        Machine machine = getEnabledMachine();
+        HeadMountable headMountable = getTarget(machine, request);
+        String axis = getAxis(request);
+        double offset = getRequiredNumber(request, "offset");
+        double speed = getSpeed(request);
+        enqueue(machine, new PendingCommand(ctx, id, "jog", headMountable, m -> {
+            // Позиция берется в момент выполнения, поэтому серия шагов накапливается корректно
+            Location current = headMountable.getLocation().convertToUnits(LengthUnit.Millimeters);
+            headMountable.moveTo(deriveAxis(current, axis, getAxisCoordinate(current, axis) + offset), speed);
+        }));
+    }
+
+    private static void enqueueHome(WsContext ctx, JsonNode id, JsonNode request) throws Exception {
+        Machine machine = getEnabledMachine();
+        if ("all".equals(request.path("target").asText())) {
+            enqueue(machine, new PendingCommand(ctx, id, "home", null, Machine::home));
+        } else {
+            HeadMountable headMountable = getTarget(machine, request);
+            enqueue(machine, new PendingCommand(ctx, id, "home", headMountable,
+                    m -> headMountable.moveToSafeZ()));
+        }
+    }
+
+    private static void enqueueWait(WsContext ctx, JsonNode id, JsonNode request) throws Exception {
+        Machine machine = getEnabledMachine();
+        HeadMountable headMountable = request.hasNonNull("target") ? getTarget(machine, request) : null;
+        enqueue(machine, new PendingCommand(ctx, id, "wait", headMountable,
+                m -> m.getMotionPlanner().waitForCompletion(headMountable,
+                        MotionPlanner.CompletionType.WaitForStillstand)));
+    }
+
+    /**
+     * Поставить команду в очередь и подтвердить ее. Подтверждение ставится в исходящую очередь
+     * под блокировкой, чтобы оно гарантированно ушло раньше результата.
+     */
+    private static void enqueue(Machine machine, PendingCommand command) {
+        synchronized (lock) {
+            int pending = 0;
+            for (PendingCommand queued : queue) {
+                if (queued.connectionId.equals(command.connectionId)) {
+                    pending++;
+                }
+            }
+            if (pending >= MAX_PENDING_COMMANDS) {
+                sendResult(command.ctx, command.id, STATUS_ERROR,
+                        createError("Очередь команд переполнена (" + MAX_PENDING_COMMANDS + ")"));
+                return;
+            }
+
+            ObjectNode ack = createReply("ack", command.id, STATUS_QUEUED);
+            ack.put("queueDepth", pending + 1);
+            WebSocketService.sendMessage(command.ctx, ack.toString());
+
+            queue.add(command);
+            schedulePump(machine);
+        }
+    }
+
+    /**
+     * Запланировать задачу машины, выполняющую очередь. Вызывается под блокировкой.
+     */
+    private static void schedulePump(Machine machine) {
+        if (pumpScheduled) {
+            return;
+        }
+        pumpScheduled = true;
+        machine.submit(() -> {
+            runPump(machine);
+            return null;
+        }, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // Задача очереди завершилась ошибкой или была отменена машиной вместе с остальными
+                // задачами (CancellationException), поэтому без отмены команды ждали бы вечно
+                cancelAll(t.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Выполнить все команды очереди в одной задаче машины
+     */
+    private static void runPump(Machine machine) throws Exception {
+        while (true) {
+            PendingCommand command;
+            synchronized (lock) {
+                command = queue.poll();
+                if (command == null) {
+                    pumpScheduled = false;
+                    return;
+                }
+            }
+            try {
+                command.action.run(machine);
+                // Команда передана контроллерам (без ожидания остановки, как при джоге)
+                machine.getMotionPlanner().waitForCompletion(null, MotionPlanner.CompletionType.CommandJog);
+            } catch (Exception e) {
+                Logger.error("Ошибка команды {} (id={}): {}", command.cmd, command.id, e.getMessage());
+                sendResult(command.ctx, command.id, STATUS_ERROR, createError(e.getMessage()));
+                // Как и машина после ошибки задачи, выполняем уже переданные движения и синхронизируем
+                // позицию. Если и это не удалось, задача завершается ошибкой и onFailure отменяет все.
+                machine.getMotionPlanner().waitForCompletion(null, MotionPlanner.CompletionType.WaitForStillstand);
+                List<PendingCommand> cancelled;
+                synchronized (lock) {
+                    cancelled = takeCommands(command.connectionId);
+                }
+                sendCancelled(cancelled, "Отменено после ошибки: " + e.getMessage());
+                continue;
+            }
+            ObjectNode data = objectMapper.createObjectNode();
+            if (command.headMountable != null) {
+                data.set("location", toJson(command.headMountable.getLocation()));
+            }
+            sendResult(command.ctx, command.id, STATUS_DONE, data);
+        }
+    }
+
+    /**
+     * Отменить все ожидающие команды после ошибки задачи очереди
+     */
+    private static void cancelAll(String reason) {
+        List<PendingCommand> cancelled;
+        synchronized (lock) {
+            cancelled = new ArrayList<>(queue);
+            queue.clear();
+            pumpScheduled = false;
+        }
+        sendCancelled(cancelled, "Отменено после ошибки: " + reason);
+    }
+
+    /**
+     * Удалить из очереди команды подключения. Вызывается под блокировкой.
+     */
+    private static List<PendingCommand> takeCommands(String connectionId) {
+        List<PendingCommand> taken = new ArrayList<>();
+        Iterator<PendingCommand> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            PendingCommand command = iterator.next();
+            if (command.connectionId.equals(connectionId)) {
+                iterator.remove();
+                taken.add(command);
+            }
+        }
+        return taken;
+    }
+
+    private static void sendCancelled(List<PendingCommand> cancelled, String reason) {
+        for (PendingCommand command : cancelled) {
+            sendResult(command.ctx, command.id, STATUS_CANCELLED, createError(reason));
+        }
+    }
+
+    // ========== Вспомогательные методы ==========
+
+    private static ObjectNode createReply(String type, JsonNode id, String status) {
+        ObjectNode reply = objectMapper.createObjectNode();
+        reply.put("type", type);
+        reply.set("id", id != null ? id : NullNode.instance);
+        reply.put("status", status);
+        return reply;
+    }
+
+    private static ObjectNode createError(String error) {
+        ObjectNode data = objectMapper.createObjectNode();
+        data.put("error", error);
+        return data;
+    }
+
+    private static void sendResult(WsContext ctx, JsonNode id, String status, ObjectNode data) {
+        ObjectNode result = createReply("result", id, status);
+        if (data != null) {
+            result.setAll(data);
+        }
+        WebSocketService.sendMessage(ctx, result.toString());
+    }
+
+    private static ObjectNode toJson(Location location) {
+        Location mm = location.convertToUnits(LengthUnit.Millimeters);
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("x", mm.getX());
+        node.put("y", mm.getY());
+        node.put("z", mm.getZ());
+        node.put("rotation", mm.getRotation());
+        return node;
+    }
+
+    private static Machine getMachine() throws Exception {
+        Machine machine = Configuration.get().getMachine();
+        if (machine == null) {
+            throw new Exception("Машина не инициализирована");
+        }
+        return machine;
+    }
+
+    private static Machine getEnabledMachine() throws Exception {
+        Machine machine = getMachine();
+        if (!machine.isEnabled()) {
+            throw new Exception("Машина не включена");
+        }
+        return machine;
+    }
+
+    private static HeadMountable getTarget(Machine machine, JsonNode request) throws Exception {
+        String target = request.path("target").asText("");
+        HeadMountable headMountable = findHeadMountable(machine, target);
+        if (headMountable == null) {
+            throw new Exception("HeadMountable с ID '" + target + "' не найден");
+        }
+        return headMountable;
+    }
+
+    /**
+     * Поиск HeadMountable по ID или имени
+     */
+    public static HeadMountable findHeadMountable(Machine machine, String identifier) {
+        for (Head head : machine.getHeads()) {
+            // Ищем среди камер
+            for (Camera camera : head.getCameras()) {
+                if (camera.getId().equals(identifier) || camera.getName().equals(identifier)) {
+                    return camera;
+                }
+            }
+            // Ищем среди сопел
+            for (Nozzle nozzle : head.getNozzles()) {
+                if (nozzle.getId().equals(identifier) || nozzle.getName().equals(identifier)) {
+                    return nozzle;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Координата из запроса, отсутствующая или null означает "не перемещать" (NaN)
+     */
+    private static double getCoordinate(JsonNode request, String field) {
+        JsonNode value = request.get(field);
+        return value == null || !value.isNumber() ? Double.NaN : value.asDouble();
+    }
+
+    private static double getRequiredNumber(JsonNode request, String field) throws Exception {
+        JsonNode value = request.get(field);
+        if (value == null || !value.isNumber()) {
+            throw new Exception("Не указано числовое поле '" + field + "'");
+        }
+        return value.asDouble();
+    }
+
+    private static double getVelocity(JsonNode request, String field) {
+        JsonNode value = request.get(field);
+        return value != null && value.isNumber() && Double.isFinite(value.asDouble()) ? value.asDouble() : 0;
+    }
+
+    private static double getSpeed(JsonNode request) {
+        JsonNode value = request.get("speed");
+        return value != null && value.isNumber() ? value.asDouble() : DEFAULT_SPEED;
+    }
+
+    private static String getAxis(JsonNode request) throws Exception {
+        String axis = request.path("axis").asText("").toUpperCase();
+        switch (axis) {
+            case "X":
+            case "Y":
+            case "Z":
+            case "C":
+            case "ROTATION":
+                return axis;
+            default:
+                throw new Exception("Неизвестный тип оси: " + request.path("axis").asText(""));
+        }
+    }
+
+    /**
+     * Позиция, в которой изменена только указанная ось
+     */
+    public static Location deriveAxis(Location location, String axis, double coordinate) {
+        switch (axis.toUpperCase()) {
+            case "X":
+                return location.derive(coordinate, null, null, null);
+            case "Y":
+                return location.derive(null, coordinate, null, null);
+            case "Z":
+                return location.derive(null, null, coordinate, null);
+            case "ROTATION":
+            case "C":
+                return location.derive(null, null, null, coordinate);
+            default:
+                throw new IllegalArgumentException("Неизвестный тип оси: " + axis);
+        }
+    }
+
+    private static double getAxisCoordinate(Location location, String axis) {
+        switch (axis.toUpperCase()) {
+            case "X":
+                return location.getX();
+            case "Y":
+                return location.getY();
+            case "Z":
+                return location.getZ();
+            default:
+                return location.getRotation();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.openpnp.api.services;
+
+import org.pmw.tinylog.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Объединение запросов на рассылку статуса с ограничением частоты.
+ *
+ * Вместо отдельной задачи на каждое изменение свойства хранится единственный флаг "есть
+ * изменения". Первый запрос после публикации планирует одну публикацию не раньше, чем через
+ * минимальный интервал после предыдущей; все запросы до ее выполнения сливаются с ней. Поэтому
+ * при интенсивном движении стоимость рассылки зависит только от максимальной частоты, а не от
+ * количества событий.
+ */
+public class StatusBroadcastCoalescer {
+
+    /**
+     * Планировщик отложенной публикации
+     */
+    @FunctionalInterface
+    interface Scheduler {
+        Future<?> schedule(Runnable task, long delayNanos);
+    }
+
+    private final Runnable publisher;
+    private final long minIntervalNanos;
+    private final double maxRateHz;
+    private final LongSupplier clock;
+    private final Scheduler scheduler;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong emitted = new AtomicLong();
+    private volatile long lastPublishNanos;
+    private volatile Future<?> pending;
+
+    /**
+     * @param publisher Публикация статуса, вызывается в потоке планировщика
+     * @param maxRateHz Максимальное количество публикаций в секунду
+     */
+    public StatusBroadcastCoalescer(Runnable publisher, double maxRateHz) {
+        this(publisher, maxRateHz, System::nanoTime, createScheduler());
+    }
+
+    /**
+     * @param clock Текущее время в нс
+     * @param scheduler Планировщик публикаций
+     */
+    StatusBroadcastCoalescer(Runnable publisher, double maxRateHz, LongSupplier clock, Scheduler scheduler) {
+        if (maxRateHz <= 0) {
+            throw new IllegalArgumentException("Частота публикаций должна быть больше 0");
+        }
+        this.publisher = publisher;
+        this.maxRateHz = maxRateHz;
+        this.minIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / maxRateHz);
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.lastPublishNanos = clock.getAsLong() - minIntervalNanos;
+    }
+
+    private static Scheduler createScheduler() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "StatusBroadcastCoalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return (task, delayNanos) -> executor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Отметить, что статус изменился. Не блокирует вызывающий поток.
+     */
+    public void requestUpdate() {
+        requested.incrementAndGet();
+        if (dirty.getAndSet(true)) {
+            // Уже запланирована публикация, изменение войдет в нее
+            suppressed.incrementAndGet();
+            return;
+        }
+        long delayNanos = Math.max(0, lastPublishNanos + minIntervalNanos - clock.getAsLong());
+        pending = scheduler.schedule(this::publish, delayNanos);
+    }
+
+    private void publish() {
+        // Сбрасываем флаг до публикации: изменения во время рассылки запланируют следующую
+        dirty.set(false);
+        lastPublishNanos = clock.getAsLong();
+        emitted.incrementAndGet();
+        try {
+            publisher.run();
+        } catch (Exception e) {
+            Logger.error("Ошибка публикации статуса: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Отменить запланированную публикацию
+     */
+    public void cancel() {
+        Future<?> future = pending;
+        if (future != null) {
+            future.cancel(false);
+        }
+        dirty.set(false);
+    }
+
+    public double getMaxRateHz() {
+        return maxRateHz;
+    }
+
+    /**
+     * Количество запросов на публикацию
+     */
+    public long getRequestedCount() {
+        return requested.get();
+    }
+
+    /**
+     * Количество запросов, слитых с уже запланированной публикацией
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    /**
+     * Количество выполненных публикаций
+     */
+    public long getEmittedCount() {
+        return emitted.get();
+    }
+}
@@ -0,0 +1,186 @@
+package org.openpnp.api.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Контроллер перегрузки для одной сессии стрима камеры.
+ *
+ * Следит за объемом неотправленных данных (кадр в очереди + кадр в отправке), задержкой
+ * доставки кадров и отброшенными кадрами, и по ним перемещает сессию по "лестнице" параметров
+ * кодирования: качество JPEG, коэффициент уменьшения и FPS. При перегрузке сессия сразу
+ * опускается на ступень вниз, а поднимается обратно только после устойчиво хорошего периода,
+ * чтобы не раскачиваться между ступенями.
+ */
+public class StreamCongestionController {
+
+    /**
+     * Целевая задержка доставки кадра, мс
+     */
+    public static final long TARGET_LATENCY_MS = 200;
+
+    /**
+     * Максимальный объем неотправленных данных сессии, байт
+     */
+    public static final long MAX_OUTSTANDING_BYTES = 1024 * 1024;
+
+    /**
+     * Минимальный интервал между переключениями ступеней вниз, мс
+     */
+    private static final long STEP_DOWN_COOLDOWN_MS = 1000;
+
+    /**
+     * Время устойчиво хорошей доставки перед подъемом на ступень вверх, мс
+     */
+    private static final long STEP_UP_HOLD_MS = 5000;
+
+    /**
+     * Коэффициент сглаживания задержки (EWMA)
+     */
+    private static final double LATENCY_SMOOTHING = 0.25;
+
+    /**
+     * Ступень лестницы параметров кодирования
+     */
+    public static class Rung {
+        public final int level;
+        public final float jpegQuality;
+        public final double scale;
+        public final int fps;
+
+        Rung(int level, float jpegQuality, double scale, int fps) {
+            this.level = level;
+            this.jpegQuality = jpegQuality;
+            this.scale = scale;
+            this.fps = Math.max(1, fps);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d (JPEG %.0f%%, масштаб %.2f, %d FPS)", level, jpegQuality * 100, scale, fps);
+        }
+    }
+
+    private final List<Rung> ladder;
+    private final boolean adaptive;
+    private int level = 0;
+    private long outstandingBytes = 0;
+    private double latencyMs = 0;
+    private long lastStepDownTime = 0;
+    private long healthySince = 0;
+    private long stepsDown = 0;
+    private long stepsUp = 0;
+
+    /**
+     * @param compressionQuality Запрошенное клиентом качество JPEG (верхняя ступень)
+     * @param fps Запрошенный клиентом FPS (верхняя ступень)
+     * @param adaptive Если false, сессия всегда остается на верхней ступени
+     */
+    public StreamCongestionController(float compressionQuality, int fps, boolean adaptive) {
+        this.ladder = buildLadder(compressionQuality, fps);
+        this.adaptive = adaptive;
+        this.healthySince = System.currentTimeMillis();
+    }
+
+    private static List<Rung> buildLadder(float q, int fps) {
+        List<Rung> ladder = new ArrayList<>();
+        ladder.add(new Rung(0, q, 1.0, fps));
+        ladder.add(new Rung(1, Math.min(q, 0.7f), 1.0, fps));
+        ladder.add(new Rung(2, Math.min(q, 0.6f), 0.75, fps));
+        ladder.add(new Rung(3, Math.min(q, 0.5f), 0.5, fps * 2 / 3));
+        ladder.add(new Rung(4, Math.min(q, 0.4f), 0.5, fps / 2));
+        ladder.add(new Rung(5, Math.min(q, 0.35f), 0.25, fps / 4));
+        return Collections.unmodifiableList(ladder);
+    }
+
+    public synchronized Rung getCurrentRung() {
+        return ladder.get(level);
+    }
+
+    public List<Rung> getLadder() {
+        return ladder;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public synchronized long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    public synchronized double getLatencyMs() {
+        return latencyMs;
+    }
+
+    public synchronized long getStepsDown() {
+        return stepsDown;
+    }
+
+    public synchronized long getStepsUp() {
+        return stepsUp;
+    }
+
+    /**
+     * Кадр поставлен в очередь на отправку
+     */
+    public synchronized void onFrameQueued(int bytes) {
+        outstandingBytes += bytes;
+        if (outstandingBytes > MAX_OUTSTANDING_BYTES) {
+            stepDown(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Кадр из очереди был заменен более свежим, т.е. клиент не успевает за сессией
+     */
+    public synchronized void onFrameDropped(int bytes) {
+        outstandingBytes = Math.max(0, outstandingBytes - bytes);
+        stepDown(System.currentTimeMillis());
+    }
+
+    /**
+     * Кадр отправлен
+     *
+     * @param latencyMs Время от кодирования кадра до завершения его отправки
+     */
+    public synchronized void onFrameSent(int bytes, long latencyMs) {
+        outstandingBytes = Math.max(0, outstandingBytes - bytes);
+        this.latencyMs = this.latencyMs == 0 ? latencyMs
+                : this.latencyMs + LATENCY_SMOOTHING * (latencyMs - this.latencyMs);
+
+        long now = System.currentTimeMillis();
+        if (this.latencyMs > TARGET_LATENCY_MS) {
+            stepDown(now);
+        } else if (this.latencyMs < TARGET_LATENCY_MS / 2) {
+            if (now - healthySince >= STEP_UP_HOLD_MS) {
+                stepUp(now);
+            }
+        } else {
+            // Между порогами: держим ступень, но не копим "хорошее" время
+            healthySince = now;
+        }
+    }
+
+    private void stepDown(long now) {
+        healthySince = now;
+        if (!adaptive || level == ladder.size() - 1 || now - lastStepDownTime < STEP_DOWN_COOLDOWN_MS) {
+            return;
+        }
+        level++;
+        stepsDown++;
+        lastStepDownTime = now;
+    }
+
+    private void stepUp(long now) {
+        healthySince = now;
+        if (!adaptive || level == 0) {
+            return;
+        }
+        level--;
+        stepsUp++;
+        // Сбрасываем оценку задержки, чтобы новая ступень оценивалась по своим кадрам
+        latencyMs = 0;
+    }
+}
@@ -1,32 +1,111 @@
 package org.openpnp.api.services;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.javalin.websocket.WsContext;
 import org.openpnp.api.models.machine.MachineStatus;
 import org.pmw.tinylog.Logger;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Сервис для управления WebSocket подключениями и отправки обновлений статуса
  * машины
+ *
+ * Поддерживаются два режима подключения:
+ * <ul>
+ * <li>{@link #STATUS_MODE_FULL} (по умолчанию) - каждое обновление содержит полный
+ * {@link MachineStatus}.</li>
+ * <li>{@link #STATUS_MODE_DELTA} - при подключении отправляется полный снимок статуса с номером
+ * версии, далее только изменения в формате JSON Patch, каждое со следующим номером. Клиент,
+ * обнаруживший пропуск номера, запрашивает новый снимок командой "resync".</li>
+ * </ul>
+ *
+ * Сообщения отправляются через собственную {@link WsOutboundQueue} каждого подключения, поэтому
+ * медленный клиент не задерживает рассылку остальным.
  */
 public class WebSocketService {
 
-    private static final ConcurrentHashMap<String, WsContext> connections = new ConcurrentHashMap<>();
+    public static final String STATUS_MODE_FULL = "full";
+    public static final String STATUS_MODE_DELTA = "delta";
+
+    /**
+     * Максимальная частота рассылки статуса по событиям машины, Гц
+     */
+    public static final double DEFAULT_MAX_STATUS_RATE_HZ = 30;
+
+    private static final ConcurrentHashMap<String, WsOutboundQueue> connections = new ConcurrentHashMap<>();
+    private static final Set<String> deltaConnections = ConcurrentHashMap.newKeySet();
     private static final ObjectMapper objectMapper = new ObjectMapper();
     private static final MachineService machineService = new MachineService();
 
+    /**
+     * Последний разосланный статус и его номер версии. Изменяются только под statusLock, чтобы
+     * номера дельт шли строго подряд и снимки не перемежались с дельтами.
+     */
+    private static final Object statusLock = new Object();
+    private static JsonNode lastStatus;
+    private static long statusSequence = 0;
+
+    /**
+     * Объединяет все изменения свойств машины в не более чем одну рассылку за период
+     */
+    private static final StatusBroadcastCoalescer statusCoalescer = new StatusBroadcastCoalescer(
+            WebSocketService::broadcastStatusUpdate,
+            getDoubleProperty("openpnp.websocket.status.max.rate", DEFAULT_MAX_STATUS_RATE_HZ));
+
+    private static double getDoubleProperty(String name, double defaultValue) {
+        try {
+            double value = Double.parseDouble(System.getProperty(name, String.valueOf(defaultValue)));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // используем значение по умолчанию
+        }
+        Logger.warn("Некорректное значение " + name + ", используется " + defaultValue);
+        return defaultValue;
+    }
+
     /**
      * Добавить новое WebSocket подключение
      */
     public static void addConnection(WsContext ctx) {
+        addConnection(ctx, STATUS_MODE_FULL);
+    }
+
+    /**
+     * Добавить новое WebSocket подключение в заданном режиме статуса
+     */
+    public static void addConnection(WsContext ctx, String statusMode) {
         String connectionId = ctx.sessionId();
-        connections.put(connectionId, ctx);
-        Logger.info("WebSocket подключение добавлено: " + connectionId);
+        boolean delta = STATUS_MODE_DELTA.equals(statusMode);
+        if (delta) {
+            deltaConnections.add(connectionId);
+        }
+        // Полный статус важен только последний; в потоке дельт отбрасываются самые старые, и
+        // клиент по пропуску номера запрашивает снимок
+        WsOutboundQueue queue = new WsOutboundQueue(ctx, "status:" + connectionId, WsOutboundQueue.DEFAULT_CAPACITY,
+                delta ? WsOutboundQueue.OverflowPolicy.DROP_OLDEST : WsOutboundQueue.OverflowPolicy.LATEST_WINS,
+                WsOutboundQueue.DEFAULT_MAX_LAG_MS, () -> removeConnection(ctx));
+        WsOutboundQueue previous = connections.put(connectionId, queue);
+        if (previous != null) {
+            previous.close();
+        }
+        Logger.info("WebSocket подключение добавлено: " + connectionId + " (режим статуса: "
+                + (delta ? STATUS_MODE_DELTA : STATUS_MODE_FULL) + ")");
 
         // Отправляем текущий статус сразу после подключения
-        sendStatusUpdate(ctx);
+        if (delta) {
+            sendStatusSnapshot(ctx);
+        } else {
+            sendStatusUpdate(ctx);
+        }
     }
 
     /**
@@ -34,33 +113,138 @@ public class WebSocketService {
      */
     public static void removeConnection(WsContext ctx) {
         String connectionId = ctx.sessionId();
-        connections.remove(connectionId);
-        Logger.info("WebSocket подключение удалено: " + connectionId);
+        WsOutboundQueue queue = connections.remove(connectionId);
+        deltaConnections.remove(connectionId);
+        if (queue != null) {
+            queue.close();
+            Logger.info("WebSocket подключение удалено: " + connectionId);
+        }
     }
 
     /**
-     * Отправить обновление статуса всем подключенным клиентам
+     * Работает ли подключение в режиме дельт
+     */
+    public static boolean isDeltaConnection(WsContext ctx) {
+        return deltaConnections.contains(ctx.sessionId());
+    }
+
+    /**
+     * Отправить обновление статуса всем подключенным клиентам. Клиенты в режиме дельт получают
+     * только изменения относительно предыдущей рассылки; если ничего не изменилось, им ничего
+     * не отправляется.
      */
     public static void broadcastStatusUpdate() {
         try {
             MachineStatus status = machineService.getMachineStatus();
-            String statusJson = objectMapper.writeValueAsString(status);
+            JsonNode statusNode = objectMapper.valueToTree(status);
+            String statusJson = null;
+            String deltaJson = null;
 
-            connections.values().forEach(ctx -> {
-                try {
-                    ctx.send(statusJson);
-                } catch (Exception e) {
-                    Logger.error("Ошибка отправки WebSocket сообщения: " + e.getMessage());
-                    // Удаляем проблемное подключение
-                    removeConnection(ctx);
+            synchronized (statusLock) {
+                if (!deltaConnections.isEmpty() && lastStatus != null) {
+                    ArrayNode ops = JsonPatchDiff.diff(lastStatus, statusNode);
+                    if (ops.size() > 0) {
+                        deltaJson = createDeltaMessage(ops);
+                    }
+                } else if (lastStatus == null || !lastStatus.equals(statusNode)) {
+                    // Без клиентов в режиме дельт просто продвигаем версию, чтобы снимки
+                    // последующих клиентов имели актуальный номер
+                    statusSequence++;
                 }
-            });
+                lastStatus = statusNode;
+
+                // Только постановка в очереди: отправка идет в потоках подключений
+                for (Map.Entry<String, WsOutboundQueue> connection : connections.entrySet()) {
+                    boolean delta = deltaConnections.contains(connection.getKey());
+                    if (delta && deltaJson == null) {
+                        continue;
+                    }
+                    if (!delta && statusJson == null) {
+                        statusJson = objectMapper.writeValueAsString(statusNode);
+                    }
+                    connection.getValue().offer(WsOutboundQueue.text(delta ? deltaJson : statusJson, true));
+                }
+            }
 
         } catch (Exception e) {
             Logger.error("Ошибка получения статуса машины для WebSocket: " + e.getMessage());
         }
     }
 
+    /**
+     * Отметить, что статус машины изменился. Рассылка выполняется асинхронно и не чаще
+     * {@link #getMaxStatusRateHz()} раз в секунду; изменения, пришедшие до нее, объединяются.
+     */
+    public static void requestStatusUpdate() {
+        statusCoalescer.requestUpdate();
+    }
+
+    /**
+     * Создать сообщение дельты со следующим номером версии. Вызывается под statusLock.
+     */
+    private static String createDeltaMessage(ArrayNode ops) throws Exception {
+        statusSequence++;
+        ObjectNode delta = objectMapper.createObjectNode();
+        delta.put("type", "status_delta");
+        delta.put("seq", statusSequence);
+        delta.put("timestamp", System.currentTimeMillis());
+        delta.set("ops", ops);
+        return objectMapper.writeValueAsString(delta);
+    }
+
+    /**
+     * Обработать запрос статуса от клиента: клиенту в режиме дельт отправляется новый снимок,
+     * остальным - полный статус рассылкой, как и раньше.
+     */
+    public static void requestStatus(WsContext ctx) {
+        if (isDeltaConnection(ctx)) {
+            sendStatusSnapshot(ctx);
+        } else {
+            broadcastStatusUpdate();
+        }
+    }
+
+    /**
+     * Отправить клиенту в режиме дельт полный снимок статуса с текущим номером версии. Следующая
+     * дельта будет иметь номер seq + 1.
+     */
+    public static void sendStatusSnapshot(WsContext ctx) {
+        try {
+            MachineStatus status = machineService.getMachineStatus();
+            JsonNode statusNode = objectMapper.valueToTree(status);
+
+            synchronized (statusLock) {
+                // Снимок и дельты должны строиться от одного и того же состояния, иначе клиент
+                // применит следующую дельту к несовпадающему документу
+                if (lastStatus == null || !lastStatus.equals(statusNode)) {
+                    if (lastStatus != null && !deltaConnections.isEmpty()) {
+                        // Остальным клиентам рассылаем накопившиеся изменения, чтобы их версия
+                        // совпала с версией снимка
+                        String deltaJson = createDeltaMessage(JsonPatchDiff.diff(lastStatus, statusNode));
+                        for (Map.Entry<String, WsOutboundQueue> other : connections.entrySet()) {
+                            if (!other.getKey().equals(ctx.sessionId())
+                                    && deltaConnections.contains(other.getKey())) {
+                                other.getValue().offer(WsOutboundQueue.text(deltaJson, true));
+                            }
+                        }
+                    } else {
+                        statusSequence++;
+                    }
+                    lastStatus = statusNode;
+                }
+
+                ObjectNode snapshot = objectMapper.createObjectNode();
+                snapshot.put("type", "status_snapshot");
+                snapshot.put("seq", statusSequence);
+                snapshot.put("timestamp", System.currentTimeMillis());
+                snapshot.set("status", statusNode);
+                send(ctx, WsOutboundQueue.text(objectMapper.writeValueAsString(snapshot), false));
+            }
+        } catch (Exception e) {
+            Logger.error("Ошибка отправки снимка статуса клиенту: " + e.getMessage());
+        }
+    }
+
     /**
      * Отправить обновление статуса конкретному клиенту
      */
@@ -68,12 +252,45 @@ public class WebSocketService {
         try {
             MachineStatus status = machineService.getMachineStatus();
             String statusJson = objectMapper.writeValueAsString(status);
-            ctx.send(statusJson);
+            send(ctx, WsOutboundQueue.text(statusJson, true));
         } catch (Exception e) {
             Logger.error("Ошибка отправки статуса клиенту: " + e.getMessage());
         }
     }
 
+    /**
+     * Отправить клиенту сообщение, которое нельзя отбросить (ответ на команду). Сообщение
+     * ставится в очередь подключения, поток вызывающего не ждет сеть.
+     */
+    public static void sendMessage(WsContext ctx, String message) {
+        WsOutboundQueue queue = connections.get(ctx.sessionId());
+        if (queue != null) {
+            queue.offer(WsOutboundQueue.text(message, false));
+        } else {
+            ctx.send(message);
+        }
+    }
+
+    /**
+     * Отправить всем подключенным клиентам сообщение, которое нельзя отбросить (события
+     * задания и т.п.)
+     */
+    public static void broadcastMessage(String message) {
+        for (WsOutboundQueue queue : connections.values()) {
+            queue.offer(WsOutboundQueue.text(message, false));
+        }
+    }
+
+    /**
+     * Отправить сообщение через очередь подключения
+     */
+    private static void send(WsContext ctx, WsOutboundQueue.Message message) {
+        WsOutboundQueue queue = connections.get(ctx.sessionId());
+        if (queue != null) {
+            queue.offer(message);
+        }
+    }
+
     /**
      * Получить количество активных подключений
      */
@@ -81,6 +298,50 @@ public class WebSocketService {
         return connections.size();
     }
 
+    /**
+     * Получить количество подключений в режиме дельт
+     */
+    public static int getDeltaConnectionCount() {
+        return deltaConnections.size();
+    }
+
+    /**
+     * Текущий номер версии статуса
+     */
+    public static long getStatusSequence() {
+        synchronized (statusLock) {
+            return statusSequence;
+        }
+    }
+
+    /**
+     * Состояние исходящих очередей всех WebSocket подключений (статус и стримы камер)
+     */
+    public static List<WsOutboundQueue.Stats> getOutboundQueueStats() {
+        return WsOutboundQueue.getAllStats();
+    }
+
+    /**
+     * Максимальная частота рассылки статуса, Гц
+     */
+    public static double getMaxStatusRateHz() {
+        return statusCoalescer.getMaxRateHz();
+    }
+
+    /**
+     * Количество рассылок статуса, выполненных по событиям машины
+     */
+    public static long getStatusUpdatesEmitted() {
+        return statusCoalescer.getEmittedCount();
+    }
+
+    /**
+     * Количество событий машины, объединенных с уже запланированной рассылкой
+     */
+    public static long getStatusUpdatesSuppressed() {
+        return statusCoalescer.getSuppressedCount();
+    }
+
     /**
      * Запустить реалтаймовые WebSocket обновления
      */
@@ -99,8 +360,14 @@ public class WebSocketService {
      * Очистить все подключения
      */
     public static void cleanup() {
+        connections.values().forEach(WsOutboundQueue::close);
         connections.clear();
+        deltaConnections.clear();
+        statusCoalescer.cancel();
+        synchronized (statusLock) {
+            lastStatus = null;
+        }
         stopPeriodicUpdates();
         Logger.info("WebSocket сервис очищен");
     }
-}
\ No newline at end of file
+}
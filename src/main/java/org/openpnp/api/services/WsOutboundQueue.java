@@ -0,0 +1,374 @@
+package org.openpnp.api.services;
+
+import io.javalin.websocket.WsContext;
+import org.pmw.tinylog.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограниченная очередь исходящих сообщений одного WebSocket подключения.
+ *
+ * Производители (рассылка статуса, кодировщик камеры) только ставят сообщения в очередь и
+ * никогда не ждут сеть. Отправку выполняет отдельная задача в общем пуле, по одной задаче на
+ * подключение, поэтому зависший клиент блокирует только собственную отправку. При переполнении
+ * очередь отбрасывает сообщения согласно {@link OverflowPolicy}, а клиент, отстающий больше
+ * {@link #DEFAULT_MAX_LAG_MS}, отключается.
+ *
+ * Неотбрасываемые сообщения (ответы, снимки статуса, ошибки) никогда не вытесняются и не
+ * учитываются в емкости.
+ */
+public class WsOutboundQueue {
+
+    /**
+     * Емкость очереди по умолчанию
+     */
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("openpnp.websocket.queue.capacity", 16);
+
+    /**
+     * Максимальный возраст самого старого недоставленного сообщения, после которого клиент
+     * отключается, мс
+     */
+    public static final long DEFAULT_MAX_LAG_MS = Long.getLong("openpnp.websocket.max.lag.ms", 5000);
+
+    /**
+     * Код закрытия WebSocket для отключенного медленного клиента (1008 - Policy Violation)
+     */
+    public static final int CLOSE_SLOW_CONSUMER = 1008;
+
+    /**
+     * Поведение при переполнении очереди
+     */
+    public enum OverflowPolicy {
+        /**
+         * Отбрасывается самое старое отбрасываемое сообщение (поток дельт: клиент увидит пропуск
+         * номера и запросит снимок)
+         */
+        DROP_OLDEST,
+        /**
+         * Новое сообщение заменяет все ожидающие отбрасываемые сообщения (полный статус, кадры
+         * камеры: важен только последний)
+         */
+        LATEST_WINS
+    }
+
+    /**
+     * Исходящее сообщение
+     */
+    public static abstract class Message {
+        private final boolean droppable;
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        protected Message(boolean droppable) {
+            this.droppable = droppable;
+        }
+
+        public boolean isDroppable() {
+            return droppable;
+        }
+
+        public long getEnqueuedAt() {
+            return enqueuedAt;
+        }
+
+        /**
+         * Отправить сообщение. Вызывается в потоке отправки очереди.
+         */
+        protected abstract void send(WsContext ctx) throws Exception;
+
+        /**
+         * Сообщение доставлено
+         */
+        protected void onSent() {
+        }
+
+        /**
+         * Сообщение отброшено без отправки
+         */
+        protected void onDropped() {
+        }
+    }
+
+    /**
+     * Текстовое сообщение
+     */
+    public static Message text(String text, boolean droppable) {
+        return new Message(droppable) {
+            @Override
+            protected void send(WsContext ctx) {
+                ctx.send(text);
+            }
+        };
+    }
+
+    /**
+     * Состояние очереди подключения
+     */
+    public static class Stats {
+        public String name;
+        public String policy;
+        public int capacity;
+        public int depth;
+        public int maxDepth;
+        public long sent;
+        public long dropped;
+        public long lagMs;
+    }
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final ExecutorService sendExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "WebSocketSend-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Set<WsOutboundQueue> queues = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong totalDropped = new AtomicLong();
+    private static final AtomicLong slowConsumerDisconnects = new AtomicLong();
+
+    private final WsContext ctx;
+    private final String name;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long maxLagMs;
+    private final Runnable onDisconnect;
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private int droppableCount = 0;
+    private int maxDepth = 0;
+    private Message inFlight;
+    private boolean draining = false;
+    private boolean closed = false;
+    private long sent = 0;
+    private long dropped = 0;
+
+    /**
+     * @param name Имя для логов и метрик
+     * @param onDisconnect Вызывается один раз, если клиент отключен за отставание или отправка
+     *        завершилась ошибкой
+     */
+    public WsOutboundQueue(WsContext ctx, String name, int capacity, OverflowPolicy policy, long maxLagMs,
+            Runnable onDisconnect) {
+        this.ctx = ctx;
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.maxLagMs = maxLagMs;
+        this.onDisconnect = onDisconnect;
+        queues.add(this);
+    }
+
+    public WsContext getContext() {
+        return ctx;
+    }
+
+    /**
+     * Поставить сообщение в очередь
+     *
+     * @return false, если очередь закрыта или клиент отключен за отставание
+     */
+    public boolean offer(Message message) {
+        long now = System.currentTimeMillis();
+        List<Message> droppedMessages = null;
+        boolean accepted = false;
+        boolean disconnect = false;
+        synchronized (this) {
+            if (closed) {
+                droppedMessages = List.of(message);
+            } else if (maxLagMs > 0 && getLagMs(now) > maxLagMs) {
+                disconnect = true;
+            } else {
+                if (message.isDroppable()) {
+                    droppedMessages = makeRoom();
+                    droppableCount++;
+                }
+                queue.add(message);
+                accepted = true;
+                maxDepth = Math.max(maxDepth, queue.size());
+                if (!draining) {
+                    draining = true;
+                    sendExecutor.execute(this::drain);
+                }
+            }
+        }
+        notifyDropped(droppedMessages);
+        if (disconnect) {
+            slowConsumerDisconnects.incrementAndGet();
+            Logger.warn("WebSocket клиент {} отстает больше {} мс, отключаем", name, maxLagMs);
+            disconnect("Клиент не успевает получать сообщения");
+            notifyDropped(List.of(message));
+            return false;
+        }
+        return accepted;
+    }
+
+    /**
+     * Освободить место под новое отбрасываемое сообщение. Вызывается под блокировкой.
+     */
+    private List<Message> makeRoom() {
+        List<Message> removed = null;
+        Iterator<Message> iterator = queue.iterator();
+        while (iterator.hasNext()
+                && (policy == OverflowPolicy.LATEST_WINS ? droppableCount > 0 : droppableCount >= capacity)) {
+            Message queued = iterator.next();
+            if (queued.isDroppable()) {
+                iterator.remove();
+                droppableCount--;
+                if (removed == null) {
+                    removed = new ArrayList<>();
+                }
+                removed.add(queued);
+            }
+        }
+        return removed;
+    }
+
+    private void notifyDropped(List<Message> messages) {
+        if (messages == null) {
+            return;
+        }
+        for (Message message : messages) {
+            synchronized (this) {
+                dropped++;
+            }
+            totalDropped.incrementAndGet();
+            try {
+                message.onDropped();
+            } catch (Exception e) {
+                Logger.error("Ошибка обработки отброшенного сообщения {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Message message;
+            synchronized (this) {
+                inFlight = null;
+                message = closed ? null : queue.poll();
+                if (message == null) {
+                    draining = false;
+                    return;
+                }
+                if (message.isDroppable()) {
+                    droppableCount--;
+                }
+                inFlight = message;
+            }
+            try {
+                message.send(ctx);
+                synchronized (this) {
+                    sent++;
+                }
+                message.onSent();
+            } catch (Exception e) {
+                Logger.error("Ошибка отправки WebSocket сообщения {}: {}", name, e.getMessage());
+                synchronized (this) {
+                    inFlight = null;
+                    draining = false;
+                }
+                disconnect(null);
+                notifyDropped(List.of(message));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Возраст самого старого недоставленного сообщения. Вызывается под блокировкой.
+     */
+    private long getLagMs(long now) {
+        Message oldest = inFlight != null ? inFlight : queue.peek();
+        return oldest == null ? 0 : now - oldest.getEnqueuedAt();
+    }
+
+    /**
+     * Закрыть очередь и отключить клиента. Если reason не null, сессия закрывается с кодом
+     * {@link #CLOSE_SLOW_CONSUMER}.
+     */
+    private void disconnect(String reason) {
+        if (!close()) {
+            return;
+        }
+        if (reason != null) {
+            try {
+                ctx.closeSession(CLOSE_SLOW_CONSUMER, reason);
+            } catch (Exception e) {
+                Logger.debug("Ошибка закрытия WebSocket сессии {}: {}", name, e.getMessage());
+            }
+        }
+        if (onDisconnect != null) {
+            try {
+                onDisconnect.run();
+            } catch (Exception e) {
+                Logger.error("Ошибка обработки отключения {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Закрыть очередь: ожидающие сообщения отбрасываются, новые не принимаются. Сообщение,
+     * отправляемое в данный момент, дописывается.
+     *
+     * @return true, если очередь была открыта
+     */
+    public boolean close() {
+        List<Message> pending;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            pending = new ArrayList<>(queue);
+            queue.clear();
+            droppableCount = 0;
+        }
+        queues.remove(this);
+        notifyDropped(pending);
+        return true;
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.name = name;
+        stats.policy = policy.name();
+        stats.capacity = capacity;
+        stats.depth = queue.size() + (inFlight != null ? 1 : 0);
+        stats.maxDepth = maxDepth;
+        stats.sent = sent;
+        stats.dropped = dropped;
+        stats.lagMs = getLagMs(System.currentTimeMillis());
+        return stats;
+    }
+
+    /**
+     * Состояние всех открытых очередей
+     */
+    public static List<Stats> getAllStats() {
+        List<Stats> result = new ArrayList<>();
+        for (WsOutboundQueue queue : queues) {
+            result.add(queue.getStats());
+        }
+        return result;
+    }
+
+    /**
+     * Всего отброшено сообщений, включая закрытые очереди
+     */
+    public static long getTotalDropped() {
+        return totalDropped.get();
+    }
+
+    /**
+     * Количество клиентов, отключенных за отставание
+     */
+    public static long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.get();
+    }
+}
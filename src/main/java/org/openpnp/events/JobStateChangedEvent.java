@@ -0,0 +1,18 @@
+package org.openpnp.events;
+
+import org.openpnp.model.JobRunner;
+
+public class JobStateChangedEvent {
+    final public JobRunner.State oldState;
+    final public JobRunner.State state;
+    /**
+     * The error that caused the change, or null if the change was requested or the job completed.
+     */
+    final public Throwable error;
+
+    public JobStateChangedEvent(JobRunner.State oldState, JobRunner.State state, Throwable error) {
+        this.oldState = oldState;
+        this.state = state;
+        this.error = error;
+    }
+}
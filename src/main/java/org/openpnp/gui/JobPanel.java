@@ -73,6 +73,7 @@ import org.openpnp.Translations;
 import org.openpnp.events.DefinitionStructureChangedEvent;
 import org.openpnp.events.PlacementsHolderLocationSelectedEvent;
 import org.openpnp.events.JobLoadedEvent;
+import org.openpnp.events.JobStateChangedEvent;
 import org.openpnp.events.PlacementSelectedEvent;
 import org.openpnp.events.PlacementsHolderLocationChangedEvent;
 import org.openpnp.gui.JobPanel.OpenRecentJobAction;
@@ -100,23 +101,21 @@ import org.openpnp.model.BoardLocation;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.PlacementsHolderLocation;
 import org.openpnp.model.Job;
+import org.openpnp.model.JobRunner;
+import org.openpnp.model.JobRunner.State;
 import org.openpnp.model.Length;
 import org.openpnp.model.Location;
 import org.openpnp.model.Panel;
 import org.openpnp.model.PanelLocation;
 import org.openpnp.model.Part;
-import org.openpnp.model.Motion;
 import org.openpnp.model.Placement;
-import org.openpnp.model.Placement.Type;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Feeder;
 import org.openpnp.spi.HeadMountable;
-import org.openpnp.spi.JobProcessor;
 import org.openpnp.spi.JobProcessor.JobProcessorException;
 import org.openpnp.spi.JobProcessor.TextStatusListener;
 import org.openpnp.spi.Machine;
 import org.openpnp.spi.MachineListener;
-import org.openpnp.spi.MotionPlanner;
 import org.openpnp.spi.Nozzle;
 import org.openpnp.util.MovableUtils;
 import org.openpnp.util.UiUtils;
@@ -125,14 +124,6 @@ import com.google.common.eventbus.Subscribe;
 
 @SuppressWarnings("serial")  //$NON-NLS-1$
 public class JobPanel extends JPanel {
-    enum State {
-        Stopped,
-        Paused,
-        Running,
-        Pausing,
-        Stopping
-    }
-    
     final private Configuration configuration;
     final private MainFrame mainFrame;
 
@@ -165,9 +156,7 @@ public class JobPanel extends JPanel {
 
     private Job job;
 
-    private JobProcessor jobProcessor;
-    
-    private State state = State.Stopped;
+    private final JobRunner jobRunner = JobRunner.get();
     
     public JobPanel(Configuration configuration, MainFrame frame) {
         this.configuration = configuration;
@@ -510,9 +499,31 @@ public class JobPanel extends JPanel {
         Configuration.get().getBus().register(this);
     }
     
-    void setState(State newState) {
-        this.state = newState;
-        updateJobActions();
+    @Subscribe
+    public void jobLoaded(JobLoadedEvent event) {
+        // The job may have been loaded by another client of the JobRunner, i.e. the API.
+        SwingUtilities.invokeLater(() -> {
+            if (event.job != job) {
+                // Don't lose unsaved changes silently. If the user cancels, the runner gets the 
+                // GUI job back.
+                if (!checkForJobModifications()) {
+                    jobRunner.setJob(job);
+                    return;
+                }
+                setJob(event.job);
+                mainFrame.getFeedersTab().updateView();
+            }
+        });
+    }
+
+    @Subscribe
+    public void jobStateChanged(JobStateChangedEvent event) {
+        SwingUtilities.invokeLater(() -> {
+            updateJobActions();
+            if (event.error != null) {
+                showJobError(event.error);
+            }
+        });
     }
     
     public JTable getPlacementsHolderLocationsTable() {
@@ -580,7 +591,7 @@ public class JobPanel extends JPanel {
         if (jobViewer != null) {
             jobViewer.setPlacementsHolder(job.getRootPanelLocation().getPlacementsHolder(), getSelections());
         }
-        Configuration.get().getBus().post(new JobLoadedEvent(job));
+        jobRunner.setJob(job);
     }
 
     public JobPlacementsPanel getJobPlacementsPanel() {
@@ -759,6 +770,7 @@ public class JobPanel extends JPanel {
      * Updates the Job controls based on the Job state and the Machine's readiness.
      */
     private void updateJobActions() {
+        State state = jobRunner.getState();
         if (state == State.Stopped) {
             startPauseResumeJobAction.setEnabled(true);
             startPauseResumeJobAction.putValue(AbstractAction.NAME,
@@ -829,7 +841,7 @@ public class JobPanel extends JPanel {
     }
     
     private boolean checkJobStopped() {
-        if (state != State.Stopped) {
+        if (jobRunner.getState() != State.Stopped) {
             MessageBoxes.errorBox(this, 
                     Translations.getString("JobPanel.CheckJobStopped.Error.ErrorBox.Title"),  //$NON-NLS-1$
                     Translations.getString("JobPanel.CheckJobStopped.Error.ErrorBox.Message")); //$NON-NLS-1$
@@ -920,14 +932,18 @@ public class JobPanel extends JPanel {
     };
 
     /**
-     * Initialize the job processor and start the run thread. The run thread will run one step and
-     * then either loop if the state is Running or exit if the state is Stepping.
+     * Offer to reset the placed status if everything is already placed and start the job on the
+     * JobRunner.
      * 
      * @throws Exception
      */
     public void jobStart() throws Exception {
-        jobProcessor = Configuration.get().getMachine().getPnpJobProcessor();
-        if (isAllPlaced()) {
+        confirmResetPlacements();
+        jobRunner.start();
+    }
+
+    private void confirmResetPlacements() {
+        if (jobRunner.isAllPlaced()) {
             int ret = JOptionPane.showConfirmDialog(getTopLevelAncestor(),
                     Translations.getString("JobPanel.JobStart.ResetPlacements.ConfirmDialog.Question"), //$NON-NLS-1$
                     Translations.getString("JobPanel.JobStart.ResetPlacements.ConfirmDIalog.Title"), JOptionPane.YES_NO_OPTION, //$NON-NLS-1$
@@ -937,64 +953,25 @@ public class JobPanel extends JPanel {
                 jobPlacementsPanel.refresh();
             }
         }
-        jobProcessor.initialize(job);
-        jobRun();
     }
-    
-    public void jobRun() {
-        UiUtils.submitUiMachineTask(() -> {
-            // For optional motion stepping, remember the past move.
-            MotionPlanner motionPlanner = Configuration.get().getMachine().getMotionPlanner();
-            Motion pastMotion = motionPlanner.getLastMotion();
-            do {
-                do { 
-                    if (!jobProcessor.next()) {
-                        setState(State.Stopped);
-                        break;
-                    }
-                    else if (state == State.Pausing) {
-                        // We're pausing, but check if we need motion before we can pause for real.
-                        Motion lastMotion = motionPlanner.getLastMotion();
-                        if (! (jobProcessor.isSteppingToNextMotion() && lastMotion == pastMotion)) {
-                            break;
-                        }
-                    }
-                }
-                while (state == State.Pausing);
-            } while (state == State.Running);
-            
-            if (state == State.Pausing) {
-                setState(State.Paused);
-            }
 
-            return null;
-        }, (e) -> {
-
-        }, (t) -> {
-            /**
-             * TODO It would be nice to give the user the ability to single click suppress errors
-             * on the currently processing placement, but that requires knowledge of the currently
-             * processing placement. With the current model where JobProcessor is available for
-             * both dispense and PnP this is not possible. Once dispense is removed we can include
-             * the current placement in the thrown error and add this feature.
-             */
-            if (t instanceof JobProcessorException) {
-                JobProcessorException jpe = (JobProcessorException)t;
-                selectJobProcessorExceptionSource(jpe.getSecondarySource(),false);
-                selectJobProcessorExceptionSource(jpe.getSource(),true);
-            }
-            
-            // update the state before showing the error to allow exceptions with continuations to change it
-            if (state == State.Running || state == State.Pausing) {
-                setState(State.Paused);
-            }
-            else if (state == State.Stopping) {
-                setState(State.Stopped);
-            }
-            
-            // call showError() to support exceptions with continuation
-            UiUtils.showError(getTopLevelAncestor(), Translations.getString("JobPanel.JobRun.Error.ErrorBox.Title"), t); //$NON-NLS-1$
-        });
+    private void showJobError(Throwable t) {
+        /**
+         * TODO It would be nice to give the user the ability to single click suppress errors
+         * on the currently processing placement, but that requires knowledge of the currently
+         * processing placement. With the current model where JobProcessor is available for
+         * both dispense and PnP this is not possible. Once dispense is removed we can include
+         * the current placement in the thrown error and add this feature.
+         */
+        if (t instanceof JobProcessorException) {
+            JobProcessorException jpe = (JobProcessorException)t;
+            selectJobProcessorExceptionSource(jpe.getSecondarySource(),false);
+            selectJobProcessorExceptionSource(jpe.getSource(),true);
+        }
+        
+        // the JobRunner updated the state before posting the error, call showError() to support
+        // exceptions with continuation
+        UiUtils.showError(getTopLevelAncestor(), Translations.getString("JobPanel.JobRun.Error.ErrorBox.Title"), t); //$NON-NLS-1$
     }
 
     private void selectJobProcessorExceptionSource(Object source,boolean primary) {
@@ -1058,28 +1035,6 @@ public class JobPanel extends JPanel {
         }
     }
 
-    private void jobAbort() {
-        UiUtils.submitUiMachineTask(() -> {
-            try {
-                jobProcessor.abort();
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-            }
-            setState(State.Stopped);
-        });
-    }
-    
-    // resume a job that's currently in state Paused - used to continue after a manual nozzle tip change from within the JobProcessor
-    public void jobResume() {
-        if (state == State.Paused) {
-            setState(State.Running);
-            jobRun();
-        } else {
-            Logger.debug("Can't resume, job not in Paused state.");
-        }
-    }
-    
     public final Action startPauseResumeJobAction = new AbstractAction() {
         {
             putValue(SMALL_ICON, Icons.start);
@@ -1090,17 +1045,16 @@ public class JobPanel extends JPanel {
         @Override
         public void actionPerformed(ActionEvent arg0) {
             UiUtils.messageBoxOnException(() -> {
+                State state = jobRunner.getState();
                 if (state == State.Stopped) {
-                    setState(State.Running);
                     jobStart();
                 }
                 else if (state == State.Paused) {
-                    setState(State.Running);
-                    jobRun();
+                    jobRunner.resume();
                 }
                 // If we're running and the user hits pause we pause.
                 else if (state == State.Running) {
-                    setState(State.Pausing);
+                    jobRunner.pause();
                 }
                 else {
                     throw new Exception("Don't know how to change from state " + state); //$NON-NLS-1$
@@ -1119,14 +1073,10 @@ public class JobPanel extends JPanel {
         @Override
         public void actionPerformed(ActionEvent arg0) {
             UiUtils.messageBoxOnException(() -> {
-                if (state == State.Stopped) {
-                    setState(State.Pausing);
-                    jobStart();
-                }
-                else if (state == State.Paused) {
-                    setState(State.Pausing);
-                    jobRun();
+                if (jobRunner.getState() == State.Stopped) {
+                    confirmResetPlacements();
                 }
+                jobRunner.step();
             });
         }
     };
@@ -1141,8 +1091,7 @@ public class JobPanel extends JPanel {
         @Override
         public void actionPerformed(ActionEvent arg0) {
             UiUtils.messageBoxOnException(() -> {
-                setState(State.Stopping);
-                jobAbort();
+                jobRunner.stop();
             });
         }
     };
@@ -1747,7 +1696,6 @@ public class JobPanel extends JPanel {
 
         @Override
         public void machineDisabled(Machine machine, String reason) {
-            setState(State.Stopped);
             updateJobActions();
         }
     };
@@ -1766,27 +1714,4 @@ public class JobPanel extends JPanel {
         // Would be better to have property notifiers but this is going to have to do for now.
         repaint();
     };
-    
-    boolean isAllPlaced() {
-    	for (BoardLocation boardLocation : job.getBoardLocations()) {
-    	    if (!boardLocation.isEnabled()) {
-    	        continue;
-    	    }
-        	for (Placement placement : boardLocation.getBoard().getPlacements()) {
-                if (placement.getType() != Type.Placement) {
-                    continue;
-                }
-                if (!placement.isEnabled()) {
-                    continue;
-                }
-        	    if (placement.getSide() != boardLocation.getGlobalSide()) {
-        	        continue;
-        	    }
-                if (!job.retrievePlacedStatus(boardLocation, placement.getId())) {
-                    return false;
-                }
-        	}
-    	}
-    	return true;
-    }
 }
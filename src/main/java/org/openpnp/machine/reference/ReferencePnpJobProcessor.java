@@ -25,6 +25,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -33,7 +34,6 @@ import java.util.Map;
 import javax.swing.SwingUtilities;
 
 import org.openpnp.Translations;
-import org.openpnp.gui.JobPanel;
 import org.openpnp.gui.MainFrame;
 import org.openpnp.gui.support.Wizard;
 import org.openpnp.machine.reference.vision.AbstractPartAlignment;
@@ -41,6 +41,7 @@ import org.openpnp.machine.reference.wizards.ReferencePnpJobProcessorConfigurati
 import org.openpnp.model.BoardLocation;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Job;
+import org.openpnp.model.JobRunner;
 import org.openpnp.model.Length;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
@@ -65,6 +66,8 @@ import org.openpnp.spi.base.AbstractJobProcessor;
 import org.openpnp.spi.base.AbstractPnpJobProcessor;
 import org.openpnp.util.MovableUtils;
 import org.openpnp.util.TravelCost;
+import org.openpnp.util.TravelTime;
+import org.openpnp.util.RouteOptimizer;
 import org.openpnp.util.TravellingSalesman;
 import org.openpnp.util.UiUtils;
 import org.openpnp.util.Utils2D;
@@ -98,9 +101,26 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         }
     }
 
+    public enum RouteOptimization {
+        SimulatedAnnealing,         // random moves from the input order using the TravellingSalesman
+        LocalSearch;                // nearest neighbour route improved by 2-opt and Or-opt moves using the RouteOptimizer
+
+        @Override
+        public String toString() {
+            return Translations.getString("MachineSetup.JobProcessors.ReferencePnpJobProcessor.RouteOptimization." + this.name());
+        }
+    }
+
     @Attribute(required = false)
     protected JobOrderHint jobOrder = JobOrderHint.NozzleTips;
 
+    /**
+     * Optimizer used to plan the pick and place routes of the PickLocation, PickPlaceLocation and NozzleTips
+     * job orders.
+     */
+    @Attribute(required = false)
+    protected RouteOptimization routeOptimization = RouteOptimization.SimulatedAnnealing;
+
     @Attribute(required = false)
     protected int maxVisionRetries = 3;
     
@@ -131,6 +151,21 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
     @Attribute(required = false)
     boolean preRotateAllNozzles = true;
 
+    /**
+     * Number of simulated annealing chains the travelling salesman solver runs in parallel, keeping the 
+     * best route. More chains find better routes on large jobs, at the same wall clock time if there 
+     * are enough processor cores. 
+     */
+    @Attribute(required = false)
+    int travellingSalesmanChains = 1;
+
+    /**
+     * Time after which the travelling salesman solver is stopped and takes the best route found so far, 
+     * in milliseconds. 0 for no limit. 
+     */
+    @Attribute(required = false)
+    long travellingSalesmanTimeBudget = 0;
+
     @Element(required = false)
     public PnpJobPlanner planner = new SimplePnpJobPlanner();
 
@@ -407,7 +442,7 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                     null);
 
             // Solve it using the default heuristics.
-            tsm.solve();
+            solveTravellingSalesman(tsm);
 
             // Prepare feeders along the visit travel path.
             for (Feeder feeder : tsm.getTravel()) {
@@ -791,7 +826,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             }
             
             // route pick locations of all feeders through travelling salesman
-            TravellingSalesman<Feeder> tsm = new TravellingSalesman<>(
+            // and get the optimized list of feeders
+            feeders = optimizeRoute(
                     feeders, 
                     new TravellingSalesman.Locator<Feeder>() { 
                         @Override
@@ -799,14 +835,7 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                             return getPickLocation(locatable);
                         }
                     }, 
-                    startLocation,
-                    null);
-            
-            // Solve it using the default heuristics.
-            tsm.solve();
-            
-            // get the optimized list of feeders
-            feeders = tsm.getTravel();
+                    startLocation);
             
             // feed feeder locations back into jobPlacements as feederIndex
             for (JobPlacement p : local) {
@@ -884,7 +913,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                 input.removeAll(tmp);
                 
                 // optimize the path between place location of all placements in tmp
-                TravellingSalesman<JobPlacement> tsm = new TravellingSalesman<>(
+                // and add the optimized list of jobPlacements to the output list
+                output.addAll(optimizeRoute(
                         tmp, 
                         new TravellingSalesman.Locator<JobPlacement>() { 
                             @Override
@@ -892,14 +922,7 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                                 return locatable.getPlacement().getLocation();
                             }
                         }, 
-                        startLocation,
-                        null);
-                
-                // Solve it using the default heuristics.
-                tsm.solve();
-                
-                // add the optimized list of jobPlacements to the output list
-                output.addAll(tsm.getTravel());
+                        startLocation));
                 
                 // update startLocation to the end location of the last placement
                 startLocation = output.get(output.size() -1).getPlacement().getLocation();
@@ -908,6 +931,28 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             return output;
         }
         
+        /**
+         * Optimize the route through the given list using the selected route optimization.
+         * 
+         * @param input list to optimize
+         * @param locator provides the location of each list entry
+         * @param startLocation location to start from or null
+         * @return optimized list
+         */
+        private <T> List<T> optimizeRoute(List<T> input, TravellingSalesman.Locator<T> locator, Location startLocation) {
+            if (routeOptimization == RouteOptimization.LocalSearch) {
+                RouteOptimizer<T> optimizer = new RouteOptimizer<>(input, locator, startLocation, null);
+                optimizer.solve();
+                Logger.debug("Route optimization of {} locations completed in {}ms", input.size(), optimizer.getSolverDuration());
+                return optimizer.getTravel();
+            }
+            TravellingSalesman<T> tsm = new TravellingSalesman<>(input, locator, startLocation, null);
+            
+            // Solve it using the default heuristics.
+            solveTravellingSalesman(tsm);
+            return tsm.getTravel();
+        }
+
         /**
          * Plan placements by selecting the most efficient use of the available nozzle tips.
          * Initially all placements are grouped by their compatible nozzle tips. This groups
@@ -1098,13 +1143,9 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             return this;
         }
         
-        public void resumeJob() {
+        public void resumeJob() throws Exception {
             Logger.debug("Restarting the job now.");
-            // change the job state from within the UI thread (we are currently in a machine thread)
-            SwingUtilities.invokeLater(() -> { 
-                JobPanel j = MainFrame.get().getJobTab();
-                j.jobResume(); }
-            );
+            JobRunner.get().resume();
         }
     }
     
@@ -1947,6 +1988,41 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         this.preRotateAllNozzles = preRotateAllNozzles;
     }
 
+    public RouteOptimization getRouteOptimization() {
+        return routeOptimization;
+    }
+
+    public void setRouteOptimization(RouteOptimization routeOptimization) {
+        this.routeOptimization = routeOptimization;
+    }
+
+    public int getTravellingSalesmanChains() {
+        return travellingSalesmanChains;
+    }
+
+    public void setTravellingSalesmanChains(int travellingSalesmanChains) {
+        this.travellingSalesmanChains = Math.max(1, travellingSalesmanChains);
+    }
+
+    public long getTravellingSalesmanTimeBudget() {
+        return travellingSalesmanTimeBudget;
+    }
+
+    public void setTravellingSalesmanTimeBudget(long travellingSalesmanTimeBudget) {
+        this.travellingSalesmanTimeBudget = Math.max(0, travellingSalesmanTimeBudget);
+    }
+
+    /**
+     * Solve the travelling salesman problem using the default heuristics, with the configured chains and 
+     * time budget.
+     * 
+     * @param tsm
+     * @return The travelling distance of the solution.
+     */
+    protected double solveTravellingSalesman(TravellingSalesman<?> tsm) {
+        return tsm.solve(travellingSalesmanChains, travellingSalesmanTimeBudget);
+    }
+
     /**
      * This class groups a step for step for multi-nozzle optimization
      */
@@ -2015,7 +2091,7 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             double distance_ref = tsm.getTravellingDistance();
             
             // Solve it using the default heuristics.
-            tsm.solve();
+            solveTravellingSalesman(tsm);
             
             double distance_optimized = tsm.getTravellingDistance();
             
@@ -2422,7 +2498,7 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         @Attribute(required = false)
         protected Strategy strategy = Strategy.Minimize;
         
-        private boolean restart;
+        protected boolean restart;
         
         @Override
         public Strategy getStrategy() {
@@ -2667,4 +2743,437 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             return plannedPlacements;
         }
     }
+    
+    /**
+     * A planner that estimates the time of each pick, align and place cycle and assigns the
+     * placements to the nozzles of the head so that the cycle takes the least time per part.
+     * 
+     * The time is estimated using the MotionProfile solutions for the feedrate, acceleration and
+     * jerk limits of the axes, see {@link TravelTime}. The cycle visits the nozzle tip changers
+     * first, then the pick locations, the bottom camera for parts with alignment and finally the
+     * place locations, each in nearest neighbour order. The travel between them moves X, Y and 
+     * rotation at the same time, at each of them the nozzle moves down from Safe Z and back up. 
+     * Nozzle tip changes add the configured nozzleTipChangeTime on top of the travel.
+     * 
+     * The assignment is built greedily, one nozzle at a time, taking the placement that adds the
+     * least time to the cycle, then improved by replacing or swapping placements while the
+     * cycle gets faster. Like the SimplePnpJobPlanner, placements that need no nozzle tip change
+     * are planned first. Only the first placements of the job (see lookAhead) and the first ones
+     * compatible with each loaded nozzle tip are considered, so the job order is mostly kept.
+     * If the planning of the SimplePnpJobPlanner is estimated faster per part, it is taken instead.
+     * 
+     * With the strategies StartAsPlanned (on the first cycle) and FullyAsPlanned, the planning
+     * of the SimplePnpJobPlanner is used.
+     */
+    @Root
+    public static class TimeOptimalPnpJobPlanner extends SimplePnpJobPlanner {
+        /**
+         * Time in seconds a nozzle tip change takes in addition to the travel to the changer.
+         */
+        @Attribute(required = false)
+        protected double nozzleTipChangeTime = 5.0;
+
+        /**
+         * Number of placements considered for each cycle.
+         */
+        @Attribute(required = false)
+        protected int lookAhead = 32;
+
+        /**
+         * A candidate placement for a nozzle with the head locations it travels to.
+         */
+        private static class Option {
+            final Nozzle nozzle;
+            final NozzleTip nozzleTip;
+            final JobPlacement jobPlacement;
+            final boolean nozzleTipChange;
+            final Location unloadLocation;
+            final Location loadLocation;
+            final Location pickLocation;
+            final Location alignLocation;
+            final Location placeLocation;
+
+            Option(Nozzle nozzle, NozzleTip nozzleTip, JobPlacement jobPlacement) {
+                this.nozzle = nozzle;
+                this.nozzleTip = nozzleTip;
+                this.jobPlacement = jobPlacement;
+                this.nozzleTipChange = (nozzleTip != nozzle.getNozzleTip());
+                this.unloadLocation = nozzleTipChange ? getChangerLocation(nozzle, nozzle.getNozzleTip()) : null;
+                this.loadLocation = nozzleTipChange ? getChangerLocation(nozzle, nozzleTip) : null;
+                this.pickLocation = pickLocator.getLocation(jobPlacement, nozzle);
+                this.alignLocation = alignLocator.getLocation(jobPlacement, nozzle);
+                this.placeLocation = placeLocator.getLocation(jobPlacement, nozzle);
+            }
+
+            private static Location getChangerLocation(Nozzle nozzle, NozzleTip nozzleTip) {
+                if (!(nozzleTip instanceof ReferenceNozzleTip)) {
+                    return null;
+                }
+                return pickLocator.convertToHeadLocation(nozzle, 
+                        ((ReferenceNozzleTip) nozzleTip).getChangerStartLocation());
+            }
+        }
+
+        /**
+         * The travel time model and the start of the cycles planned for a head.
+         */
+        private class CycleModel {
+            private final TravelTime travelTime;
+            private final Location start;
+            /**
+             * Safe Z of the head location, or null if the Z moves are not estimated.
+             */
+            private final Double safeZ;
+
+            CycleModel(Head head, TravelTime travelTime) {
+                this.travelTime = travelTime;
+                Nozzle nozzle = head.getNozzles().get(0);
+                Location location = nozzle.getLocation();
+                this.start = pickLocator.convertToHeadLocation(nozzle, location);
+                Length safeZ = nozzle.getSafeZ();
+                Location safeLocation = (safeZ == null ? null 
+                        : pickLocator.convertToHeadLocation(nozzle, location.derive(null, null, 
+                                safeZ.convertToUnits(location.getUnits()).getValue(), null)));
+                this.safeZ = (safeLocation == null ? null 
+                        : safeLocation.convertToUnits(LengthUnit.Millimeters).getZ());
+            }
+
+            private double estimate(List<Option> planned) {
+                return new Cycle(this).estimate(sortedByNozzle(planned));
+            }
+        }
+
+        /**
+         * Travel time and end location of a cycle.
+         */
+        private class Cycle {
+            private final CycleModel model;
+            private double time;
+            private Location location;
+
+            Cycle(CycleModel model) {
+                this.model = model;
+                this.location = model.start;
+            }
+
+            /**
+             * @return The time to travel from a to b at safe Z, i.e. the X, Y and rotation moves.
+             */
+            private double getTravelTime(Location a, Location b) {
+                b = b.convertToUnits(a.getUnits());
+                return model.travelTime.getXyzcTime(a, b.derive(null, null, a.getZ(), null));
+            }
+
+            /**
+             * Travel to the location, then move down to its Z and back up to safe Z. 
+             */
+            private void moveTo(Location location) {
+                if (location == null) {
+                    return;
+                }
+                if (this.location != null) {
+                    time += getTravelTime(this.location, location);
+                }
+                if (model.safeZ != null) {
+                    double z = location.convertToUnits(LengthUnit.Millimeters).getZ();
+                    time += 2*model.travelTime.getZTime(model.safeZ - z);
+                }
+                this.location = location;
+            }
+
+            /**
+             * Visit the given locations in nearest neighbour order.
+             */
+            private void visit(List<Location> locations) {
+                while (!locations.isEmpty()) {
+                    int nearest = 0;
+                    if (location != null) {
+                        double leastTime = Double.POSITIVE_INFINITY;
+                        for (int i = 0; i < locations.size(); i++) {
+                            double t = getTravelTime(location, locations.get(i));
+                            if (t < leastTime) {
+                                leastTime = t;
+                                nearest = i;
+                            }
+                        }
+                    }
+                    moveTo(locations.remove(nearest));
+                }
+            }
+
+            private double estimate(List<Option> options) {
+                for (Option option : options) {
+                    if (option.nozzleTipChange) {
+                        time += nozzleTipChangeTime;
+                        moveTo(option.unloadLocation);
+                        moveTo(option.loadLocation);
+                    }
+                }
+                visit(options.stream().map(o -> o.pickLocation).filter(l -> l != null).collect(Collectors.toList()));
+                visit(options.stream().map(o -> o.alignLocation).filter(l -> l != null).collect(Collectors.toList()));
+                visit(options.stream().map(o -> o.placeLocation).filter(l -> l != null).collect(Collectors.toList()));
+                return time;
+            }
+        }
+
+        /**
+         * Estimate the time of the cycle of the given planned placements, the same way this planner 
+         * rates its own cycles. This allows to compare the plans of different planners.
+         * 
+         * @param head
+         * @param plannedPlacements
+         * @return The estimated time in seconds. 
+         * @throws Exception if the time can not be estimated.
+         */
+        public double estimate(Head head, List<PlannedPlacement> plannedPlacements) throws Exception {
+            if (pickLocator == null) {
+                throw new Exception("The job processor is not initialized.");
+            }
+            CycleModel model = new CycleModel(head, 
+                    new TravelTime(head.getNozzles().get(0), head.getMachine().getSpeed()));
+            List<Option> planned = new ArrayList<>();
+            for (PlannedPlacement plannedPlacement : plannedPlacements) {
+                planned.add(new Option(plannedPlacement.nozzle, plannedPlacement.nozzleTip, plannedPlacement.jobPlacement));
+            }
+            return model.estimate(planned);
+        }
+
+        @Override
+        public List<PlannedPlacement> plan(Head head, List<JobPlacement> jobPlacements, List<NozzleTip> nozzleTips) {
+            if (strategy == Strategy.FullyAsPlanned 
+                    || (strategy == Strategy.StartAsPlanned && restart)
+                    || pickLocator == null) {
+                return super.plan(head, jobPlacements, nozzleTips);
+            }
+            restart = false;
+
+            List<Nozzle> nozzles = new ArrayList<>(head.getNozzles());
+            if (nozzles.isEmpty()) {
+                return new ArrayList<>();
+            }
+            CycleModel model;
+            try {
+                model = new CycleModel(head, new TravelTime(nozzles.get(0), head.getMachine().getSpeed()));
+            }
+            catch (Exception e) {
+                Logger.trace("TravelTime() failed, using simple planning");
+                return super.plan(head, jobPlacements, nozzleTips);
+            }
+            if (nozzleTips == null || nozzleTips.isEmpty()) {
+                nozzleTips = new ArrayList<>(head.getMachine().getNozzleTips());
+            }
+
+            /**
+             * Collect the placements to consider: the first ones of the job and the first ones
+             * that can be placed with each loaded nozzle tip.
+             */
+            Set<JobPlacement> candidates = new LinkedHashSet<>();
+            candidates.addAll(jobPlacements.subList(0, Math.min(lookAhead, jobPlacements.size())));
+            for (Nozzle n : nozzles) {
+                NozzleTip nozzleTip = n.getNozzleTip();
+                if (nozzleTip != null) {
+                    jobPlacements.stream()
+                        .filter(jobPlacement -> isCompatible(jobPlacement, nozzleTip))
+                        .limit(lookAhead)
+                        .forEach(candidates::add);
+                }
+            }
+
+            /**
+             * Create the options of each nozzle: without nozzle tip change first, then with the first
+             * available nozzle tip that can handle the placement.
+             */
+            List<Option> options = new ArrayList<>();
+            List<Option> changeOptions = new ArrayList<>();
+            Set<NozzleTip> loadedNozzleTips = nozzles.stream()
+                    .map(n -> n.getNozzleTip())
+                    .filter(nozzleTip -> nozzleTip != null)
+                    .collect(Collectors.toSet());
+            for (Nozzle n : nozzles) {
+                for (JobPlacement jobPlacement : candidates) {
+                    NozzleTip loadedNozzleTip = n.getNozzleTip();
+                    if (loadedNozzleTip != null && isCompatible(jobPlacement, loadedNozzleTip)) {
+                        options.add(new Option(n, loadedNozzleTip, jobPlacement));
+                        continue;
+                    }
+                    for (NozzleTip nozzleTip : nozzleTips) {
+                        if (!loadedNozzleTips.contains(nozzleTip)
+                                && n.getCompatibleNozzleTips().contains(nozzleTip)
+                                && isCompatible(jobPlacement, nozzleTip)) {
+                            changeOptions.add(new Option(n, nozzleTip, jobPlacement));
+                            break;
+                        }
+                    }
+                }
+            }
+
+            List<Option> planned = new ArrayList<>();
+            assign(planned, options, nozzles, model);
+            assign(planned, changeOptions, nozzles, model);
+            options.addAll(changeOptions);
+            improve(planned, options, model);
+
+            /**
+             * The stock planning may still be faster per part, e.g. where it places more parts in the
+             * cycle. Take it in that case, so this planner is never worse by its own estimate.
+             */
+            List<PlannedPlacement> stockPlacements = super.plan(head, new ArrayList<>(jobPlacements), 
+                    new ArrayList<>(nozzleTips));
+            List<Option> stock = new ArrayList<>();
+            for (PlannedPlacement plannedPlacement : stockPlacements) {
+                stock.add(new Option(plannedPlacement.nozzle, plannedPlacement.nozzleTip, plannedPlacement.jobPlacement));
+            }
+            if (!stock.isEmpty() && (planned.isEmpty() 
+                    || model.estimate(stock)/stock.size() < model.estimate(planned)/planned.size())) {
+                Logger.trace("Stock planning is faster per part, using it");
+                planned = stock;
+            }
+
+            List<PlannedPlacement> plannedPlacements = new ArrayList<>();
+            for (Option option : planned) {
+                plannedPlacements.add(new PlannedPlacement(option.nozzle, option.nozzleTip, option.jobPlacement));
+                jobPlacements.remove(option.jobPlacement);
+                nozzleTips.remove(option.nozzleTip);
+            }
+            Logger.debug("Planned cycle of {} placements, estimated {}s", planned.size(), 
+                    new DecimalFormat("0.000").format(model.estimate(planned)));
+
+            return sort(plannedPlacements);
+        }
+
+        private static boolean isCompatible(JobPlacement jobPlacement, NozzleTip nozzleTip) {
+            Part part = jobPlacement.getPlacement().getPart();
+            return part.getPackage().getCompatibleNozzleTips().contains(nozzleTip);
+        }
+
+        private static boolean isFeasible(List<Option> planned, Option option, Option replaced) {
+            for (Option o : planned) {
+                if (o != replaced 
+                        && (o.nozzle == option.nozzle 
+                        || o.jobPlacement == option.jobPlacement
+                        || o.nozzleTip == option.nozzleTip)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private List<Option> sortedByNozzle(List<Option> planned) {
+            List<Option> sorted = new ArrayList<>(planned);
+            sorted.sort(Comparator.comparing(o -> o.nozzle.getName()));
+            return sorted;
+        }
+
+        /**
+         * Assign options to the unplanned nozzles, taking the one that adds the least time each.
+         */
+        private void assign(List<Option> planned, List<Option> options, List<Nozzle> nozzles, 
+                CycleModel model) {
+            while (planned.size() < nozzles.size()) {
+                Option best = null;
+                double leastTime = Double.POSITIVE_INFINITY;
+                for (Option option : options) {
+                    if (isFeasible(planned, option, null)) {
+                        planned.add(option);
+                        double time = model.estimate(planned);
+                        planned.remove(planned.size() - 1);
+                        if (time < leastTime) {
+                            leastTime = time;
+                            best = option;
+                        }
+                    }
+                }
+                if (best == null) {
+                    return;
+                }
+                planned.add(best);
+            }
+        }
+
+        /**
+         * Replace planned options by other options or swap the placements of two nozzles, while
+         * the cycle gets faster. Options with nozzle tip changes only replace each other, so no
+         * nozzle tip changes are added.
+         */
+        private void improve(List<Option> planned, List<Option> options, CycleModel model) {
+            final double eps = 1e-6;
+            final int maxPasses = 10;
+            double time = model.estimate(planned);
+            boolean improved = true;
+            for (int pass = 0; pass < maxPasses && improved; pass++) {
+                improved = false;
+                for (int i = 0; i < planned.size(); i++) {
+                    Option current = planned.get(i);
+                    for (Option option : options) {
+                        if (option.nozzle != current.nozzle 
+                                || option.nozzleTipChange != current.nozzleTipChange
+                                || !isFeasible(planned, option, current)) {
+                            continue;
+                        }
+                        planned.set(i, option);
+                        double t = model.estimate(planned);
+                        if (t < time - eps) {
+                            time = t;
+                            current = option;
+                            improved = true;
+                        }
+                        else {
+                            planned.set(i, current);
+                        }
+                    }
+                }
+                // swap placements between nozzles with the same nozzle tip change status
+                for (int i = 0; i < planned.size(); i++) {
+                    for (int j = i + 1; j < planned.size(); j++) {
+                        Option a = planned.get(i);
+                        Option b = planned.get(j);
+                        Option swappedA = findOption(options, a.nozzle, b.jobPlacement, a.nozzleTipChange);
+                        Option swappedB = findOption(options, b.nozzle, a.jobPlacement, b.nozzleTipChange);
+                        if (swappedA == null || swappedB == null 
+                                || swappedA.nozzleTip == swappedB.nozzleTip) {
+                            continue;
+                        }
+                        planned.set(i, swappedA);
+                        planned.set(j, swappedB);
+                        double t = model.estimate(planned);
+                        if (t < time - eps) {
+                            time = t;
+                            improved = true;
+                        }
+                        else {
+                            planned.set(i, a);
+                            planned.set(j, b);
+                        }
+                    }
+                }
+            }
+        }
+
+        private static Option findOption(List<Option> options, Nozzle nozzle, JobPlacement jobPlacement, 
+                boolean nozzleTipChange) {
+            for (Option option : options) {
+                if (option.nozzle == nozzle && option.jobPlacement == jobPlacement 
+                        && option.nozzleTipChange == nozzleTipChange) {
+                    return option;
+                }
+            }
+            return null;
+        }
+
+        public double getNozzleTipChangeTime() {
+            return nozzleTipChangeTime;
+        }
+
+        public void setNozzleTipChangeTime(double nozzleTipChangeTime) {
+            this.nozzleTipChangeTime = nozzleTipChangeTime;
+        }
+
+        public int getLookAhead() {
+            return lookAhead;
+        }
+
+        public void setLookAhead(int lookAhead) {
+            this.lookAhead = lookAhead;
+        }
+    }
 }
@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.opencv.core.Mat;
 import org.openpnp.CameraListener;
 import org.openpnp.ConfigurationListener;
 import org.openpnp.model.Configuration;
@@ -43,6 +44,7 @@ import org.openpnp.spi.Machine;
 import org.openpnp.spi.MachineListener;
 import org.openpnp.spi.base.AbstractActuator;
 import org.openpnp.util.MovableUtils;
+import org.openpnp.util.OpenCvUtils;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
 
@@ -70,6 +72,14 @@ public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera
      */
     private AtomicReference<BufferedImage> lastTransformedImage = new AtomicReference<>();
 
+    /**
+     * The lastTransformedMat is produced by transformMat() and consumed by the Camera thread, which only 
+     * then converts it to a BufferedImage. As the transformed Mat itself is owned by the caller, it is copied
+     * into a buffer that is recycled through spareTransformedMat, so no native memory is churned per frame.
+     */
+    private AtomicReference<Mat> lastTransformedMat = new AtomicReference<>();
+    private AtomicReference<Mat> spareTransformedMat = new AtomicReference<>();
+
     volatile private boolean cameraViewDirty;
 
     AbstractBroadcastingCamera() {
@@ -162,14 +172,65 @@ public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera
     }
 
     protected BufferedImage getLastTransformedImage() {
-        return lastTransformedImage.get();
+        BufferedImage img = lastTransformedImage.get();
+        if (img == null) {
+            Mat mat = lastTransformedMat.getAndSet(null);
+            if (mat != null) {
+                img = OpenCvUtils.toBufferedImage(mat);
+                recycleTransformedMat(mat);
+                lastTransformedImage.compareAndSet(null, img);
+            }
+        }
+        return img;
     }
 
     protected void setLastTransformedImage(BufferedImage lastTransformedImage) {
         this.lastTransformedImage.set(lastTransformedImage);
+        recycleTransformedMat(lastTransformedMat.getAndSet(null));
+        notifyCapture();
+    }
+
+    /**
+     * Same as setLastTransformedImage(), but the conversion to a BufferedImage is deferred until the 
+     * Camera thread actually broadcasts it. 
+     * 
+     * @param mat The transformed Mat, it is copied and remains owned by the caller. 
+     */
+    protected void setLastTransformedMat(Mat mat) {
+        Mat frame = spareTransformedMat.getAndSet(null);
+        if (frame == null) {
+            frame = new Mat();
+        }
+        // Only reallocates if the size or type changed.
+        mat.copyTo(frame);
+        this.lastTransformedImage.set(null);
+        recycleTransformedMat(lastTransformedMat.getAndSet(frame));
         notifyCapture();
     }
 
+    private void recycleTransformedMat(Mat mat) {
+        if (mat != null && !spareTransformedMat.compareAndSet(null, mat)) {
+            mat.release();
+        }
+    }
+
+    /**
+     * Takes the last transformed image for broadcasting, converting it from the last transformed Mat, if needed.
+     * 
+     * @return The image or null if none is available.
+     */
+    private BufferedImage takeLastTransformedImage() {
+        BufferedImage img = lastTransformedImage.getAndSet(null);
+        if (img == null) {
+            Mat mat = lastTransformedMat.getAndSet(null);
+            if (mat != null) {
+                img = OpenCvUtils.toBufferedImage(mat);
+                recycleTransformedMat(mat);
+            }
+        }
+        return img;
+    }
+
     protected void notifyCapture() {
         synchronized(captureNotifier) {
             captureNotifier.notifyAll();
@@ -305,6 +366,11 @@ public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera
     @Override
     public void close() throws IOException {
         stop();
+        recycleTransformedMat(lastTransformedMat.getAndSet(null));
+        Mat spare = spareTransformedMat.getAndSet(null);
+        if (spare != null) {
+            spare.release();
+        }
     }
 
     protected synchronized void start() {
@@ -330,13 +396,13 @@ public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera
                 // every call to captureTransformed() may consume the frame and make it unavailable 
                 // to computer vision.  
                 // Note, by using the atomic getAndSet() we make sure not to miss the last image.
-                BufferedImage img = lastTransformedImage.getAndSet(null);
+                BufferedImage img = takeLastTransformedImage();
                 if (img == null && !isPreviewSuspended()) {
                     if (hasNewFrame()){
                         // None available, try capture a new frame.
                         captureTransformed();
                         // Void the last image, so a new one will be triggered next time.
-                        img = lastTransformedImage.getAndSet(null);
+                        img = takeLastTransformedImage();
                     }
                 }
                 if (img != null) {
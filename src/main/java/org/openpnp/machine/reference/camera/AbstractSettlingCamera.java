@@ -263,10 +263,11 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
         }
     }
 
-    private BufferedImage autoSettleAndCapture(double settleMaskCircle) throws Exception {
+    private Mat autoSettleAndCapture(double settleMaskCircle) throws Exception {
         Mat mask = null;
         Mat maskFullsize = null;
         Mat lastSettleMat = null;
+        Mat frame = null;
 
         try {
             long t0 = NanosecondTime.getRuntimeMilliseconds();
@@ -285,8 +286,11 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
                     settleGraph.getRow(BOOLEAN, CAPTURE).recordDataPoint(settleGraph.getT(), 1);
                 }
 
-                // The actual capture.
-                BufferedImage image = capture();
+                // The actual capture. Only the last frame is kept.
+                if (frame != null) {
+                    frame.release();
+                }
+                frame = captureMat();
 
                 long t1 = NanosecondTime.getRuntimeMilliseconds();
                 double tCapture = 0.0; 
@@ -297,10 +301,14 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
                     settleGraph.getRow(BOOLEAN, CAPTURE).recordDataPoint(settleGraph.getT(), 0);
                 }
 
-                // Convert to Mat and if not full color, convert to gray.
-                Mat mat = OpenCvUtils.toMat(image);
+                // Take a working copy of the frame and if not full color, convert to gray.
+                Mat mat;
                 if (!settleFullColor) {
-                    Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGR2GRAY);
+                    mat = new Mat();
+                    Imgproc.cvtColor(frame, mat, Imgproc.COLOR_BGR2GRAY);
+                }
+                else {
+                    mat = frame.clone();
                 }
 
                 // Gaussian blur is the most expensive operation, so if it is large, we rescale the image instead.
@@ -436,6 +444,8 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
                     }
                     recordedSettleMilliseconds = NanosecondTime.getRuntimeMilliseconds() - t0;
                     Logger.debug("autoSettleAndCapture in {} ms", recordedSettleMilliseconds);
+                    Mat image = frame;
+                    frame = null;
                     return image;
                 }
             }
@@ -454,6 +464,9 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
             if (lastSettleMat != null) {
                 lastSettleMat.release();
             }
+            if (frame != null) {
+                frame.release();
+            }
         }
     }
 
@@ -642,33 +655,48 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
         }
     }
 
+    /**
+     * Same as capture() but returns the image as a Mat. The caller owns the Mat and must release it. 
+     * Cameras that can keep the image in a Mat from capture through transformation override this, to 
+     * avoid the BufferedImage round-trips.
+     * 
+     * @return
+     * @throws Exception
+     */
+    public Mat captureMat() throws Exception {
+        return OpenCvUtils.toMat(capture());
+    }
+
     @Override
     public BufferedImage settleAndCapture(SettleOption settleOption) throws Exception {
+        Mat mat = settleAndCaptureMat(settleOption);
+        try {
+            return OpenCvUtils.toBufferedImage(mat);
+        }
+        finally {
+            mat.release();
+        }
+    }
+
+    /**
+     * Same as settleAndCapture() but returns the image as a Mat, see captureMat(). 
+     * 
+     * @param settleOption Determines how thorough the settling is.
+     * @return
+     * @throws Exception
+     */
+    public Mat settleAndCaptureMat(SettleOption settleOption) throws Exception {
         if (settleOption == SettleOption.Skip) {
             // Skip settling.
-            return capture();
+            return captureMat();
         }
         Map<String, Object> globals = new HashMap<>();
         globals.put("camera", this);
         Configuration.get().getScripting().on("Camera.BeforeSettle", globals);
 
         try {
-            // Make sure the camera (or its subject) stands still.
-            waitForCompletion(CompletionType.WaitForStillstand);
-
-            if (settleMethod == null) {
-                // Method undetermined, probably created a new camera (no @Commit handler)
-                settleMethod = SettleMethod.FixedTime;
-            }
-            if (settleMethod == SettleMethod.FixedTime) {
-                try {
-                    Logger.trace(getName()+" settling fixed time "+getSettleTimeMs()+"ms");
-                    Thread.sleep(getSettleTimeMs());
-                }
-                catch (Exception e) {
-
-                }
-                return capture();
+            if (settleFixedTime()) {
+                return captureMat();
             }
             else {
                 return autoSettleAndCapture(settleOption == SettleOption.SettleFullArea ? 0 : settleMaskCircle);
@@ -680,6 +708,34 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
         }
     }
 
+    /**
+     * Waits for the camera (or its subject) to stand still and for the fixed settle time, if the settle method
+     * is FixedTime.
+     *  
+     * @return true if the camera is settled, false if it must still be settled using autoSettleAndCapture().
+     * @throws Exception
+     */
+    private boolean settleFixedTime() throws Exception {
+        // Make sure the camera (or its subject) stands still.
+        waitForCompletion(CompletionType.WaitForStillstand);
+
+        if (settleMethod == null) {
+            // Method undetermined, probably created a new camera (no @Commit handler)
+            settleMethod = SettleMethod.FixedTime;
+        }
+        if (settleMethod == SettleMethod.FixedTime) {
+            try {
+                Logger.trace(getName()+" settling fixed time "+getSettleTimeMs()+"ms");
+                Thread.sleep(getSettleTimeMs());
+            }
+            catch (Exception e) {
+
+            }
+            return true;
+        }
+        return false;
+    }
+
     public SettleMethod getSettleMethod() {
         return settleMethod;
     }
@@ -22,6 +22,7 @@ package org.openpnp.machine.reference.camera;
 import java.awt.image.BufferedImage;
 import java.util.WeakHashMap;
 
+import org.opencv.core.Mat;
 import org.openpnp.gui.support.Wizard;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.PropertySheetHolder;
@@ -62,6 +63,11 @@ public class BufferedImageCamera extends ReferenceCamera {
         return image;
     }
 
+    @Override
+    protected Mat transformMat(Mat mat) {
+        return mat;
+    }
+
     @Override
     public Wizard getConfigurationWizard() {
         return null;
@@ -61,22 +61,33 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
 
     @Override
     public synchronized BufferedImage internalCapture() {
+        Mat mat = internalCaptureMat();
+        if (mat == null) {
+            return null;
+        }
+        try {
+            return OpenCvUtils.toBufferedImage(mat);
+        }
+        finally {
+            mat.release();
+        }
+    }
+
+    @Override
+    protected synchronized Mat internalCaptureMat() {
         if (! ensureOpen()) {
             return null;
         }
         Mat mat = new Mat();
         try {
-            if (!fg.read(mat)) {
-                return null;
+            if (fg.read(mat)) {
+                return mat;
             }
-            return OpenCvUtils.toBufferedImage(mat);
         }
         catch (Exception e) {
-            return null;
-        }
-        finally {
-            mat.release();
         }
+        mat.release();
+        return null;
     }
 
     @Override
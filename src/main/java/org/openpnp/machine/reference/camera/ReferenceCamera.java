@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -38,6 +39,7 @@ import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import org.openpnp.ConfigurationListener;
@@ -68,6 +70,7 @@ import org.openpnp.spi.Head;
 import org.openpnp.spi.HeadMountable;
 import org.openpnp.spi.Machine;
 import org.openpnp.util.Collect;
+import org.openpnp.util.MatPool;
 import org.openpnp.util.OpenCvUtils;
 import org.openpnp.util.SimpleGraph;
 import org.openpnp.util.VisionUtils;
@@ -144,6 +147,9 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
     @Attribute(required = false)
     protected boolean deinterlace;
 
+    @Attribute(required = false)
+    protected boolean fusedTransforms = true;
+
     @Element(required = false)
     private LensCalibrationParams calibration = new LensCalibrationParams();
 
@@ -186,6 +192,36 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
     private Mat undistortionMap2;
     private Mat lut;
 
+    /**
+     * The reusable image buffers of the local transformations, so frames of the same size do not churn native
+     * memory.
+     */
+    private MatPool transformPool = new MatPool(6);
+
+    /**
+     * The precomputed remap table of the fused transformations, see fusedRemap().
+     */
+    private RemapTable remapTable;
+
+    private static class RemapTable {
+        private final Size size;
+        private final boolean advanced;
+        private final Mat map1;
+        private final Mat map2;
+
+        private RemapTable(Size size, boolean advanced, Mat map1, Mat map2) {
+            this.size = size;
+            this.advanced = advanced;
+            this.map1 = map1;
+            this.map2 = map2;
+        }
+
+        private void release() {
+            map1.release();
+            map2.release();
+        }
+    }
+
     private LensCalibration lensCalibration;
 
     private Actuator lightActuator;
@@ -231,6 +267,23 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
         return image;
     }
     
+    /**
+     * Same as capture() but keeps the image as a Mat all the way from capture through the local
+     * transformations, using captureTransformedMat(). The caller owns the returned Mat and must release it.
+     * @throws Exception 
+     */
+    @Override
+    public Mat captureMat() throws Exception {
+        Map<String, Object> globals = new HashMap<>();
+        globals.put("camera", this);
+        Configuration.get().getScripting().on("Camera.BeforeCapture", globals);
+
+        Mat mat = captureTransformedMat();
+
+        Configuration.get().getScripting().on("Camera.AfterCapture", globals);
+        return mat;
+    }
+
     /**
      * Captures an image using captureRaw(), applies local transformations and returns the image.
      */
@@ -238,6 +291,13 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
     public BufferedImage captureTransformed() {
         return transformImage(captureRaw());
     }
+
+    /**
+     * Captures an image using captureRawMat(), applies local transformations and returns the Mat.
+     */
+    public Mat captureTransformedMat() {
+        return transformMat(captureRawMat());
+    }
     
     /**
      * Captures an image using safeInternalCapture() and returns it without any transformations
@@ -248,6 +308,14 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
         return safeInternalCapture();
     }
 
+    /**
+     * Captures an image using safeInternalCaptureMat() and returns it without any transformations
+     * applied.
+     */
+    public Mat captureRawMat() {
+        return safeInternalCaptureMat();
+    }
+
     @Override
     public boolean hasNewFrame() {
         // Default behavior: always has frames when open.
@@ -255,6 +323,20 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
     }
 
     protected abstract BufferedImage internalCapture();
+
+    /**
+     * Captures an image as a Mat. The default implementation converts the internalCapture() image.
+     * Drivers that natively capture into a Mat should override this, to avoid the BufferedImage 
+     * round-trip. 
+     * @return The Mat, owned by the caller, or null if the capture failed.
+     */
+    protected Mat internalCaptureMat() {
+        BufferedImage image = internalCapture();
+        if (image == null) {
+            return null;
+        }
+        return OpenCvUtils.toMat(image, transformPool);
+    }
     
     /**
      * Wraps internalCapture() to ensure that a null image is never returned. Attempts to
@@ -265,13 +347,33 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
      * @return
      */
     protected synchronized BufferedImage safeInternalCapture() {
-        if (! ensureOpen()) {
+        BufferedImage image = retryCapture(() -> internalCapture());
+        if (image == null) {
             return getCaptureErrorImage();
         }
+        return image;
+    }
+
+    /**
+     * Same as safeInternalCapture() but wraps internalCaptureMat().
+     * @return
+     */
+    protected synchronized Mat safeInternalCaptureMat() {
+        Mat mat = retryCapture(() -> internalCaptureMat());
+        if (mat == null) {
+            return OpenCvUtils.toMat(getCaptureErrorImage());
+        }
+        return mat;
+    }
+
+    private <T> T retryCapture(Supplier<T> capture) {
+        if (! ensureOpen()) {
+            return null;
+        }
         long t1 = System.currentTimeMillis() + captureTryTimeoutMs;
         int i = 0;
         while (true) {
-            BufferedImage image = internalCapture();
+            T image = capture.get();
             i++;
             if (image != null) {
                 return image;
@@ -287,7 +389,7 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
             Thread.yield();
         }
         Logger.warn("Camera {} failed to return an image after {} tries.", this, i);
-        return getCaptureErrorImage();
+        return null;
     }
 
     protected int getCaptureTryCount() {
@@ -348,6 +450,7 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
     }
 
     protected void viewHasChanged() {
+        releaseRemapTable();
         if (this.getLooking() == Looking.Up) {
             // Changing an up-looking camera view invalidates the nozzle tip calibration.
             ReferenceNozzleTipCalibration.resetAllNozzleTips();
@@ -435,6 +538,19 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
         viewHasChanged();
     }
 
+    /**
+     * @return true if the transformations are fused, i.e. the image is only resampled once, see 
+     * isAffineTransformFused(). 
+     */
+    public boolean isFusedTransforms() {
+        return fusedTransforms;
+    }
+
+    public void setFusedTransforms(boolean fusedTransforms) {
+        this.fusedTransforms = fusedTransforms;
+        releaseRemapTable();
+    }
+
     public double getRedBalance() {
         return redBalance;
     }
@@ -571,24 +687,62 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
             if (image == null) {
                 return null;
             }
+            // We do skip the convert to and from Mat if no transforms are needed.
+            if (isTransforming()) {
+                Mat mat = OpenCvUtils.toMat(image, transformPool);
+                mat = applyTransforms(mat);
+                image = OpenCvUtils.toBufferedImage(mat);
+                transformPool.recycle(mat);
+            }
+            if (image != null) {
+                // save the new image dimensions
+                width = image.getWidth();
+                height = image.getHeight();
+                setLastTransformedImage(image);
+            }
+        }
+        catch (Exception e) {
+            Logger.error(e);
+        }
+        return image;
+    }
 
-            if (advancedCalibration.isOverridingOldTransformsAndDistortionCorrectionSettings()) {
-                //Skip all the old style image transforms and distortion corrections except for 
-                //deinterlacing, cropping, and white balancing
-                if (isDeinterlaced() || isCropped() || isWhiteBalanced() || advancedCalibration.isEnabled()) {
-                    Mat mat = OpenCvUtils.toMat(image);
-                    mat = deinterlace(mat);
-                    mat = crop(mat);
-                    mat = whiteBalance(mat);
-                    mat = advancedUndistort(mat);
-                    image = OpenCvUtils.toBufferedImage(mat);
-                    mat.release();
-                }
+    /**
+     * Same as transformImage() but transforms the Mat, without any conversion to and from BufferedImage. 
+     * The given Mat may be released and replaced by the transformed one. The BufferedImage for broadcasting
+     * is only created lazily, see setLastTransformedMat(). 
+     * 
+     * @param mat
+     * @return The transformed Mat, owned by the caller.
+     */
+    protected Mat transformMat(Mat mat) {
+        try {
+            if (mat == null) {
+                return null;
             }
-            // Old style of image transforms and distortion correction
-            // We do skip the convert to and from Mat if no transforms are needed.
-            // But we must enter while performing original calibration.
-            else if (isDeinterlaced()
+            if (isTransforming()) {
+                mat = applyTransforms(mat);
+            }
+            // save the new image dimensions
+            width = mat.cols();
+            height = mat.rows();
+            setLastTransformedMat(mat);
+        }
+        catch (Exception e) {
+            Logger.error(e);
+        }
+        return mat;
+    }
+
+    /**
+     * @return true if any of the local transformations are enabled.
+     */
+    protected boolean isTransforming() {
+        if (advancedCalibration.isOverridingOldTransformsAndDistortionCorrectionSettings()) {
+            return isDeinterlaced() || isCropped() || isWhiteBalanced() || advancedCalibration.isEnabled();
+        }
+        // We must enter while performing original calibration.
+        return isDeinterlaced()
                 || isCropped() 
                 || isCalibrating()
                 || isUndistorted()
@@ -596,43 +750,64 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
                 || isRotated()
                 || isOffset()
                 || isFlipped()
-                || isWhiteBalanced()) {
-
-                Mat mat = OpenCvUtils.toMat(image);
-
-                mat = deinterlace(mat);
+                || isWhiteBalanced();
+    }
 
+    /**
+     * Applies the local transformations. The given Mat is owned by the transformations, the intermediate 
+     * images are taken from and returned to the transformPool.
+     * 
+     * @param mat
+     * @return The transformed Mat.
+     */
+    private Mat applyTransforms(Mat mat) {
+        if (advancedCalibration.isOverridingOldTransformsAndDistortionCorrectionSettings()) {
+            //Skip all the old style image transforms and distortion corrections except for 
+            //deinterlacing, cropping, and white balancing
+            mat = deinterlace(mat);
+            if (isFusedTransforms() && advancedCalibration.isEnabled()) {
+                mat = fusedRemap(mat);
+            }
+            else {
                 mat = crop(mat);
-
                 mat = whiteBalance(mat);
+                mat = advancedUndistort(mat);
+            }
+        }
+        // Old style of image transforms and distortion correction, with the undistortion and the 
+        // affine transformations composed into one, so the image is only resampled once.
+        else if (isAffineTransformFused()) {
+            mat = deinterlace(mat);
+            if (isUndistorted()) {
+                mat = fusedRemap(mat);
+            }
+            else {
+                mat = whiteBalance(mat);
+                mat = affineTransform(mat);
+            }
+        }
+        // Old style of image transforms and distortion correction, step by step
+        else {
+            mat = deinterlace(mat);
 
-                mat = calibrate(mat);
+            mat = crop(mat);
 
-                mat = undistort(mat);
+            mat = whiteBalance(mat);
 
-                // apply affine transformations
-                mat = scale(mat);
+            mat = calibrate(mat);
 
-                mat = rotate(mat);
+            mat = undistort(mat);
 
-                mat = offset(mat);
+            // apply affine transformations
+            mat = scale(mat);
 
-                mat = flip(mat);
+            mat = rotate(mat);
 
-                image = OpenCvUtils.toBufferedImage(mat);
-                mat.release();
-            }
-            if (image != null) {
-                // save the new image dimensions
-                width = image.getWidth();
-                height = image.getHeight();
-                setLastTransformedImage(image);
-            }
-        }
-        catch (Exception e) {
-            Logger.error(e);
+            mat = offset(mat);
+
+            mat = flip(mat);
         }
-        return image;
+        return mat;
     }
 
     @Override
@@ -653,7 +828,7 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
         if (!advancedCalibration.isEnabled()) {
             return mat;
         }
-        Mat dst = mat.clone();
+        Mat dst = transformPool.obtain(mat.rows(), mat.cols(), mat.type());
         if (undistortionMap1 == null || undistortionMap2 == null) {
             if (undistortionMap1 == null) {
                 undistortionMap1 = new Mat();
@@ -664,7 +839,7 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
             advancedCalibration.initUndistortRectifyMap(undistortionMap1, undistortionMap2);
         }
         Imgproc.remap(mat, dst, undistortionMap1, undistortionMap2, Imgproc.INTER_LINEAR);
-        mat.release();
+        transformPool.recycle(mat);
 
         return dst;
     }
@@ -672,9 +847,9 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
     private Mat whiteBalance(Mat mat) {
         if (isWhiteBalanced() && mat.channels() == 3) {
             initWhiteBalanceLut();
-            Mat whiteBalanced = new Mat();
+            Mat whiteBalanced = transformPool.obtain(mat.rows(), mat.cols(), mat.type());
             Core.LUT(mat, lut, whiteBalanced);
-            mat.release();
+            transformPool.recycle(mat);
             mat = whiteBalanced;
         }
         return mat;
@@ -965,16 +1140,13 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
 
     private Mat crop(Mat mat) {
         if (isCropped()) {
-            int cw = (cropWidth != 0 && cropWidth < (int) mat.size().width) ? cropWidth : (int) mat.size().width;
-            int ch = (cropHeight != 0 && cropHeight < (int) mat.size().height) ? cropHeight : (int) mat.size().height;
-            Rect roi = new Rect(
-                    (int) ((mat.size().width / 2) - (cw / 2)),
-                    (int) ((mat.size().height / 2) - (ch / 2)),
-                    cw,
-                    ch);
+            Rect roi = getCropRect(mat.size());
             Mat tmp = new Mat(mat, roi);
-            tmp.copyTo(mat);
+            Mat dst = transformPool.obtain(roi.height, roi.width, mat.type());
+            tmp.copyTo(dst);
             tmp.release();
+            transformPool.recycle(mat);
+            mat = dst;
         }
         return mat;
     }
@@ -983,16 +1155,26 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
         return cropWidth != 0 || cropHeight != 0;
     }
 
+    private Rect getCropRect(Size size) {
+        int cw = (cropWidth != 0 && cropWidth < (int) size.width) ? cropWidth : (int) size.width;
+        int ch = (cropHeight != 0 && cropHeight < (int) size.height) ? cropHeight : (int) size.height;
+        return new Rect(
+                (int) ((size.width / 2) - (cw / 2)),
+                (int) ((size.height / 2) - (ch / 2)),
+                cw,
+                ch);
+    }
+
     private Mat deinterlace(Mat mat) {
         if (!isDeinterlaced()) {
             return mat;
         }
-        Mat dst = new Mat(mat.size(), mat.type());
+        Mat dst = transformPool.obtain(mat.rows(), mat.cols(), mat.type());
         for (int i = 0; i < mat.rows() / 2; i++) {
             mat.row(i).copyTo(dst.row(i * 2));
             mat.row(i + mat.rows() / 2).copyTo(dst.row(i * 2 + 1));
         }
-        mat.release();
+        transformPool.recycle(mat);
         return dst;
     }
 
@@ -1020,9 +1202,9 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
         mapMatrix.put(0, 2, cx);
         mapMatrix.put(1, 2, cy);
 
-        Mat dst = new Mat(bbox.width, bbox.height, mat.type());
+        Mat dst = transformPool.obtain(bbox.height, bbox.width, mat.type());
         Imgproc.warpAffine(mat, dst, mapMatrix, bbox.size(), Imgproc.INTER_LINEAR);
-        mat.release();
+        transformPool.recycle(mat);
 
         mapMatrix.release();
 
@@ -1045,9 +1227,9 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
             }
         };
 
-        Mat dst = mat.clone();
+        Mat dst = transformPool.obtain(mat.rows(), mat.cols(), mat.type());
         Imgproc.warpAffine(mat, dst, mapMatrix, mat.size(), Imgproc.INTER_LINEAR);
-        mat.release();
+        transformPool.recycle(mat);
 
         mapMatrix.release();
 
@@ -1062,9 +1244,9 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
         if (!isScaled()) {
             return mat;
         }
-        Mat dst = new Mat();
+        Mat dst = transformPool.obtain(scaleHeight, scaleWidth, mat.type());
         Imgproc.resize(mat, dst, new Size(scaleWidth, scaleHeight));
-        mat.release();
+        transformPool.recycle(mat);
         return dst;
     }
 
@@ -1088,9 +1270,9 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
             rectification.release();
         }
 
-        Mat dst = mat.clone();
+        Mat dst = transformPool.obtain(mat.rows(), mat.cols(), mat.type());
         Imgproc.remap(mat, dst, undistortionMap1, undistortionMap2, Imgproc.INTER_LINEAR);
-        mat.release();
+        transformPool.recycle(mat);
 
         return dst;
     }
@@ -1130,6 +1312,248 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
         return flipX || flipY;
     }
 
+    /**
+     * @return true if the old style undistortion and affine transformations are composed into one, see 
+     * affineTransform() and fusedRemap(). This is only done if the image must be resampled anyway, cropping 
+     * and flipping alone are left to the exact pixel copying operations.
+     */
+    protected boolean isAffineTransformFused() {
+        if (!isFusedTransforms() || isCalibrating()) {
+            return false;
+        }
+        if (isScaled() && (scaleWidth <= 0 || scaleHeight <= 0)) {
+            // Not a valid scale, leave it to the step by step transformations.
+            return false;
+        }
+        return isUndistorted() || isScaled() || isRotated() || isOffset();
+    }
+
+    /**
+     * Applies crop, scale, rotate, offset and flip as one warpAffine(), see getAffineTransform(). 
+     * 
+     * @param mat
+     * @return
+     */
+    private Mat affineTransform(Mat mat) {
+        Size size = mat.size();
+        double [] transform = getAffineTransform(size, true);
+        Mat mapMatrix = new Mat(2, 3, CvType.CV_64F);
+        mapMatrix.put(0, 0, transform);
+        Mat dst = transformPool.obtain((int) size.height, (int) size.width, mat.type());
+        Imgproc.warpAffine(mat, dst, mapMatrix, size, Imgproc.INTER_LINEAR);
+        mapMatrix.release();
+        transformPool.recycle(mat);
+        return dst;
+    }
+
+    /**
+     * Composes the crop (optionally), scale, rotate, offset and flip transformations into one affine 
+     * transformation, exactly like the step by step transformations would map the pixels.
+     * 
+     * @param size The size of the image before the transformations, it is updated to the size after.
+     * @param cropping Whether to include cropping.
+     * @return The forward affine transformation as a row major 2x3 matrix.
+     */
+    protected double [] getAffineTransform(Size size, boolean cropping) {
+        double [] transform = new double [] { 1, 0, 0, 0, 1, 0 };
+        double width = size.width;
+        double height = size.height;
+        if (cropping && isCropped()) {
+            int cw = (cropWidth != 0 && cropWidth < (int) width) ? cropWidth : (int) width;
+            int ch = (cropHeight != 0 && cropHeight < (int) height) ? cropHeight : (int) height;
+            transform = concatenate(new double [] { 
+                    1, 0, -(int) ((width / 2) - (cw / 2)), 
+                    0, 1, -(int) ((height / 2) - (ch / 2)) }, 
+                    transform);
+            width = cw;
+            height = ch;
+        }
+        if (isScaled()) {
+            // Like resize(), pixel centers are mapped.
+            double sx = scaleWidth / width;
+            double sy = scaleHeight / height;
+            transform = concatenate(new double [] { 
+                    sx, 0, 0.5 * sx - 0.5, 
+                    0, sy, 0.5 * sy - 0.5 }, 
+                    transform);
+            width = scaleWidth;
+            height = scaleHeight;
+        }
+        if (isRotated()) {
+            // Like getRotationMatrix2D(), adjusted to the bounding rectangle.
+            Point center = new Point(width / 2D, height / 2D);
+            Rect bbox = new RotatedRect(center, new Size(width, height), rotation).boundingRect();
+            double alpha = Math.cos(Math.toRadians(rotation));
+            double beta = Math.sin(Math.toRadians(rotation));
+            transform = concatenate(new double [] { 
+                    alpha, beta, (1 - alpha) * center.x - beta * center.y + bbox.width / 2D - center.x, 
+                    -beta, alpha, beta * center.x + (1 - alpha) * center.y + bbox.height / 2D - center.y }, 
+                    transform);
+            width = bbox.width;
+            height = bbox.height;
+        }
+        if (isOffset()) {
+            transform = concatenate(new double [] { 
+                    1, 0, offsetX, 
+                    0, 1, offsetY }, 
+                    transform);
+        }
+        if (flipY) {
+            // Horizontal flip.
+            transform = concatenate(new double [] { 
+                    -1, 0, width - 1, 
+                    0, 1, 0 }, 
+                    transform);
+        }
+        if (flipX) {
+            // Vertical flip.
+            transform = concatenate(new double [] { 
+                    1, 0, 0, 
+                    0, -1, height - 1 }, 
+                    transform);
+        }
+        size.width = width;
+        size.height = height;
+        return transform;
+    }
+
+    /**
+     * @return The inverse of the affine transformation.
+     */
+    private static double [] invert(double [] a) {
+        double det = a[0] * a[4] - a[1] * a[3];
+        return new double [] {
+                a[4] / det, 
+                -a[1] / det, 
+                (a[1] * a[5] - a[4] * a[2]) / det,
+                -a[3] / det, 
+                a[0] / det, 
+                (a[3] * a[2] - a[0] * a[5]) / det,
+        };
+    }
+
+    /**
+     * Applies crop, white balance, undistortion and (if not overridden by the advanced calibration) the 
+     * affine transformations with one remap() through the precomputed fixed-point remap table. Cropping 
+     * only takes a view of the image.
+     * 
+     * @param mat
+     * @return
+     */
+    private Mat fusedRemap(Mat mat) {
+        Mat frame = mat;
+        boolean cropped = isCropped();
+        if (cropped) {
+            mat = new Mat(frame, getCropRect(frame.size()));
+        }
+        mat = whiteBalance(mat);
+        Mat dst;
+        synchronized (this) {
+            RemapTable table = getRemapTable(mat.size());
+            dst = transformPool.obtain(table.map1.rows(), table.map1.cols(), mat.type());
+            Imgproc.remap(mat, dst, table.map1, table.map2, Imgproc.INTER_LINEAR);
+        }
+        transformPool.recycle(mat);
+        if (cropped) {
+            transformPool.recycle(frame);
+        }
+        return dst;
+    }
+
+    /**
+     * Gets the remap table for the given (cropped) image size. It is created when first needed, and 
+     * released whenever the view or the calibration changes, see viewHasChanged() and clearCalibrationCache().
+     * 
+     * @param size
+     * @return
+     */
+    private synchronized RemapTable getRemapTable(Size size) {
+        boolean advanced = advancedCalibration.isOverridingOldTransformsAndDistortionCorrectionSettings();
+        if (remapTable != null 
+                && (!remapTable.size.equals(size) || remapTable.advanced != advanced)) {
+            releaseRemapTable();
+        }
+        if (remapTable == null) {
+            remapTable = createRemapTable(size, advanced);
+        }
+        return remapTable;
+    }
+
+    private RemapTable createRemapTable(Size size, boolean advanced) {
+        Mat mapX = new Mat();
+        Mat mapY = new Mat();
+        if (advanced) {
+            advancedCalibration.initUndistortRectifyMap(mapX, mapY);
+        }
+        else {
+            Mat undistortionX = new Mat();
+            Mat undistortionY = new Mat();
+            Mat rectification = Mat.eye(3, 3, CvType.CV_32F);
+            Calib3d.initUndistortRectifyMap(calibration.getCameraMatrixMat(),
+                    calibration.getDistortionCoefficientsMat(), rectification,
+                    calibration.getCameraMatrixMat(), size, CvType.CV_32FC1, undistortionX,
+                    undistortionY);
+            rectification.release();
+            // For each destination pixel, get its location in the undistorted image by the inverse
+            // affine transformation, then look up its location in the distorted image.
+            Size dstSize = size.clone();
+            double [] inverse = invert(getAffineTransform(dstSize, false));
+            int cols = (int) dstSize.width;
+            int rows = (int) dstSize.height;
+            float [] xs = new float[cols * rows];
+            float [] ys = new float[cols * rows];
+            for (int y = 0, i = 0; y < rows; y++) {
+                for (int x = 0; x < cols; x++, i++) {
+                    xs[i] = (float) (inverse[0] * x + inverse[1] * y + inverse[2]);
+                    ys[i] = (float) (inverse[3] * x + inverse[4] * y + inverse[5]);
+                }
+            }
+            Mat affineX = new Mat(rows, cols, CvType.CV_32FC1);
+            Mat affineY = new Mat(rows, cols, CvType.CV_32FC1);
+            affineX.put(0, 0, xs);
+            affineY.put(0, 0, ys);
+            // Locations outside the undistorted image map far outside the source image, i.e. to the 
+            // black border, like with the step by step transformations.
+            Scalar outside = new Scalar(-10000);
+            Imgproc.remap(undistortionX, mapX, affineX, affineY, Imgproc.INTER_LINEAR, 
+                    Core.BORDER_CONSTANT, outside);
+            Imgproc.remap(undistortionY, mapY, affineX, affineY, Imgproc.INTER_LINEAR, 
+                    Core.BORDER_CONSTANT, outside);
+            affineX.release();
+            affineY.release();
+            undistortionX.release();
+            undistortionY.release();
+        }
+        // Fixed-point maps are considerably faster to remap() with.
+        Mat map1 = new Mat();
+        Mat map2 = new Mat();
+        Imgproc.convertMaps(mapX, mapY, map1, map2, CvType.CV_16SC2, false);
+        mapX.release();
+        mapY.release();
+        return new RemapTable(size.clone(), advanced, map1, map2);
+    }
+
+    private synchronized void releaseRemapTable() {
+        if (remapTable != null) {
+            remapTable.release();
+            remapTable = null;
+        }
+    }
+
+    /**
+     * @return The affine transformation that applies a, then b.
+     */
+    private static double [] concatenate(double [] b, double [] a) {
+        return new double [] {
+                b[0] * a[0] + b[1] * a[3],
+                b[0] * a[1] + b[1] * a[4],
+                b[0] * a[2] + b[1] * a[5] + b[2],
+                b[3] * a[0] + b[4] * a[3],
+                b[3] * a[1] + b[4] * a[4],
+                b[3] * a[2] + b[4] * a[5] + b[5],
+        };
+    }
+
     private Mat calibrate(Mat mat) {
         if (!isCalibrating()) {
             return mat;
@@ -1177,6 +1601,7 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
     }
 
     public synchronized void clearCalibrationCache() {
+        releaseRemapTable();
         // Clear the calibration cache
         if (undistortionMap1 != null) {
             undistortionMap1.release();
@@ -27,8 +27,11 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -48,6 +51,7 @@ import org.openpnp.model.Location;
 import org.openpnp.model.Motion;
 import org.openpnp.model.Motion.MotionOption;
 import org.openpnp.model.Motion.MoveToCommand;
+import org.openpnp.model.MotionHistory;
 import org.openpnp.spi.Actuator;
 import org.openpnp.spi.Axis;
 import org.openpnp.spi.Axis.Type;
@@ -57,6 +61,8 @@ import org.openpnp.spi.Driver;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.HeadMountable;
 import org.openpnp.spi.Locatable.LocationOption;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.MachineListener;
 import org.openpnp.spi.MotionPlanner;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.base.AbstractActuator;
@@ -78,6 +84,14 @@ import org.simpleframework.xml.Attribute;
  * <li> Additional work such as homing(), driver coordination and enumeration, soft-limit checking and rotation 
  *      angle wrap-around is done.</li>
  * </ul>
+ * If the planningLookAhead is set, planning is pipelined: as soon as more motion commands are recorded than the 
+ * look-ahead, those up to the last planning boundary (see {@link #isPlanningBoundary(Motion, Motion)}) are handed 
+ * to the planning thread to be optimized, while the caller goes on recording. The handed over motion commands are 
+ * no longer part of the recorded ones, so the planning thread works on them without holding the planner monitor, 
+ * and recording is never blocked by planning. The planned motion is executed against the drivers on the caller's 
+ * thread, before the next part is handed over, or at the latest when executeMotionPlan() is called. The commands 
+ * sent to the drivers are therefore in the same order as without pipelining. The planning thread is stopped when 
+ * the machine is disabled. 
  *
  */
 public abstract class AbstractMotionPlanner extends AbstractModelObject implements MotionPlanner, PropertySheetHolder {
@@ -85,10 +99,18 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
     @Attribute(required=false)
     private double maximumPlanHistory = 60; // s
 
+    /**
+     * Number of recorded motion commands that are kept for look-ahead, before planning the older ones
+     * on the planning thread. The planned motion is still executed on the caller's thread. 0 disables pipelined 
+     * planning. 
+     */
+    @Attribute(required=false)
+    private int planningLookAhead = 8;
+
     private ReferenceMachine machine;
 
     protected LinkedList<Motion> motionCommands = new LinkedList<>();
-    protected TreeMap<Double, Motion> motionPlan = new TreeMap<Double, Motion>();
+    protected MotionHistory motionPlan = new MotionHistory(1024);
 
     private AxesLocation lastDirectionalBacklashOffset = new AxesLocation();
     private List<Driver> lastPlannedDrivers = new ArrayList<Driver>();
@@ -96,6 +118,11 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
     private boolean homed = false; 
 
     private SubordinateMotion subordinateMotion = new SubordinateMotion();
+
+    // Pipelined planning. 
+    private volatile ExecutorService planningExecutor;
+    private volatile CompletableFuture<List<Motion>> planning;
+    private boolean planningStoppedOnDisable = false;
     
     /**
      * This class provides support for subordinate motion handling. It queues motion 
@@ -420,6 +447,8 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
 
         // Create the motion commands needed for backlash compensation if enabled.
         createBacklashCompensatedMotion(hm, speed, currentLocation, newLocation, options);
+        // Start planning the older motion commands, if pipelined.
+        planAhead();
 
         // Set all the axes (including virtual ones) to their new coordinates.
         for (Axis axis : axesLocation.getAxes()) {
@@ -638,6 +667,9 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
      * @throws Exception
      */
     protected synchronized void executeMotionPlan(CompletionType completionType) throws Exception {
+        // This is a barrier for pipelined planning.
+        awaitPipeline();
+
         if (motionCommands.isEmpty()) {
             return;
         }
@@ -652,20 +684,40 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
         optimizeExecutionPlan(executionPlan, completionType);
 
         // Now execute the plan against the drivers.
-        // We also record it into the real-time motionPlan to enable motion prediction and simulation. 
+        List<Head> movedHeads = new ArrayList<>();
+        emitExecutionPlan(executionPlan, movedHeads);
+        // Publish recorded Diagnostics
+        publishDiagnostics();
+        // Notify heads.
+        ReferenceMachine machine = getMachine();
+        for (Head movedHead : movedHeads) {
+            machine.fireMachineHeadActivity(movedHead);
+        }
+    }
+
+    /**
+     * Execute the optimized plan against the drivers. We also record it into the real-time motionPlan to enable 
+     * motion prediction and simulation.
+     * 
+     * @param executionPlan
+     * @param movedHeads Receives the heads that were moved.
+     * @throws Exception
+     */
+    protected void emitExecutionPlan(List<Motion> executionPlan, List<Head> movedHeads) throws Exception {
         double t = NanosecondTime.getRuntimeSeconds();
-        if (motionPlan.isEmpty() == false && motionPlan.lastKey() > t) {
+        // Age out old stuff.
+        clearMotionPlanOlderThan(t - maximumPlanHistory);
+        if (motionPlan.isEmpty() == false && motionPlan.getLastTime() > t) {
             // Append to a plan that is still running. 
-            t = motionPlan.lastKey();
+            t = motionPlan.getLastTime();
         }
-        ReferenceMachine machine = (ReferenceMachine) Configuration.get().getMachine();
-        List<Head> movedHeads = new ArrayList<>();
+        ReferenceMachine machine = getMachine();
         boolean first = true;
         for (Motion plannedMotion : executionPlan) {
             if (!plannedMotion.hasOption(MotionOption.Stillstand)) {
                 // Put into timed plan.
                 double dt = plannedMotion.getTime();
-                // Note, all-virtual moves can have dt == 0.0, so we take a nano-second, to make sure a new Map entry is created 
+                // Note, all-virtual moves can have dt == 0.0, so we take a nano-second, to make sure a new entry is created 
                 // in the motionPlan.
                 t += Math.max(dt, 1e-9);  
                 plannedMotion.setPlannedTime1(t);
@@ -680,16 +732,146 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
                 }
             }
         }
+    }
+
+    /**
+     * If pipelined planning is enabled and more motion commands are recorded than the look-ahead, hand the
+     * older ones up to the last planning boundary to the planning thread. Any motion that was planned before
+     * is executed first. 
+     * 
+     * @throws Exception the Exception that was thrown planning the previous part. 
+     */
+    protected synchronized void planAhead() throws Exception {
+        if (planningLookAhead <= 0 || motionCommands.size() <= planningLookAhead) {
+            return;
+        }
+        // Execute the previous part first, so the motion reaches the drivers strictly in order.
+        awaitPipeline();
+        // Find the last boundary, before the look-ahead.
+        int cut = motionCommands.size() - planningLookAhead;
+        while (cut > 0 && !isPlanningBoundary(motionCommands.get(cut - 1), motionCommands.get(cut))) {
+            cut--;
+        }
+        if (cut <= 0) {
+            // No boundary yet, keep recording.
+            return;
+        }
+        List<Motion> executionPlan = new LinkedList<>();
+        for (int i = 0; i < cut; i++) {
+            executionPlan.add(motionCommands.removeFirst());
+        }
+        ExecutorService executor = planningExecutor;
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "MotionPlanner planning");
+                thread.setDaemon(true);
+                return thread;
+            });
+            planningExecutor = executor;
+            if (!planningStoppedOnDisable) {
+                getMachine().addListener(new MachineListener.Adapter() {
+                    @Override
+                    public void machineDisabled(Machine machine, String reason) {
+                        stopPipeline();
+                    }
+                });
+                planningStoppedOnDisable = true;
+            }
+        }
+        CompletableFuture<List<Motion>> planned = CompletableFuture.supplyAsync(() -> {
+            // The execution plan was taken out of the recorded motion commands, so it is planned without the 
+            // planner monitor, while the caller goes on recording.
+            try {
+                optimizeExecutionPlan(executionPlan, CompletionType.CommandStillstand);
+                return executionPlan;
+            }
+            catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+        planned.whenComplete((plan, e) -> {
+            synchronized (AbstractMotionPlanner.this) {
+                AbstractMotionPlanner.this.notifyAll();
+            }
+        });
+        planning = planned;
+    }
+
+    /**
+     * Wait for the pipelined planning and execute the planned motion against the drivers, on the caller's thread. 
+     * 
+     * @throws Exception the Exception that was thrown planning the motion. Pending motion commands are then 
+     * discarded. 
+     */
+    protected synchronized void awaitPipeline() throws Exception {
+        while (planning != null && !planning.isDone()) {
+            // Releases the monitor, so the planning thread can plan.
+            wait();
+        }
+        CompletableFuture<List<Motion>> planned = planning;
+        if (planned == null) {
+            return;
+        }
+        planning = null;
+        List<Motion> executionPlan;
+        try {
+            executionPlan = planned.get();
+        }
+        catch (ExecutionException e) {
+            // The pipeline was broken, the pending motion commands are no longer valid.
+            motionCommands = new LinkedList<>();
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        // Now execute the plan against the drivers.
+        List<Head> movedHeads = new ArrayList<>();
+        emitExecutionPlan(executionPlan, movedHeads);
         // Publish recorded Diagnostics
         publishDiagnostics();
         // Notify heads.
+        ReferenceMachine machine = getMachine();
         for (Head movedHead : movedHeads) {
             machine.fireMachineHeadActivity(movedHead);
         }
     }
+
+    /**
+     * Stop the planning thread, e.g. when the machine is disabled. Motion that is still being planned is 
+     * discarded, i.e. the next awaitPipeline() throws. 
+     */
+    protected void stopPipeline() {
+        ExecutorService executor = planningExecutor;
+        planningExecutor = null;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        CompletableFuture<List<Motion>> planned = planning;
+        if (planned != null) {
+            planned.completeExceptionally(new Exception("Motion planning stopped, the machine was disabled."));
+        }
+    }
+
+    /**
+     * Determines whether the execution plan can be cut between the two motion commands, and the two parts
+     * be planned independently, without changing the outcome. The default implementation executes the motion 
+     * commands 1:1, i.e. any junction is a boundary. Advanced MotionPlanner sub-classes must override this.
+     * 
+     * @param motion0
+     * @param motion1
+     * @return
+     */
+    protected boolean isPlanningBoundary(Motion motion0, Motion motion1) {
+        return true;
+    }
+
     /**
      * Subclasses must override this method to implement their advanced planning magic.
      * 
+     * With pipelined planning, this is called on the planning thread, without holding the planner monitor. It is 
+     * never called concurrently, and must only work on the given execution plan.  
+     * 
      * @param executionPlan
      * @param completionType
      * @throws Exception 
@@ -937,11 +1119,10 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
 
     @Override
     public synchronized Motion getMomentaryMotion(double time) {
-        Map.Entry<Double, Motion> entry1 = motionPlan.higherEntry(time);
-        if (entry1 != null) {
+        Motion motion1 = motionPlan.getHigher(time);
+        if (motion1 != null) {
             // Return the motion.
-            Motion motion = entry1.getValue();
-            return motion;
+            return motion1;
         }
         else {
             // Plan empty or machine stopped before this time, just get the current axes location.
@@ -961,14 +1142,8 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
 
     @Override
     public synchronized Motion getLastMotion() {
-        for (Map.Entry<Double, Motion> entry : motionPlan.descendingMap().entrySet()) {
-            Motion motion = entry.getValue();
-            if (!motion.getLocation0().matches(motion.getLocation1())) {
-                // Got a real move.
-                return motion;
-            }
-        }
-        return null;
+        // Get the last real move.
+        return motionPlan.getLast((motion) -> !motion.getLocation0().matches(motion.getLocation1()));
     }
 
     @Override
@@ -1085,9 +1260,17 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
 
     @Override
     public synchronized void clearMotionPlanOlderThan(double time) {
-        while (motionPlan.isEmpty() == false && motionPlan.firstKey() < time) {
-            motionPlan.remove(motionPlan.firstKey());
-        }
+        motionPlan.removeOlderThan(time);
+    }
+
+    public int getPlanningLookAhead() {
+        return planningLookAhead;
+    }
+
+    public void setPlanningLookAhead(int planningLookAhead) {
+        Object oldValue = this.planningLookAhead;
+        this.planningLookAhead = planningLookAhead;
+        firePropertyChange("planningLookAhead", oldValue, planningLookAhead);
     }
 
     public boolean isInterpolationRetiming() {
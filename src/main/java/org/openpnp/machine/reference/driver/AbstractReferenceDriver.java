@@ -28,6 +28,11 @@ public abstract class AbstractReferenceDriver extends AbstractDriver {
     @Element(required = false)
     protected TcpCommunications tcp = new TcpCommunications();
 
+    /**
+     * Buffered NIO transport, takes its settings from the tcp communications.
+     */
+    protected TcpChannelCommunications tcpChannel = new TcpChannelCommunications();
+
     @Element(required = false)
     protected SimulatedCommunications simulated = new SimulatedCommunications();
 
@@ -37,7 +42,8 @@ public abstract class AbstractReferenceDriver extends AbstractDriver {
     public enum CommunicationsType {
         serial, // lower case for legacy support.
         tcp,
-        klipper
+        klipper,
+        tcpChannel
     }
 
     @Attribute(required = false, name = "communications")
@@ -220,6 +226,17 @@ public abstract class AbstractReferenceDriver extends AbstractDriver {
                 klipper.setDriverName(getName());
                 return klipper;
             }
+            case tcpChannel: {
+                tcpChannel.setDriver(this);
+                tcpChannel.setDriverName(getName());
+                tcpChannel.setIpAddress(tcp.getIpAddress());
+                tcpChannel.setLineEndingType(tcp.getLineEndingType());
+                if (tcpChannel.getGcodeServer() == null) {
+                    // The GcodeServer assigns its own port.
+                    tcpChannel.setPort(tcp.getPort());
+                }
+                return tcpChannel;
+            }
             default: {
                 Logger.error("Invalid communications method attempted to be set. Defaulting to serial.");
                 return getSerial();
@@ -328,6 +345,22 @@ public abstract class AbstractReferenceDriver extends AbstractDriver {
         klipper.setSocketPath(socketPath);
     }
 
+    public boolean isKlipperJsonRpc() {
+        return klipper.isJsonRpc();
+    }
+
+    public void setKlipperJsonRpc(boolean jsonRpc) {
+        klipper.setJsonRpc(jsonRpc);
+    }
+
+    public int getKlipperJsonRpcBatchLines() {
+        return klipper.getJsonRpcBatchLines();
+    }
+
+    public void setKlipperJsonRpcBatchLines(int jsonRpcBatchLines) {
+        klipper.setJsonRpcBatchLines(jsonRpcBatchLines);
+    }
+
     @Override
     public void setEnabled(boolean enabled) throws Exception {
         if (enabled && isSyncInitialLocation()) {
@@ -22,6 +22,7 @@
 package org.openpnp.machine.reference.driver;
 
 import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -79,6 +80,21 @@ import org.simpleframework.xml.Element;
  * the background, fully parallel to continuous motion, the alarm status can be checked in the next 
  * JobProcessor step. 
  * 
+ * CONFIRMATION FLOW CONTROL:
+ * 
+ * With confirmationFlowControl the writer thread keeps track of the commands that were sent but not yet 
+ * confirmed. The confirmationWindowCommands limit how many of them may be outstanding, 1 being classic 
+ * stop-and-wait. If the controllerRxBufferSize is set, the characters of the outstanding commands are 
+ * also counted and kept within the controller's receive buffer, as in Grbl-style character counting 
+ * streaming. The confirmations are matched to the commands in order, which means each command must get 
+ * exactly one response matching the COMMAND_CONFIRM_REGEX. Controllers that answer with an error instead 
+ * of an "ok" (like Grbl) need a COMMAND_CONFIRM_REGEX that matches errors too. An error response is 
+ * attributed to the oldest command not yet confirmed. 
+ * 
+ * Commands that are already queued when the writer thread sends one are handed to the communications 
+ * as a batch, see {@link ReferenceDriverCommunications#writeLine(String, boolean)}. The batch is flushed 
+ * before the writer thread waits for any confirmation. 
+ * 
  */
 public class GcodeAsyncDriver extends GcodeDriver {
 
@@ -97,6 +113,12 @@ public class GcodeAsyncDriver extends GcodeDriver {
     @Attribute(required=false)
     private boolean reportedLocationConfirmation = true;
 
+    @Attribute(required=false)
+    private int confirmationWindowCommands = 1;
+
+    @Attribute(required=false)
+    private int controllerRxBufferSize = 0;
+
     @Attribute(required = false)
     private int interpolationMaxSteps = 32;
 
@@ -121,6 +143,12 @@ public class GcodeAsyncDriver extends GcodeDriver {
 
     static public class CommandLine extends Line {
         final long timeout;
+        /**
+         * Sequence number and length in characters, assigned when the command is sent under 
+         * confirmation flow control. 
+         */
+        long sequence;
+        int length;
 
         public CommandLine(String line, long timeout) {
             super(line);
@@ -133,6 +161,20 @@ public class GcodeAsyncDriver extends GcodeDriver {
     }
     protected LinkedBlockingQueue<CommandLine> commandQueue;
 
+    /**
+     * The commands that were sent but not yet confirmed, oldest first. Only the writer thread adds 
+     * and removes commands, the reader thread looks them up to attribute errors. 
+     */
+    private ConcurrentLinkedDeque<CommandLine> unconfirmedCommands = new ConcurrentLinkedDeque<>();
+    private int unconfirmedLength;
+    private long sentCommands;
+    /**
+     * The number of confirmations received, counted by the reader thread. Reset to the sentCommands 
+     * whenever no command is outstanding. Both are guarded by the confirmationLock.
+     */
+    private long confirmedCommands;
+    private final Object confirmationLock = new Object();
+
     private boolean waitedForCommands;
     private volatile boolean confirmationComplete;
 
@@ -146,6 +188,26 @@ public class GcodeAsyncDriver extends GcodeDriver {
         firePropertyChange("confirmationFlowControl", oldValue, confirmationFlowControl);
     }
 
+    public int getConfirmationWindowCommands() {
+        return confirmationWindowCommands;
+    }
+
+    public void setConfirmationWindowCommands(int confirmationWindowCommands) {
+        Object oldValue = this.confirmationWindowCommands;
+        this.confirmationWindowCommands = confirmationWindowCommands;
+        firePropertyChange("confirmationWindowCommands", oldValue, confirmationWindowCommands);
+    }
+
+    public int getControllerRxBufferSize() {
+        return controllerRxBufferSize;
+    }
+
+    public void setControllerRxBufferSize(int controllerRxBufferSize) {
+        Object oldValue = this.controllerRxBufferSize;
+        this.controllerRxBufferSize = controllerRxBufferSize;
+        firePropertyChange("controllerRxBufferSize", oldValue, controllerRxBufferSize);
+    }
+
     public boolean isReportedLocationConfirmation() {
         return reportedLocationConfirmation;
     }
@@ -205,6 +267,8 @@ public class GcodeAsyncDriver extends GcodeDriver {
     protected void connectThreads() throws Exception {
         super.connectThreads();
         commandQueue = new LinkedBlockingQueue<>(maxCommandsQueued);
+        unconfirmedCommands = new ConcurrentLinkedDeque<>();
+        unconfirmedLength = 0;
         writerThread = new WriterThread();
         writerThread.setDaemon(true);
         writerThread.start();
@@ -234,7 +298,7 @@ public class GcodeAsyncDriver extends GcodeDriver {
             ReferenceDriverCommunications comms = getCommunications();
             String connectionName = comms.getConnectionName();
 
-            CommandLine lastCommand = null;
+            int lineEndingLength = comms.getLineEndingType().getLineEnding().length();
             while (!disconnectRequested) {
                 CommandLine command;
                 try {
@@ -248,24 +312,27 @@ public class GcodeAsyncDriver extends GcodeDriver {
                     continue;
                 }
                 try {
-                    if (confirmationFlowControl && lastCommand != null) {
-                        try {
-                            // Before we can send the new command, make sure the wanted confirmation count of the last command was received.
-                            waitForConfirmation(lastCommand.toString(), lastCommand.getTimeout());
-                        }
-                        finally {
-                            // Whatever happens, never wait for this one again.
-                            lastCommand = null;
-                        }
-                    }
                     if (command.line != null) {
-                        // Set up the wanted confirmations for next time.
-                        lastCommand = command;
-                        receivedConfirmationsQueue.clear();
-                        comms.writeLine(command.line);
+                        command.length = command.line.getBytes().length + lineEndingLength;
+                        if (confirmationFlowControl) {
+                            // Before we can send the new command, make sure it fits into the window.
+                            while (!unconfirmedCommands.isEmpty() && !isInWindow(command)) {
+                                comms.flush();
+                                waitForOldestConfirmation();
+                            }
+                        }
+                        // Batch the command with the following ones, if they are already queued.
+                        writeCommand(comms, command, commandQueue.isEmpty());
                         Logger.trace("[{}] >> {}", connectionName, command);
                     }
                     else {
+                        comms.flush();
+                        if (confirmationFlowControl) {
+                            // Make sure all the sent commands are confirmed.
+                            while (!unconfirmedCommands.isEmpty()) {
+                                waitForOldestConfirmation();
+                            }
+                        }
                         confirmationComplete = true;
                         synchronized(GcodeAsyncDriver.this) {
                             GcodeAsyncDriver.this.notify();
@@ -288,6 +355,99 @@ public class GcodeAsyncDriver extends GcodeDriver {
         }
     }
 
+    /**
+     * @param command
+     * @return true if the command can be sent in addition to the unconfirmed commands. 
+     */
+    private boolean isInWindow(CommandLine command) {
+        if (unconfirmedCommands.size() >= Math.max(1, confirmationWindowCommands)) {
+            return false;
+        }
+        if (controllerRxBufferSize > 0 
+                && unconfirmedLength + command.length > controllerRxBufferSize) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the confirmation of the oldest unconfirmed command. Must only be called by the writer thread. 
+     * 
+     * @throws Exception
+     */
+    private void waitForOldestConfirmation() throws Exception {
+        CommandLine oldest = unconfirmedCommands.peekFirst();
+        try {
+            waitForConfirmation(oldest.toString(), oldest.getTimeout());
+            unconfirmedCommands.pollFirst();
+            unconfirmedLength -= oldest.length;
+        }
+        catch (Exception e) {
+            // The confirmations can no longer be matched to the commands. Whatever happens, never wait 
+            // for these again.
+            unconfirmedCommands.clear();
+            unconfirmedLength = 0;
+            throw e;
+        }
+    }
+
+    /**
+     * Write the command. Under confirmation flow control it is registered as unconfirmed before it is written, 
+     * so a response can always be attributed. Must only be called by the writer thread. 
+     * 
+     * @param comms
+     * @param command
+     * @param flush false if the command may be queued to be written together with the following ones. 
+     * @throws IOException
+     */
+    private void writeCommand(ReferenceDriverCommunications comms, CommandLine command, boolean flush) throws IOException {
+        if (!confirmationFlowControl && !unconfirmedCommands.isEmpty()) {
+            // Flow control was switched off, forget the unconfirmed commands.
+            unconfirmedCommands.clear();
+            unconfirmedLength = 0;
+        }
+        synchronized (confirmationLock) {
+            if (unconfirmedCommands.isEmpty()) {
+                // Nothing outstanding, discard stray confirmations and start counting anew.
+                receivedConfirmationsQueue.clear();
+                confirmedCommands = sentCommands;
+            }
+            command.sequence = ++sentCommands;
+        }
+        if (confirmationFlowControl) {
+            unconfirmedCommands.addLast(command);
+            unconfirmedLength += command.length;
+        }
+        comms.writeLine(command.line, flush);
+    }
+
+    @Override
+    protected void processConfirmation(Line line) {
+        synchronized (confirmationLock) {
+            confirmedCommands++;
+            super.processConfirmation(line);
+        }
+    }
+
+    @Override
+    protected void processErrorResponse(Line line) {
+        CommandLine command = null;
+        synchronized (confirmationLock) {
+            // The error belongs to the oldest command that is not yet confirmed.
+            long sequence = confirmedCommands + 1;
+            for (CommandLine unconfirmed : unconfirmedCommands) {
+                if (unconfirmed.sequence == sequence) {
+                    command = unconfirmed;
+                    break;
+                }
+            }
+        }
+        if (command != null) {
+            line = new Line(line.getLine()+" (response to "+command+")");
+        }
+        super.processErrorResponse(line);
+    }
+
     @Override
     protected void bailOnError() throws Exception {
         super.bailOnError();
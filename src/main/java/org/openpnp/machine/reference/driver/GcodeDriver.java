@@ -32,6 +32,7 @@ import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -171,6 +172,8 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
         @ElementList(required = false, inline = true, entry = "text", data = true)
         public ArrayList<String> commands = new ArrayList<>();
 
+        private GcodeTemplate template;
+
         public Command(String headMountableId, CommandType type, String text) {
             this.headMountableId = headMountableId;
             this.type = type;
@@ -185,12 +188,25 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
                 String[] commands = text.split("\n");
                 this.commands.addAll(Arrays.asList(commands));
             }
+            template = null;
         }
 
         public String getCommand() {
             return Joiner.on('\n').join(commands);
         }
 
+        /**
+         * @return The command compiled into a template. The template is compiled on first use and 
+         * kept until the command is changed.
+         */
+        public GcodeTemplate getTemplate() {
+            GcodeTemplate template = this.template;
+            if (template == null) {
+                template = this.template = new GcodeTemplate(getCommand());
+            }
+            return template;
+        }
+
         private Command() {
 
         }
@@ -279,6 +295,14 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
     @ElementList(required = false, inline = true)
     public ArrayList<Command> commands = new ArrayList<>();
 
+    /**
+     * Incremented on every command edit of this driver, to invalidate its compiled response classifier.
+     * Bumped after the change, so a classifier built concurrently is rebuilt.
+     */
+    private final AtomicLong commandsRevision = new AtomicLong();
+
+    private volatile GcodeResponseClassifier responseClassifier;
+
     @Deprecated
     @ElementList(required = false)
     protected List<GcodeDriver> subDrivers = null;
@@ -364,7 +388,8 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
             this(null);
         }
         
-        public String substituteVariable(String command, Double value) {
+        // returns the value if it is to be sent, null otherwise
+        public Double getValueToSend(Double value) {
             // send/substitute string and value
             if (!sendOnChange                                                         // .. if forced
                  || value == null                                                     // .. or value not initialized
@@ -372,16 +397,25 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
                  || value == 0.0                                                      // .. of if the new value is 0 - avoid division by zero
                  || Math.abs((lastValue - value) / value) > relativeDeviation) {      // .. or if the value has changed by more then 1e-3 relative
                 lastValue = value;
-                command = GcodeDriver.substituteVariable(command, variable, value);   // call the substitute method of the outer class as used by the rest of the code
-            } else {
-                command = GcodeDriver.substituteVariable(command, variable, null);    // remove the variable
+                return value;
             }
+            return null;                                                              // remove the variable
+        }
+
+        public String substituteVariable(String command, Double value) {
+            command = GcodeDriver.substituteVariable(command, variable, getValueToSend(value));   // call the substitute method of the outer class as used by the rest of the code
             // always substitute string + "F"
             command = GcodeDriver.substituteVariable(command, variable + "F", value); // call the substitute method of the outer class as used by the rest of the code
             
             return command;
         }
 
+        // same as substituteVariable() but binding the values to a compiled template
+        public void bindVariable(GcodeTemplate.Binding binding, Double value) {
+            binding.set(variable, getValueToSend(value));
+            binding.set(variable + "F", value);
+        }
+
         // reset the send on change behavior by invalidating lastValue
         public void reset() {
             lastValue = null;
@@ -460,6 +494,11 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
         command = getSendOnChangeJerk().substituteVariable(command, jerk);
         return command;
     }
+    private void sendOnChangeBindAllVariables(GcodeTemplate.Binding binding, Double feedRate, Double acceleration, Double jerk) {
+        getSendOnChangeFeedRate().bindVariable(binding, feedRate);
+        getSendOnChangeAcceleration().bindVariable(binding, acceleration);
+        getSendOnChangeJerk().bindVariable(binding, jerk);
+    }
     
     @Commit
     public void commit() {
@@ -495,6 +534,7 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
         commands.add(new Command(null, CommandType.MOVE_TO_COMMAND, "{Acceleration:M204 S%.1f} G0 {XL}{X:%.4f} {YL}{Y:%.4f} {ZL}{Z:%.4f} {RotationL}{Rotation:%.4f} {FeedRate:F%.1f} ; Send standard Gcode move"));
         commands.add(new Command(null, CommandType.MOVE_TO_COMPLETE_COMMAND, "M400 ; Wait for moves to complete before returning"));
         commands.add(new Command(null, CommandType.DELAY_COMMAND, "{TimeMS:G4 P%d} ; Delay for given time in [ms]"));
+        invalidateResponseClassifier();
     }
 
     public synchronized void connect() throws Exception {
@@ -852,6 +892,18 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
         return c.getCommand();
     }
 
+    /**
+     * @return The compiled template of the command, or null if the command is not set. 
+     * @see #getCommand(HeadMountable, CommandType)
+     */
+    public GcodeTemplate getCommandTemplate(HeadMountable hm, CommandType type) {
+        Command c = getCommand(hm, type, true);
+        if (c == null) {
+            return null;
+        }
+        return c.getTemplate();
+    }
+
     public void setCommand(HeadMountable hm, CommandType type, String text) {
         Command c = getCommand(hm, type, false);
         if (text == null || text.trim().length() == 0) {
@@ -868,6 +920,7 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
                 c.setCommand(text);
             }
         }
+        invalidateResponseClassifier();
     }
 
     @Override
@@ -887,8 +940,8 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
             movedAxesLocation.getLengthCoordinate(axis).convertToUnits(getUnits()).getValue() - axis.getDriverCoordinate()).third;
 
         // Start composing the command, will decide later, whether we actually send it.
-        String command = getCommand(hm, CommandType.MOVE_TO_COMMAND);
-        if (command == null) {
+        GcodeTemplate template = getCommandTemplate(hm, CommandType.MOVE_TO_COMMAND);
+        if (template == null) {
             if (movedAxesLocation.isEmpty()) {
                 return;
             }
@@ -900,7 +953,7 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
                 throw new Exception(getName()+" MOVE_TO_COMMAND missing, please use Issues & Solutions to propose proper G-code commands.");
             }
         }
-        if (hasVariable(command, "BacklashFeedRate")) {
+        if (template.hasVariable("BacklashFeedRate")) {
             throw new Exception(getName()+" configuration upgrade needed: Please remove the extra backlash compensation move from your MOVE_TO_COMMAND. "
                     +"Backlash compensation is now done outside of the drivers and configured on the axes.");
         }
@@ -927,97 +980,101 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
             jerk *= driverUnitsFactor;
         }
 
-        command = substituteVariable(command, "Id", hm.getId());
-        command = substituteVariable(command, "Name", hm.getName());
-        command = sendOnChangeSubstituteAllVariables(command, feedRate, acceleration, jerk);
-
-        ReferenceMachine machine = (ReferenceMachine) hm.getHead().getMachine();
-        // Get a map of the axes of ...
-        AxesLocation mappedAxes = (this.usingLetterVariables ?
-                allAxesLocation                // ... all the axes in case of using letter variables
-                : hm.getMappedAxes(machine))   // ... just the HeadMountable in case of using type variables
-                .drivenBy(this);               // ... but just those driven by this driver.
-        // Go through all the axes variables and handle them.
-        boolean doesMove = false;
-        for (String variable : getAxisVariables(machine)) {
-            // Note, if the axis is included in the location, this means it actually changes the coordinate in resolution steps. 
-            // The resolution stepping is used to suppress artificial coordinate changes due to floating point artifacts from transformations etc. 
-            // If set up correctly, this also suppresses "rounded-to-nothing" moves due to MOVE_TO_COMMANDs format specifier (usually %.4f).
-            ControllerAxis axis = movedAxesLocation.getAxisByVariable(this, variable);
-            if (axis == null) {
-                // Axis not moved. Might still be forced.
-
-                // If the command has forced-output coordinate variables "XF", "YF", "ZF" etc., 
-                // always include the corresponding axis in the command.
-                // This may be employed for axes, where OpenPNP cannot keep track when an axis has physically 
-                // moved behind its back. By always forcing the axis coordinate output, the controller will take care 
-                // of restoring the axis position, if necessary.  
-                // As we are always moving in absolute coordinates this has no ill effect if it results in no 
-                // position change after all. 
-                // Note, there is no need for separate backlash compensation variables, as these are always 
-                // substituted alongside. 
-                if (hasVariable(command, variable+"F")) {
-                    // Force it! Must get it from the mappedAxes. If the mappedAxes do not have it, it is 
-                    // still suppressed (this never happens when using letter variables). 
-                    axis = mappedAxes.getAxisByVariable(this, variable);
+        // The compiled template is rendered once, after all the variables are bound.
+        synchronized (template) {
+            GcodeTemplate.Binding command = template.bind();
+            command.set("Id", hm.getId());
+            command.set("Name", hm.getName());
+            sendOnChangeBindAllVariables(command, feedRate, acceleration, jerk);
+
+            ReferenceMachine machine = (ReferenceMachine) hm.getHead().getMachine();
+            // Get a map of the axes of ...
+            AxesLocation mappedAxes = (this.usingLetterVariables ?
+                    allAxesLocation                // ... all the axes in case of using letter variables
+                    : hm.getMappedAxes(machine))   // ... just the HeadMountable in case of using type variables
+                    .drivenBy(this);               // ... but just those driven by this driver.
+            // Go through all the axes variables and handle them.
+            boolean doesMove = false;
+            for (String variable : getAxisVariables(machine)) {
+                // Note, if the axis is included in the location, this means it actually changes the coordinate in resolution steps. 
+                // The resolution stepping is used to suppress artificial coordinate changes due to floating point artifacts from transformations etc. 
+                // If set up correctly, this also suppresses "rounded-to-nothing" moves due to MOVE_TO_COMMANDs format specifier (usually %.4f).
+                ControllerAxis axis = movedAxesLocation.getAxisByVariable(this, variable);
+                if (axis == null) {
+                    // Axis not moved. Might still be forced.
+
+                    // If the command has forced-output coordinate variables "XF", "YF", "ZF" etc., 
+                    // always include the corresponding axis in the command.
+                    // This may be employed for axes, where OpenPNP cannot keep track when an axis has physically 
+                    // moved behind its back. By always forcing the axis coordinate output, the controller will take care 
+                    // of restoring the axis position, if necessary.  
+                    // As we are always moving in absolute coordinates this has no ill effect if it results in no 
+                    // position change after all. 
+                    // Note, there is no need for separate backlash compensation variables, as these are always 
+                    // substituted alongside. 
+                    if (command.hasVariable(variable+"F")) {
+                        // Force it! Must get it from the mappedAxes. If the mappedAxes do not have it, it is 
+                        // still suppressed (this never happens when using letter variables). 
+                        axis = mappedAxes.getAxisByVariable(this, variable);
+                    }
                 }
-            }
-            if (axis != null) {
-                // The move is definitely on. 
-                doesMove = true;
-                // TODO: discuss whether we should round to axis resolution here.
-                double coordinate;
-                if (axis.getType() == Type.Rotation) {
-                    // Never convert rotation to driver units.
-                    coordinate = allAxesLocation.getCoordinate(axis);
+                if (axis != null) {
+                    // The move is definitely on. 
+                    doesMove = true;
+                    // TODO: discuss whether we should round to axis resolution here.
+                    double coordinate;
+                    if (axis.getType() == Type.Rotation) {
+                        // Never convert rotation to driver units.
+                        coordinate = allAxesLocation.getCoordinate(axis);
+                    }
+                    else {
+                        coordinate = allAxesLocation.getCoordinate(axis, getUnits());
+                    }
+                    double previousCoordinate = axis.getDriverCoordinate(); 
+                    int direction = ((Double)coordinate).compareTo(previousCoordinate);
+                    // Substitute the axis variables.
+                    command.set(variable, coordinate);
+                    command.set(variable+"F", coordinate);
+                    command.set(variable+"L", axis.getLetter());
+                    if (command.hasVariable("BacklashOffset"+variable)) {
+                        throw new Exception(getName()+" configuration upgrade needed: Please remove the extra backlash compensation move from your MOVE_TO_COMMAND. "
+                                +"Backlash compensation is now done outside of the drivers.");
+                    }
+                    command.set(variable+"Decreasing", direction < 0 ? true : null);
+                    command.set(variable+"Increasing", direction > 0 ? true : null);
+                    if (isSupportingPreMove() && axis instanceof ReferenceControllerAxis) {
+                        // Check for a pre-move command.
+                        String preMoveCommand = ((ReferenceControllerAxis) axis).getPreMoveCommand();
+                        if (preMoveCommand != null && !preMoveCommand.isEmpty()) {
+                            preMoveCommand = substituteVariable(preMoveCommand, "Coordinate", previousCoordinate);
+                            sendGcode(preMoveCommand);
+                        }
+                    }
+                    // Axis specific jerk limits are needed on TinyG.
+                    double axisDistance = coordinate - previousCoordinate;
+                    double axisJerk = (jerk != null ? jerk : 0)*Math.abs(axisDistance)/driverDistance;
+                    command.set(variable+"Jerk", axisJerk > jMin ? axisJerk : null);
+                    command.set(variable+"JerkMupm3", axisJerk > jMin*4.63 ? axisJerk*1e-6*Math.pow(60, 3) : null); // TinyG: Megaunits/min^3 
+                    // Store the new driver coordinate on the axis.
+                    axis.setDriverCoordinate(coordinate);
                 }
                 else {
-                    coordinate = allAxesLocation.getCoordinate(axis, getUnits());
-                }
-                double previousCoordinate = axis.getDriverCoordinate(); 
-                int direction = ((Double)coordinate).compareTo(previousCoordinate);
-                // Substitute the axis variables.
-                command = substituteVariable(command, variable, coordinate);
-                command = substituteVariable(command, variable+"F", coordinate);
-                command = substituteVariable(command, variable+"L", axis.getLetter());
-                if (hasVariable(command, "BacklashOffset"+variable)) {
-                    throw new Exception(getName()+" configuration upgrade needed: Please remove the extra backlash compensation move from your MOVE_TO_COMMAND. "
-                            +"Backlash compensation is now done outside of the drivers.");
+                    // Delete the unused axis variables.
+                    command.set(variable, null);
+                    command.set(variable+"F", null);
+                    command.set(variable+"L", null); 
+                    command.set("BacklashOffset"+variable, null);
+                    command.set(variable+"Decreasing", null);
+                    command.set(variable+"Increasing", null);
+                    command.set(variable+"Jerk", null);
+                    command.set(variable+"JerkMupm3", null);  
                 }
-                command = substituteVariable(command, variable+"Decreasing", direction < 0 ? true : null);
-                command = substituteVariable(command, variable+"Increasing", direction > 0 ? true : null);
-                if (isSupportingPreMove() && axis instanceof ReferenceControllerAxis) {
-                    // Check for a pre-move command.
-                    String preMoveCommand = ((ReferenceControllerAxis) axis).getPreMoveCommand();
-                    if (preMoveCommand != null && !preMoveCommand.isEmpty()) {
-                        preMoveCommand = substituteVariable(preMoveCommand, "Coordinate", previousCoordinate);
-                        sendGcode(preMoveCommand);
-                    }
-                }
-                // Axis specific jerk limits are needed on TinyG.
-                double axisDistance = coordinate - previousCoordinate;
-                double axisJerk = (jerk != null ? jerk : 0)*Math.abs(axisDistance)/driverDistance;
-                command = substituteVariable(command, variable+"Jerk", axisJerk > jMin ? axisJerk : null);
-                command = substituteVariable(command, variable+"JerkMupm3", axisJerk > jMin*4.63 ? axisJerk*1e-6*Math.pow(60, 3) : null); // TinyG: Megaunits/min^3 
-                // Store the new driver coordinate on the axis.
-                axis.setDriverCoordinate(coordinate);
             }
-            else {
-                // Delete the unused axis variables.
-                command = substituteVariable(command, variable, null);
-                command = substituteVariable(command, variable+"F", null);
-                command = substituteVariable(command, variable+"L", null); 
-                command = substituteVariable(command, "BacklashOffset"+variable, null);
-                command = substituteVariable(command, variable+"Decreasing", null);
-                command = substituteVariable(command, variable+"Increasing", null);
-                command = substituteVariable(command, variable+"Jerk", null);
-                command = substituteVariable(command, variable+"JerkMupm3", null);  
-            }
-        }
-        if (doesMove) {
-            // We do actually send the command.
-            motionPending = true;
-            sendGcode(command);
+            if (doesMove) {
+                // We do actually send the command.
+                motionPending = true;
+                sendRenderedGcode(command.render(), timeoutMilliseconds);
+            }
         }
     }
 
@@ -1240,6 +1297,36 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
         }
     }
 
+    /**
+     * Send G-code rendered by a {@link GcodeTemplate}. Like {@link #sendGcode(String, long)} the lines are 
+     * trimmed, but they are taken from the rendered text directly, without splitting it by a regex first. 
+     * 
+     * @param gCode
+     * @param timeout
+     * @throws Exception
+     */
+    protected void sendRenderedGcode(CharSequence gCode, long timeout) throws Exception {
+        int length = gCode.length();
+        for (int start = 0; start < length;) {
+            int end = start;
+            while (end < length && gCode.charAt(end) != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            // Trim like String.trim().
+            while (start < end && gCode.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && gCode.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (start < end) {
+                sendCommand(gCode.subSequence(start, end).toString(), timeout);
+            }
+            start = next;
+        }
+    }
+
     public void sendCommand(String command) throws Exception {
         sendCommand(command, timeoutMilliseconds);
     }
@@ -1367,96 +1454,8 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
 
     protected String preProcessCommand(String command) {
         if (removeComments || compressGcode) {
-            // See http://linuxcnc.org/docs/2.4/html/gcode_overview.html
-            boolean insideComment = false;
-            boolean decimal = false;
-            int trailingZeroes = 0;
             StringBuilder compressedCommand = new StringBuilder();
-            for (int col = 0; col < command.length();) {
-                char ch = command.charAt(col++);
-                if (ch == ' ') {
-                    // Note, in Gcode, spaces are allowed in the middle of decimals.
-                    if (compressGcode) {
-                        continue;
-                    }
-                }
-                else if (compressionExcludes.contains(String.valueOf(ch))) {
-                    trailingZeroes = compressDecimal(trailingZeroes, compressedCommand);
-                    decimal = false;
-                    // Due to ambiguities in escaping of strings and nesting of brackets, and brackets in strings,
-                    // just exclude everything from the left-most to the right-most exclude character. 
-                    int pos = col - 1;
-                    for (char cch : compressionExcludes.toCharArray()) {
-                        if (cch != ' ') { // ignore spaces the user might have added
-                            int p = command.lastIndexOf(cch);
-                            if (p >= pos) {
-                                pos = p;
-                            }
-                        }
-                    }
-                    if (pos < col) {
-                        // Matching char missing, just append the rest of the line as is.
-                        compressedCommand.append(command.substring(col-1));
-                        break;
-                    }
-                    else {
-                        // Matching bracket/quote found, exclude inner string from compression. 
-                        compressedCommand.append(command.substring(col-1, pos+1));
-                        col = pos+1;
-                        continue;
-                    }
-                }
-                else if (ch == '(') {
-                    trailingZeroes = compressDecimal(trailingZeroes, compressedCommand);
-                    decimal = false;
-                    insideComment = true;
-                    if (removeComments) {
-                        continue;
-                    }
-                }
-                else if (ch == ')') {
-                    insideComment = false;
-                    if (removeComments) {
-                        continue;
-                    }
-                }
-                else if (insideComment) {
-                    if (removeComments) {
-                        continue;
-                    }
-                }
-                else if (ch == ';') {
-                    trailingZeroes = compressDecimal(trailingZeroes, compressedCommand);
-                    decimal = false;
-                    if (removeComments) {
-                        break;
-                    }
-                    else {
-                        // Not removed, append as is.
-                        compressedCommand.append(command.substring(col-1));
-                        break;
-                    }
-                }
-                else if (ch == '.') {
-                    decimal = true;
-                    trailingZeroes = 1; // treat the dot as a trailing zero character
-                }
-                else if (ch >= '1' && ch <= '9') {
-                    trailingZeroes = 0;
-                }
-                else if (ch == '0') {
-                    if (decimal) {
-                        trailingZeroes++;
-                    }
-                }
-                else {
-                    trailingZeroes = compressDecimal(trailingZeroes, compressedCommand);
-                    decimal = false;
-                }
-                compressedCommand.append(ch);
-            }
-            trailingZeroes = compressDecimal(trailingZeroes, compressedCommand);
-            decimal = false;
+            compressCommand(command, 0, command.length(), compressedCommand);
             command = compressedCommand.toString();
             //Logger.trace("Compressed Gcode: {}", command);
         }
@@ -1485,6 +1484,114 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
         return command;
     }
 
+    /**
+     * Remove the comments and/or compress the command from start to end, as configured. 
+     * 
+     * @param command
+     * @param start
+     * @param end
+     * @param compressedCommand An empty builder, the compressed command is appended to it.
+     */
+    protected void compressCommand(CharSequence command, int start, int end, StringBuilder compressedCommand) {
+        // See http://linuxcnc.org/docs/2.4/html/gcode_overview.html
+        boolean insideComment = false;
+        boolean decimal = false;
+        int trailingZeroes = 0;
+        for (int col = start; col < end;) {
+            char ch = command.charAt(col++);
+            if (ch == ' ') {
+                // Note, in Gcode, spaces are allowed in the middle of decimals.
+                if (compressGcode) {
+                    continue;
+                }
+            }
+            else if (compressionExcludes.indexOf(ch) >= 0) {
+                trailingZeroes = compressDecimal(trailingZeroes, compressedCommand);
+                decimal = false;
+                // Due to ambiguities in escaping of strings and nesting of brackets, and brackets in strings,
+                // just exclude everything from the left-most to the right-most exclude character. 
+                int pos = col - 1;
+                for (char cch : compressionExcludes.toCharArray()) {
+                    if (cch != ' ') { // ignore spaces the user might have added
+                        int p = lastIndexOf(command, cch, start, end);
+                        if (p >= pos) {
+                            pos = p;
+                        }
+                    }
+                }
+                if (pos < col) {
+                    // Matching char missing, just append the rest of the line as is.
+                    compressedCommand.append(command, col-1, end);
+                    break;
+                }
+                else {
+                    // Matching bracket/quote found, exclude inner string from compression. 
+                    compressedCommand.append(command, col-1, pos+1);
+                    col = pos+1;
+                    continue;
+                }
+            }
+            else if (ch == '(') {
+                trailingZeroes = compressDecimal(trailingZeroes, compressedCommand);
+                decimal = false;
+                insideComment = true;
+                if (removeComments) {
+                    continue;
+                }
+            }
+            else if (ch == ')') {
+                insideComment = false;
+                if (removeComments) {
+                    continue;
+                }
+            }
+            else if (insideComment) {
+                if (removeComments) {
+                    continue;
+                }
+            }
+            else if (ch == ';') {
+                trailingZeroes = compressDecimal(trailingZeroes, compressedCommand);
+                decimal = false;
+                if (removeComments) {
+                    break;
+                }
+                else {
+                    // Not removed, append as is.
+                    compressedCommand.append(command, col-1, end);
+                    break;
+                }
+            }
+            else if (ch == '.') {
+                decimal = true;
+                trailingZeroes = 1; // treat the dot as a trailing zero character
+            }
+            else if (ch >= '1' && ch <= '9') {
+                trailingZeroes = 0;
+            }
+            else if (ch == '0') {
+                if (decimal) {
+                    trailingZeroes++;
+                }
+            }
+            else {
+                trailingZeroes = compressDecimal(trailingZeroes, compressedCommand);
+                decimal = false;
+            }
+            compressedCommand.append(ch);
+        }
+        compressDecimal(trailingZeroes, compressedCommand);
+    }
+
+    private static int lastIndexOf(CharSequence text, char ch, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (text.charAt(i) == ch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private int compressDecimal(int trailingZeroes, StringBuilder compressedCommand) {
         if (compressGcode && trailingZeroes > 0 
                 && compressedCommand.length() - trailingZeroes > 0) {
@@ -1550,54 +1657,73 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
      * @param line
      */
     protected void processResponse(Line line) {
-        String regex = getCommand(null, CommandType.COMMAND_CONFIRM_REGEX);
-        if (regex != null && line.getLine().matches(regex)) {
-            receivedConfirmationsQueue.add(line);
+        GcodeResponseClassifier classifier = getResponseClassifier();
+        int type = classifier.classify(line.getLine());
+        // The error is processed first, so it is in place when the confirmation of the same line is taken. 
+        if ((type & GcodeResponseClassifier.ERROR) != 0) {
+            processErrorResponse(line);
         }
-        regex = getCommand(null, CommandType.COMMAND_ERROR_REGEX);
-        if (regex != null && line.getLine().matches(regex)) {
-            errorResponse = line;
+        if ((type & GcodeResponseClassifier.CONFIRMATION) != 0) {
+            processConfirmation(line);
+        }
+        if ((type & GcodeResponseClassifier.POSITION_REPORT) != 0) {
+            processPositionReport(line);
         }
-        processPositionReport(line);
     }
 
-    protected boolean processPositionReport(Line line) {
-        String regex = getCommand(null, CommandType.POSITION_REPORT_REGEX); 
-        if (regex == null) {
-            return false;
+    /**
+     * Process a response that matched the COMMAND_CONFIRM_REGEX.
+     * 
+     * @param line
+     */
+    protected void processConfirmation(Line line) {
+        receivedConfirmationsQueue.add(line);
+    }
+
+    /**
+     * Process a response that matched the COMMAND_ERROR_REGEX. The error is reported when the 
+     * driver sends the next command. 
+     * 
+     * @param line
+     */
+    protected void processErrorResponse(Line line) {
+        errorResponse = line;
+    }
+
+    /**
+     * Get the response classifier for the current commands. The classifier is created on first use
+     * and replaced after the commands were edited.
+     */
+    protected GcodeResponseClassifier getResponseClassifier() {
+        GcodeResponseClassifier classifier = responseClassifier;
+        long revision = commandsRevision.get();
+        if (classifier == null || classifier.getRevision() != revision) {
+            classifier = new GcodeResponseClassifier(
+                    getCommand(null, CommandType.COMMAND_CONFIRM_REGEX),
+                    getCommand(null, CommandType.COMMAND_ERROR_REGEX),
+                    getCommand(null, CommandType.POSITION_REPORT_REGEX),
+                    revision);
+            responseClassifier = classifier;
         }
+        return classifier;
+    }
+
+    /**
+     * Invalidate the compiled response classifier. Must be called when the {@link #commands} list
+     * is changed directly, rather than through {@link #setCommand(HeadMountable, CommandType, String)}.
+     */
+    public void invalidateResponseClassifier() {
+        commandsRevision.incrementAndGet();
+    }
 
-        if (!line.getLine().matches(regex)) {
+    protected boolean processPositionReport(Line line) {
+        ReferenceMachine machine = ((ReferenceMachine) Configuration.get().getMachine());
+        AxesLocation position = getResponseClassifier().parsePositionReport(line.getLine(), this, machine, getUnits());
+        if (position == null) {
             return false;
         }
 
         Logger.trace("Position report: {}", line);
-        ReferenceMachine machine = ((ReferenceMachine) Configuration.get().getMachine());
-        Matcher matcher =
-                Pattern.compile(regex).matcher(line.getLine());
-        matcher.matches();
-        AxesLocation position = AxesLocation.zero;
-        for (ControllerAxis axis : new AxesLocation(machine).getAxes(this)) {
-            try {
-                String variable = axis.getLetter(); 
-                String s = matcher.group(variable);
-                Double d = Double.valueOf(s);
-                if (axis.getType() == Type.Rotation) {
-                    // Rotation axis is not converted from driver units.
-                    position = position.put(new AxesLocation(axis, new Length(d, AxesLocation.getUnits())));
-                }
-                else {
-                    position = position.put(new AxesLocation(axis, new Length(d, getUnits())));
-                }
-            }
-            catch (IllegalArgumentException e) {
-                // Axis is not present in pattern. That's a warning, but might not be supported by controller, so we let it go. 
-                Logger.warn("{}: Axis {} letter {} missing in POSITION_REPORT_REGEX groups.", getName(), axis.getName(), axis.getLetter());
-            }
-            catch (Exception e) {
-                Logger.warn("{}: Error processing position report for axis {}: {}", getName(), axis.getName(), e);
-            }
-        }
         // Store the latest momentary position.
         reportedLocationsQueue.add(position);
 
@@ -0,0 +1,223 @@
+package org.openpnp.machine.reference.driver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openpnp.model.AxesLocation;
+import org.openpnp.model.Length;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.spi.Axis;
+import org.openpnp.spi.Axis.Type;
+import org.openpnp.spi.ControllerAxis;
+import org.openpnp.spi.Driver;
+import org.openpnp.spi.Machine;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Classifies the lines received by the GcodeDriver reader thread. The COMMAND_CONFIRM_REGEX,
+ * COMMAND_ERROR_REGEX and POSITION_REPORT_REGEX are compiled once, when the classifier is created,
+ * and their Matchers are reused, so a line is classified without any regex compilation or
+ * commands lookup. The GcodeDriver replaces the classifier when its commands are edited.
+ *
+ * A position report line is matched only once: {@link #parsePositionReport(String, Driver, Machine, LengthUnit)}
+ * reuses the match from the {@link #classify(String)} call of the same line. The mapping of the
+ * driver's axes to their letters (i.e. the regex groups) is also kept between reports and only
+ * rebuilt when the machine axes, their drivers or letters change.
+ *
+ * Not thread safe, meant to be used by the reader thread only.
+ */
+public class GcodeResponseClassifier {
+    public static final int CONFIRMATION = 1;
+    public static final int ERROR = 2;
+    public static final int POSITION_REPORT = 4;
+
+    private final Matcher confirmationMatcher;
+    private final Matcher errorMatcher;
+    private final Matcher positionReportMatcher;
+    private final long revision;
+
+    /**
+     * The line that was last matched by the positionReportMatcher, by identity.
+     */
+    private String positionReportLine;
+    private boolean positionReportMatches;
+
+    private AxisMapping axisMapping;
+
+    /**
+     * The driver's axes with the letters that are present as groups in the POSITION_REPORT_REGEX.
+     * A snapshot of all the machine axes, their drivers and letters is kept to detect changes.
+     */
+    private static class AxisMapping {
+        final List<ControllerAxis> axes;
+        final String[] letters;
+        final Axis[] machineAxes;
+        final Driver[] machineAxisDrivers;
+        final String[] machineAxisLetters;
+
+        AxisMapping(List<Axis> machineAxes, List<ControllerAxis> axes) {
+            this.axes = axes;
+            this.letters = new String[axes.size()];
+            for (int i = 0; i < letters.length; i++) {
+                this.letters[i] = axes.get(i).getLetter();
+            }
+            this.machineAxes = machineAxes.toArray(new Axis[0]);
+            this.machineAxisDrivers = new Driver[this.machineAxes.length];
+            this.machineAxisLetters = new String[this.machineAxes.length];
+            for (int i = 0; i < this.machineAxes.length; i++) {
+                if (this.machineAxes[i] instanceof ControllerAxis) {
+                    ControllerAxis axis = (ControllerAxis) this.machineAxes[i];
+                    machineAxisDrivers[i] = axis.getDriver();
+                    machineAxisLetters[i] = axis.getLetter();
+                }
+            }
+        }
+
+        boolean isValid(Machine machine) {
+            List<Axis> currentAxes = machine.getAxes();
+            if (currentAxes.size() != machineAxes.length) {
+                return false;
+            }
+            for (int i = 0; i < machineAxes.length; i++) {
+                Axis axis = currentAxes.get(i);
+                if (axis != machineAxes[i]) {
+                    return false;
+                }
+                if (axis instanceof ControllerAxis
+                        && (((ControllerAxis) axis).getDriver() != machineAxisDrivers[i]
+                                || !Objects.equals(((ControllerAxis) axis).getLetter(), machineAxisLetters[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param confirmationRegex The COMMAND_CONFIRM_REGEX or null.
+     * @param errorRegex The COMMAND_ERROR_REGEX or null.
+     * @param positionReportRegex The POSITION_REPORT_REGEX or null.
+     * @param revision The commands revision the regexes were taken from.
+     */
+    public GcodeResponseClassifier(String confirmationRegex, String errorRegex, String positionReportRegex,
+            long revision) {
+        this.confirmationMatcher = compile(confirmationRegex);
+        this.errorMatcher = compile(errorRegex);
+        this.positionReportMatcher = compile(positionReportRegex);
+        this.revision = revision;
+    }
+
+    private static Matcher compile(String regex) {
+        if (regex == null) {
+            return null;
+        }
+        return Pattern.compile(regex).matcher("");
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public boolean hasPositionReport() {
+        return positionReportMatcher != null;
+    }
+
+    /**
+     * Classify a received line.
+     *
+     * @param line
+     * @return A combination of the {@link #CONFIRMATION}, {@link #ERROR} and
+     *         {@link #POSITION_REPORT} flags, 0 if the line matches none of the regexes.
+     */
+    public int classify(String line) {
+        int flags = 0;
+        if (confirmationMatcher != null && confirmationMatcher.reset(line).matches()) {
+            flags |= CONFIRMATION;
+        }
+        if (errorMatcher != null && errorMatcher.reset(line).matches()) {
+            flags |= ERROR;
+        }
+        if (matchPositionReport(line)) {
+            flags |= POSITION_REPORT;
+        }
+        return flags;
+    }
+
+    private boolean matchPositionReport(String line) {
+        if (positionReportMatcher == null) {
+            return false;
+        }
+        if (line != positionReportLine) {
+            positionReportMatches = positionReportMatcher.reset(line).matches();
+            positionReportLine = line;
+        }
+        return positionReportMatches;
+    }
+
+    /**
+     * Parse a position report line into the driver's axes coordinates.
+     *
+     * @param line
+     * @param driver
+     * @param machine
+     * @param units The units of the driver, rotation axes are not converted.
+     * @return The reported AxesLocation or null if the line is not a position report.
+     */
+    public AxesLocation parsePositionReport(String line, Driver driver, Machine machine, LengthUnit units) {
+        if (!matchPositionReport(line)) {
+            return null;
+        }
+        AxisMapping mapping = axisMapping;
+        if (mapping == null || !mapping.isValid(machine)) {
+            mapping = axisMapping = createAxisMapping(driver, machine);
+        }
+        final String[] letters = mapping.letters;
+        final int[] index = { 0 };
+        // The initializer is applied once per axis, in mapping order.
+        return new AxesLocation(mapping.axes, (axis) -> {
+            String letter = letters[index[0]++];
+            try {
+                double d = Double.parseDouble(positionReportMatcher.group(letter));
+                if (axis.getType() == Type.Rotation) {
+                    // Rotation axis is not converted from driver units.
+                    return new Length(d, AxesLocation.getUnits());
+                }
+                return new Length(d, units);
+            }
+            catch (Exception e) {
+                Logger.warn("{}: Error processing position report for axis {}: {}", driver.getName(),
+                        axis.getName(), e);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Map the driver's axes to the groups of the POSITION_REPORT_REGEX. Must be called with a
+     * matching positionReportMatcher.
+     */
+    private AxisMapping createAxisMapping(Driver driver, Machine machine) {
+        List<ControllerAxis> axes = new ArrayList<>();
+        for (Axis axis : machine.getAxes()) {
+            if (axis instanceof ControllerAxis && ((ControllerAxis) axis).getDriver() == driver) {
+                ControllerAxis controllerAxis = (ControllerAxis) axis;
+                try {
+                    if (controllerAxis.getLetter() == null) {
+                        throw new IllegalArgumentException();
+                    }
+                    positionReportMatcher.group(controllerAxis.getLetter());
+                    axes.add(controllerAxis);
+                }
+                catch (IllegalArgumentException e) {
+                    // Axis is not present in pattern. That's a warning, but might not be supported by controller, so we let it go.
+                    Logger.warn("{}: Axis {} letter {} missing in POSITION_REPORT_REGEX groups.", driver.getName(),
+                            controllerAxis.getName(), controllerAxis.getLetter());
+                }
+            }
+        }
+        return new AxisMapping(machine.getAxes(), axes);
+    }
+}
@@ -0,0 +1,324 @@
+package org.openpnp.machine.reference.driver;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openpnp.util.TextUtils;
+
+/**
+ * A G-code command template, compiled once into a list of literal and variable tokens. The variables
+ * are given as {Name:Format}, like in {@link TextUtils#substituteVar(String, String, Object)}.
+ *
+ * Values are bound to the variables by name, then the template is rendered in one pass into a reused
+ * buffer. The most common format specifiers (%.Nf, %d, %s with optional literal prefix and suffix)
+ * are rendered without going through String.format().
+ *
+ * Rendering gives the same result as applying {@link TextUtils#substituteVar(String, String, Object)}
+ * for each bound variable, in the order they were bound. Templates that rely on the sequential
+ * substitution, i.e. with nested curly brackets escaped as "<((" and "))>" in the format, or values that
+ * could be interpreted as variables or replacement references, are rendered that way.
+ *
+ * A template and its binding are not thread safe.
+ */
+public class GcodeTemplate {
+    private static final Pattern variablePattern = Pattern.compile("\\{(\\w+)(?::(.+?))?\\}");
+    private static final Pattern specifierPattern = Pattern.compile("([^%]*)%(?:\\.(\\d+))?([fds])([^%]*)");
+
+    private final String template;
+    /**
+     * The literal text preceding each variable token, plus the trailing literal at the end.
+     */
+    private final String[] literals;
+    private final Variable[] variables;
+    /**
+     * Variable name to slot index.
+     */
+    private final Map<String, Integer> slots = new HashMap<>();
+    /**
+     * True if the template can be rendered from the tokens, false if it must always be rendered
+     * by sequential substitution.
+     */
+    private final boolean compiled;
+    private final Binding binding;
+
+    private static class Variable {
+        final int slot;
+        final String text;
+        final String format;
+        // Compiled format specifier, conversion 0 if not compiled.
+        final String prefix;
+        final int precision;
+        final char conversion;
+        final String suffix;
+
+        Variable(int slot, String text, String format) {
+            this.slot = slot;
+            this.text = text;
+            this.format = (format == null ? "%s" : format);
+            Matcher matcher = specifierPattern.matcher(this.format);
+            if (matcher.matches()
+                    && (matcher.group(2) == null || matcher.group(3).equals("f"))) {
+                prefix = matcher.group(1);
+                precision = (matcher.group(2) == null ? 6 : Integer.parseInt(matcher.group(2)));
+                conversion = matcher.group(3).charAt(0);
+                suffix = matcher.group(4);
+            }
+            else {
+                prefix = null;
+                precision = 0;
+                conversion = 0;
+                suffix = null;
+            }
+        }
+    }
+
+    /**
+     * The values bound to the variables of the template.
+     */
+    public class Binding {
+        private final Object[] values = new Object[slots.size()];
+        private final boolean[] bound = new boolean[slots.size()];
+        private final List<String> boundNames = new ArrayList<>();
+        private final List<Object> boundValues = new ArrayList<>();
+        private final StringBuilder buffer = new StringBuilder();
+
+        private Binding() {
+        }
+
+        /**
+         * Bind the value to the named variable. A null value removes the variable. Binding a variable
+         * a second time has no effect, as the first substitution would have consumed it.
+         *
+         * @param name
+         * @param value
+         * @return this binding.
+         */
+        public Binding set(String name, Object value) {
+            boundNames.add(name);
+            boundValues.add(value);
+            Integer slot = slots.get(name);
+            if (slot != null && !bound[slot]) {
+                bound[slot] = true;
+                values[slot] = value;
+            }
+            return this;
+        }
+
+        /**
+         * @param name
+         * @return true if the named variable is still present, i.e. in the template and not yet bound.
+         */
+        public boolean hasVariable(String name) {
+            if (compiled) {
+                Integer slot = slots.get(name);
+                return slot != null && !bound[slot];
+            }
+            String command = template;
+            for (int i = 0; i < boundNames.size(); i++) {
+                command = TextUtils.substituteVar(command, boundNames.get(i), boundValues.get(i));
+            }
+            Matcher matcher = variablePattern.matcher(command);
+            while (matcher.find()) {
+                if (matcher.group(1).equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Render the template with the bound values. Variables that were not bound are kept as they are.
+         *
+         * @return The rendered command, valid until the binding is reset.
+         */
+        public CharSequence render() {
+            buffer.setLength(0);
+            if (compiled) {
+                boolean rendered = true;
+                for (int i = 0; i < variables.length && rendered; i++) {
+                    buffer.append(literals[i]);
+                    Variable variable = variables[i];
+                    if (bound[variable.slot]) {
+                        rendered = appendValue(buffer, variable, values[variable.slot]);
+                    }
+                    else {
+                        buffer.append(variable.text);
+                    }
+                }
+                if (rendered) {
+                    buffer.append(literals[variables.length]);
+                    return buffer;
+                }
+                buffer.setLength(0);
+            }
+            // Sequential substitution.
+            String command = template;
+            for (int i = 0; i < boundNames.size(); i++) {
+                command = TextUtils.substituteVar(command, boundNames.get(i), boundValues.get(i));
+            }
+            buffer.append(command);
+            return buffer;
+        }
+    }
+
+    public GcodeTemplate(String template) {
+        this.template = template;
+        List<String> literals = new ArrayList<>();
+        List<Variable> variables = new ArrayList<>();
+        boolean compiled = true;
+        Matcher matcher = variablePattern.matcher(template);
+        int end = 0;
+        while (matcher.find()) {
+            literals.add(template.substring(end, matcher.start()));
+            String name = matcher.group(1);
+            String format = matcher.group(2);
+            Integer slot = slots.get(name);
+            if (slot == null) {
+                slot = slots.size();
+                slots.put(name, slot);
+            }
+            variables.add(new Variable(slot, matcher.group(), format));
+            if (format != null && !isPlainText(format)) {
+                // Nested variables or replacement references, only sequential substitution can do that.
+                compiled = false;
+            }
+            end = matcher.end();
+        }
+        literals.add(template.substring(end));
+        for (String literal : literals) {
+            if (literal.indexOf('{') >= 0 || literal.indexOf('}') >= 0) {
+                // Stray brackets could form new variables with substituted values.
+                compiled = false;
+            }
+        }
+        this.literals = literals.toArray(new String[0]);
+        this.variables = variables.toArray(new Variable[0]);
+        this.compiled = compiled;
+        this.binding = new Binding();
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    /**
+     * @param name
+     * @return true if the template has the named variable.
+     */
+    public boolean hasVariable(String name) {
+        return slots.containsKey(name);
+    }
+
+    /**
+     * Reset and return the reused binding of this template.
+     *
+     * @return
+     */
+    public Binding bind() {
+        Arrays.fill(binding.values, null);
+        Arrays.fill(binding.bound, false);
+        binding.boundNames.clear();
+        binding.boundValues.clear();
+        return binding;
+    }
+
+    /**
+     * Append the formatted value.
+     *
+     * @return false if the value must be substituted sequentially.
+     */
+    private static boolean appendValue(StringBuilder buffer, Variable variable, Object value) {
+        if (value == null) {
+            return true;
+        }
+        switch (variable.conversion) {
+            case 'f':
+                if (value instanceof Double && Double.isFinite((Double) value)) {
+                    buffer.append(variable.prefix);
+                    appendFixed(buffer, (Double) value, variable.precision);
+                    buffer.append(variable.suffix);
+                    return true;
+                }
+                break;
+            case 'd':
+                if (value instanceof Integer || value instanceof Long) {
+                    buffer.append(variable.prefix);
+                    buffer.append(((Number) value).longValue());
+                    buffer.append(variable.suffix);
+                    return true;
+                }
+                break;
+            case 's':
+                if (value instanceof Double || value instanceof Boolean || value instanceof Integer) {
+                    buffer.append(variable.prefix);
+                    buffer.append(value);
+                    buffer.append(variable.suffix);
+                    return true;
+                }
+                if (value instanceof String) {
+                    if (!isPlainText((String) value)) {
+                        return false;
+                    }
+                    buffer.append(variable.prefix);
+                    buffer.append((String) value);
+                    buffer.append(variable.suffix);
+                    return true;
+                }
+                break;
+        }
+        // Not compiled, let String.format() handle it, including its exceptions.
+        String text = String.format((Locale) null, variable.format, value);
+        if (!isPlainText(text)) {
+            return false;
+        }
+        buffer.append(text);
+        return true;
+    }
+
+    /**
+     * Append the value with the given number of decimals, like String.format("%.Nf"). The decimal digits
+     * of Double.toString() are rounded half-up, and negative values keep their sign, even if rounded to zero.
+     */
+    static void appendFixed(StringBuilder buffer, double value, int precision) {
+        String text = BigDecimal.valueOf(value).setScale(precision, RoundingMode.HALF_UP).toPlainString();
+        if ((Double.doubleToRawLongBits(value) < 0) && text.charAt(0) != '-') {
+            buffer.append('-');
+        }
+        buffer.append(text);
+    }
+
+    /**
+     * @return true if the text contains none of the characters that have a meaning in sequential substitution.
+     */
+    private static boolean isPlainText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            switch (text.charAt(i)) {
+                case '{':
+                case '}':
+                case '$':
+                case '\\':
+                case '<':
+                case '>':
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
@@ -9,13 +9,32 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
 
+import org.openpnp.util.Collect;
+import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 /**
  * Коммуникации для Klipper через UNIX domain socket (обычно
  * путь по умолчанию '/tmp/printer').
+ *
+ * В режиме jsonRpc используется API сервер Klipper (сокет, заданный ключом -a, например
+ * '/tmp/klippy_uds'). Строки G-code отправляются запросами gcode/script, несколько строк,
+ * поставленных в очередь через {@link #writeLine(String, boolean)}, упаковываются в один запрос.
+ * Ответы переводятся обратно в строки, как у обычного контроллера: вывод G-code (подписка
+ * gcode/subscribe_output) передаётся как есть, на каждую строку выполненного скрипта приходит
+ * "ok". Klipper прерывает скрипт на первой ошибке, и неизвестно, какие строки запроса выполнены,
+ * поэтому при ошибке неудачным считается весь запрос: каждой его строке предшествует
+ * "!! сообщение", как у контроллера, ответившего ошибкой на каждую строку.
  */
 public class KlipperCommunications extends ReferenceDriverCommunications {
     @Attribute(required = false)
@@ -24,10 +43,40 @@ public class KlipperCommunications extends ReferenceDriverCommunications {
     @Attribute(required = false)
     protected String name = "KlipperCommunications";
 
+    /**
+     * Режим JSON-RPC API сервера Klipper.
+     */
+    @Attribute(required = false)
+    protected boolean jsonRpc = false;
+
+    /**
+     * Максимальное число строк G-code в одном запросе gcode/script.
+     */
+    @Attribute(required = false)
+    protected int jsonRpcBatchLines = 16;
+
     protected Object clientSocket;
     protected BufferedReader input;
     protected DataOutputStream output;
 
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int MESSAGE_TERMINATOR = 0x03;
+
+    // Состояние JSON-RPC, запись защищена writeLock.
+    private final Object writeLock = new Object();
+    private final StringBuilder script = new StringBuilder();
+    private int scriptLines;
+    private long requestId;
+    /**
+     * Число строк скрипта по id запроса, для которых ещё не пришёл ответ.
+     */
+    private final Map<Long, Integer> pendingRequests = new ConcurrentHashMap<>();
+
+    // Состояние JSON-RPC, только для потока чтения.
+    private final ArrayDeque<String> responseLines = new ArrayDeque<>();
+    private final StringBuilder message = new StringBuilder();
+    private String lastOutputError;
+
     @Override
     public synchronized void connect() throws Exception {
         disconnect();
@@ -55,6 +104,9 @@ public class KlipperCommunications extends ReferenceDriverCommunications {
             clientSocket = sock;
             input = new BufferedReader(new InputStreamReader((InputStream) getInputStream.invoke(sock)));
             output = new DataOutputStream((OutputStream) getOutputStream.invoke(sock));
+            if (jsonRpc) {
+                startJsonRpc();
+            }
         } catch (ClassNotFoundException e) {
             throw new IOException("junixsocket library not found. Ensure junixsocket-core is on classpath.", e);
         } catch (ReflectiveOperationException e) {
@@ -104,6 +156,175 @@ public class KlipperCommunications extends ReferenceDriverCommunications {
         output.write(data);
     }
 
+    @Override
+    public String readLine() throws TimeoutException, IOException {
+        if (!jsonRpc) {
+            return super.readLine();
+        }
+        while (responseLines.isEmpty()) {
+            String received = readMessage();
+            if (received == null) {
+                return null;
+            }
+            processMessage(received);
+        }
+        return responseLines.poll();
+    }
+
+    @Override
+    public void writeLine(String data) throws IOException {
+        writeLine(data, true);
+    }
+
+    @Override
+    public void writeLine(String data, boolean flush) throws IOException {
+        if (!jsonRpc) {
+            super.writeLine(data);
+            return;
+        }
+        synchronized (writeLock) {
+            if (scriptLines > 0) {
+                script.append('\n');
+            }
+            script.append(data);
+            scriptLines++;
+            if (flush || scriptLines >= jsonRpcBatchLines) {
+                flushScript();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (jsonRpc) {
+            synchronized (writeLock) {
+                flushScript();
+            }
+        }
+    }
+
+    private void startJsonRpc() throws IOException {
+        synchronized (writeLock) {
+            script.setLength(0);
+            scriptLines = 0;
+            pendingRequests.clear();
+            responseLines.clear();
+            lastOutputError = null;
+            // Подписка на вывод G-code, иначе ответы вроде M114 не приходят.
+            ObjectNode params = objectMapper.createObjectNode();
+            params.putObject("response_template");
+            sendRequest("gcode/subscribe_output", params, 0);
+        }
+    }
+
+    /**
+     * Отправить накопленные строки одним запросом gcode/script. Вызывается под writeLock.
+     */
+    private void flushScript() throws IOException {
+        if (scriptLines == 0) {
+            return;
+        }
+        ObjectNode params = objectMapper.createObjectNode();
+        params.put("script", script.toString());
+        int lines = scriptLines;
+        script.setLength(0);
+        scriptLines = 0;
+        sendRequest("gcode/script", params, lines);
+    }
+
+    private void sendRequest(String method, ObjectNode params, int lines) throws IOException {
+        if (output == null) {
+            throw new IOException("Trying to write to an unconnected Klipper UNIX socket.");
+        }
+        long id = ++requestId;
+        ObjectNode request = objectMapper.createObjectNode();
+        request.put("id", id);
+        request.put("method", method);
+        request.set("params", params);
+        // Регистрируем до отправки, ответ может прийти раньше, чем вернётся write().
+        pendingRequests.put(id, lines);
+        output.write(Collect.concat(objectMapper.writeValueAsBytes(request), new byte[] { MESSAGE_TERMINATOR }));
+        output.flush();
+    }
+
+    /**
+     * Прочитать одно сообщение API сервера до терминатора 0x03.
+     *
+     * @return сообщение или null, если соединение закрыто.
+     */
+    private String readMessage() throws IOException {
+        message.setLength(0);
+        while (true) {
+            int ch;
+            try {
+                ch = read();
+            }
+            catch (TimeoutException e) {
+                continue;
+            }
+            if (ch == -1) {
+                return null;
+            }
+            if (ch == MESSAGE_TERMINATOR) {
+                if (message.length() > 0) {
+                    return message.toString();
+                }
+            }
+            else {
+                message.append((char) ch);
+            }
+        }
+    }
+
+    private void processMessage(String received) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(received);
+        }
+        catch (JsonProcessingException e) {
+            Logger.warn("{}: failed to parse Klipper response: {}", getConnectionName(), received);
+            return;
+        }
+        JsonNode id = node.get("id");
+        if (id != null && id.canConvertToLong()) {
+            Integer lines = pendingRequests.remove(id.asLong());
+            if (lines == null) {
+                Logger.trace("{}: response to unknown request {}", getConnectionName(), received);
+                return;
+            }
+            JsonNode error = node.get("error");
+            String errorLine = null;
+            if (error != null) {
+                errorLine = "!! " + error.path("message").asText(error.toString());
+                if (lines == 0 && !errorLine.equals(lastOutputError)) {
+                    // Запрос без строк скрипта, например подписка.
+                    responseLines.add(errorLine);
+                }
+            }
+            for (int i = 0; i < lines; i++) {
+                // Для первой строки Klipper обычно уже вывел ту же ошибку через gcode/subscribe_output.
+                if (errorLine != null && (i > 0 || !errorLine.equals(lastOutputError))) {
+                    responseLines.add(errorLine);
+                }
+                responseLines.add("ok");
+            }
+            lastOutputError = null;
+            return;
+        }
+        JsonNode response = node.path("params").path("response");
+        if (response.isTextual()) {
+            for (String line : response.asText().split("\r?\n")) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    if (line.startsWith("!!")) {
+                        lastOutputError = line;
+                    }
+                    responseLines.add(line);
+                }
+            }
+        }
+    }
+
     public String getSocketPath() {
         return socketPath;
     }
@@ -111,4 +332,20 @@ public class KlipperCommunications extends ReferenceDriverCommunications {
     public void setSocketPath(String socketPath) {
         this.socketPath = socketPath;
     }
+
+    public boolean isJsonRpc() {
+        return jsonRpc;
+    }
+
+    public void setJsonRpc(boolean jsonRpc) {
+        this.jsonRpc = jsonRpc;
+    }
+
+    public int getJsonRpcBatchLines() {
+        return jsonRpcBatchLines;
+    }
+
+    public void setJsonRpcBatchLines(int jsonRpcBatchLines) {
+        this.jsonRpcBatchLines = Math.max(1, jsonRpcBatchLines);
+    }
 }
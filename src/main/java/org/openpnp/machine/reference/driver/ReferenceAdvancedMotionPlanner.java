@@ -41,6 +41,7 @@ import org.openpnp.model.Motion;
 import org.openpnp.model.Motion.MotionOption;
 import org.openpnp.model.Motion.MoveToCommand;
 import org.openpnp.model.MotionProfile;
+import org.openpnp.model.MotionProfileCache;
 import org.openpnp.model.Solutions;
 import org.openpnp.model.Solutions.Severity;
 import org.openpnp.spi.Axis;
@@ -50,6 +51,7 @@ import org.openpnp.spi.HeadMountable;
 import org.openpnp.util.MovableUtils;
 import org.openpnp.util.NanosecondTime;
 import org.openpnp.util.SimpleGraph;
+import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
 
@@ -74,6 +76,12 @@ public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
     @Attribute(required = false)
     private boolean showApproximation = true;
 
+    /**
+     * The number of solved MotionProfiles kept in the cache, 0 disables the cache.
+     */
+    @Attribute(required = false)
+    private int motionProfileCacheSize = 4096;
+
     @Element(required = false)
     Location startLocation = new Location(LengthUnit.Millimeters);
     @Element(required = false)
@@ -120,6 +128,8 @@ public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
     private boolean interpolationFailed;
     private boolean recordingInterpolationFailed;
     private boolean recordingMotionLocked;
+    private MotionProfileCache motionProfileCache;
+    private String motionProfileCacheStatistics;
 
     public boolean isAllowContinuousMotion() {
         return allowContinuousMotion;
@@ -155,6 +165,40 @@ public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
         this.minimumSpeed = minimumSpeed;
     }
 
+    public int getMotionProfileCacheSize() {
+        return motionProfileCacheSize;
+    }
+
+    public void setMotionProfileCacheSize(int motionProfileCacheSize) {
+        this.motionProfileCacheSize = motionProfileCacheSize;
+    }
+
+    /**
+     * @return The cache of solved MotionProfiles, with its hit/miss statistics, or null if disabled.
+     */
+    public synchronized MotionProfileCache getMotionProfileCache() {
+        if (motionProfileCacheSize <= 0) {
+            motionProfileCache = null;
+        }
+        else if (motionProfileCache == null || motionProfileCache.getCapacity() != motionProfileCacheSize) {
+            motionProfileCache = new MotionProfileCache(motionProfileCacheSize);
+        }
+        return motionProfileCache;
+    }
+
+    /**
+     * @return The statistics of the MotionProfileCache, as last published with the diagnostics. 
+     */
+    public String getMotionProfileCacheStatistics() {
+        return motionProfileCacheStatistics;
+    }
+
+    public void setMotionProfileCacheStatistics(String motionProfileCacheStatistics) {
+        Object oldValue = this.motionProfileCacheStatistics;
+        this.motionProfileCacheStatistics = motionProfileCacheStatistics;
+        firePropertyChange("motionProfileCacheStatistics", oldValue, motionProfileCacheStatistics);
+    }
+
     public boolean isDiagnosticsEnabled() {
         return diagnosticsEnabled;
     }
@@ -377,7 +421,41 @@ public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
     protected void optimizeExecutionPlan(List<Motion> executionPlan,
             CompletionType completionType) throws Exception {
         PlannerPath path = new PlannerPath(executionPlan);
-        path.solve();
+        MotionProfileCache cache = getMotionProfileCache();
+        if (cache == null) {
+            path.solve();
+            return;
+        }
+        try (MotionProfileCache.Scope scope = cache.activate()) {
+            path.solve();
+        }
+        if (diagnosticsEnabled) {
+            Logger.debug(cache);
+        }
+    }
+
+    /**
+     * The PlannerPath only blends moves into each other, if one of them is uncoordinated, or if they are co-linear. 
+     * Corners between coordinated moves are always passed at still-stand, so the path can be cut there.  
+     */
+    @Override
+    protected boolean isPlanningBoundary(Motion motion0, Motion motion1) {
+        if (motion0.isEmpty() || motion1.isEmpty()
+                || motion0.hasOption(MotionOption.UncoordinatedMotion) 
+                || motion1.hasOption(MotionOption.UncoordinatedMotion)) {
+            return false;
+        }
+        MotionProfile[] profiles0 = motion0.getAxesProfiles();
+        MotionProfile[] profiles1 = motion1.getAxesProfiles();
+        if (profiles0.length == 0 || profiles0.length != profiles1.length
+                || !MotionProfile.isCoordinated(profiles0) 
+                || !MotionProfile.isCoordinated(profiles1)) {
+            return false;
+        }
+        double junctionCosine = MotionProfile.dotProduct(
+                MotionProfile.getUnitVector(profiles0), MotionProfile.getUnitVector(profiles1));
+        // Co-linear moves may be combined into one.
+        return junctionCosine < 1.0 - 1e-8;
     }
 
     protected void startNewMotionGraph() {
@@ -683,6 +761,12 @@ public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
     protected void publishDiagnostics() {
         if (!recordingMotionLocked) {
             super.publishDiagnostics();
+            if (diagnosticsEnabled) {
+                MotionProfileCache cache = getMotionProfileCache();
+                setMotionProfileCacheStatistics(cache != null ? String.format("%d/%d, hits %d, misses %d, rejected %d, %.1f%%", 
+                        cache.size(), cache.getCapacity(), cache.getHits(), cache.getMisses(), cache.getRejections(), 
+                        cache.getHitRatio()*100) : null);
+            }
             if (rearrangeGraph()) {
                 setMoveTimePlanned(recordingMoveTimePlanned);
                 setMoveTimeActual(null);
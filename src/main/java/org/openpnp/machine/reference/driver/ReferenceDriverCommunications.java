@@ -91,6 +91,28 @@ public abstract class ReferenceDriverCommunications {
         writeBytes(line);
     }
 
+    /**
+     * Write a line, or queue it to be written together with the following lines. Communications that
+     * batch their writes only write the queued lines out when a line is written with flush true, or
+     * on {@link #flush()}. Other communications write the line immediately.
+     *
+     * @param data
+     * @param flush true if the line and any queued lines must be written out now.
+     * @throws IOException
+     */
+    public void writeLine(String data, boolean flush) throws IOException {
+        writeLine(data);
+    }
+
+    /**
+     * Write out the lines queued by {@link #writeLine(String, boolean)}. Must be called before waiting
+     * for a response to a queued line.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+    }
+
     /**
      * Read the input stream until one of the characters is found. Blocks for the default timeout. If the read times out
      * a TimeoutException is thrown. Any other failure to read results in an IOExeption;
@@ -0,0 +1,208 @@
+package org.openpnp.machine.reference.driver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * TCP communications over a blocking NIO SocketChannel. Received data is read into a direct
+ * ByteBuffer in chunks and lines are framed directly in that buffer, so the reader thread needs
+ * one read call per chunk rather than one per character. Lines written with
+ * {@link #writeLine(String, boolean)} are queued in a direct ByteBuffer and written out together,
+ * i.e. several commands go out in one write call and (with Nagle disabled) in one TCP segment.
+ *
+ * Uses the ipAddress and port settings of the {@link TcpCommunications}, including the "GcodeServer"
+ * address for testing.
+ */
+public class TcpChannelCommunications extends TcpCommunications {
+    protected static final int BUFFER_SIZE = 8192;
+
+    protected SocketChannel channel;
+    protected ByteBuffer readBuffer;
+    protected ByteBuffer writeBuffer;
+    /**
+     * Guards the writeBuffer. Not the instance, so a blocked write can't block disconnect().
+     */
+    private final Object writeLock = new Object();
+    /**
+     * The bytes of the line being framed, grown as needed. Only used by the reader thread.
+     */
+    private byte[] lineBytes = new byte[256];
+
+    @Override
+    public synchronized void connect() throws Exception {
+        disconnect();
+        channel = SocketChannel.open(new InetSocketAddress(getHost(), port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        // Start with an empty buffer, ready to be read from.
+        readBuffer.flip();
+        writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized void disconnect() throws Exception {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        super.disconnect();
+    }
+
+    /**
+     * Read the next chunk of data into the readBuffer, if it has no remaining data.
+     *
+     * @return false if the end of the stream is reached.
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        ByteBuffer buffer = readBuffer;
+        SocketChannel channel = this.channel;
+        if (buffer == null || channel == null) {
+            throw new IOException("Trying to read from a unconnected socket.");
+        }
+        while (!buffer.hasRemaining()) {
+            buffer.clear();
+            int n = channel.read(buffer);
+            buffer.flip();
+            if (n < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws TimeoutException, IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return readBuffer.get() & 0xFF;
+    }
+
+    /**
+     * Frame the line in the readBuffer. Like {@link ReferenceDriverCommunications#readUntil(String)},
+     * both CR and LF end a line and empty lines are skipped.
+     */
+    @Override
+    public String readLine() throws TimeoutException, IOException {
+        int length = 0;
+        while (true) {
+            if (!fill()) {
+                return null;
+            }
+            ByteBuffer buffer = readBuffer;
+            int position = buffer.position();
+            int limit = buffer.limit();
+            while (position < limit) {
+                byte b = buffer.get(position++);
+                if (b == '\r' || b == '\n') {
+                    if (length > 0) {
+                        buffer.position(position);
+                        return new String(lineBytes, 0, length, StandardCharsets.ISO_8859_1);
+                    }
+                }
+                else {
+                    if (length == lineBytes.length) {
+                        lineBytes = Arrays.copyOf(lineBytes, length*2);
+                    }
+                    lineBytes[length++] = b;
+                }
+            }
+            buffer.position(position);
+        }
+    }
+
+    @Override
+    public void writeLine(String data) throws IOException {
+        writeLine(data, true);
+    }
+
+    @Override
+    public void writeLine(String data, boolean flush) throws IOException {
+        synchronized (writeLock) {
+            put(data);
+            put(getLineEndingType().getLineEnding());
+            if (flush) {
+                flushBuffer();
+            }
+        }
+    }
+
+    @Override
+    public void write(int d) throws IOException {
+        writeBytes(new byte[] { (byte) d });
+    }
+
+    @Override
+    public void writeBytes(byte[] data) throws IOException {
+        synchronized (writeLock) {
+            ensureCapacity(data.length);
+            writeBuffer.put(data);
+            flushBuffer();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        ByteBuffer buffer = writeBuffer;
+        SocketChannel channel = this.channel;
+        if (buffer == null || channel == null) {
+            throw new IOException("Trying to write to a unconnected socket.");
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        finally {
+            buffer.clear();
+        }
+    }
+
+    private void put(String data) throws IOException {
+        int length = data.length();
+        for (int i = 0; i < length; i++) {
+            if (data.charAt(i) >= 0x80) {
+                // Not plain ASCII, encode like the other communications.
+                byte[] bytes = data.getBytes();
+                ensureCapacity(bytes.length);
+                writeBuffer.put(bytes);
+                return;
+            }
+        }
+        ensureCapacity(length);
+        ByteBuffer buffer = writeBuffer;
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) data.charAt(i));
+        }
+    }
+
+    /**
+     * Make sure the writeBuffer has room for the given number of bytes, by writing out the queued
+     * lines or growing the buffer.
+     */
+    private void ensureCapacity(int length) throws IOException {
+        if (writeBuffer == null) {
+            throw new IOException("Trying to write to a unconnected socket.");
+        }
+        if (writeBuffer.remaining() < length) {
+            flushBuffer();
+            if (writeBuffer.capacity() < length) {
+                writeBuffer = ByteBuffer.allocateDirect(length);
+            }
+        }
+    }
+}
@@ -35,17 +35,24 @@ public class TcpCommunications extends ReferenceDriverCommunications {
     @Override
     public synchronized void connect() throws Exception {
         disconnect();
+        clientSocket = new Socket(getHost(), port);
+        input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+        output = new DataOutputStream(clientSocket.getOutputStream());
+    }
+
+    /**
+     * @return The host to connect to. If the ipAddress is "GcodeServer", a local GcodeServer is started 
+     * and its port is taken. 
+     * @throws Exception
+     */
+    protected String getHost() throws Exception {
         if (ipAddress.equals("GcodeServer")) {
             gcodeServer = new GcodeServer();
             gcodeServer.setDriver(driver);
             port = gcodeServer.getListenerPort();
-            clientSocket = new Socket("localhost", port);
+            return "localhost";
         }
-        else {
-            clientSocket = new Socket(ipAddress,port);
-        }
-        input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        output = new DataOutputStream(clientSocket.getOutputStream());
+        return ipAddress;
     }
 
     @Override
@@ -61,6 +61,8 @@ public class AbstractReferenceDriverConfigurationWizard extends AbstractConfigur
     private JLabel lblAllowUnhomedMotion;
     private JCheckBox allowUnhomedMotion;
     private JTextField socketPathTextField;
+    private JCheckBox jsonRpc;
+    private JTextField jsonRpcBatchLines;
 
     public AbstractReferenceDriverConfigurationWizard(AbstractReferenceDriver driver) {
         this.driver = driver;
@@ -346,6 +348,10 @@ public class AbstractReferenceDriverConfigurationWizard extends AbstractConfigur
                 FormSpecs.RELATED_GAP_COLSPEC,
                 FormSpecs.DEFAULT_COLSPEC,},
             new RowSpec[] {
+                FormSpecs.RELATED_GAP_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
+                FormSpecs.RELATED_GAP_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
                 FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,}));
 
@@ -356,6 +362,23 @@ public class AbstractReferenceDriverConfigurationWizard extends AbstractConfigur
         socketPathTextField = new JTextField(24);
         panelKlipper.add(socketPathTextField, "4, 2, fill, default");
         socketPathTextField.setColumns(10);
+
+        JLabel lblJsonRpc = new JLabel(Translations.getString(
+                "AbstractReferenceDriverConfigurationWizard.KlipperPanel.JsonRpcLabel.text")); //$NON-NLS-1$
+        lblJsonRpc.setToolTipText(Translations.getString(
+                "AbstractReferenceDriverConfigurationWizard.KlipperPanel.JsonRpcLabel.toolTipText")); //$NON-NLS-1$
+        panelKlipper.add(lblJsonRpc, "2, 4, right, default");
+
+        jsonRpc = new JCheckBox("");
+        panelKlipper.add(jsonRpc, "4, 4");
+
+        JLabel lblJsonRpcBatchLines = new JLabel(Translations.getString(
+                "AbstractReferenceDriverConfigurationWizard.KlipperPanel.JsonRpcBatchLinesLabel.text")); //$NON-NLS-1$
+        panelKlipper.add(lblJsonRpcBatchLines, "2, 6, right, default");
+
+        jsonRpcBatchLines = new JTextField();
+        panelKlipper.add(jsonRpcBatchLines, "4, 6, fill, default");
+        jsonRpcBatchLines.setColumns(10);
     }
 
     private void setPanelEnabled(JPanel panel, Boolean isEnabled) {
@@ -409,11 +432,14 @@ public class AbstractReferenceDriverConfigurationWizard extends AbstractConfigur
         addWrappedBinding(driver, "ipAddress", ipAddressTextField, "text");
         addWrappedBinding(driver, "port", portTextField, "text", integerConverter);
         addWrappedBinding(driver, "socketPath", socketPathTextField, "text");
+        addWrappedBinding(driver, "klipperJsonRpc", jsonRpc, "selected");
+        addWrappedBinding(driver, "klipperJsonRpcBatchLines", jsonRpcBatchLines, "text", integerConverter);
 
         ComponentDecorators.decorateWithAutoSelect(driverName);
         ComponentDecorators.decorateWithAutoSelect(ipAddressTextField);
         ComponentDecorators.decorateWithAutoSelect(portTextField);
         ComponentDecorators.decorateWithAutoSelect(socketPathTextField);
+        ComponentDecorators.decorateWithAutoSelect(jsonRpcBatchLines);
 
         communicationsTypeChanged();
     }
@@ -437,7 +463,8 @@ public class AbstractReferenceDriverConfigurationWizard extends AbstractConfigur
             setPanelEnabled(panelSerial, true);
             setPanelEnabled(panelTcp, false);
             setPanelEnabled(panelKlipper, false);
-        } else if (communicationsType.getSelectedItem() == CommunicationsType.tcp) {
+        } else if (communicationsType.getSelectedItem() == CommunicationsType.tcp
+                || communicationsType.getSelectedItem() == CommunicationsType.tcpChannel) {
             setPanelEnabled(panelSerial, false);
             setPanelEnabled(panelTcp, true);
             setPanelEnabled(panelKlipper, false);
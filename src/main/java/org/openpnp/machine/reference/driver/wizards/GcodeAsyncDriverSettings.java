@@ -33,6 +33,8 @@ public class GcodeAsyncDriverSettings extends AbstractConfigurationWizard {
     private JTextField junctionDeviation;
     private JTextField interpolationJerkSteps;
     private JCheckBox reportedLocationConfirmation;
+    private JTextField confirmationWindowCommands;
+    private JTextField controllerRxBufferSize;
 
     public GcodeAsyncDriverSettings(GcodeAsyncDriver driver) {
         this.driver = driver;
@@ -50,6 +52,10 @@ public class GcodeAsyncDriverSettings extends AbstractConfigurationWizard {
                 FormSpecs.RELATED_GAP_COLSPEC,
                 FormSpecs.DEFAULT_COLSPEC,},
             new RowSpec[] {
+                FormSpecs.RELATED_GAP_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
+                FormSpecs.RELATED_GAP_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
                 FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,
                 FormSpecs.RELATED_GAP_ROWSPEC,
@@ -156,6 +162,22 @@ public class GcodeAsyncDriverSettings extends AbstractConfigurationWizard {
         });
         settingsPanel.add(reportedLocationConfirmation, "4, 4");
 
+        JLabel lblConfirmationWindow = new JLabel("Confirmation Window [Commands]");
+        lblConfirmationWindow.setToolTipText("<html>\r\n<p>Maximum number of commands sent to the controller, but not yet confirmed, when<br/>\r\nConfirmation Flow Control is enabled.</p>\r\n<p>With 1, each command waits for the \"ok\" of the previous one (stop-and-wait).<br/>\r\nLarger windows keep the controller's planner fed. Each command must get exactly one<br/>\r\nconfirmation, errors must also match the COMMAND_CONFIRM_REGEX if the controller<br/>\r\nsends them instead of the \"ok\".</p>\r\n</html>");
+        settingsPanel.add(lblConfirmationWindow, "2, 6, right, default");
+
+        confirmationWindowCommands = new JTextField();
+        settingsPanel.add(confirmationWindowCommands, "4, 6, fill, default");
+        confirmationWindowCommands.setColumns(10);
+
+        JLabel lblControllerRxBuffer = new JLabel("Controller RX Buffer [Characters]");
+        lblControllerRxBuffer.setToolTipText("<html>\r\n<p>Size of the controller's serial receive buffer, e.g. 128 on Grbl.</p>\r\n<p>If set, the characters of the unconfirmed commands are counted and kept<br/>\r\nwithin the buffer (character counting flow control). Set to 0 to switch off.</p>\r\n</html>");
+        settingsPanel.add(lblControllerRxBuffer, "2, 8, right, default");
+
+        controllerRxBufferSize = new JTextField();
+        settingsPanel.add(controllerRxBufferSize, "4, 8, fill, default");
+        controllerRxBufferSize.setColumns(10);
+
     }
 
     @Override
@@ -167,12 +189,16 @@ public class GcodeAsyncDriverSettings extends AbstractConfigurationWizard {
 
         addWrappedBinding(driver, "confirmationFlowControl", confirmationFlowControl, "selected");
         addWrappedBinding(driver, "reportedLocationConfirmation", reportedLocationConfirmation, "selected");
+        addWrappedBinding(driver, "confirmationWindowCommands", confirmationWindowCommands, "text", intConverter);
+        addWrappedBinding(driver, "controllerRxBufferSize", controllerRxBufferSize, "text", intConverter);
         addWrappedBinding(driver, "interpolationMaxSteps", interpolationMaxSteps, "text", intConverter);
         addWrappedBinding(driver, "interpolationJerkSteps", interpolationJerkSteps, "text", intConverter);
         addWrappedBinding(driver, "interpolationTimeStep", interpolationTimeStep, "text", doubleConverterFine);
         addWrappedBinding(driver, "interpolationMinStep", interpolationMinStep, "text", intConverter);
         addWrappedBinding(driver, "junctionDeviation", junctionDeviation, "text", lengthConverter);
 
+        ComponentDecorators.decorateWithAutoSelect(confirmationWindowCommands);
+        ComponentDecorators.decorateWithAutoSelect(controllerRxBufferSize);
         ComponentDecorators.decorateWithAutoSelect(interpolationMaxSteps);
         ComponentDecorators.decorateWithAutoSelect(interpolationJerkSteps);
         ComponentDecorators.decorateWithAutoSelect(interpolationTimeStep);
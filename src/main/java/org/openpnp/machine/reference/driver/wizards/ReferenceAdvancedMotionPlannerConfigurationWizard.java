@@ -38,6 +38,7 @@ import org.openpnp.gui.components.ComponentDecorators;
 import org.openpnp.gui.components.LocationButtonsPanel;
 import org.openpnp.gui.support.AbstractConfigurationWizard;
 import org.openpnp.gui.support.DoubleConverter;
+import org.openpnp.gui.support.IntegerConverter;
 import org.openpnp.gui.support.LengthConverter;
 import org.openpnp.gui.support.MutableLocationProxy;
 import org.openpnp.gui.support.PercentConverter;
@@ -115,6 +116,8 @@ public class ReferenceAdvancedMotionPlannerConfigurationWizard extends AbstractC
     private JLabel lblCaution3;
     private JLabel lblMinimumSpeed;
     private JTextField minimumSpeed;
+    private JLabel lblPlanningLookAhead;
+    private JTextField planningLookAhead;
 
 
     public ReferenceAdvancedMotionPlannerConfigurationWizard(ReferenceAdvancedMotionPlanner motionPlanner) {
@@ -152,6 +155,8 @@ public class ReferenceAdvancedMotionPlannerConfigurationWizard extends AbstractC
                 FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,
                 FormSpecs.RELATED_GAP_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
+                FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,}));
 
         JLabel lblContinuousMotion = new JLabel("Allow continous motion?");
@@ -183,6 +188,14 @@ public class ReferenceAdvancedMotionPlannerConfigurationWizard extends AbstractC
         panelSettings.add(minimumSpeed, "4, 8, fill, default");
         minimumSpeed.setColumns(10);
 
+        lblPlanningLookAhead = new JLabel("Planning Look-Ahead");
+        lblPlanningLookAhead.setToolTipText("<html>\r\n<p>\r\nNumber of recorded moves that are kept for look-ahead, before the older ones are<br/>\r\nplanned on a separate planning thread, while OpenPnP goes on recording moves.<br/>\r\nOnly applies with continuous motion. Set to 0 to plan all the moves at once,<br/>\r\nwhen OpenPnP waits for the motion to complete.\r\n</p>\r\n</html>\r\n");
+        panelSettings.add(lblPlanningLookAhead, "2, 10, right, default");
+
+        planningLookAhead = new JTextField();
+        panelSettings.add(planningLookAhead, "4, 10, fill, default");
+        planningLookAhead.setColumns(10);
+
         panel = new JPanel();
         panel.setBorder(new TitledBorder(UIManager.getBorder("TitledBorder.border"), "Test Motion", TitledBorder.LEADING, TitledBorder.TOP, null));
         contentPanel.add(panel);
@@ -431,11 +444,13 @@ public class ReferenceAdvancedMotionPlannerConfigurationWizard extends AbstractC
         LengthConverter lengthConverter = new LengthConverter();
         DoubleConverter doubleConverter = new DoubleConverter(Configuration.get().getLengthDisplayFormat());
         PercentConverter percentConverter = new PercentConverter();
+        IntegerConverter integerConverter = new IntegerConverter();
 
         addWrappedBinding(motionPlanner, "allowContinuousMotion", allowContinuousMotion, "selected");
         addWrappedBinding(motionPlanner, "allowUncoordinated", allowUncoordinated, "selected");
         addWrappedBinding(motionPlanner, "interpolationRetiming", interpolationRetiming, "selected");
         addWrappedBinding(motionPlanner, "minimumSpeed", minimumSpeed, "text", percentConverter);
+        addWrappedBinding(motionPlanner, "planningLookAhead", planningLookAhead, "text", integerConverter);
 
         addWrappedBinding(motionPlanner, "startLocationEnabled", startLocationEnabled, "selected");
         addWrappedBinding(motionPlanner, "mid1LocationEnabled", mid1LocationEnabled, "selected");
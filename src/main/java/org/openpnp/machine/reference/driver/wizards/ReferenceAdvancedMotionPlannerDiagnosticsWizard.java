@@ -92,6 +92,8 @@ public class ReferenceAdvancedMotionPlannerDiagnosticsWizard extends AbstractCon
     private JTextField moveTimePlanned;
     private JTextField moveTimeActual;
     private JLabel interpolationFailed;
+    private JLabel lblMotionProfileCache;
+    private JTextField motionProfileCacheStatistics;
 
 
     public ReferenceAdvancedMotionPlannerDiagnosticsWizard(ReferenceAdvancedMotionPlanner motionPlanner) {
@@ -134,6 +136,8 @@ public class ReferenceAdvancedMotionPlannerDiagnosticsWizard extends AbstractCon
                 FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,
                 FormSpecs.RELATED_GAP_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
+                FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,}));
         
         lblDiagnostics = new JLabel("Diagnostics?");
@@ -179,6 +183,15 @@ public class ReferenceAdvancedMotionPlannerDiagnosticsWizard extends AbstractCon
             }
         });
         motionGraph.setFont(new Font("Dialog", Font.PLAIN, 11));
+        
+        lblMotionProfileCache = new JLabel("Profile Cache");
+        lblMotionProfileCache.setToolTipText("Size, hits, misses and rejections of the cache of solved motion profiles.");
+        contentPanel.add(lblMotionProfileCache, "2, 16, right, default");
+        
+        motionProfileCacheStatistics = new JTextField();
+        motionProfileCacheStatistics.setEditable(false);
+        contentPanel.add(motionProfileCacheStatistics, "4, 16, 11, 1, fill, default");
+        motionProfileCacheStatistics.setColumns(30);
     }
 
     @Override
@@ -190,6 +203,7 @@ public class ReferenceAdvancedMotionPlannerDiagnosticsWizard extends AbstractCon
         addWrappedBinding(motionPlanner, "diagnosticsEnabled", diagnosticsEnabled, "selected");
         addWrappedBinding(motionPlanner, "motionGraph", motionGraph, "graph");
         addWrappedBinding(motionPlanner, "interpolationFailed", interpolationFailed, "visible");
+        addWrappedBinding(motionPlanner, "motionProfileCacheStatistics", motionProfileCacheStatistics, "text");
         
         ComponentDecorators.decorateWithAutoSelectAndLengthConversion(moveTimePlanned);
         ComponentDecorators.decorateWithAutoSelectAndLengthConversion(moveTimeActual);
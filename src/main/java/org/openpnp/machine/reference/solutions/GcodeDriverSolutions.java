@@ -172,7 +172,8 @@ public class GcodeDriverSolutions implements Solutions.Subject {
             }
         }
         if (solutions.isTargeting(Milestone.Connect)) {
-            if (gcodeDriver.getCommunicationsType() == CommunicationsType.tcp
+            if ((gcodeDriver.getCommunicationsType() == CommunicationsType.tcp
+                    || gcodeDriver.getCommunicationsType() == CommunicationsType.tcpChannel)
                     && gcodeDriver.getIpAddress().contentEquals("GcodeServer")) {
                 solutions.add(new Solutions.PlainIssue(
                         gcodeDriver, 
@@ -763,6 +764,7 @@ public class GcodeDriverSolutions implements Solutions.Subject {
                             } else if (state.equals(Solutions.State.Dismissed)) {
                                 gcodeDriver.commands.remove(command);
                             }
+                            gcodeDriver.invalidateResponseClassifier();
                         }
                     });
                 }
@@ -588,7 +588,11 @@ public class ReferenceBottomVision extends AbstractPartAlignment {
         for (PipelineShot pipelineShot : pipeline.getPipelineShots()) {
             pipelineShot.apply();
 
-            pipeline.process();
+            // Only retain the images of the referenced stages.
+            pipeline.process(false);
+            Logger.debug("ReferenceBottomVision ({}): pipeline processed in {}ms, retaining {} image bytes.",
+                    part.getId(), String.format("%.3f", pipeline.getTotalProcessingTimeNs()*1e-6), 
+                    pipeline.getRetainedImageBytes());
             Result result = pipeline.getResult(VisionUtils.PIPELINE_RESULTS_NAME);
 
             // Fall back to the old name of "result" instead of "results" for backwards
@@ -617,7 +617,8 @@ public class ReferenceFiducialLocator extends AbstractPartSettingsHolder impleme
         try {
             pipeline.setProperty("fiducial.center", location);
             pipeline.setProperty("MaskCircle.center", location);
-            pipeline.process();
+            // Only retain the images of the referenced stages.
+            pipeline.process(false);
 
             // Get the results
             List<KeyPoint> keypoints = pipeline.getExpectedResult(VisionUtils.PIPELINE_RESULTS_NAME)
@@ -31,8 +31,10 @@ import org.openpnp.Translations;
 import org.openpnp.gui.components.ComponentDecorators;
 import org.openpnp.gui.support.AbstractConfigurationWizard;
 import org.openpnp.gui.support.IntegerConverter;
+import org.openpnp.gui.support.LongConverter;
 import org.openpnp.machine.reference.ReferencePnpJobProcessor;
 import org.openpnp.machine.reference.ReferencePnpJobProcessor.JobOrderHint;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor.RouteOptimization;
 import org.openpnp.spi.PnpJobPlanner.Strategy;
 
 import com.jgoodies.forms.layout.ColumnSpec;
@@ -49,6 +51,9 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
     private JCheckBox steppingToNextMotion;
     private JCheckBox optimizeMultipleNozzles;
     private JCheckBox preRotateAllNozzles;
+    private JTextField travellingSalesmanChains;
+    private JTextField travellingSalesmanTimeBudget;
+    private JComboBox<RouteOptimization> comboBoxRouteOptimization;
     
     public ReferencePnpJobProcessorConfigurationWizard(ReferencePnpJobProcessor jobProcessor) {
         this.jobProcessor = jobProcessor;
@@ -75,6 +80,12 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
                         FormSpecs.RELATED_GAP_ROWSPEC,
                         FormSpecs.DEFAULT_ROWSPEC,
                         FormSpecs.RELATED_GAP_ROWSPEC,
+                        FormSpecs.DEFAULT_ROWSPEC,
+                        FormSpecs.RELATED_GAP_ROWSPEC,
+                        FormSpecs.DEFAULT_ROWSPEC,
+                        FormSpecs.RELATED_GAP_ROWSPEC,
+                        FormSpecs.DEFAULT_ROWSPEC,
+                        FormSpecs.RELATED_GAP_ROWSPEC,
                         FormSpecs.DEFAULT_ROWSPEC,}));
 
         // FIXME: this translation reference looks quite different to the one used below and shall be synchronized
@@ -120,11 +131,35 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
 
         preRotateAllNozzles = new JCheckBox(); 
         panelGeneral.add(preRotateAllNozzles, "4, 12");
+
+        JLabel lblTravellingSalesmanChains = new JLabel(Translations.getString("ReferencePnpJobProcessorConfigurationWizard.lblTravellingSalesmanChains.text")); //$NON-NLS-1$
+        lblTravellingSalesmanChains.setToolTipText(Translations.getString("ReferencePnpJobProcessorConfigurationWizard.lblTravellingSalesmanChains.toolTipText")); //$NON-NLS-1$
+        panelGeneral.add(lblTravellingSalesmanChains, "2, 14, right, default");
+
+        travellingSalesmanChains = new JTextField();
+        panelGeneral.add(travellingSalesmanChains, "4, 14");
+        travellingSalesmanChains.setColumns(10);
+
+        JLabel lblTravellingSalesmanTimeBudget = new JLabel(Translations.getString("ReferencePnpJobProcessorConfigurationWizard.lblTravellingSalesmanTimeBudget.text")); //$NON-NLS-1$
+        lblTravellingSalesmanTimeBudget.setToolTipText(Translations.getString("ReferencePnpJobProcessorConfigurationWizard.lblTravellingSalesmanTimeBudget.toolTipText")); //$NON-NLS-1$
+        panelGeneral.add(lblTravellingSalesmanTimeBudget, "2, 16, right, default");
+
+        travellingSalesmanTimeBudget = new JTextField();
+        panelGeneral.add(travellingSalesmanTimeBudget, "4, 16");
+        travellingSalesmanTimeBudget.setColumns(10);
+
+        JLabel lblRouteOptimization = new JLabel(Translations.getString("ReferencePnpJobProcessorConfigurationWizard.lblRouteOptimization.text")); //$NON-NLS-1$
+        lblRouteOptimization.setToolTipText(Translations.getString("ReferencePnpJobProcessorConfigurationWizard.lblRouteOptimization.toolTipText")); //$NON-NLS-1$
+        panelGeneral.add(lblRouteOptimization, "2, 18, right, default");
+
+        comboBoxRouteOptimization = new JComboBox<RouteOptimization>(RouteOptimization.values());
+        panelGeneral.add(comboBoxRouteOptimization, "4, 18");
     }
 
     @Override
     public void createBindings() {
         IntegerConverter intConverter = new IntegerConverter();
+        LongConverter longConverter = new LongConverter();
 
         addWrappedBinding(jobProcessor, "jobOrder", comboBoxJobOrder, "selectedItem");
         addWrappedBinding(jobProcessor.planner, "strategy", comboBoxPlannerStrategy, "selectedItem");
@@ -132,7 +167,12 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
         addWrappedBinding(jobProcessor, "steppingToNextMotion", steppingToNextMotion, "selected");
         addWrappedBinding(jobProcessor, "optimizeMultipleNozzles", optimizeMultipleNozzles, "selected");
         addWrappedBinding(jobProcessor, "preRotateAllNozzles", preRotateAllNozzles, "selected");
+        addWrappedBinding(jobProcessor, "travellingSalesmanChains", travellingSalesmanChains, "text", intConverter);
+        addWrappedBinding(jobProcessor, "travellingSalesmanTimeBudget", travellingSalesmanTimeBudget, "text", longConverter);
+        addWrappedBinding(jobProcessor, "routeOptimization", comboBoxRouteOptimization, "selectedItem");
         
         ComponentDecorators.decorateWithAutoSelect(maxVisionRetriesTextField);
+        ComponentDecorators.decorateWithAutoSelect(travellingSalesmanChains);
+        ComponentDecorators.decorateWithAutoSelect(travellingSalesmanTimeBudget);
     }
 }
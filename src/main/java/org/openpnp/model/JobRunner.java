@@ -0,0 +1,302 @@
+package org.openpnp.model;
+
+import org.openpnp.events.JobLoadedEvent;
+import org.openpnp.events.JobStateChangedEvent;
+import org.openpnp.model.Placement.Type;
+import org.openpnp.spi.JobProcessor;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.MachineListener;
+import org.openpnp.spi.MotionPlanner;
+import org.pmw.tinylog.Logger;
+
+import com.google.common.util.concurrent.FutureCallback;
+
+/**
+ * Runs the current Job on the machine's PnP JobProcessor. The runner holds the job and its run
+ * state and has no dependency on the GUI, so the API server can drive jobs headless. Every state
+ * change is posted as a {@link JobStateChangedEvent} on the Configuration event bus, and loading
+ * a job posts a {@link JobLoadedEvent}. The JobPanel is just another client of the same runner.
+ */
+public class JobRunner {
+    public enum State {
+        Stopped,
+        Paused,
+        Running,
+        Pausing,
+        Stopping
+    }
+
+    private static JobRunner instance;
+
+    private Job job;
+    private JobProcessor jobProcessor;
+    private volatile State state = State.Stopped;
+    private Machine listenedMachine;
+    private long startTime;
+    private Throwable lastError;
+
+    public static synchronized JobRunner get() {
+        if (instance == null) {
+            instance = new JobRunner();
+        }
+        return instance;
+    }
+
+    private JobRunner() {
+    }
+
+    public synchronized Job getJob() {
+        return job;
+    }
+
+    /**
+     * Set the current job and post a JobLoadedEvent. Setting the job that is already current
+     * does nothing.
+     */
+    public void setJob(Job job) {
+        synchronized (this) {
+            if (job == this.job) {
+                return;
+            }
+            this.job = job;
+            lastError = null;
+        }
+        Configuration.get().getBus().post(new JobLoadedEvent(job));
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return The time the job was last started, in milliseconds, or 0 if it was never started.
+     */
+    public synchronized long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return The error that last paused or stopped the job, or null if there was none since it
+     *         was last started or resumed.
+     */
+    public synchronized Throwable getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Initialize the job processor and run the job until it completes, is paused or is stopped.
+     */
+    public void start() throws Exception {
+        begin(State.Running);
+    }
+
+    /**
+     * Run a single step of the job, starting it first if it is stopped.
+     */
+    public void step() throws Exception {
+        synchronized (this) {
+            if (state == State.Paused) {
+                setState(State.Pausing, null);
+                run();
+                return;
+            }
+        }
+        begin(State.Pausing);
+    }
+
+    /**
+     * Request the running job to pause after the current step.
+     */
+    public synchronized void pause() throws Exception {
+        if (state != State.Running) {
+            throw new Exception("Can't pause, job is " + state + ".");
+        }
+        setState(State.Pausing, null);
+    }
+
+    /**
+     * Continue a paused job. This is also used to continue after a manual nozzle tip change from
+     * within the JobProcessor.
+     */
+    public synchronized void resume() throws Exception {
+        if (state != State.Paused) {
+            throw new Exception("Can't resume, job is " + state + ".");
+        }
+        setState(State.Running, null);
+        run();
+    }
+
+    /**
+     * Abort the job. The job processor is aborted in a machine task, after the current step.
+     */
+    public synchronized void stop() throws Exception {
+        if (state == State.Stopped || state == State.Stopping) {
+            throw new Exception("Can't stop, job is " + state + ".");
+        }
+        setState(State.Stopping, null);
+        final JobProcessor jobProcessor = this.jobProcessor;
+        Configuration.get().getMachine().submit(() -> {
+            try {
+                jobProcessor.abort();
+            }
+            catch (Exception e) {
+                Logger.error(e, "Job abort failed.");
+            }
+            setState(State.Stopped, null);
+            return null;
+        });
+    }
+
+    /**
+     * @return true if every enabled placement of the enabled boards is already placed.
+     */
+    public synchronized boolean isAllPlaced() {
+        if (job == null) {
+            return false;
+        }
+        for (BoardLocation boardLocation : job.getBoardLocations()) {
+            if (!boardLocation.isEnabled()) {
+                continue;
+            }
+            for (Placement placement : boardLocation.getBoard().getPlacements()) {
+                if (placement.getType() != Type.Placement) {
+                    continue;
+                }
+                if (!placement.isEnabled()) {
+                    continue;
+                }
+                if (placement.getSide() != boardLocation.getGlobalSide()) {
+                    continue;
+                }
+                if (!job.retrievePlacedStatus(boardLocation, placement.getId())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void begin(State runState) throws Exception {
+        JobProcessor jobProcessor;
+        Job job;
+        synchronized (this) {
+            if (state != State.Stopped) {
+                throw new Exception("Can't start, job is " + state + ".");
+            }
+            if (this.job == null) {
+                throw new Exception("No job loaded.");
+            }
+            Machine machine = Configuration.get().getMachine();
+            if (machine == null || !machine.isEnabled()) {
+                throw new Exception("Machine is not enabled.");
+            }
+            if (listenedMachine != machine) {
+                machine.addListener(machineListener);
+                listenedMachine = machine;
+            }
+            jobProcessor = this.jobProcessor = machine.getPnpJobProcessor();
+            job = this.job;
+            startTime = System.currentTimeMillis();
+            setState(runState, null);
+        }
+        // Initialize outside the lock, the job processor may wait for machine tasks that change
+        // the state.
+        try {
+            jobProcessor.initialize(job);
+        }
+        catch (Exception e) {
+            // The caller reports the exception, the event only carries the state change.
+            synchronized (this) {
+                lastError = e;
+            }
+            setState(State.Stopped, null);
+            throw e;
+        }
+        synchronized (this) {
+            // The job may have been stopped while initializing.
+            if (state == runState) {
+                run();
+            }
+        }
+    }
+
+    /**
+     * Submit the run loop. The loop runs one step and then either continues if the state is
+     * Running or exits if it is Pausing.
+     */
+    private void run() {
+        lastError = null;
+        final JobProcessor jobProcessor = this.jobProcessor;
+        Machine machine = Configuration.get().getMachine();
+        machine.submit(() -> {
+            // For optional motion stepping, remember the past move.
+            MotionPlanner motionPlanner = machine.getMotionPlanner();
+            Motion pastMotion = motionPlanner.getLastMotion();
+            do {
+                do {
+                    if (!jobProcessor.next()) {
+                        setState(State.Stopped, null);
+                        break;
+                    }
+                    else if (state == State.Pausing) {
+                        // We're pausing, but check if we need motion before we can pause for real.
+                        Motion lastMotion = motionPlanner.getLastMotion();
+                        if (!(jobProcessor.isSteppingToNextMotion() && lastMotion == pastMotion)) {
+                            break;
+                        }
+                    }
+                }
+                while (state == State.Pausing);
+            }
+            while (state == State.Running);
+
+            synchronized (JobRunner.this) {
+                if (state == State.Pausing) {
+                    setState(State.Paused, null);
+                }
+            }
+            return null;
+        }, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // Update the state before publishing the error, so that exceptions with
+                // continuations can change it.
+                synchronized (JobRunner.this) {
+                    lastError = t;
+                    if (state == State.Running || state == State.Pausing) {
+                        setState(State.Paused, t);
+                    }
+                    else if (state == State.Stopping) {
+                        setState(State.Stopped, t);
+                    }
+                    else {
+                        setState(state, t);
+                    }
+                }
+            }
+        });
+    }
+
+    private void setState(State newState, Throwable error) {
+        State oldState;
+        synchronized (this) {
+            oldState = state;
+            state = newState;
+        }
+        if (oldState != newState || error != null) {
+            Logger.debug("Job state {} -> {}", oldState, newState);
+            Configuration.get().getBus().post(new JobStateChangedEvent(oldState, newState, error));
+        }
+    }
+
+    private final MachineListener machineListener = new MachineListener.Adapter() {
+        @Override
+        public void machineDisabled(Machine machine, String reason) {
+            setState(State.Stopped, null);
+        }
+    };
+}
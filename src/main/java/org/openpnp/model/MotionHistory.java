@@ -0,0 +1,194 @@
+package org.openpnp.model;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import org.openpnp.util.NanosecondTime;
+
+/**
+ * The real-time history of planned Motions, keyed by their planned end time (see
+ * {@link Motion#getPlannedTime1()}). Used to look up the momentary motion at a given time, for
+ * camera settling, simulation etc.
+ *
+ * The Motions are kept in a ring buffer with the end times in a primitive array, so adding and looking
+ * up motions does not create any garbage, and lookups are O(log n). If the buffer is full, the oldest
+ * motion is overwritten, unless it is still in the future, in which case the buffer is grown. Use
+ * {@link #removeOlderThan(double)} to age out motions by time.
+ *
+ * This class is thread safe.
+ */
+public class MotionHistory {
+    private double [] times;
+    private Motion [] motions;
+    /**
+     * Index of the oldest entry.
+     */
+    private int head;
+    private int size;
+    private long overwritten;
+
+    /**
+     * @param capacity The number of motions kept, before the oldest are overwritten.
+     */
+    public MotionHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        }
+        times = new double[capacity];
+        motions = new Motion[capacity];
+    }
+
+    private int index(int i) {
+        int index = head + i;
+        return index < times.length ? index : index - times.length;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getCapacity() {
+        return times.length;
+    }
+
+    /**
+     * @return The number of motions that were overwritten before they were aged out.
+     */
+    public synchronized long getOverwritten() {
+        return overwritten;
+    }
+
+    /**
+     * @return The end time of the newest motion, or NaN if empty.
+     */
+    public synchronized double getLastTime() {
+        return size == 0 ? Double.NaN : times[index(size - 1)];
+    }
+
+    /**
+     * @return The end time of the oldest motion, or NaN if empty.
+     */
+    public synchronized double getFirstTime() {
+        return size == 0 ? Double.NaN : times[head];
+    }
+
+    /**
+     * Add the motion, ending at the given time. Motions are normally added in time order. Like in a map, a motion
+     * at the same time replaces the existing one.
+     *
+     * @param time
+     * @param motion
+     */
+    public synchronized void put(double time, Motion motion) {
+        int i = size;
+        if (size > 0 && !(time > times[index(size - 1)])) {
+            // Out of order or same time, find the position.
+            i = higherIndex(time);
+            if (i > 0 && times[index(i - 1)] == time) {
+                motions[index(i - 1)] = motion;
+                return;
+            }
+        }
+        if (size == times.length) {
+            if (times[head] >= NanosecondTime.getRuntimeSeconds() || i == 0) {
+                // The oldest is still needed, grow.
+                grow();
+            }
+            else {
+                // Overwrite the oldest.
+                motions[head] = null;
+                head = index(1);
+                size--;
+                i--;
+                overwritten++;
+            }
+        }
+        // Shift any later entries (only if out of order).
+        for (int j = size; j > i; j--) {
+            times[index(j)] = times[index(j - 1)];
+            motions[index(j)] = motions[index(j - 1)];
+        }
+        times[index(i)] = time;
+        motions[index(i)] = motion;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = times.length*2;
+        double [] newTimes = new double[capacity];
+        Motion [] newMotions = new Motion[capacity];
+        for (int i = 0; i < size; i++) {
+            newTimes[i] = times[index(i)];
+            newMotions[i] = motions[index(i)];
+        }
+        times = newTimes;
+        motions = newMotions;
+        head = 0;
+    }
+
+    /**
+     * @param time
+     * @return The position of the first motion that ends strictly after the given time, or size if none.
+     */
+    private int higherIndex(double time) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[index(mid)] > time) {
+                hi = mid;
+            }
+            else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @param time
+     * @return The motion that ends strictly after the given time, i.e. the one that is momentary at that time,
+     * or null if none.
+     */
+    public synchronized Motion getHigher(double time) {
+        int i = higherIndex(time);
+        return i < size ? motions[index(i)] : null;
+    }
+
+    /**
+     * @param predicate
+     * @return The newest motion that matches the predicate, or null if none.
+     */
+    public synchronized Motion getLast(Predicate<Motion> predicate) {
+        for (int i = size - 1; i >= 0; i--) {
+            Motion motion = motions[index(i)];
+            if (predicate.test(motion)) {
+                return motion;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove the motions that ended before the given time.
+     *
+     * @param time
+     */
+    public synchronized void removeOlderThan(double time) {
+        while (size > 0 && times[head] < time) {
+            motions[head] = null;
+            head = index(1);
+            size--;
+        }
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(motions, null);
+        head = 0;
+        size = 0;
+    }
+}
@@ -565,6 +565,15 @@ public class MotionProfile {
     }
 
     public void solve() {
+        MotionProfileCache cache = MotionProfileCache.getActive();
+        if (cache != null) {
+            cache.solve(this);
+        }
+        else {
+            solveUncached();
+        }
+    }
+    void solveUncached() {
         // scale down tolerances for tiny moves
         double magnitude = Math.max(eps,  Math.min(1.0, 
                 0.01*(Math.abs(s[0]-s[segments])
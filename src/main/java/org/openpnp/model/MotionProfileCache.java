@@ -0,0 +1,342 @@
+package org.openpnp.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openpnp.model.MotionProfile.ProfileOption;
+import org.openpnp.util.NanosecondTime;
+
+/**
+ * A bounded LRU cache of solved {@link MotionProfile}s. Jobs repeat nearly identical moves many times
+ * (feeder to camera to board), so the same profiles are solved over and over again.
+ *
+ * The solution of a profile only depends on the displacement s1 - s0, the entry/exit velocity and
+ * acceleration, the feedrate, acceleration and jerk limits, the minimum time and the options that
+ * affect the solver. The cache key is made of these inputs, quantized far below the solver tolerances.
+ * A cached solution is applied translated to the actual s0.
+ *
+ * Exactness guard: as quantization may map slightly different inputs to the same key, the actual
+ * inputs are checked against the exact inputs the cached solution was solved for. The limits, the
+ * entry/exit conditions and the options must be identical. The displacement and the translated
+ * solution must match the actual locations within a tolerance far below the quantization, that only
+ * allows for the rounding of the translation. Otherwise the profile is solved anew and the cache
+ * entry replaced.
+ *
+ * The cache is activated for the current thread with {@link #activate()}, then any
+ * {@link MotionProfile#solve()} on that thread goes through the cache, until the returned scope
+ * is closed. The cache is synchronized, so its statistics can be read from other threads.
+ */
+public class MotionProfileCache {
+    /**
+     * Quantization resolution of the key inputs, i.e. 1e-9 mm, mm/s, mm/s^2 etc.
+     */
+    private static final double resolution = 1e9;
+    /**
+     * Beyond this magnitude, the exact double is used as key.
+     */
+    private static final double maxQuantized = 1e9;
+    /**
+     * Tolerance of the exactness guard for the displacement and locations, i.e. 1e-11 mm. Well below the 
+     * quantization, but above the rounding of translating locations of machine size.
+     */
+    private static final double guardTolerance = 1e-11;
+    /**
+     * Options that affect the solver.
+     */
+    private static final int solverOptions = ProfileOption.SimplifiedSCurve.flag()
+            | ProfileOption.UnconstrainedEntry.flag()
+            | ProfileOption.UnconstrainedExit.flag();
+
+    private static final ThreadLocal<MotionProfileCache> active = new ThreadLocal<>();
+
+    private final int capacity;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private long hits;
+    private long misses;
+    private long rejections;
+    private double solvingTime;
+
+    /**
+     * @param capacity The maximum number of cached profiles, the least recently used are dropped.
+     */
+    public MotionProfileCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > MotionProfileCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * A scope in which the cache is active on the current thread. Use it with try-with-resources.
+     */
+    public class Scope implements AutoCloseable {
+        private final MotionProfileCache previous;
+
+        private Scope() {
+            previous = active.get();
+            active.set(MotionProfileCache.this);
+        }
+
+        @Override
+        public void close() {
+            if (previous != null) {
+                active.set(previous);
+            }
+            else {
+                active.remove();
+            }
+        }
+    }
+
+    /**
+     * Activate the cache for all MotionProfile solving on the current thread.
+     *
+     * @return The scope, to be closed when done.
+     */
+    public Scope activate() {
+        return new Scope();
+    }
+
+    /**
+     * @return The cache that is active on the current thread, or null.
+     */
+    static MotionProfileCache getActive() {
+        return active.get();
+    }
+
+    /**
+     * A solved profile, with the inputs it was solved for.
+     */
+    private static class Entry {
+        private final MotionProfile solution;
+        private final Inputs inputs;
+
+        private Entry(MotionProfile solved, Inputs inputs) {
+            solution = new MotionProfile(solved);
+            solution.copyProfileSolution(solved);
+            solution.t[MotionProfile.segments+1] = solved.t[MotionProfile.segments+1];
+            this.inputs = inputs;
+        }
+    }
+
+    /**
+     * The exact solver inputs of a profile, taken before solving.
+     */
+    private static class Inputs {
+        private final double s0;
+        private final double s1;
+        private final double v0;
+        private final double v1;
+        private final double a0;
+        private final double a1;
+        private final double vMax;
+        private final double aMaxEntry;
+        private final double aMaxExit;
+        private final double jMax;
+        private final double tMin;
+        private final int options;
+
+        private Inputs(MotionProfile profile) {
+            final int segments = MotionProfile.segments;
+            s0 = profile.s[0];
+            s1 = profile.s[segments];
+            v0 = profile.v[0];
+            v1 = profile.v[segments];
+            a0 = profile.a[0];
+            a1 = profile.a[segments];
+            vMax = profile.vMax;
+            aMaxEntry = profile.aMaxEntry;
+            aMaxExit = profile.aMaxExit;
+            jMax = profile.jMax;
+            tMin = profile.tMin;
+            options = profile.profileOptions & solverOptions;
+        }
+    }
+
+    /**
+     * Solve the profile, or apply a cached solution.
+     *
+     * @param profile
+     */
+    synchronized void solve(MotionProfile profile) {
+        final int segments = MotionProfile.segments;
+        double tStart = NanosecondTime.getRuntimeSeconds();
+        // Take the key and the inputs before solving, the solver may change the entry/exit conditions.
+        Key key = new Key(profile);
+        Inputs inputs = new Inputs(profile);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (isExact(entry, inputs)) {
+                applySolution(profile, entry.solution, inputs.s0 - entry.inputs.s0);
+                // The solver never changes the locations, make them bit-exact.
+                profile.s[0] = inputs.s0;
+                profile.s[segments] = inputs.s1;
+                profile.eval = 0;
+                profile.solvingTime = NanosecondTime.getRuntimeSeconds() - tStart;
+                solvingTime += profile.solvingTime;
+                hits++;
+                return;
+            }
+            rejections++;
+        }
+        else {
+            misses++;
+        }
+        profile.solveUncached();
+        entries.put(key, new Entry(profile, inputs));
+        solvingTime += NanosecondTime.getRuntimeSeconds() - tStart;
+    }
+
+    private static void applySolution(MotionProfile profile, MotionProfile solution, double offset) {
+        profile.copyProfileSolution(solution);
+        profile.t[MotionProfile.segments+1] = solution.t[MotionProfile.segments+1];
+        for (int seg = 0; seg <= MotionProfile.segments; seg++) {
+            profile.s[seg] += offset;
+        }
+        profile.sBound0 += offset;
+        profile.sBound1 += offset;
+    }
+
+    /**
+     * The exactness guard: the actual inputs must match the ones the cached solution was solved for,
+     * and the solution must survive the translation to the actual location.
+     */
+    private static boolean isExact(Entry entry, Inputs inputs) {
+        Inputs cached = entry.inputs;
+        double offset = inputs.s0 - cached.s0;
+        return inputs.options == cached.options
+                && Double.compare(inputs.v0, cached.v0) == 0
+                && Double.compare(inputs.v1, cached.v1) == 0
+                && Double.compare(inputs.a0, cached.a0) == 0
+                && Double.compare(inputs.a1, cached.a1) == 0
+                && Double.compare(inputs.vMax, cached.vMax) == 0
+                && Double.compare(inputs.aMaxEntry, cached.aMaxEntry) == 0
+                && Double.compare(inputs.aMaxExit, cached.aMaxExit) == 0
+                && Double.compare(inputs.jMax, cached.jMax) == 0
+                && Double.compare(inputs.tMin, cached.tMin) == 0
+                && Math.abs((inputs.s1 - inputs.s0) - (cached.s1 - cached.s0)) <= guardTolerance
+                && Math.abs((entry.solution.s[MotionProfile.segments] + offset) - inputs.s1) <= guardTolerance
+                && Math.abs((entry.solution.s[0] + offset) - inputs.s0) <= guardTolerance;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of cache hits that were rejected by the exactness guard, and solved anew.
+     */
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    /**
+     * @return The ratio of hits to all lookups.
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses + rejections;
+        return lookups == 0 ? 0 : (double) hits/lookups;
+    }
+
+    /**
+     * @return The total time in seconds spent solving or looking up profiles through the cache.
+     */
+    public synchronized double getSolvingTime() {
+        return solvingTime;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        rejections = 0;
+        solvingTime = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MotionProfileCache {size = "+size()+"/"+capacity
+                +", hits = "+hits+", misses = "+misses+", rejections = "+rejections
+                +String.format(", ratio = %.1f%%, ms = %.3f}", getHitRatio()*100, solvingTime*1000);
+    }
+
+    /**
+     * The quantized solver inputs of a profile.
+     */
+    private static class Key {
+        private final long [] inputs;
+        private final int options;
+        private final int hashCode;
+
+        private Key(MotionProfile profile) {
+            final int segments = MotionProfile.segments;
+            inputs = new long [] {
+                    quantize(profile.s[segments] - profile.s[0]),
+                    quantize(profile.v[0]),
+                    quantize(profile.v[segments]),
+                    quantize(profile.a[0]),
+                    quantize(profile.a[segments]),
+                    quantize(profile.vMax),
+                    quantize(profile.aMaxEntry),
+                    quantize(profile.aMaxExit),
+                    quantize(profile.jMax),
+                    quantize(profile.tMin),
+            };
+            options = profile.profileOptions & solverOptions;
+            int hash = options;
+            for (long input : inputs) {
+                hash = 31*hash + Long.hashCode(input);
+            }
+            hashCode = hash;
+        }
+
+        private static long quantize(double value) {
+            if (Double.isFinite(value) && Math.abs(value) < maxQuantized) {
+                // Even: quantized. Odd: exact.
+                return Math.round(value*resolution)*2;
+            }
+            return Double.doubleToLongBits(value) | 1L;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (hashCode != other.hashCode || options != other.options) {
+                return false;
+            }
+            for (int i = 0; i < inputs.length; i++) {
+                if (inputs[i] != other.inputs[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.openpnp.scripting;
 
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.FileReader;
 import java.time.Duration;
@@ -22,6 +23,7 @@ import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.openjdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import org.openpnp.gui.MainFrame;
 import org.openpnp.model.Configuration;
+import org.openpnp.model.JobRunner;
 import org.pmw.tinylog.Logger;
 
 import com.google.common.io.Files;
@@ -176,7 +178,9 @@ public class Scripting {
         bindings.put("config", Configuration.get());
         bindings.put("machine", Configuration.get()
                                              .getMachine());
-        bindings.put("gui", MainFrame.get());
+        // There is no MainFrame when running headless, scripts should use jobRunner for jobs.
+        bindings.put("gui", GraphicsEnvironment.isHeadless() ? null : MainFrame.get());
+        bindings.put("jobRunner", JobRunner.get());
         bindings.put("scripting", this);
         bindings.put(ScriptEngine.FILENAME, script.getName());
         if (additionalGlobals != null) {
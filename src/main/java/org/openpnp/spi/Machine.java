@@ -245,7 +245,8 @@ public interface Machine extends WizardConfigurable, PropertySheetHolder, Closea
      * TODO: When any task is running the driver for the machine is locked and any calls to the
      * driver outside of the task will throw an Exception.
      * 
-     * If any tasks throws an Exception then all queued future tasks are cancelled.
+     * If any tasks throws an Exception then all queued future tasks are cancelled. Their callbacks
+     * are notified with a CancellationException.
      * 
      * If a task includes a callback the callback is executed before the next task begins.
      * 
@@ -7,9 +7,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -602,6 +604,7 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
 
                     // If there was an exception, cancel all pending tasks.
                     if (exception != null) {
+                        List<Runnable> removed = new ArrayList<>();
                         synchronized (this) {
                             if (executor != null) {
                                 // Remove all pending tasks from the queue. Note, we no longer use executor.shutdownNow() here,
@@ -611,10 +614,13 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
                                 // handlers, i.e. it must not be subject to any Thread.interrupt() calls causing InterruptedException. 
                                 // After finishing up, there will still be a call to executor.shutdownNow() (see further below).
                                 for (Runnable runnable : new ArrayList<>(executor.getQueue())) {
-                                    executor.remove(runnable);
+                                    if (executor.remove(runnable)) {
+                                        removed.add(runnable);
+                                    }
                                 }
                             }
                         }
+                        cancelTasks(removed, exception);
                     }
 
                     // If a callback was supplied, call it with the results
@@ -644,17 +650,66 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
                         setTaskThread(null);
                     }
                     if (exception != null) {
+                        List<Runnable> removed = null;
                         synchronized (this) {
                             if (executor != null) {
-                                executor.shutdownNow();
+                                // Tasks submitted while this task was finishing up are cancelled too.
+                                removed = executor.shutdownNow();
                             }
                         }
+                        if (removed != null) {
+                            cancelTasks(removed, exception);
+                        }
                     }
                 }
             }
         };
 
-        return executor.submit(wrapper);
+        MachineTask<T> task = new MachineTask<>(wrapper, callback);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Cancels the tasks removed from the queue after a task failed, and notifies their callbacks. 
+     * Otherwise the submitters would never learn that their tasks are not going to run. 
+     * 
+     * @param tasks
+     * @param cause The exception of the failed task.
+     */
+    private static void cancelTasks(List<Runnable> tasks, Exception cause) {
+        for (Runnable runnable : tasks) {
+            if (runnable instanceof MachineTask) {
+                try {
+                    ((MachineTask<?>) runnable).cancelAfterFailure(cause);
+                }
+                catch (Exception e) {
+                    Logger.error(e, "Exception when notifying a cancelled task");
+                }
+            }
+        }
+    }
+
+    /**
+     * The Future of a submitted task, keeping its callback, so it can be notified when the task is 
+     * cancelled before it ran. 
+     */
+    private static class MachineTask<T> extends FutureTask<T> {
+        private final FutureCallback<T> callback;
+
+        MachineTask(Callable<T> callable, FutureCallback<T> callback) {
+            super(callable);
+            this.callback = callback;
+        }
+
+        void cancelAfterFailure(Exception cause) {
+            if (cancel(false) && callback != null) {
+                CancellationException e = new CancellationException(
+                        "Task cancelled after a previous task failed: "+cause.getMessage());
+                e.initCause(cause);
+                callback.onFailure(e);
+            }
+        }
     }
 
     @Override
@@ -9,7 +9,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.openpnp.Main;
 import org.openpnp.machine.reference.ReferenceMachine;
@@ -20,6 +21,7 @@ import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.model.Motion;
 import org.openpnp.model.Motion.MotionOption;
+import org.openpnp.model.MotionHistory;
 import org.openpnp.spi.Axis;
 import org.openpnp.spi.ControllerAxis;
 import org.openpnp.spi.Driver;
@@ -36,11 +38,26 @@ public class GcodeServer extends Thread {
      */
     private AxesLocation homingOffsets = new AxesLocation();
 
-    protected TreeMap<Double, Motion> motionPlan = new TreeMap<Double, Motion>();
+    protected MotionHistory motionPlan = new MotionHistory(1024);
+    /**
+     * Time in seconds the motion plan is kept for momentary motion lookup.
+     */
+    private double maximumPlanHistory = 30;
     private AxesLocation machineLocation;
 
     private long maxDwellTimeMilliseconds = 20000;
 
+    /**
+     * Size of the modeled controller receive buffer in characters, 0 if not modeled. 
+     */
+    private int rxBufferSize = 0;
+    /**
+     * Time the modeled controller takes to process a line, in milliseconds.
+     */
+    private long lineProcessingMilliseconds = 0;
+    private int rxBufferPeak;
+    private int rxBufferOverflows;
+
     static final String firmware = "FIRMWARE_NAME:GcodeServer, FIRMWARE_URL:http%3A//openpnp.org, X-SOURCE_CODE_URL:https%3A//github.com/openpnp/openpnp, FIRMWARE_VERSION:"+Main.getVersion()+", "
             +"X-FIRMWARE_BUILD_DATE:Oct 23 2020 00:00:00";
 
@@ -93,6 +110,48 @@ public class GcodeServer extends Thread {
         return machineLocation;
     }
 
+    public int getRxBufferSize() {
+        return rxBufferSize;
+    }
+
+    /**
+     * Model a controller receive buffer of the given size. Lines are then received in the background and
+     * the characters waiting to be processed are counted. If they exceed the buffer size, an overflow is
+     * recorded, where a real controller would lose characters. Must be set before the driver connects.
+     * 
+     * @param rxBufferSize Size in characters, 0 to switch the model off.
+     */
+    public void setRxBufferSize(int rxBufferSize) {
+        this.rxBufferSize = rxBufferSize;
+    }
+
+    public long getLineProcessingMilliseconds() {
+        return lineProcessingMilliseconds;
+    }
+
+    public void setLineProcessingMilliseconds(long lineProcessingMilliseconds) {
+        this.lineProcessingMilliseconds = lineProcessingMilliseconds;
+    }
+
+    /**
+     * @return The maximum number of characters that were waiting in the modeled receive buffer.
+     */
+    public synchronized int getRxBufferPeak() {
+        return rxBufferPeak;
+    }
+
+    /**
+     * @return The number of lines that were received while the modeled receive buffer was full.
+     */
+    public synchronized int getRxBufferOverflows() {
+        return rxBufferOverflows;
+    }
+
+    public synchronized void resetRxBufferStatistics() {
+        rxBufferPeak = 0;
+        rxBufferOverflows = 0;
+    }
+
     public void addCommandResponse(String command, String response) {
         commandResponses.put(command, response);
     }
@@ -153,6 +212,16 @@ public class GcodeServer extends Thread {
         }
     }
 
+    static class ReceivedLine {
+        final String line;
+        final int length;
+
+        ReceivedLine(String line, int length) {
+            this.line = line;
+            this.length = length;
+        }
+    }
+
     class Worker extends Thread {
         final Socket socket;
         final InputStream input;
@@ -164,6 +233,12 @@ public class GcodeServer extends Thread {
         private LengthUnit lengthUnit = LengthUnit.Millimeters; 
         private boolean absolute = true;
         private String response;
+        /**
+         * The lines received into the modeled receive buffer with their length in characters.
+         */
+        private LinkedBlockingQueue<ReceivedLine> rxBuffer;
+        private int rxBufferUsed;
+        private int readLength;
 
         public Worker(Socket socket) throws Exception {
             this.socket = socket;
@@ -178,7 +253,8 @@ public class GcodeServer extends Thread {
                 if (ch == -1) {
                     return null;
                 }
-                else if (ch == '\n' || ch == '\r') {
+                readLength++;
+                if (ch == '\n' || ch == '\r') {
                     if (line.length() > 0) {
                         return line.toString();
                     }
@@ -193,11 +269,66 @@ public class GcodeServer extends Thread {
             output.write((s + "\n").getBytes("UTF8"));
         }
 
+        /**
+         * Receive lines into the modeled receive buffer, until the connection is closed. 
+         */
+        void receive() {
+            try {
+                while (!serverSocket.isClosed()) {
+                    readLength = 0;
+                    String line = read();
+                    if (line == null) {
+                        break;
+                    }
+                    synchronized (GcodeServer.this) {
+                        rxBufferUsed += readLength;
+                        rxBufferPeak = Math.max(rxBufferPeak, rxBufferUsed);
+                        if (rxBufferUsed > rxBufferSize) {
+                            rxBufferOverflows++;
+                            Logger.warn("RX buffer overflow, "+rxBufferUsed+" characters received into a buffer of "+rxBufferSize+".");
+                        }
+                    }
+                    rxBuffer.offer(new ReceivedLine(line, readLength));
+                }
+            }
+            catch (Exception e) {
+                Logger.debug(e);
+            }
+        }
+
+        /**
+         * @return The next line to process, or null if none was received.
+         * @throws Exception
+         */
+        String nextLine() throws Exception {
+            if (rxBuffer == null) {
+                return read();
+            }
+            ReceivedLine received = rxBuffer.poll(100, TimeUnit.MILLISECONDS);
+            if (received == null) {
+                return null;
+            }
+            synchronized (GcodeServer.this) {
+                // The controller takes the line out of the receive buffer, before it is processed.
+                rxBufferUsed -= received.length;
+            }
+            return received.line;
+        }
+
         public void run() {
+            if (rxBufferSize > 0) {
+                rxBuffer = new LinkedBlockingQueue<>();
+                Thread receiver = new Thread(() -> receive());
+                receiver.setDaemon(true);
+                receiver.start();
+            }
             while (!serverSocket.isClosed()) {
                 try {
-                    String input = read();
+                    String input = nextLine();
                     if (input != null) {
+                        if (lineProcessingMilliseconds > 0) {
+                            Thread.sleep(lineProcessingMilliseconds);
+                        }
                         // Canned responses.
                         String response = null;
                         response = commandResponses.get(input.trim());
@@ -598,8 +729,8 @@ public class GcodeServer extends Thread {
 
                 // Compute the wait or dwell time. Start with the motion plan completion time. 
                 long dwellMilliseconds = (motionPlan.isEmpty() ? 
-                        0 : (int)Math.max(0, (motionPlan.lastKey() - NanosecondTime.getRuntimeSeconds())*1000));
-                //Logger.debug("Motion ongoing for +"+dwellMilliseconds+" ms, lastKey = "+(motionPlan.isEmpty() ? 0 : motionPlan.lastKey())+", now="+NanosecondTime.getRuntimeSeconds());
+                        0 : (int)Math.max(0, (motionPlan.getLastTime() - NanosecondTime.getRuntimeSeconds())*1000));
+                //Logger.debug("Motion ongoing for +"+dwellMilliseconds+" ms, lastTime = "+(motionPlan.isEmpty() ? 0 : motionPlan.getLastTime())+", now="+NanosecondTime.getRuntimeSeconds());
                 boolean doDwell = false;
                 GcodeWord g4Word = getCodeWord(Gcode.G4, commandWords);
                 GcodeWord m400Word = getCodeWord(Gcode.M400, commandWords);
@@ -636,10 +767,7 @@ public class GcodeServer extends Thread {
                     Thread.sleep(dwellMilliseconds);
 
                     // Remove old stuff.
-                    double time = NanosecondTime.getRuntimeSeconds() - 30;
-                    while (motionPlan.isEmpty() == false && motionPlan.firstKey() < time) {
-                        motionPlan.remove(motionPlan.firstKey());
-                    }
+                    motionPlan.removeOlderThan(NanosecondTime.getRuntimeSeconds() - maximumPlanHistory);
                 }
 
                 // Set global offsets. 
@@ -714,9 +842,11 @@ public class GcodeServer extends Thread {
                             (g0Word != null ? MotionOption.UncoordinatedMotion.flag() : 0));
                     synchronized (motionPlan) {
                         double t = NanosecondTime.getRuntimeSeconds();
-                        if (motionPlan.isEmpty() == false && motionPlan.lastKey() > t) {
+                        // Age out old stuff.
+                        motionPlan.removeOlderThan(t - maximumPlanHistory);
+                        if (motionPlan.isEmpty() == false && motionPlan.getLastTime() > t) {
                             // Append to a plan that is still running. 
-                            t = motionPlan.lastKey();
+                            t = motionPlan.getLastTime();
                         }
                         // Put into timed plan.
                         t += motion.getTime();
@@ -737,14 +867,10 @@ public class GcodeServer extends Thread {
     }
 
     public Motion getMomentaryMotion(double time) {
-        Map.Entry<Double, Motion> entry1; 
-        synchronized (motionPlan) {
-            entry1 = motionPlan.higherEntry(time);
-        }
-        if (entry1 != null) {
+        Motion motion1 = motionPlan.getHigher(time);
+        if (motion1 != null) {
             // Return the current motion.
-            Motion motion = entry1.getValue();
-            return motion;
+            return motion1;
         }
         else {
             // Nothing in the plan or machine stopped before this time, just get the current axes location.
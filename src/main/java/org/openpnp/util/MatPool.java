@@ -0,0 +1,93 @@
+package org.openpnp.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import org.opencv.core.Mat;
+
+/**
+ * A small pool of reusable Mats, keyed by size and type. Used where images are processed frame after
+ * frame, so the native image buffers are reused, rather than allocated and released for each frame.
+ *
+ * Only continuous, non-submatrix Mats are pooled. A Mat that was recycled must no longer be used by the
+ * caller.
+ *
+ * This class is thread safe.
+ */
+public class MatPool {
+    private final int capacity;
+    private final ArrayDeque<Mat> free = new ArrayDeque<>();
+    private long allocations;
+
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    /**
+     * @param capacity The maximum number of free Mats kept in the pool.
+     */
+    public MatPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Obtain a Mat of the given size and type. If none is available in the pool, a new one is allocated.
+     * The content of the Mat is undefined.
+     *
+     * @param rows
+     * @param cols
+     * @param type
+     * @return
+     */
+    public synchronized Mat obtain(int rows, int cols, int type) {
+        for (Iterator<Mat> iterator = free.iterator(); iterator.hasNext(); ) {
+            Mat mat = iterator.next();
+            if (mat.rows() == rows && mat.cols() == cols && mat.type() == type) {
+                iterator.remove();
+                return mat;
+            }
+        }
+        allocations++;
+        return new Mat(rows, cols, type);
+    }
+
+    /**
+     * Return the Mat to the pool. If the pool is full, the least recently recycled Mat is released.
+     *
+     * @param mat
+     */
+    public synchronized void recycle(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        if (mat.empty() || mat.isSubmatrix() || !mat.isContinuous()) {
+            mat.release();
+            return;
+        }
+        free.addLast(mat);
+        while (free.size() > capacity) {
+            free.pollFirst().release();
+        }
+    }
+
+    /**
+     * Release all the pooled Mats.
+     */
+    public synchronized void clear() {
+        for (Mat mat : free) {
+            mat.release();
+        }
+        free.clear();
+    }
+
+    public synchronized int size() {
+        return free.size();
+    }
+
+    /**
+     * @return The number of Mats that had to be allocated, because none was available in the pool.
+     */
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+}
@@ -77,6 +77,17 @@ public class OpenCvUtils {
     }
 
     public static Mat toMat(BufferedImage img) {
+        return toMat(img, null);
+    }
+
+    /**
+     * Same as toMat(BufferedImage) but obtains the Mat from the given pool, if not null.
+     * 
+     * @param img
+     * @param pool
+     * @return
+     */
+    public static Mat toMat(BufferedImage img, MatPool pool) {
         Integer type = null;
         if (img.getType() == BufferedImage.TYPE_BYTE_GRAY) {
             type = CvType.CV_8UC1;
@@ -88,7 +99,9 @@ public class OpenCvUtils {
             img = ImageUtils.convertBufferedImage(img, BufferedImage.TYPE_3BYTE_BGR);
             type = CvType.CV_8UC3;
         }
-        Mat mat = new Mat(img.getHeight(), img.getWidth(), type);
+        Mat mat = (pool != null) ? 
+                pool.obtain(img.getHeight(), img.getWidth(), type) 
+                : new Mat(img.getHeight(), img.getWidth(), type);
         mat.put(0, 0, ((DataBufferByte) img.getRaster().getDataBuffer()).getData());
         return mat;
     }
@@ -0,0 +1,534 @@
+package org.openpnp.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.spi.HeadMountable;
+import org.pmw.tinylog.Logger;
+
+/**
+ * A fast route optimizer, complementary to the {@link TravellingSalesman} simulated annealing solver.
+ *
+ * It solves the same question: "Given a list of Locations, what is the shortest possible route that visits each
+ * Location?", with the same optional start and end Locations.
+ *
+ * The route is seeded by greedy nearest neighbour travel, then improved by local search until no improving move
+ * is left:
+ * <ul>
+ * <li>2-opt: reverse a stretch of the route, which untwists crossing edges.</li>
+ * <li>Or-opt: move a segment of one to three Locations, optionally reversed, to another place in the route.</li>
+ * </ul>
+ * Candidate moves are limited to the nearest neighbours of each Location, found through a spatial grid, so a pass
+ * is linear in the number of Locations. Small problems consider all the Locations.
+ *
+ * The metric is {@link TravelCost#getXyzCost(double, double, double)}, i.e. the time estimated from the X, Y and Z
+ * axis acceleration and feedrate limits, like the {@link TravellingSalesman} uses. If no TravelCost is available, the
+ * linear XYZ distance is used. The neighbours and the seed use the linear XY distance.
+ *
+ * The result is deterministic.
+ *
+ * @param <T> The class of the objects to be travelled to. Use a Locator<T> to query the Location from these objects.
+ */
+public class RouteOptimizer<T> {
+    /**
+     * Number of nearest neighbours considered for moves.
+     */
+    private static final int neighbours = 10;
+
+    /**
+     * Up to this number of Locations, all the other Locations are considered for moves.
+     */
+    private static final int maxCompleteNeighbours = 100;
+
+    /**
+     * Longest segment moved by Or-opt.
+     */
+    private static final int maxSegmentLength = 3;
+
+    /**
+     * Improvements smaller than this are ignored, to avoid cycling due to rounding effects.
+     */
+    private static final double epsilon = 1e-9;
+
+    /**
+     * Define the units that are used for internal processing
+     */
+    private static final LengthUnit unit = LengthUnit.Millimeters;
+
+    private final List<T> travelInput;
+    private final int travelSize;
+    private final boolean hasStart;
+    private final boolean hasEnd;
+    /**
+     * Coordinates by node: the travel Locations by their index, then the start and end Location.
+     */
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private TravelCost travelCost;
+
+    /**
+     * The route, start node first and end node last.
+     */
+    private int[] route;
+    /**
+     * Position of each node in the route.
+     */
+    private int[] position;
+    private int[][] neighbourLists;
+
+    private long solverDuration = 0;
+
+    /**
+     * @param travelInput Contains the travelling problem to be solved.
+     * @param locator Lets the optimizer query the given list object for the relevant Location.
+     * @param startLocation Optional start Location, e.g. the current machine Location. If left open, the optimizer
+     * will choose the start of the route freely.
+     * @param endLocation Optional end Location, e.g. the Location for the next task after this. If left open, the
+     * optimizer will choose the end of the route freely.
+     * @param movable head mountable's axis to use for cost estimation
+     */
+    public RouteOptimizer(List<T> travelInput, TravellingSalesman.Locator<? super T> locator,
+            Location startLocation, Location endLocation, HeadMountable movable) {
+        this.travelInput = travelInput;
+        this.travelSize = travelInput.size();
+        this.hasStart = (startLocation != null);
+        this.hasEnd = (endLocation != null);
+        this.x = new double[travelSize + 2];
+        this.y = new double[travelSize + 2];
+        this.z = new double[travelSize + 2];
+        for (int i = 0; i < travelSize; i++) {
+            setNode(i, locator.getLocation(travelInput.get(i)));
+        }
+        setNode(travelSize, startLocation);
+        setNode(travelSize + 1, endLocation);
+        // initial route in input order
+        this.route = new int[travelSize + 2];
+        this.route[0] = travelSize;
+        for (int i = 0; i < travelSize; i++) {
+            this.route[i + 1] = i;
+        }
+        this.route[travelSize + 1] = travelSize + 1;
+
+        // prepare cost estimation
+        TravelCost travelCost = null;
+        try {
+            travelCost = new TravelCost(movable, unit);
+        }
+        catch (Exception e) {
+            travelCost = null;
+        }
+        this.travelCost = travelCost;
+        Logger.trace("Using " + (this.travelCost != null ? "estimated travel cost" : "linear distance") + " as metric");
+    }
+
+    public RouteOptimizer(List<T> travelInput, TravellingSalesman.Locator<? super T> locator,
+            Location startLocation, Location endLocation) {
+        this(travelInput, locator, startLocation, endLocation, null);
+    }
+
+    private void setNode(int node, Location location) {
+        if (location != null) {
+            location = location.convertToUnits(unit);
+            x[node] = location.getX();
+            y[node] = location.getY();
+            z[node] = location.getZ();
+        }
+    }
+
+    /**
+     * @param t TravelCost in Millimeters, or null for the linear distance.
+     */
+    public void setTravelCost(TravelCost t) {
+        travelCost = t;
+    }
+
+    private double getDistance(int a, int b) {
+        if ((!hasStart && (a == travelSize || b == travelSize))
+                || (!hasEnd && (a == travelSize + 1 || b == travelSize + 1))) {
+            // no start and/or end location, so the distance is just 0.0
+            return 0.0;
+        }
+        double dx = x[a] - x[b];
+        double dy = y[a] - y[b];
+        double dz = z[a] - z[b];
+        if (travelCost != null) {
+            return travelCost.getXyzCost(dx, dy, dz);
+        }
+        return Math.sqrt(dx*dx + dy*dy + dz*dz);
+    }
+
+    private double getLinearDistance(int a, int b) {
+        double dx = x[a] - x[b];
+        double dy = y[a] - y[b];
+        return dx*dx + dy*dy;
+    }
+
+    public double getTravellingDistance() {
+        double distance = 0.0;
+        for (int i = 1; i < route.length; i++) {
+            distance += getDistance(route[i - 1], route[i]);
+        }
+        return distance;
+    }
+
+    /**
+     * Solve using nearest neighbour seeding and 2-opt/Or-opt local search.
+     *
+     * @return The travelling distance of the optimized route.
+     */
+    public double solve() {
+        long startTime = System.currentTimeMillis();
+        if (travelSize > 1) {
+            int[] inputRoute = route.clone();
+            double inputDistance = getTravellingDistance();
+            SpatialGrid grid = new SpatialGrid();
+            createNeighbourLists(grid);
+            seedNearestNeighbour(grid);
+            position = new int[travelSize + 2];
+            updatePositions(0, route.length - 1);
+            boolean improved = true;
+            while (improved) {
+                improved = twoOpt();
+                improved |= orOpt();
+            }
+            if (getTravellingDistance() > inputDistance) {
+                // the input was already better
+                route = inputRoute;
+            }
+            neighbourLists = null;
+            position = null;
+        }
+        solverDuration = System.currentTimeMillis() - startTime;
+        return getTravellingDistance();
+    }
+
+    public List<T> getTravel() {
+        List<T> travelOutput = new ArrayList<>();
+        for (int i = 1; i <= travelSize; i++) {
+            travelOutput.add(travelInput.get(route[i]));
+        }
+        return travelOutput;
+    }
+
+    public long getSolverDuration() {
+        return solverDuration;
+    }
+
+    /**
+     * A uniform grid over the travel Locations, with about two Locations per cell.
+     */
+    private class SpatialGrid {
+        final double minX, minY;
+        final double cellSize;
+        final int columns, rows;
+        /**
+         * The nodes by cell, each cell's nodes are cellNodes[cellStart[cell] .. cellStart[cell] + cellCount[cell]-1].
+         */
+        final int[] cellStart;
+        final int[] cellCount;
+        final int[] cellNodes;
+
+        SpatialGrid() {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < travelSize; i++) {
+                minX = Math.min(minX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxX = Math.max(maxX, x[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+            this.minX = minX;
+            this.minY = minY;
+            double area = Math.max(maxX - minX, 1e-3) * Math.max(maxY - minY, 1e-3);
+            this.cellSize = Math.max(Math.sqrt(area * 2.0 / travelSize), 1e-3);
+            this.columns = (int) Math.min(Math.floor((maxX - minX) / cellSize) + 1, travelSize);
+            this.rows = (int) Math.min(Math.floor((maxY - minY) / cellSize) + 1, travelSize);
+            this.cellStart = new int[columns * rows + 1];
+            this.cellCount = new int[columns * rows];
+            for (int i = 0; i < travelSize; i++) {
+                cellCount[getCell(i)]++;
+            }
+            for (int c = 0; c < cellCount.length; c++) {
+                cellStart[c + 1] = cellStart[c] + cellCount[c];
+            }
+            this.cellNodes = new int[travelSize];
+            int[] fill = new int[cellCount.length];
+            for (int i = 0; i < travelSize; i++) {
+                int cell = getCell(i);
+                cellNodes[cellStart[cell] + fill[cell]++] = i;
+            }
+        }
+
+        int getColumn(double px) {
+            return Math.max(0, Math.min(columns - 1, (int) ((px - minX) / cellSize)));
+        }
+
+        int getRow(double py) {
+            return Math.max(0, Math.min(rows - 1, (int) ((py - minY) / cellSize)));
+        }
+
+        int getCell(int node) {
+            return getRow(y[node]) * columns + getColumn(x[node]);
+        }
+
+        /**
+         * Remove the node from its cell, used when the seed route visits it.
+         */
+        void remove(int node) {
+            int cell = getCell(node);
+            int start = cellStart[cell];
+            int end = start + cellCount[cell] - 1;
+            for (int k = start; k <= end; k++) {
+                if (cellNodes[k] == node) {
+                    cellNodes[k] = cellNodes[end];
+                    cellNodes[end] = node;
+                    cellCount[cell]--;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Find the nearest nodes to the given node (or point), in rings of cells around it, nearest first.
+         *
+         * @param px
+         * @param py
+         * @param exclude node to exclude or -1
+         * @param found nodes found, nearest first
+         * @param foundDistance squared distances of the found nodes
+         * @return the number of nodes found, at most found.length.
+         */
+        int findNearest(double px, double py, int exclude, int[] found, double[] foundDistance) {
+            int count = 0;
+            int column = getColumn(px);
+            int row = getRow(py);
+            int maxRing = Math.max(columns, rows);
+            for (int ring = 0; ring <= maxRing; ring++) {
+                if (count == found.length) {
+                    // Cells in this ring are at least (ring - 1) cells away from the point.
+                    double ringDistance = (ring - 1) * cellSize;
+                    if (ringDistance > 0 && ringDistance * ringDistance > foundDistance[count - 1]) {
+                        break;
+                    }
+                }
+                for (int r = row - ring; r <= row + ring; r++) {
+                    if (r < 0 || r >= rows) {
+                        continue;
+                    }
+                    boolean edgeRow = (r == row - ring || r == row + ring);
+                    for (int c = column - ring; c <= column + ring; c += (edgeRow ? 1 : 2 * ring)) {
+                        if (c >= 0 && c < columns) {
+                            int cell = r * columns + c;
+                            int end = cellStart[cell] + cellCount[cell];
+                            for (int k = cellStart[cell]; k < end; k++) {
+                                int node = cellNodes[k];
+                                if (node != exclude) {
+                                    double dx = x[node] - px;
+                                    double dy = y[node] - py;
+                                    count = insert(node, dx*dx + dy*dy, found, foundDistance, count);
+                                }
+                            }
+                        }
+                        if (ring == 0) {
+                            break;
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+        private int insert(int node, double distance, int[] found, double[] foundDistance, int count) {
+            if (count == found.length) {
+                if (distance >= foundDistance[count - 1]) {
+                    return count;
+                }
+                count--;
+            }
+            int k = count;
+            // insertion sort, ties by node index to stay deterministic
+            while (k > 0 && (foundDistance[k - 1] > distance
+                    || (foundDistance[k - 1] == distance && found[k - 1] > node))) {
+                found[k] = found[k - 1];
+                foundDistance[k] = foundDistance[k - 1];
+                k--;
+            }
+            found[k] = node;
+            foundDistance[k] = distance;
+            return count + 1;
+        }
+    }
+
+    private void createNeighbourLists(SpatialGrid grid) {
+        int k = (travelSize <= maxCompleteNeighbours ? travelSize - 1 : neighbours);
+        int[] found = new int[k];
+        double[] foundDistance = new double[k];
+        neighbourLists = new int[travelSize][];
+        for (int i = 0; i < travelSize; i++) {
+            int count = grid.findNearest(x[i], y[i], i, found, foundDistance);
+            neighbourLists[i] = Arrays.copyOf(found, count);
+        }
+    }
+
+    /**
+     * Seed the route by always travelling to the nearest unvisited Location. Starts at the start Location or,
+     * if there is none, at the first Location.
+     */
+    private void seedNearestNeighbour(SpatialGrid grid) {
+        int[] found = new int[1];
+        double[] foundDistance = new double[1];
+        int current;
+        int first = 1;
+        if (hasStart) {
+            current = travelSize;
+        }
+        else {
+            current = route[1];
+            grid.remove(current);
+            first = 2;
+        }
+        for (int i = first; i <= travelSize; i++) {
+            int count = grid.findNearest(x[current], y[current], -1, found, foundDistance);
+            if (count == 0) {
+                throw new IllegalStateException("Spatial grid is inconsistent.");
+            }
+            current = found[0];
+            grid.remove(current);
+            route[i] = current;
+        }
+    }
+
+    private void updatePositions(int from, int to) {
+        for (int i = from; i <= to; i++) {
+            position[route[i]] = i;
+        }
+    }
+
+    private void reverse(int from, int to) {
+        for (int i = from, j = to; i < j; i++, j--) {
+            int s = route[i];
+            route[i] = route[j];
+            route[j] = s;
+        }
+        updatePositions(from, to);
+    }
+
+    /**
+     * @return The change in distance, if the route stretch from..to was reversed.
+     */
+    private double getReverseDelta(int from, int to) {
+        return getDistance(route[from - 1], route[to]) + getDistance(route[from], route[to + 1])
+                - getDistance(route[from - 1], route[from]) - getDistance(route[to], route[to + 1]);
+    }
+
+    /**
+     * One pass of 2-opt moves that connect each Location to one of its neighbours.
+     *
+     * @return true if the route was improved.
+     */
+    private boolean twoOpt() {
+        boolean improved = false;
+        for (int a = 0; a < travelSize; a++) {
+            for (int c : neighbourLists[a]) {
+                int i = position[a];
+                int j = position[c];
+                int lo = Math.min(i, j);
+                int hi = Math.max(i, j);
+                // connect a and c by making them the ends of the reversed stretch, either after or before them
+                if (lo + 1 < hi && getReverseDelta(lo + 1, hi) < -epsilon) {
+                    reverse(lo + 1, hi);
+                    improved = true;
+                }
+                else if (lo < hi - 1 && getReverseDelta(lo, hi - 1) < -epsilon) {
+                    reverse(lo, hi - 1);
+                    improved = true;
+                }
+            }
+        }
+        return improved;
+    }
+
+    /**
+     * One pass of Or-opt moves that move a segment next to a neighbour of its first or last Location.
+     *
+     * @return true if the route was improved.
+     */
+    private boolean orOpt() {
+        boolean improved = false;
+        for (int length = 1; length <= maxSegmentLength; length++) {
+            for (int node = 0; node < travelSize; node++) {
+                int from = position[node];
+                int to = from + length - 1;
+                if (to > travelSize) {
+                    continue;
+                }
+                if (tryMoveSegment(from, to)) {
+                    improved = true;
+                }
+            }
+        }
+        return improved;
+    }
+
+    private boolean tryMoveSegment(int from, int to) {
+        int first = route[from];
+        int last = route[to];
+        int before = route[from - 1];
+        int after = route[to + 1];
+        double removeGain = getDistance(before, first) + getDistance(last, after) - getDistance(before, after);
+        for (int end = 0; end < 2; end++) {
+            int[] candidates = neighbourLists[end == 0 ? first : last];
+            for (int c : candidates) {
+                int p = position[c];
+                // insert between p-1 and p or between p and p+1
+                for (int k = p - 1; k <= p; k++) {
+                    if (k < 0 || k > travelSize || (k >= from - 1 && k <= to)) {
+                        continue;
+                    }
+                    int left = route[k];
+                    int right = route[k + 1];
+                    double edge = getDistance(left, right);
+                    double forward = getDistance(left, first) + getDistance(last, right) - edge;
+                    double reversed = getDistance(left, last) + getDistance(first, right) - edge;
+                    boolean reverse = (reversed < forward);
+                    if (Math.min(forward, reversed) - removeGain < -epsilon) {
+                        moveSegment(from, to, k, reverse);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move the route segment from..to between the route positions k and k+1.
+     */
+    private void moveSegment(int from, int to, int k, boolean reverse) {
+        int length = to - from + 1;
+        int[] segment = Arrays.copyOfRange(route, from, to + 1);
+        if (reverse) {
+            for (int i = 0, j = length - 1; i < j; i++, j--) {
+                int s = segment[i];
+                segment[i] = segment[j];
+                segment[j] = s;
+            }
+        }
+        if (k < from) {
+            // shift route[k+1 .. from-1] to the right
+            System.arraycopy(route, k + 1, route, k + 1 + length, from - k - 1);
+            System.arraycopy(segment, 0, route, k + 1, length);
+            updatePositions(k + 1, to);
+        }
+        else {
+            // shift route[to+1 .. k] to the left
+            System.arraycopy(route, to + 1, route, from, k - to);
+            System.arraycopy(segment, 0, route, k - length + 1, length);
+            updatePositions(from, k);
+        }
+    }
+}
@@ -135,8 +135,17 @@ public class TravelCost {
     public double getCost(Location a, Location b) {
         a = a.convertToUnits(units);
         b = b.convertToUnits(units);
-        double costX = estimateCost(a.getX() - b.getX(), xAxis);
-        double costY = estimateCost(a.getY() - b.getY(), yAxis);
+        return getCost(a.getX() - b.getX(), a.getY() - b.getY());
+    }
+
+    /**
+     * @param dx X distance in the units of this TravelCost
+     * @param dy Y distance in the units of this TravelCost
+     * @return cost to travel the distance using mapped axes parameters
+     */
+    public double getCost(double dx, double dy) {
+        double costX = estimateCost(dx, xAxis);
+        double costY = estimateCost(dy, yAxis);
         
         return Math.max(costX, costY);
     }
@@ -144,10 +153,20 @@ public class TravelCost {
     public double getXyzCost(Location a, Location b) {
         a = a.convertToUnits(units);
         b = b.convertToUnits(units);
-        double cost = getCost(a, b);
+        return getXyzCost(a.getX() - b.getX(), a.getY() - b.getY(), a.getZ() - b.getZ());
+    }
+
+    /**
+     * @param dx X distance in the units of this TravelCost
+     * @param dy Y distance in the units of this TravelCost
+     * @param dz Z distance in the units of this TravelCost
+     * @return cost to travel the distance using mapped axes parameters
+     */
+    public double getXyzCost(double dx, double dy, double dz) {
+        double cost = getCost(dx, dy);
         // if zAxis parameters are not available, assume 0 and return cost on XY only
         if (zAxis != null) {
-            cost = Math.max(cost, estimateCost(a.getZ() - b.getZ(), zAxis));
+            cost = Math.max(cost, estimateCost(dz, zAxis));
         }
         
         return cost;
@@ -0,0 +1,190 @@
+package org.openpnp.util;
+
+import java.util.Arrays;
+
+import org.openpnp.machine.reference.solutions.HeadSolutions;
+import org.openpnp.model.AxesLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Location;
+import org.openpnp.model.MotionProfile;
+import org.openpnp.model.MotionProfile.ProfileOption;
+import org.openpnp.spi.Axis;
+import org.openpnp.spi.ControllerAxis;
+import org.openpnp.spi.CoordinateAxis;
+import org.openpnp.spi.Driver.MotionControlType;
+import org.openpnp.spi.HeadMountable;
+import org.openpnp.spi.Machine;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Estimates the time of a move between two locations, like the motion planner would execute it.
+ *
+ * Unlike {@link TravelCost}, the time of each axis is taken from a {@link MotionProfile} solution for
+ * the feedrate, acceleration and jerk limits of the axis, moving from and to still-stand. The axes are
+ * assumed to move uncoordinated, i.e. the move takes as long as its slowest axis.
+ *
+ * Solving a MotionProfile takes a while, therefore the times are cached per axis in a table over
+ * logarithmically spaced distances, and interpolated in between.
+ *
+ * This class is not thread safe.
+ */
+public class TravelTime {
+    /**
+     * Shortest distance in the table, shorter moves are interpolated from still-stand.
+     */
+    private static final double minDistance = 0.01;
+    /**
+     * Ratio between neighboring distances in the table.
+     */
+    private static final double distanceRatio = 1.02;
+    private static final double logDistanceRatio = Math.log(distanceRatio);
+
+    private final AxisTime xAxis;
+    private final AxisTime yAxis;
+    private final AxisTime zAxis;
+    private final AxisTime rotationAxis;
+
+    /**
+     * The time table of one axis.
+     */
+    private static class AxisTime {
+        private final double vMax;
+        private final double aMax;
+        private final double jMax;
+        private final int options;
+        private double [] times = new double[0];
+
+        private AxisTime(ControllerAxis axis, double speed) {
+            // Like the motion planner does, scale the derivatives with the power of their order.
+            vMax = speed*axis.getMotionLimit(1);
+            aMax = Math.pow(speed, 2)*axis.getMotionLimit(2);
+            jMax = Math.pow(speed, 3)*axis.getMotionLimit(3);
+            int options = 0;
+            if (jMax != 0 && axis.getDriver() != null
+                    && axis.getDriver().getMotionControlType() == MotionControlType.SimpleSCurve) {
+                options |= ProfileOption.SimplifiedSCurve.flag();
+            }
+            this.options = options;
+        }
+
+        private double getTime(double distance) {
+            distance = Math.abs(distance);
+            if (distance == 0 || vMax <= 0 || aMax <= 0) {
+                return 0;
+            }
+            double k = Math.log(distance/minDistance)/logDistanceRatio;
+            if (k < 0) {
+                // Tiny move, interpolate from still-stand.
+                return getTableTime(0)*distance/minDistance;
+            }
+            int k0 = (int) k;
+            double t0 = getTableTime(k0);
+            double t1 = getTableTime(k0 + 1);
+            return t0 + (t1 - t0)*(k - k0);
+        }
+
+        private double getTableTime(int k) {
+            if (k >= times.length) {
+                int length = Math.max(k + 1, times.length*2);
+                int oldLength = times.length;
+                times = Arrays.copyOf(times, length);
+                Arrays.fill(times, oldLength, length, Double.NaN);
+            }
+            if (Double.isNaN(times[k])) {
+                double distance = minDistance*Math.pow(distanceRatio, k);
+                MotionProfile profile = new MotionProfile(
+                        0, distance,
+                        0, 0, 0, 0, // still-stand
+                        Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                        vMax, aMax, aMax, jMax,
+                        0, Double.POSITIVE_INFINITY,
+                        options);
+                profile.solve();
+                times[k] = profile.getTime();
+            }
+            return times[k];
+        }
+    }
+
+    /**
+     * @param movable head mountable whose axes are used, if null the default camera on the default head is used
+     * @param speed speed factor as used in moveTo()
+     * @throws Exception if the movable has no X and Y controller axes
+     */
+    public TravelTime(HeadMountable movable, double speed) throws Exception {
+        Machine machine = Configuration.get().getMachine();
+        if (movable == null) {
+            movable = machine.getDefaultHead().getDefaultCamera();
+        }
+        xAxis = createAxisTime(machine, movable.getAxisX(), speed);
+        yAxis = createAxisTime(machine, movable.getAxisY(), speed);
+        if (xAxis == null || yAxis == null) {
+            throw new Exception("HeadMountable "+movable+" has no XY axis assigned");
+        }
+        zAxis = createAxisTime(machine, movable.getAxisZ(), speed);
+        rotationAxis = createAxisTime(machine, movable.getAxisRotation(), speed);
+        if (zAxis == null || rotationAxis == null) {
+            Logger.trace("Travel time estimation for headmountable "+movable+" not available on all axes");
+        }
+    }
+
+    public TravelTime(HeadMountable movable) throws Exception {
+        this(movable, 1.0);
+    }
+
+    private static AxisTime createAxisTime(Machine machine, Axis axis, double speed) {
+        CoordinateAxis rawAxis = HeadSolutions.getRawAxis(machine, axis);
+        if (!(rawAxis instanceof ControllerAxis)) {
+            return null;
+        }
+        return new AxisTime((ControllerAxis) rawAxis, speed);
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return time in seconds to move from a to b in X and Y.
+     */
+    public double getTime(Location a, Location b) {
+        a = a.convertToUnits(AxesLocation.getUnits());
+        b = b.convertToUnits(AxesLocation.getUnits());
+        return getTime(a.getX() - b.getX(), a.getY() - b.getY());
+    }
+
+    /**
+     * @param dx X distance in millimeters
+     * @param dy Y distance in millimeters
+     * @return time in seconds to move the distance.
+     */
+    public double getTime(double dx, double dy) {
+        return Math.max(xAxis.getTime(dx), yAxis.getTime(dy));
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return time in seconds to move from a to b in X, Y, Z and rotation.
+     */
+    public double getXyzcTime(Location a, Location b) {
+        a = a.convertToUnits(AxesLocation.getUnits());
+        b = b.convertToUnits(AxesLocation.getUnits());
+        double time = getTime(a.getX() - b.getX(), a.getY() - b.getY());
+        if (zAxis != null) {
+            time = Math.max(time, zAxis.getTime(a.getZ() - b.getZ()));
+        }
+        if (rotationAxis != null) {
+            // Rotation takes the shortest way, also across the ±180° boundary.
+            time = Math.max(time, rotationAxis.getTime(
+                    Utils2D.normalizeAngle180(a.getRotation() - b.getRotation())));
+        }
+        return time;
+    }
+
+    /**
+     * @param dz Z distance in millimeters
+     * @return time in seconds to move the distance in Z, 0 if there is no Z axis.
+     */
+    public double getZTime(double dz) {
+        return (zAxis != null ? zAxis.getTime(dz) : 0);
+    }
+}
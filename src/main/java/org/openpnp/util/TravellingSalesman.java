@@ -22,6 +22,9 @@ package org.openpnp.util;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
@@ -38,7 +41,8 @@ import org.pmw.tinylog.Logger;
  * and/or a Location for the next task after that, as the end Location. These Locations can also be the same, to form 
  * a loop. If left open (null) the solver will choose the best start and/or end Location for the route freely.
  * 
- * The solver uses Simulated Annealing.
+ * The solver uses Simulated Annealing. Several independently seeded annealing chains can be run in parallel, 
+ * the best route is kept. The chains work on primitive arrays of node indices, with a precomputed distance matrix. 
  * 
  * The implementation is a bit extended from the typical school book examples to not only use "swaps" of two Locations 
  * but also "twists", that reverse the travel direction between the swapped out Locations. The latter really improves the 
@@ -115,7 +119,7 @@ public class TravellingSalesman<T> {
      * Plain old data TravelLocation for faster processing. Improved solving by a factor of 6 from using
      * OpenPNP Locations directly. These are always in Millimeters, no conversions needed.  
      */
-    private class TravelLocation extends Location {
+    private static class TravelLocation extends Location {
         private int index;
 
         private  TravelLocation(int index, Location l) {
@@ -134,10 +138,39 @@ public class TravellingSalesman<T> {
     
     private long solverDuration = 0; 
 
+    /**
+     * The largest distance matrix (number of entries) that is precomputed, i.e. 8 MB, or some 1450 nodes. 
+     * Larger problems compute the distances on the fly. 
+     */
+    private static final int distanceMatrixMaxEntries = 1 << 20;
+
+    /**
+     * Seed of the first annealing chain, the other chains use the following seeds.
+     */
+    private long seed = 0;
+
+    /**
+     * The Locations by node index: the travel Locations by their index, then the start and end Location.
+     */
+    private TravelLocation[] nodes;
+    /**
+     * The precomputed distances between all the nodes, or null if computed on the fly. As the distances 
+     * are symmetric, only the lower triangle is stored, see {@link #triangularIndex(int, int)}. 
+     */
+    private double[] distanceMatrix;
+
     public void setTravelCost (TravelCost t) {
         travelCost = t;
     }
 
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
     private TravelLocation getLocation(int i) {
         if (i < 0) {
             return this.startLocation;
@@ -148,9 +181,7 @@ public class TravellingSalesman<T> {
         return this.travel.get(i);
     }
 
-    private double getDistance(int a, int b) {
-        TravelLocation la = this.getLocation(a);
-        TravelLocation lb = this.getLocation(b);
+    private double getDistance(TravelLocation la, TravelLocation lb) {
         if (la == null || lb == null) {
             // no start and/or end location, so the distance is just 0.0
             return 0.0;
@@ -161,7 +192,10 @@ public class TravellingSalesman<T> {
         else {
             return la.getXyzDistanceTo(lb);
         }
-            
+    }
+
+    private double getDistance(int a, int b) {
+        return getDistance(this.getLocation(a), this.getLocation(b));
     }
 
     public double getTravellingDistance() {
@@ -172,174 +206,303 @@ public class TravellingSalesman<T> {
         return distance;
     }
 
-    private double getSwapDistance(int a, int b, boolean twist) {
-        if (a > b) {
-            // a must come before b
-            int s = a;
-            a = b;
-            b = s;
-        }
-        if (twist) {
-            // twist the loop around
-            double oldSegmentDistance = 
-                    this.getDistance(a-1, a) + this.getDistance(b, b+1);
-            double newSegmentDistance = 
-                    this.getDistance(a-1, b) + this.getDistance(a, b+1);
-            return newSegmentDistance - oldSegmentDistance;
+    /**
+     * @param i
+     * @param j
+     * @return The index of the distance between the distinct nodes i and j in the triangular distance matrix. 
+     */
+    private static int triangularIndex(int i, int j) {
+        if (i < j) {
+            return j * (j - 1) / 2 + i;
+        }
+        return i * (i - 1) / 2 + j;
+    }
+
+    /**
+     * Prepare the nodes and, if not too large, the distance matrix for the annealing chains. The distances are 
+     * symmetric, so only half of them are computed and stored. 
+     */
+    private void prepareDistances() {
+        final int nodeCount = this.travelSize + 2;
+        this.nodes = new TravelLocation[nodeCount];
+        for (TravelLocation l : this.travel) {
+            this.nodes[l.index] = l;
+        }
+        this.nodes[this.travelSize] = this.startLocation;
+        this.nodes[this.travelSize + 1] = this.endLocation;
+        if ((long) nodeCount * (nodeCount - 1) / 2 <= distanceMatrixMaxEntries) {
+            final double[] matrix = new double[nodeCount * (nodeCount - 1) / 2];
+            IntStream.range(1, nodeCount).parallel().forEach(j -> {
+                for (int i = 0; i < j; i++) {
+                    matrix[triangularIndex(i, j)] = getDistance(nodes[i], nodes[j]);
+                }
+            });
+            this.distanceMatrix = matrix;
         }
         else {
-            // swap out the locations
-            if (a + 1 == b ) {
-                // consecutive
-                double oldSegmentDistance = 
-                        this.getDistance(a-1, a) + this.getDistance(a, b) + this.getDistance(b, b+1);
-                double newSegmentDistance = 
-                        this.getDistance(a-1, b) + this.getDistance(b, a) + this.getDistance(a, b+1);
-                return newSegmentDistance - oldSegmentDistance;
+            this.distanceMatrix = null;
+        }
+    }
+
+    /**
+     * One simulated annealing chain, working on a primitive route of node indices. 
+     * 
+     * The chain with the seed 0 makes the exact same moves as the original List based solver did.  
+     */
+    private class AnnealingChain {
+        private final long chainSeed;
+        private final int n = travelSize;
+        private final double[] matrix = distanceMatrix;
+        private int[] route;
+        private int[] bestRoute;
+        private double distance;
+        private int iterations;
+        private int swaps, twists, copies;
+
+        private AnnealingChain(long chainSeed, int[] route) {
+            this.chainSeed = chainSeed;
+            this.route = route.clone();
+        }
+
+        private int getNode(int i) {
+            if (i < 0) {
+                return n;
             }
-            else {
-                // apart
-                double oldSegmentDistance = 
-                        this.getDistance(a-1, a) + this.getDistance(a, a+1) 
-                        +  this.getDistance(b-1, b) + this.getDistance(b, b+1);
-                double newSegmentDistance = 
-                        this.getDistance(a-1, b) + this.getDistance(b, a+1) 
-                        +  this.getDistance(b-1, a) + this.getDistance(a, b+1);
-                return newSegmentDistance - oldSegmentDistance;
+            else if (i >= n) {
+                return n + 1;
             }
+            return route[i];
         }
-    }
 
-    private void swap(int a, int b) {
-        TravelLocation la = this.travel.get(a);
-        TravelLocation lb = this.travel.get(b);
-        this.travel.set(a, lb);
-        this.travel.set(b, la);
-    }
+        private double getDistance(int a, int b) {
+            int na = getNode(a);
+            int nb = getNode(b);
+            if (matrix != null) {
+                return na == nb ? 0.0 : matrix[triangularIndex(na, nb)];
+            }
+            return TravellingSalesman.this.getDistance(nodes[na], nodes[nb]);
+        }
 
-    private void swapLocations(int a, int b, boolean twist) {
-        if (twist) {
+        private double getTravellingDistance() {
+            double distance = 0.0;
+            for (int i = 0; i <= n; i++) {
+                distance += this.getDistance(i-1,  i);
+            }
+            return distance;
+        }
+
+        private double getSwapDistance(int a, int b, boolean twist) {
             if (a > b) {
                 // a must come before b
                 int s = a;
                 a = b;
                 b = s;
             }
-            // twist the loop around
-            for (int i = 0; i < (b - a + 1)/2; i++) {
-                this.swap(a+i, b-i);
+            if (twist) {
+                // twist the loop around
+                double oldSegmentDistance = 
+                        this.getDistance(a-1, a) + this.getDistance(b, b+1);
+                double newSegmentDistance = 
+                        this.getDistance(a-1, b) + this.getDistance(a, b+1);
+                return newSegmentDistance - oldSegmentDistance;
+            }
+            else {
+                // swap out the locations
+                if (a + 1 == b ) {
+                    // consecutive
+                    double oldSegmentDistance = 
+                            this.getDistance(a-1, a) + this.getDistance(a, b) + this.getDistance(b, b+1);
+                    double newSegmentDistance = 
+                            this.getDistance(a-1, b) + this.getDistance(b, a) + this.getDistance(a, b+1);
+                    return newSegmentDistance - oldSegmentDistance;
+                }
+                else {
+                    // apart
+                    double oldSegmentDistance = 
+                            this.getDistance(a-1, a) + this.getDistance(a, a+1) 
+                            +  this.getDistance(b-1, b) + this.getDistance(b, b+1);
+                    double newSegmentDistance = 
+                            this.getDistance(a-1, b) + this.getDistance(b, a+1) 
+                            +  this.getDistance(b-1, a) + this.getDistance(a, b+1);
+                    return newSegmentDistance - oldSegmentDistance;
+                }
             }
         }
-        else {
-            // swap out the two locations
-            this.swap(a, b);
-        }
-    }
 
-    @SuppressWarnings("unused")
-    public double simulateAnnealing(double startingTemperature, double coolingRate, int maxIterations) {
-        long startTime = System.currentTimeMillis();
-        if (debugLevel > 0) {
-            System.out.println("Simulated Annealing, size: "+this.travelSize+" temperature: " + startingTemperature + ", max iterations: " + maxIterations + ", cooling rate: " + coolingRate);
+        private void swapLocations(int a, int b, boolean twist) {
+            int[] route = this.route;
+            if (twist) {
+                if (a > b) {
+                    // a must come before b
+                    int s = a;
+                    a = b;
+                    b = s;
+                }
+                // twist the loop around
+                for (; a < b; a++, b--) {
+                    int s = route[a];
+                    route[a] = route[b];
+                    route[b] = s;
+                }
+            }
+            else {
+                // swap out the two locations
+                int s = route[a];
+                route[a] = route[b];
+                route[b] = s;
+            }
         }
-        int i = maxIterations;
-        int swaps = 0, twists = 0, copies = 0;
-        double bestDistance = getTravellingDistance();
-        double temperature = startingTemperature;
-        // The endTemperature defines the point until which small variations are tried. With a value to large
-        // the result is not good enough (as can be seen in the .svg the TavelingSalesmanTest generates).
-        // With a value to small the number of iterations increases without notable benefit to the end result.
-        // 10000 is a conservative setting. With 1000 only about 75% of the iterations are needed for the 610 
-        // cities test case with only a very little bit worth results.
-        double endTemperature = startingTemperature/1000;
-        if (debugLevel > 0) {
-            System.out.println("Initial distance of travel: " + bestDistance);
-        }
-        if (this.travelSize > 1) {
-            List<TravelLocation> globalTravel = new ArrayList<>(this.travel);           // global best route
-            double globalBestDistance = globalBestDistanceScalingFactor * bestDistance; // cost of global best route
-
-            // make this repeatable by seeding the random generator
-            // It has been discussed, that the solver shall generate repeatable results.
-            // (https://github.com/openpnp/openpnp/pull/1715#issuecomment-2549791916)
-            // The overall stability can be verified by using the random number generator
-            // without a seed. (remove the "0")
-            Random rnd = new java.util.Random(0);
-            for (; i > 0; i--) {
-                if (temperature > endTemperature) {
-                    int a = rnd.nextInt(this.travelSize);
-                    int b;
-                    do {
-                        b = rnd.nextInt(this.travelSize);
-                    }
-                    while (b == a);
-                    /* creates a locale emphasis when swapping
-                    do {
 
-                        b = (int) (Math.pow(rnd.nextDouble()*2.0-1.0, 3.0) * this.travelSize);
-                    }
-                    while(b < 0 || a == b || b > this.travelSize );
-                     */
-                    boolean twist = false;//(i % 2 == 0);
-                    double swapDistance = getSwapDistance(a, b, false);
-                    double twistDistance = getSwapDistance(a, b, true);
-                    // choose the better option
-                    if (twistDistance < swapDistance) {
-                        twist = true;
-                        swapDistance = twistDistance;
-                    }
+        @SuppressWarnings("unused")
+        private void run(double startingTemperature, double coolingRate, int maxIterations, long deadline) {
+            int i = maxIterations;
+            double bestDistance = getTravellingDistance();
+            double temperature = startingTemperature;
+            // The endTemperature defines the point until which small variations are tried. With a value to large
+            // the result is not good enough (as can be seen in the .svg the TavelingSalesmanTest generates).
+            // With a value to small the number of iterations increases without notable benefit to the end result.
+            // 10000 is a conservative setting. With 1000 only about 75% of the iterations are needed for the 610 
+            // cities test case with only a very little bit worth results.
+            double endTemperature = startingTemperature/1000;
+            this.bestRoute = this.route.clone();                                        // global best route
+            if (n > 1) {
+                double globalBestDistance = globalBestDistanceScalingFactor * bestDistance; // cost of global best route
 
-                    if (debugLevel > 1) {
-                        // validate the differential swapDistance
-                        double oldDistance = getTravellingDistance();
-                        this.swapLocations(a, b, twist);
-                        double newDistance = getTravellingDistance();
-                        this.swapLocations(a, b, twist);
-                        if (Math.abs((newDistance - oldDistance) - swapDistance) > 0.1) {
-                            System.err.println("** Swap distance wrong - newDistance: " + newDistance + ", oldDistance: " + oldDistance +", swapDistance: "+swapDistance + " != "+(newDistance - oldDistance)+", twist: "+twist);
+                // make this repeatable by seeding the random generator
+                // It has been discussed, that the solver shall generate repeatable results.
+                // (https://github.com/openpnp/openpnp/pull/1715#issuecomment-2549791916)
+                // Each chain has its own seed, so the result only depends on the seed and the number of chains. 
+                Random rnd = new Random(chainSeed);
+                for (; i > 0; i--) {
+                    if (temperature > endTemperature) {
+                        if ((i & 0x3FF) == 0 && deadline != 0 && System.nanoTime() - deadline > 0) {
+                            // out of time budget
+                            break;
                         }
-                    }
-
-                    if (swapDistance < 0.0 || (Math.exp(-swapDistance / temperature) >= rnd.nextDouble())) {
-                        // better or within annealing probability
-                        this.swapLocations(a, b, twist);
-                        bestDistance += swapDistance;   // keep bestDistance up-to-date
-                        // if the new route is better then the best, remember it
-                        if (bestDistance < globalBestDistance) {
-                            // remember slightly worth distance do avoid excessive copies due to rounding effects
-                            globalBestDistance = globalBestDistanceScalingFactor * bestDistance;
-                            globalTravel = new ArrayList<>(this.travel);
-                            copies++;
+                        int a = rnd.nextInt(n);
+                        int b;
+                        do {
+                            b = rnd.nextInt(n);
+                        }
+                        while (b == a);
+                        boolean twist = false;
+                        double swapDistance = getSwapDistance(a, b, false);
+                        double twistDistance = getSwapDistance(a, b, true);
+                        // choose the better option
+                        if (twistDistance < swapDistance) {
+                            twist = true;
+                            swapDistance = twistDistance;
                         }
-                        if (twist) {
-                            twists++;
-                        } else {
-                            swaps++;
+
+                        if (swapDistance < 0.0 || (Math.exp(-swapDistance / temperature) >= rnd.nextDouble())) {
+                            // better or within annealing probability
+                            this.swapLocations(a, b, twist);
+                            bestDistance += swapDistance;   // keep bestDistance up-to-date
+                            // if the new route is better then the best, remember it
+                            if (bestDistance < globalBestDistance) {
+                                // remember slightly worth distance do avoid excessive copies due to rounding effects
+                                globalBestDistance = globalBestDistanceScalingFactor * bestDistance;
+                                System.arraycopy(this.route, 0, this.bestRoute, 0, n);
+                                copies++;
+                            }
+                            if (twist) {
+                                twists++;
+                            } else {
+                                swaps++;
+                            }
                         }
+                        temperature *= coolingRate;
+                    } else {
+                        break;
                     }
-                    temperature *= coolingRate;
-                } else {
-                    break;
-                }
-                if (debugLevel > 0) {
-                    if (i % 100000 == 0) {
-                        double distance = getTravellingDistance();
-                        System.out.println("Iterations #" + i +", temperature: "+temperature+", distance of travel: " + distance + ", best distance to travel: " + globalBestDistance + ", swaps: "+swaps+", twists: "+twists+", copies: "+copies);
-                        //System.out.println(this.asSvg());
+                    if (debugLevel > 0) {
+                        if (i % 100000 == 0) {
+                            System.out.println("Chain "+chainSeed+" iterations #" + i +", temperature: "+temperature+", distance of travel: " + getTravellingDistance() + ", best distance to travel: " + globalBestDistance + ", swaps: "+swaps+", twists: "+twists+", copies: "+copies);
+                        }
                     }
                 }
+                // global best route is always the best route we have
+                int[] s = this.route;
+                this.route = this.bestRoute;
+                this.bestRoute = s;
+            }
+            this.iterations = maxIterations - i;
+            this.distance = getTravellingDistance();
+            if (debugLevel > 0) {
+                System.out.println("Chain "+chainSeed+" iterations #" + i +", temperature: "+temperature+",  distance of travel: " + distance+", swaps: "+swaps+", twists: "+twists+", copies: "+copies);
             }
-            // log if global best route is better then last best route
-            if (globalBestDistance < globalBestDistanceScalingFactor * bestDistance) {
-                System.out.println("Simulated Annealing: global best route better then last best route");
+        }
+    }
+
+    public double simulateAnnealing(double startingTemperature, double coolingRate, int maxIterations) {
+        return simulateAnnealing(startingTemperature, coolingRate, maxIterations, 1, 0);
+    }
+
+    /**
+     * Solve by running a number of independently seeded simulated annealing chains in parallel, on the 
+     * common ForkJoinPool, and keep the best route.
+     * 
+     * The result is deterministic for a given seed and number of chains, as long as the time budget 
+     * is not exhausted. With an exhausted time budget, each chain returns the best route it has found so far.
+     * 
+     * @param startingTemperature
+     * @param coolingRate
+     * @param maxIterations Maximum iterations per chain.
+     * @param chains Number of chains, the first chain uses the seed, the others the following seeds. 
+     * @param timeBudgetMilliseconds Time after which the chains are stopped, 0 for no limit. 
+     * @return The travelling distance of the best route. 
+     */
+    public double simulateAnnealing(double startingTemperature, double coolingRate, int maxIterations, 
+            int chains, long timeBudgetMilliseconds) {
+        long startTime = System.currentTimeMillis();
+        long deadline = 0;
+        if (timeBudgetMilliseconds > 0) {
+            // never 0, which means no deadline
+            deadline = (System.nanoTime() + timeBudgetMilliseconds * 1000000L) | 1;
+        }
+        chains = Math.max(1, chains);
+        if (debugLevel > 0) {
+            System.out.println("Simulated Annealing, size: "+this.travelSize+" temperature: " + startingTemperature + ", max iterations: " + maxIterations + ", cooling rate: " + coolingRate + ", chains: " + chains);
+        }
+        prepareDistances();
+        int[] route = new int[this.travelSize];
+        for (int i = 0; i < this.travelSize; i++) {
+            route[i] = this.travel.get(i).index;
+        }
+        List<AnnealingChain> annealingChains = new ArrayList<>();
+        for (int c = 0; c < chains; c++) {
+            annealingChains.add(new AnnealingChain(this.seed + c, route));
+        }
+        if (chains == 1 || this.travelSize <= 1) {
+            annealingChains.get(0).run(startingTemperature, coolingRate, maxIterations, deadline);
+            annealingChains = annealingChains.subList(0, 1);
+        }
+        else {
+            final long chainDeadline = deadline;
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (AnnealingChain chain : annealingChains) {
+                tasks.add(ForkJoinPool.commonPool().submit(() -> 
+                    chain.run(startingTemperature, coolingRate, maxIterations, chainDeadline)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
             }
-            // global best route is always the best route we have
-            this.travel.clear();
-            this.travel.addAll(globalTravel);
         }
-        bestDistance = getTravellingDistance();
+        // Take the best chain, the first one on ties.
+        AnnealingChain best = annealingChains.get(0);
+        for (AnnealingChain chain : annealingChains) {
+            if (chain.distance < best.distance) {
+                best = chain;
+            }
+        }
+        for (int i = 0; i < this.travelSize; i++) {
+            this.travel.set(i, this.nodes[best.route[i]]);
+        }
+        this.nodes = null;
+        this.distanceMatrix = null;
+        double bestDistance = getTravellingDistance();
         if (debugLevel > 0) {
-            System.out.println("Iterations #" + i +", temperature: "+temperature+",  distance of travel: " + bestDistance+", swaps: "+swaps+", twists: "+twists+", copies: "+copies);
+            System.out.println("Best chain "+best.chainSeed+", iterations #" + best.iterations + ", distance of travel: " + bestDistance);
         }
         long endTime = System.currentTimeMillis();
         this.solverDuration = endTime - startTime;
@@ -347,9 +510,21 @@ public class TravellingSalesman<T> {
     }
 
     public double solve() {
+        return solve(1, 0);
+    }
+
+    /**
+     * Solve using the default heuristics, with a number of parallel chains.
+     * 
+     * @param chains
+     * @param timeBudgetMilliseconds Time after which the solver stops, 0 for no limit. 
+     * @return The travelling distance of the best route. 
+     */
+    public double solve(int chains, long timeBudgetMilliseconds) {
         // heuristic for the simulated annealing params
         int size = Math.max(1, this.travelSize);
-        return simulateAnnealing(getTravellingDistance()/size*2.0, 1.0-0.001/size, size*1000+10000000);
+        return simulateAnnealing(getTravellingDistance()/size*2.0, 1.0-0.001/size, size*1000+10000000, 
+                chains, timeBudgetMilliseconds);
     }
 
     public List<T> getTravel() {
@@ -1,14 +1,21 @@
 package org.openpnp.vision.pipeline;
 
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.opencv.core.CvType;
@@ -16,6 +23,7 @@ import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
+import org.openpnp.util.OpenCvUtils;
 import org.openpnp.vision.FluentCv.ColorSpace;
 import org.openpnp.vision.pipeline.CvStage.Result;
 import org.pmw.tinylog.Logger;
@@ -37,6 +45,15 @@ import org.simpleframework.xml.stream.Style;
  * CvPipeline is serializable using toXmlString and fromXmlString. This makes it easy to export
  * pipelines and exchange them with others.
  * 
+ * By default, a copy of the image of each stage is retained in its Result, as needed by the pipeline 
+ * editor and diagnostics. For production use, image retention can be switched off for a run with 
+ * process(false), then only the stages referenced by other stages retain their images, see 
+ * getReferencedStageNames(). 
+ * 
+ * Derived template images, such as those rendered from footprints, are cached in the pipeline across 
+ * process() calls, see getCachedTemplate(). As the vision settings keep one pipeline instance, repeated 
+ * alignments of the same part do not render them again. 
+ * 
  * This work takes inspiration from several existing projects:
  * 
  * FireSight by Karl Lew and Šimon Fojtů: https://github.com/firepick1/FireSight
@@ -69,8 +86,30 @@ public class CvPipeline implements AutoCloseable {
 
     private long totalProcessingTimeNs;
 
+    /**
+     * The maximum number of cached templates, the least recently used are released.
+     */
+    private static final int templateCacheCapacity = 16;
+
+    private Map<List<Object>, Mat> templateCache = new LinkedHashMap<List<Object>, Mat>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Mat> eldest) {
+            if (size() > templateCacheCapacity) {
+                eldest.getValue().release();
+                return true;
+            }
+            return false;
+        }
+    };
+
     private BufferedImage lastCapturedImage;
 
+    /**
+     * The last captured image, kept as a Mat in a reused buffer. Only converted to the lastCapturedImage 
+     * when requested.
+     */
+    private Mat lastCapturedMat;
+
     private int currentShot;
 
     public CvPipeline() {
@@ -256,13 +295,135 @@ public class CvPipeline implements AutoCloseable {
       this.totalProcessingTimeNs = totalProcessingTimeNs;
     }
 
+    /**
+     * @return The names of the stages that are referenced by other stages, i.e. the values of any 
+     * "...StageName" String properties of the stages.
+     */
+    public Set<String> getReferencedStageNames() {
+        Set<String> names = new HashSet<>();
+        for (CvStage stage : stages) {
+            for (Class<?> cls = stage.getClass(); cls != null && cls != Object.class; cls = cls.getSuperclass()) {
+                for (Field field : cls.getDeclaredFields()) {
+                    if (field.getType() == String.class && field.getName().endsWith("StageName")) {
+                        try {
+                            field.setAccessible(true);
+                            String name = (String) field.get(stage);
+                            if (name != null && !name.isEmpty()) {
+                                names.add(name);
+                            }
+                        }
+                        catch (Exception e) {
+                            Logger.warn(e);
+                        }
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return The number of bytes in the images retained by the Results, i.e. the memory that would be 
+     * churned per process() by image retention.
+     */
+    public long getRetainedImageBytes() {
+        long bytes = 0;
+        for (Result result : results.values()) {
+            if (result.image != null) {
+                bytes += result.image.total()*result.image.elemSize();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Creates a key for the template cache from all the inputs that determine a template. Shapes are keyed 
+     * by their geometry, anything else by equals(). 
+     * 
+     * @param inputs
+     * @return
+     */
+    public static List<Object> createTemplateKey(Object... inputs) {
+        List<Object> key = new ArrayList<>(inputs.length);
+        for (Object input : inputs) {
+            if (input instanceof Shape) {
+                List<Double> geometry = new ArrayList<>();
+                double [] coords = new double[6];
+                for (PathIterator it = ((Shape) input).getPathIterator(null); !it.isDone(); it.next()) {
+                    Arrays.fill(coords, 0);
+                    geometry.add((double) it.currentSegment(coords));
+                    for (double coord : coords) {
+                        geometry.add(coord);
+                    }
+                }
+                key.add(geometry);
+            }
+            else {
+                key.add(input);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @param key The key, see createTemplateKey().
+     * @return A copy of the cached template, owned by the caller, or null if not cached.
+     */
+    public synchronized Mat getCachedTemplate(List<Object> key) {
+        Mat template = templateCache.get(key);
+        return template == null ? null : template.clone();
+    }
+
+    /**
+     * Cache a copy of the template. 
+     * 
+     * @param key The key, see createTemplateKey().
+     * @param template
+     */
+    public synchronized void putCachedTemplate(List<Object> key, Mat template) {
+        Mat previous = templateCache.put(key, template.clone());
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    public synchronized int getCachedTemplatesCount() {
+        return templateCache.size();
+    }
+
+    public synchronized void clearTemplateCache() {
+        for (Mat template : templateCache.values()) {
+            template.release();
+        }
+        templateCache.clear();
+    }
+
+    /**
+     * Process the pipeline, with all the stages retaining a copy of their image in their Result, as needed 
+     * by the pipeline editor and diagnostics.
+     * 
+     * @throws Exception
+     */
     public void process() throws Exception {
+        process(true);
+    }
+
+    /**
+     * Process the pipeline.
+     * 
+     * @param retainingImages Whether all the stages retain a copy of their image in their Result. If false, 
+     * only the stages referenced by other stages retain their images, all the others just process the working 
+     * image in place, and their Result image is null. This only applies to this run. 
+     * @throws Exception
+     */
+    public void process(boolean retainingImages) throws Exception {
         terminalException = null;
         totalProcessingTimeNs = 0;
         release();
         for (CvStage stage : stages) {
             stage.processPrepare(this);
         }
+        Set<String> referencedStageNames = retainingImages ? null : getReferencedStageNames();
         for (CvStage stage : stages) {
             // Process and time the stage and get the result.
             long processingTimeNs = System.nanoTime();
@@ -301,23 +462,24 @@ public class CvPipeline implements AutoCloseable {
             if(stage.isEnabled() && colorSpace != null) {
                 workingColorSpace = colorSpace;
             }
+            boolean retaining = retainingImages || referencedStageNames.contains(stage.getName());
             // If the result image is null and there is a working image,
-            // replace the result image with a clone of the working image.
+            // replace the result image with a clone of the working image, if retained.
             if (image == null) {
-                if (workingImage != null) {
+                if (workingImage != null && retaining) {
                     image = workingImage.clone();
                 }
             }
             // If the result image is not null:
             // Release the working image if the result image is different.
             // Replace the working image with the result image.
-            // Clone the result image for storage.
+            // Clone the result image for storage, if retained.
             else {
                 if (workingImage != null && workingImage != image) {
                     workingImage.release();
                 }
                 workingImage = image;
-                image = image.clone();
+                image = retaining ? image.clone() : null;
             }
 
             // If the result colorSpace is null and there is a working colorSpace,
@@ -367,11 +529,14 @@ public class CvPipeline implements AutoCloseable {
     @Override
     public void close() throws IOException {
         release();
+        releaseLastCapturedMat();
     }
     
     @Override
     protected void finalize() throws Throwable {
         release();
+        releaseLastCapturedMat();
+        clearTemplateCache();
         super.finalize();
     }
 
@@ -397,6 +562,7 @@ public class CvPipeline implements AutoCloseable {
      */
     public void fromXmlString(String s) throws Exception {
         release();
+        clearTemplateCache();
         Serializer ser = createSerializer();
         StringReader sr = new StringReader(s);
         CvPipeline pipeline = ser.read(CvPipeline.class, sr);
@@ -469,11 +635,37 @@ public class CvPipeline implements AutoCloseable {
     }
 
     public BufferedImage getLastCapturedImage() {
+        if (lastCapturedImage == null && lastCapturedMat != null && !lastCapturedMat.empty()) {
+            lastCapturedImage = OpenCvUtils.toBufferedImage(lastCapturedMat);
+        }
         return lastCapturedImage;
     }
 
     public void setLastCapturedImage(BufferedImage lastCapturedImage) {
         this.lastCapturedImage = lastCapturedImage;
+        releaseLastCapturedMat();
+    }
+
+    /**
+     * Set the last captured image as a Mat. The Mat is copied, it remains owned by the caller. The 
+     * BufferedImage is only created when {@link #getLastCapturedImage()} is called. 
+     * 
+     * @param lastCapturedImage
+     */
+    public void setLastCapturedImage(Mat lastCapturedImage) {
+        if (lastCapturedMat == null) {
+            lastCapturedMat = new Mat();
+        }
+        // Only reallocates if the size or type changed.
+        lastCapturedImage.copyTo(lastCapturedMat);
+        this.lastCapturedImage = null;
+    }
+
+    private void releaseLastCapturedMat() {
+        if (lastCapturedMat != null) {
+            lastCapturedMat.release();
+            lastCapturedMat = null;
+        }
     }
 
     public abstract class PipelineShot {
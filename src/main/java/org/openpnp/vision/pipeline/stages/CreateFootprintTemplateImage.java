@@ -2,7 +2,9 @@ package org.openpnp.vision.pipeline.stages;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.util.List;
 
+import org.opencv.core.Mat;
 import org.openpnp.model.Footprint;
 import org.openpnp.model.Length;
 import org.openpnp.spi.Camera;
@@ -200,12 +202,22 @@ public class CreateFootprintTemplateImage extends CvStage {
             minimumMarginSize = 0;
         }
         
-        BufferedImage template = OpenCvUtils.createFootprintTemplate(camera, footprint, rotation,
-                xOffset, yOffset, maxWidth, maxHeight,
-                footprintView == FootprintView.TopView, 
-                padsColor, (footprintView == FootprintView.Fiducial ? null : bodyColor), backgroundColor, 
-                marginFactor, minimumMarginSize);
+        // Repeated alignments of the same part get the cached template.
+        List<Object> key = CvPipeline.createTemplateKey(getClass(), camera, camera.getUnitsPerPixelAtZ(), 
+                footprint.getUnits(), footprint.getBodyShape(), footprint.getPadsShape(), 
+                rotation, xOffset, yOffset, maxWidth, maxHeight, footprintView, 
+                padsColor, bodyColor, backgroundColor, marginFactor, minimumMarginSize);
+        Mat mat = pipeline.getCachedTemplate(key);
+        if (mat == null) {
+            BufferedImage template = OpenCvUtils.createFootprintTemplate(camera, footprint, rotation,
+                    xOffset, yOffset, maxWidth, maxHeight,
+                    footprintView == FootprintView.TopView, 
+                    padsColor, (footprintView == FootprintView.Fiducial ? null : bodyColor), backgroundColor, 
+                    marginFactor, minimumMarginSize);
+            mat = OpenCvUtils.toMat(template);
+            pipeline.putCachedTemplate(key, mat);
+        }
 
-        return new Result(OpenCvUtils.toMat(template), ColorSpace.Bgr);
+        return new Result(mat, ColorSpace.Bgr);
     }
 }
@@ -8,7 +8,9 @@ import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.List;
 
+import org.opencv.core.Mat;
 import org.openpnp.model.Length;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
@@ -66,6 +68,13 @@ public class CreateShapeTemplateImage extends CvStage {
 
         Location unitsPerPixel = camera.getUnitsPerPixelAtZ();
 
+        // Repeated alignments of the same part get the cached template.
+        List<Object> key = CvPipeline.createTemplateKey(getClass(), camera, unitsPerPixel, shape, oversize);
+        Mat mat = pipeline.getCachedTemplate(key);
+        if (mat != null) {
+            return new Result(mat, ColorSpace.Bgr);
+        }
+
         // Determine the scaling factor to go from Outline units to
         // Camera units.
         Length l = new Length(1, LengthUnit.Millimeters);
@@ -111,6 +120,8 @@ public class CreateShapeTemplateImage extends CvStage {
 
         g2d.dispose();
 
-        return new Result(OpenCvUtils.toMat(template), ColorSpace.Bgr);
+        mat = OpenCvUtils.toMat(template);
+        pipeline.putCachedTemplate(key, mat);
+        return new Result(mat, ColorSpace.Bgr);
     }
 }
@@ -1,10 +1,9 @@
 package org.openpnp.vision.pipeline.stages;
 
-import java.awt.image.BufferedImage;
-
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.openpnp.machine.reference.camera.AbstractSettlingCamera;
 import org.openpnp.spi.Actuator;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Camera.SettleOption;
@@ -99,11 +98,10 @@ public class ImageCapture extends CvStage {
             // Light, settle and capture the image. Keep the lights on for possible averaging.
             camera.actuateLightBeforeCapture((defaultLight ? null : getLight()));
             try {
-                BufferedImage bufferedImage = camera.settleAndCapture(settleOption); 
+                Mat image = settleAndCapture(camera); 
                 // Remember the last captured image. This specifically records the native camera image, 
                 // i.e. it does not apply averaging (we want an unaltered raw image for analysis purposes).
-                pipeline.setLastCapturedImage(bufferedImage);
-                Mat image = OpenCvUtils.toMat(bufferedImage);
+                pipeline.setLastCapturedImage(image);
                 if (count <= 1) { 
                     return new Result(image, ColorSpace.Bgr);
                 }
@@ -114,7 +112,7 @@ public class ImageCapture extends CvStage {
                     double beta = 1.0 / count;
                     Core.addWeighted(avgImage, 0, image, beta, 0, avgImage); // avgImage = image/count
                     for (int i = 1; i < count; i++) {
-                        image = OpenCvUtils.toMat(camera.capture());
+                        image = capture(camera);
                         image.convertTo(image, CvType.CV_64F);
                         Core.addWeighted(avgImage, 1, image, beta, 0, avgImage); // avgImage = avgImag + image/count
                         // Release the additional image.
@@ -135,6 +133,24 @@ public class ImageCapture extends CvStage {
         }
     }
 
+    /**
+     * Cameras that support it keep the image as a Mat from capture through transformation and settling, 
+     * avoiding BufferedImage round-trips. 
+     */
+    private Mat settleAndCapture(Camera camera) throws Exception {
+        if (camera instanceof AbstractSettlingCamera) {
+            return ((AbstractSettlingCamera) camera).settleAndCaptureMat(settleOption);
+        }
+        return OpenCvUtils.toMat(camera.settleAndCapture(settleOption));
+    }
+
+    private Mat capture(Camera camera) throws Exception {
+        if (camera instanceof AbstractSettlingCamera) {
+            return ((AbstractSettlingCamera) camera).captureMat();
+        }
+        return OpenCvUtils.toMat(camera.capture());
+    }
+
     @Override
     public void customizePropertySheet(PipelinePropertySheetTable table, CvPipeline pipeline) {
         super.customizePropertySheet(table, pipeline);
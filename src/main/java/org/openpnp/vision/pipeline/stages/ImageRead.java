@@ -1,13 +1,11 @@
 package org.openpnp.vision.pipeline.stages;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 
 import org.opencv.core.Mat;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.openpnp.spi.Camera;
 import org.openpnp.util.ImageUtils;
-import org.openpnp.util.OpenCvUtils;
 import org.openpnp.vision.FluentCv.ColorSpace;
 import org.openpnp.vision.pipeline.CvPipeline;
 import org.openpnp.vision.pipeline.CvStage;
@@ -73,8 +71,7 @@ public class ImageRead extends CvStage {
             Camera camera  = (Camera) pipeline.getProperty("camera");
             image = ImageUtils.emulateCameraCapture(camera, file);
             // Register as captured.
-            BufferedImage bufferedImage = OpenCvUtils.toBufferedImage(image);
-            pipeline.setLastCapturedImage(bufferedImage);
+            pipeline.setLastCapturedImage(image);
         }
         else  {
             image = Imgcodecs.imread(file.getAbsolutePath());
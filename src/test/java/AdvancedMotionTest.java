@@ -19,17 +19,42 @@
  * For more information about OpenPnP visit http://openpnp.org
  */
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.jupiter.api.Test;
+import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.ReferenceActuator;
+import org.openpnp.machine.reference.ReferenceMachine;
+import org.openpnp.machine.reference.driver.AbstractMotionPlanner;
+import org.openpnp.machine.reference.driver.GcodeDriver;
+import org.openpnp.machine.reference.driver.GcodeDriver.CommandType;
 import org.openpnp.model.AbstractMotionPath;
+import org.openpnp.model.AxesLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Motion;
 import org.openpnp.model.MotionProfile;
 import org.openpnp.model.MotionProfile.ErrorState;
 import org.openpnp.model.MotionProfile.ProfileOption;
+import org.openpnp.model.MotionProfileCache;
+import org.openpnp.spi.Axis;
 import org.openpnp.spi.Driver.MotionControlType;
+import org.openpnp.spi.HeadMountable;
+import org.openpnp.spi.MotionPlanner.CompletionType;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.spi.base.AbstractActuator.ActuatorCoordinationEnumType;
+import org.openpnp.spi.base.AbstractControllerAxis;
 import org.openpnp.util.NanosecondTime;
 
+import com.google.common.io.Files;
+
 public class AdvancedMotionTest {
 
     @Test 
@@ -241,6 +266,82 @@ public class AdvancedMotionTest {
         }
     }
 
+    @Test
+    public void testMotionProfileCache() throws Exception {
+        MotionProfileCache cache = new MotionProfileCache(64);
+        Random random = new Random(1);
+        double [][] moves = new double[32][];
+        for (int i = 0; i < moves.length; i++) {
+            double jerk = new double [] { 0, 15000, 90000 }[random.nextInt(3)];
+            moves[i] = new double [] { 
+                    random.nextDouble()*400 - 200,          // displacement
+                    random.nextInt(3) == 0 ? 0 : random.nextDouble()*200 - 100, // entry velocity
+                    random.nextInt(2) == 0 ? 0 : random.nextDouble()*100,       // exit velocity
+                    jerk == 0 ? 0 : random.nextDouble()*1000 - 500,             // entry acceleration
+                    jerk,
+                    random.nextInt(4) == 0 ? random.nextDouble() : 0,           // tMin
+                    random.nextInt(3) == 0 ? ProfileOption.SimplifiedSCurve.flag() : 0 };
+        }
+        for (int k = 0; k < 2000; k++) {
+            double [] move = moves[random.nextInt(moves.length)];
+            double s0 = random.nextDouble()*300;
+            MotionProfile profile = new MotionProfile(
+                    s0, s0 + move[0], move[1], move[2], move[3], 0,
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 
+                    700, 2000, 2000, move[4], move[5], Double.POSITIVE_INFINITY, (int) move[6]);
+            MotionProfile expected = new MotionProfile(profile);
+            try (MotionProfileCache.Scope scope = cache.activate()) {
+                profile.solve();
+            }
+            expected.solve();
+            if (profile.getOptions() != expected.getOptions()
+                    || profile.getLocation(0) != expected.getLocation(0)
+                    || profile.getLocation(MotionProfile.segments) != expected.getLocation(MotionProfile.segments)
+                    || Math.abs(profile.getTime() - expected.getTime()) > 1e-9) {
+                throw new Exception("Cached profile "+profile+" differs from "+expected);
+            }
+            for (int seg = 0; seg <= MotionProfile.segments; seg++) {
+                if (Math.abs(profile.getLocation(seg) - expected.getLocation(seg)) > 1e-6
+                        || Math.abs(profile.getVelocity(seg) - expected.getVelocity(seg)) > 1e-6
+                        || Math.abs(profile.getAcceleration(seg) - expected.getAcceleration(seg)) > 1e-6
+                        || Math.abs(profile.getJerk(seg) - expected.getJerk(seg)) > 1e-6) {
+                    throw new Exception("Cached profile "+profile+" differs from "+expected);
+                }
+            }
+        }
+        if (cache.getMisses() != moves.length || cache.getRejections() != 0) {
+            throw new Exception("Unexpected cache statistics "+cache);
+        }
+        // Outside the scope, the cache is not used.
+        new MotionProfile(0, 100, 0, 0, 0, 0, 
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 
+                700, 2000, 2000, 15000, 0, Double.POSITIVE_INFINITY, 0).solve();
+        if (cache.getHits() + cache.getMisses() != 2000) {
+            throw new Exception("Cache used outside scope "+cache);
+        }
+        // Inputs that only differ below the key quantization are rejected by the exactness guard.
+        double [][] limits = { 
+                { 700, 2000, 2000, 15000, 0 },
+                { 700 + 1e-11, 2000, 2000, 15000, 0 },
+                { 700, 2000 + 1e-11, 2000, 15000, 0 },
+                { 700, 2000, 2000 - 1e-11, 15000, 0 },
+                { 700, 2000, 2000, 15000 + 1e-11, 0 },
+                { 700, 2000, 2000, 15000, 1e-11 },
+        };
+        cache.clear();
+        for (double [] limit : limits) {
+            MotionProfile profile = new MotionProfile(0, 100, 0, 0, 0, 0, 
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 
+                    limit[0], limit[1], limit[2], limit[3], limit[4], Double.POSITIVE_INFINITY, 0);
+            try (MotionProfileCache.Scope scope = cache.activate()) {
+                profile.solve();
+            }
+        }
+        if (cache.getMisses() != 1 || cache.getRejections() != limits.length - 1 || cache.getHits() != 0) {
+            throw new Exception("Unexpected cache statistics "+cache);
+        }
+    }
+
     private class PlannerPath extends AbstractMotionPath {
         private final List<MotionProfile []> path = new ArrayList<>();
         private final double jerk;
@@ -460,4 +561,292 @@ public class AdvancedMotionTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A GcodeDriver that records the commands it sends, and the threads it sends them from, instead of talking 
+     * to a controller. 
+     */
+    static class RecordingDriver extends GcodeDriver {
+        final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public synchronized void connect() throws Exception {
+            connected = true;
+        }
+
+        @Override
+        public synchronized void disconnect() {
+            connected = false;
+        }
+
+        @Override
+        public void sendCommand(String command, long timeout) throws Exception {
+            if (command != null) {
+                commands.add(command);
+                threads.add(Thread.currentThread());
+            }
+        }
+
+        List<String> getCommands() {
+            synchronized (commands) {
+                return new ArrayList<>(commands);
+            }
+        }
+    }
+
+    /**
+     * A motion planner that does not wait after each move, so moves are pipelined. Planning takes a while, 
+     * to give any race a chance. Optionally, planning on the planning thread waits for the caller to record 
+     * another move, which it can only do if recording is not blocked by planning.
+     */
+    static class PipelinedPlanner extends AbstractMotionPlanner {
+        volatile int plannedCount = 0;
+        volatile int pipelinedCount = 0;
+        volatile int overlappedCount = 0;
+        volatile boolean awaitingRecording = false;
+        private final Object recordingLock = new Object();
+        private int recordedCount = 0;
+
+        @Override
+        protected Motion addMotion(HeadMountable hm, double speed, AxesLocation location0,
+                AxesLocation location1, int options) {
+            Motion motion = super.addMotion(hm, speed, location0, location1, options);
+            synchronized (recordingLock) {
+                recordedCount++;
+                recordingLock.notifyAll();
+            }
+            return motion;
+        }
+
+        @Override
+        protected void optimizeExecutionPlan(List<Motion> executionPlan, CompletionType completionType)
+                throws Exception {
+            plannedCount += executionPlan.size();
+            if (!Thread.holdsLock(this)) {
+                // Planning on the planning thread.
+                pipelinedCount++;
+                if (awaitingRecording) {
+                    synchronized (recordingLock) {
+                        int recordedCount0 = recordedCount;
+                        long t1 = System.currentTimeMillis() + 2000;
+                        while (recordedCount == recordedCount0 && System.currentTimeMillis() < t1) {
+                            recordingLock.wait(100);
+                        }
+                        if (recordedCount != recordedCount0) {
+                            overlappedCount++;
+                        }
+                    }
+                }
+            }
+            Thread.sleep(5);
+        }
+
+        @Override
+        public Wizard getConfigurationWizard() {
+            return null;
+        }
+
+        @Override
+        public double getMinimumSpeed() {
+            return 0.05;
+        }
+    }
+
+    private static final Pattern moveX = Pattern.compile("G0 .*X(-?\\d+\\.\\d+)");
+
+    private RecordingDriver driver;
+    private PipelinedPlanner planner;
+    private ReferenceActuator actuator;
+
+    private ReferenceMachine createPipelinedMachine() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        ReferenceMachine machine = (ReferenceMachine) Configuration.get().getMachine();
+        driver = new RecordingDriver();
+        driver.createDefaultCommands();
+        while (machine.getDrivers().size() > 0) {
+            machine.removeDriver(machine.getDrivers().get(0));
+        }
+        machine.addDriver(driver);
+        for (Axis axis : machine.getAxes()) {
+            if (axis instanceof AbstractControllerAxis) {
+                AbstractControllerAxis controllerAxis = (AbstractControllerAxis) axis;
+                controllerAxis.setDriver(driver);
+                switch (axis.getType()) {
+                    case X: controllerAxis.setLetter("X"); break;
+                    case Y: controllerAxis.setLetter("Y"); break;
+                    case Z: controllerAxis.setLetter("Z"); break;
+                    case Rotation: controllerAxis.setLetter("A"); break;
+                }
+            }
+        }
+        actuator = new ReferenceActuator();
+        actuator.setName("A2");
+        actuator.setDriver(driver);
+        machine.addActuator(actuator);
+        driver.setCommand(actuator, CommandType.ACTUATE_BOOLEAN_COMMAND, "ACTUATE A2 {True:ON}{False:OFF}");
+
+        planner = new PipelinedPlanner();
+        planner.setPlanningLookAhead(2);
+        machine.setMotionPlanner(planner);
+
+        machine.setEnabled(true);
+        machine.home();
+        return machine;
+    }
+
+    private static void moveZigZag(Nozzle nozzle, int x0, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            nozzle.moveTo(new Location(LengthUnit.Millimeters, x0 + 10*i, (i % 2)*10, 0, 0));
+        }
+    }
+
+    /**
+     * @return The X coordinates of the recorded moves, in the order they were sent.
+     */
+    private static List<Double> getMovesX(List<String> commands) {
+        List<Double> xs = new ArrayList<>();
+        for (String command : commands) {
+            Matcher matcher = moveX.matcher(command);
+            if (matcher.find()) {
+                xs.add(Double.valueOf(matcher.group(1)));
+            }
+        }
+        return xs;
+    }
+
+    private static void assertMovesInOrder(List<Double> xs, double ... expected) throws Exception {
+        if (xs.size() != expected.length) {
+            throw new Exception("Expected "+expected.length+" moves, got "+xs);
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (Math.abs(xs.get(i) - expected[i]) > 1e-4) {
+                throw new Exception("Move "+i+" out of order, got "+xs);
+            }
+        }
+    }
+
+    private void assertPipelinedOnTaskThread(ReferenceMachine machine, Thread taskThread) throws Exception {
+        if (planner.plannedCount == 0) {
+            throw new Exception("Nothing was planned.");
+        }
+        if (planner.pipelinedCount == 0) {
+            throw new Exception("Nothing was planned on the planning thread.");
+        }
+        synchronized (driver.threads) {
+            for (Thread thread : driver.threads) {
+                if (thread != taskThread) {
+                    throw new Exception("Command sent from "+thread.getName()+" instead of the machine task thread.");
+                }
+            }
+        }
+        machine.setEnabled(false);
+        // The planning thread is stopped when the machine is disabled.
+        double t0 = NanosecondTime.getRuntimeSeconds();
+        while (isPlanningThreadAlive()) {
+            if (NanosecondTime.getRuntimeSeconds() - t0 > 5) {
+                throw new Exception("Planning thread still alive after the machine was disabled.");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static boolean isPlanningThreadAlive() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().equals("MotionPlanner planning")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pipelined moves, then a coordinated actuation: all the moves must be sent in order, before the actuation. 
+     */
+    @Test
+    public void testPipelinedCoordinatedActuate() throws Exception {
+        ReferenceMachine machine = createPipelinedMachine();
+        Nozzle nozzle = machine.getDefaultHead().getDefaultNozzle();
+        actuator.setCoordinatedBeforeActuateEnum(ActuatorCoordinationEnumType.WaitForStillstand);
+        driver.commands.clear();
+        driver.threads.clear();
+        Thread taskThread = machine.execute(() -> {
+            moveZigZag(nozzle, 10, 8);
+            actuator.actuate(true);
+            return Thread.currentThread();
+        });
+        List<String> commands = driver.getCommands();
+        assertMovesInOrder(getMovesX(commands), 10, 20, 30, 40, 50, 60, 70, 80);
+        int actuation = commands.indexOf("ACTUATE A2 ON");
+        if (actuation < 0) {
+            throw new Exception("Actuation not sent "+commands);
+        }
+        if (getMovesX(commands.subList(actuation, commands.size())).size() != 0) {
+            throw new Exception("Moves sent after the coordinated actuation "+commands);
+        }
+        assertPipelinedOnTaskThread(machine, taskThread);
+    }
+
+    /**
+     * Pipelined moves, then an uncoordinated actuation, then more moves: the actuation must be sent right 
+     * away, i.e. before any of the moves that are still pending, and no pipelined move may be sent in between. 
+     * The moves recorded after the actuation must follow it. 
+     */
+    @Test
+    public void testPipelinedUncoordinatedActuate() throws Exception {
+        ReferenceMachine machine = createPipelinedMachine();
+        Nozzle nozzle = machine.getDefaultHead().getDefaultNozzle();
+        actuator.setCoordinatedBeforeActuateEnum(ActuatorCoordinationEnumType.None);
+        driver.commands.clear();
+        driver.threads.clear();
+        int [] countBeforeActuate = new int[1];
+        Thread taskThread = machine.execute(() -> {
+            moveZigZag(nozzle, 10, 8);
+            // Give a racing thread the chance to send.
+            Thread.sleep(50);
+            countBeforeActuate[0] = driver.commands.size();
+            actuator.actuate(true);
+            moveZigZag(nozzle, 110, 4);
+            machine.getMotionPlanner().waitForCompletion(null, CompletionType.WaitForStillstand);
+            return Thread.currentThread();
+        });
+        List<String> commands = driver.getCommands();
+        assertMovesInOrder(getMovesX(commands), 10, 20, 30, 40, 50, 60, 70, 80, 110, 120, 130, 140);
+        int actuation = commands.indexOf("ACTUATE A2 ON");
+        if (actuation != countBeforeActuate[0]) {
+            throw new Exception("Actuation sent at "+actuation+" instead of "+countBeforeActuate[0]+" "+commands);
+        }
+        List<Double> xsAfter = getMovesX(commands.subList(actuation, commands.size()));
+        if (xsAfter.size() < 4 || Math.abs(xsAfter.get(xsAfter.size() - 4) - 110) > 1e-4) {
+            throw new Exception("Moves recorded after the actuation were sent before it "+commands);
+        }
+        assertPipelinedOnTaskThread(machine, taskThread);
+    }
+
+    /**
+     * Planning on the planning thread waits for the caller to record another move. This only succeeds if 
+     * recording and planning actually overlap, i.e. if recording is not blocked by planning.
+     */
+    @Test
+    public void testPipelinedPlanningOverlapsRecording() throws Exception {
+        ReferenceMachine machine = createPipelinedMachine();
+        Nozzle nozzle = machine.getDefaultHead().getDefaultNozzle();
+        planner.awaitingRecording = true;
+        driver.commands.clear();
+        driver.threads.clear();
+        Thread taskThread = machine.execute(() -> {
+            moveZigZag(nozzle, 10, 8);
+            machine.getMotionPlanner().waitForCompletion(null, CompletionType.WaitForStillstand);
+            return Thread.currentThread();
+        });
+        assertMovesInOrder(getMovesX(driver.getCommands()), 10, 20, 30, 40, 50, 60, 70, 80);
+        if (planner.overlappedCount == 0) {
+            throw new Exception("Recording never overlapped planning.");
+        }
+        assertPipelinedOnTaskThread(machine, taskThread);
+    }
+}
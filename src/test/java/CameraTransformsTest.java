@@ -0,0 +1,308 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.camera.ReferenceCamera;
+import org.openpnp.machine.reference.camera.calibration.AdvancedCalibration;
+import org.openpnp.machine.reference.camera.calibration.LensCalibrationParams;
+import org.openpnp.model.Configuration;
+import org.openpnp.spi.Camera.SettleOption;
+import org.openpnp.spi.PropertySheetHolder;
+import org.openpnp.util.NanosecondTime;
+import org.openpnp.util.OpenCvUtils;
+
+import com.google.common.io.Files;
+
+public class CameraTransformsTest {
+    /**
+     * A camera that captures a fixed source image.
+     */
+    static class TestCamera extends ReferenceCamera {
+        private Mat source;
+
+        TestCamera(Mat source) {
+            this.source = source;
+        }
+
+        @Override
+        protected synchronized boolean ensureOpen() {
+            return true;
+        }
+
+        @Override
+        protected BufferedImage internalCapture() {
+            return OpenCvUtils.toBufferedImage(source);
+        }
+
+        @Override
+        protected Mat internalCaptureMat() {
+            return source.clone();
+        }
+
+        @Override
+        public Wizard getConfigurationWizard() {
+            return null;
+        }
+
+        @Override
+        public String getPropertySheetHolderTitle() {
+            return null;
+        }
+
+        @Override
+        public PropertySheetHolder[] getChildPropertySheetHolders() {
+            return null;
+        }
+    }
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+    }
+
+    /**
+     * @return A smooth random pattern, so interpolation differences stay small.
+     */
+    private static Mat createSource(int width, int height) {
+        Mat source = new Mat(height, width, CvType.CV_8UC3);
+        Core.randu(source, 0, 256);
+        Imgproc.GaussianBlur(source, source, new Size(0, 0), 4);
+        return source;
+    }
+
+    private static TestCamera createCamera(Mat source) {
+        int width = source.cols();
+        int height = source.rows();
+        TestCamera camera = new TestCamera(source);
+        LensCalibrationParams calibration = camera.getCalibration();
+        Mat cameraMatrix = Mat.zeros(3, 3, CvType.CV_64FC1);
+        cameraMatrix.put(0, 0,
+                0.8*width, 0, width/2.0,
+                0, 0.8*width, height/2.0,
+                0, 0, 1);
+        Mat distortionCoefficients = new Mat(1, 5, CvType.CV_64FC1);
+        distortionCoefficients.put(0, 0, -0.1, 0.02, 0, 0, 0);
+        calibration.setCameraMatrixMat(cameraMatrix);
+        calibration.setDistortionCoefficientsMat(distortionCoefficients);
+        cameraMatrix.release();
+        distortionCoefficients.release();
+        camera.setUndistorted(true);
+        camera.setRotation(1.5);
+        camera.setScaleWidth(width*3/4);
+        camera.setScaleHeight(height*3/4);
+        camera.setOffsetX(7);
+        camera.setOffsetY(-5);
+        camera.setFlipY(true);
+        return camera;
+    }
+
+    /**
+     * Compare the fused against the step by step transformations, pixel by pixel. Only the interior is 
+     * compared, pixels along the image borders are interpolated differently.
+     * 
+     * @param tolerance The maximum difference of any pixel and channel. 
+     */
+    private static void assertFusedMatchesChained(TestCamera camera, double tolerance) {
+        camera.setFusedTransforms(true);
+        Mat fused = camera.captureTransformedMat();
+        camera.setFusedTransforms(false);
+        Mat chained = camera.captureTransformedMat();
+        assertEquals(chained.size(), fused.size());
+        assertEquals(chained.type(), fused.type());
+        int mx = chained.cols()/10;
+        int my = chained.rows()/10;
+        Rect interior = new Rect(mx, my, chained.cols() - 2*mx, chained.rows() - 2*my);
+        Mat difference = new Mat();
+        Core.absdiff(new Mat(fused, interior), new Mat(chained, interior), difference);
+        double maxDifference = Core.minMaxLoc(difference.reshape(1)).maxVal;
+        assertTrue(maxDifference <= tolerance, "max difference "+maxDifference);
+        difference.release();
+        fused.release();
+        chained.release();
+    }
+
+    /**
+     * With undistortion off, scale, rotate, offset and flip are fused into one warpAffine(), composed by 
+     * getAffineTransform(). Each resampling step of the chain rounds to 8 bits, hence the tolerance.
+     */
+    @Test
+    public void testAffineFusedAgainstChained() throws Exception {
+        Mat source = createSource(640, 480);
+        TestCamera camera = createCamera(source);
+        camera.setUndistorted(false);
+        // Scale, rotate, offset and flip.
+        assertFusedMatchesChained(camera, 2);
+        // Rotate only.
+        camera.setScaleWidth(0);
+        camera.setScaleHeight(0);
+        camera.setOffsetX(0);
+        camera.setOffsetY(0);
+        camera.setFlipY(false);
+        assertFusedMatchesChained(camera, 1);
+        // Scale only.
+        camera.setRotation(0);
+        camera.setScaleWidth(800);
+        camera.setScaleHeight(600);
+        assertFusedMatchesChained(camera, 1);
+        // Whole pixel offset and flip, i.e. no interpolation at all.
+        camera.setScaleWidth(0);
+        camera.setScaleHeight(0);
+        camera.setOffsetX(7);
+        camera.setOffsetY(-5);
+        camera.setFlipX(true);
+        assertFusedMatchesChained(camera, 0);
+        source.release();
+    }
+
+    /**
+     * With undistortion on, undistortion and the affine transformations are fused into one remap() through 
+     * the precomputed table. Each resampling step of the chain rounds to 8 bits, hence the tolerance.
+     */
+    @Test
+    public void testFusedAgainstChained() throws Exception {
+        Mat source = createSource(640, 480);
+        TestCamera camera = createCamera(source);
+        // Undistort, scale, rotate, offset and flip.
+        assertFusedMatchesChained(camera, 3);
+        // Undistort, rotate and offset.
+        camera.setScaleWidth(0);
+        camera.setScaleHeight(0);
+        camera.setFlipY(false);
+        assertFusedMatchesChained(camera, 2);
+        // Undistort only.
+        camera.setRotation(0);
+        camera.setOffsetX(0);
+        camera.setOffsetY(0);
+        assertFusedMatchesChained(camera, 1);
+        // Rotate and offset without undistortion.
+        camera.setUndistorted(false);
+        camera.setRotation(1.5);
+        camera.setOffsetX(7);
+        camera.setOffsetY(-5);
+        assertFusedMatchesChained(camera, 2);
+        source.release();
+    }
+
+    /**
+     * With the advanced calibration, crop, white balance and undistortion are fused into one remap() through 
+     * the precomputed table. The chain also resamples only once, with the same maps. 
+     */
+    @Test
+    public void testAdvancedFusedAgainstChained() throws Exception {
+        Mat source = createSource(640, 480);
+        TestCamera camera = createCamera(source);
+        camera.setUndistorted(false);
+        camera.setCropWidth(600);
+        camera.setCropHeight(440);
+        AdvancedCalibration advancedCalibration = camera.getAdvancedCalibration();
+        Mat cameraMatrix = Mat.zeros(3, 3, CvType.CV_64FC1);
+        cameraMatrix.put(0, 0,
+                500, 0, 300,
+                0, 500, 220,
+                0, 0, 1);
+        Mat distortionCoefficients = new Mat(1, 5, CvType.CV_64FC1);
+        distortionCoefficients.put(0, 0, -0.1, 0.02, 0.001, -0.001, 0);
+        Mat principalPoint = new Mat(3, 1, CvType.CV_64FC1);
+        principalPoint.put(0, 0, 0, 0, 1);
+        advancedCalibration.setCameraMatrixMat(cameraMatrix);
+        advancedCalibration.setDistortionCoefficientsMat(distortionCoefficients);
+        advancedCalibration.setVectorFromPhyCamToDesiredPrincipalPointInPhyCamRefFrame(principalPoint);
+        advancedCalibration.setRawCroppedImageWidth(600);
+        advancedCalibration.setRawCroppedImageHeight(440);
+        advancedCalibration.setOverridingOldTransformsAndDistortionCorrectionSettings(true);
+        advancedCalibration.setEnabled(true);
+        cameraMatrix.release();
+        distortionCoefficients.release();
+        assertFusedMatchesChained(camera, 1);
+        source.release();
+    }
+
+    /**
+     * captureMat() keeps the image in a Mat from capture through the transformations, capture() converts 
+     * to and from BufferedImage. Both must give the same pixels, as settleAndCapture() is based on 
+     * settleAndCaptureMat().
+     */
+    @Test
+    public void testCaptureMatAgainstCapture() throws Exception {
+        Mat source = createSource(640, 480);
+        TestCamera camera = createCamera(source);
+        camera.setFusedTransforms(true);
+        assertCaptureMatMatchesCapture(camera);
+        camera.setFusedTransforms(false);
+        assertCaptureMatMatchesCapture(camera);
+        // No transformations.
+        camera.setUndistorted(false);
+        camera.setRotation(0);
+        camera.setScaleWidth(0);
+        camera.setScaleHeight(0);
+        camera.setOffsetX(0);
+        camera.setOffsetY(0);
+        camera.setFlipY(false);
+        assertCaptureMatMatchesCapture(camera);
+        source.release();
+    }
+
+    private static void assertCaptureMatMatchesCapture(TestCamera camera) throws Exception {
+        Mat image = OpenCvUtils.toMat(camera.capture());
+        Mat settledImage = OpenCvUtils.toMat(camera.settleAndCapture(SettleOption.Skip));
+        Mat mat = camera.captureMat();
+        for (Mat other : new Mat [] { settledImage, mat }) {
+            assertEquals(image.size(), other.size());
+            assertEquals(image.type(), other.type());
+            Mat difference = new Mat();
+            Core.absdiff(image, other, difference);
+            assertEquals(0, Core.countNonZero(difference.reshape(1)));
+            difference.release();
+            other.release();
+        }
+        image.release();
+    }
+
+    /**
+     * Time the fused against the step by step transformations at typical camera resolutions. The fused 
+     * path must not be slower. Timing depends on the machine, therefore it only runs with 
+     * -Dopenpnp.benchmarks=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "openpnp.benchmarks", matches = "true")
+    public void testPerformance() throws Exception {
+        final int frames = 20;
+        for (Size size : new Size [] { new Size(640, 480), new Size(1280, 960), new Size(2592, 1944) }) {
+            Mat source = createSource((int) size.width, (int) size.height);
+            TestCamera camera = createCamera(source);
+            double [] ms = new double[2];
+            for (int fused = 0; fused < 2; fused++) {
+                camera.setFusedTransforms(fused == 1);
+                // Warm up, i.e. create the tables and fill the buffer pool.
+                for (int i = 0; i < 3; i++) {
+                    camera.captureTransformedMat().release();
+                }
+                double t0 = NanosecondTime.getRuntimeSeconds();
+                for (int i = 0; i < frames; i++) {
+                    camera.captureTransformedMat().release();
+                }
+                ms[fused] = (NanosecondTime.getRuntimeSeconds() - t0)*1000/frames;
+            }
+            System.out.println(String.format("Camera transforms %dx%d: chained %.2fms, fused %.2fms per frame",
+                    (int) size.width, (int) size.height, ms[0], ms[1]));
+            assertTrue(ms[1] <= ms[0], String.format("fused %.2fms is slower than chained %.2fms at %dx%d", 
+                    ms[1], ms[0], (int) size.width, (int) size.height));
+            source.release();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.stages.BlurGaussian;
+import org.openpnp.vision.pipeline.stages.ImageRecall;
+
+public class CvPipelineRetentionTest {
+    static class SourceStage extends CvStage {
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            return new Result(new Mat(480, 640, CvType.CV_8UC3, new Scalar(10, 20, 30)));
+        }
+    }
+
+    private static CvPipeline createPipeline() {
+        CvPipeline pipeline = new CvPipeline();
+        pipeline.add("source", new SourceStage());
+        pipeline.add("blur1", new BlurGaussian());
+        pipeline.add("blur2", new BlurGaussian());
+        ImageRecall recall = new ImageRecall();
+        recall.setImageStageName("source");
+        pipeline.add("recall", recall);
+        pipeline.add("blur3", new BlurGaussian());
+        return pipeline;
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        try (CvPipeline pipeline = createPipeline()) {
+            assertEquals(1, pipeline.getReferencedStageNames().size());
+            assertTrue(pipeline.getReferencedStageNames().contains("source"));
+
+            // Full retention, as in the editor.
+            pipeline.process();
+            for (CvStage stage : pipeline.getStages()) {
+                assertNotNull(pipeline.getResult(stage).image, stage.getName());
+            }
+            long fullBytes = pipeline.getRetainedImageBytes();
+            assertEquals(5*640*480*3, fullBytes);
+
+            // Only the referenced stage retains its image.
+            pipeline.process(false);
+            assertNotNull(pipeline.getResult("source").image);
+            assertNull(pipeline.getResult("blur1").image);
+            assertNull(pipeline.getResult("blur2").image);
+            assertNull(pipeline.getResult("recall").image);
+            assertNull(pipeline.getResult("blur3").image);
+            assertNotNull(pipeline.getResult("blur3"));
+            assertEquals(640*480*3, pipeline.getRetainedImageBytes());
+            assertEquals(640, pipeline.getWorkingImage().cols());
+            assertEquals(480, pipeline.getWorkingImage().rows());
+        }
+    }
+
+    /**
+     * The retention only applies to one run. An editor opened on the same settings pipeline after a 
+     * production run must still see all the images.
+     */
+    @Test
+    public void testRetentionScopedToRun() throws Exception {
+        try (CvPipeline pipeline = createPipeline()) {
+            // Production run.
+            pipeline.process(false);
+            assertNull(pipeline.getResult("blur3").image);
+            assertEquals(640*480*3, pipeline.getRetainedImageBytes());
+
+            // Editor run, full retention.
+            pipeline.process();
+            for (CvStage stage : pipeline.getStages()) {
+                assertNotNull(pipeline.getResult(stage).image, stage.getName());
+            }
+            assertEquals(5*640*480*3, pipeline.getRetainedImageBytes());
+
+            // And production again.
+            pipeline.process(false);
+            assertNull(pipeline.getResult("blur1").image);
+            assertEquals(640*480*3, pipeline.getRetainedImageBytes());
+        }
+    }
+}
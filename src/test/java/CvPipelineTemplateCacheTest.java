@@ -0,0 +1,64 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.openpnp.model.Configuration;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.stages.CreateShapeTemplateImage;
+
+import com.google.common.io.Files;
+
+public class CvPipelineTemplateCacheTest {
+    @Test
+    public void testTemplateKey() {
+        assertEquals(CvPipeline.createTemplateKey("a", new Rectangle2D.Double(0, 0, 1, 2), 1.5),
+                CvPipeline.createTemplateKey("a", new Rectangle2D.Double(0, 0, 1, 2), 1.5));
+        assertNotEquals(CvPipeline.createTemplateKey("a", new Rectangle2D.Double(0, 0, 1, 2), 1.5),
+                CvPipeline.createTemplateKey("a", new Rectangle2D.Double(0, 0, 1, 3), 1.5));
+        assertNotEquals(CvPipeline.createTemplateKey("a", new Rectangle2D.Double(0, 0, 1, 2), 1.5),
+                CvPipeline.createTemplateKey("a", new Rectangle2D.Double(0, 0, 1, 2), 2.0));
+    }
+
+    @Test
+    public void testShapeTemplateCache() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        try (CvPipeline pipeline = new CvPipeline()) {
+            CreateShapeTemplateImage stage = new CreateShapeTemplateImage();
+            stage.setTemplateShapeName("template");
+            pipeline.add("template", stage);
+            pipeline.setProperty("camera", new VisionUtilsTest.TestCamera());
+            pipeline.setProperty("template", new Rectangle2D.Double(-10, -5, 20, 10));
+
+            pipeline.process();
+            Mat first = pipeline.getWorkingImage().clone();
+            assertEquals(1, pipeline.getCachedTemplatesCount());
+
+            // Same inputs, the template comes from the cache.
+            pipeline.process();
+            assertEquals(1, pipeline.getCachedTemplatesCount());
+            Mat difference = new Mat();
+            Core.absdiff(first, pipeline.getWorkingImage(), difference);
+            assertEquals(0, Core.countNonZero(difference.reshape(1)));
+
+            // A different shape renders a new template.
+            pipeline.setProperty("template", new Ellipse2D.Double(-10, -5, 20, 10));
+            pipeline.process();
+            assertEquals(2, pipeline.getCachedTemplatesCount());
+
+            pipeline.clearTemplateCache();
+            assertEquals(0, pipeline.getCachedTemplatesCount());
+            difference.release();
+            first.release();
+        }
+    }
+}
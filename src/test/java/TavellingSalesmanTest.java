@@ -20,6 +20,8 @@
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 
@@ -29,6 +31,8 @@ import org.openpnp.model.Configuration;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.model.Length;
+import org.openpnp.util.RouteOptimizer;
+import org.openpnp.util.TravelCost;
 import org.openpnp.util.TravellingSalesman;
 import org.openpnp.machine.reference.axis.ReferenceControllerAxis;
 import org.openpnp.machine.reference.solutions.HeadSolutions;
@@ -68,49 +72,129 @@ public class TavellingSalesmanTest {
         test("C",new Length(3000, LengthUnit.Millimeters), new Length(3000, LengthUnit.Millimeters), new double [] { 2870, 5000, 11500 });
     }
 
-    public void test(String name,Length xacceleration, Length yacceleration, double targets[]) throws Exception {
-        File workingDirectory = Files.createTempDir();
-        workingDirectory = new File(workingDirectory, ".openpnp");
-        System.out.println("Configuration directory: " + workingDirectory);
+    /**
+     * Benchmark the parallel chains on a panel sized problem (2008 locations). More chains must find an 
+     * equal or better route, the same one for the same seed, and the time budget must stop the solver, 
+     * give or take a generous margin. 
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testTravellingSalesmanParallelChains() throws Exception {
+        loadMachine(new Length(3000, LengthUnit.Millimeters), new Length(500, LengthUnit.Millimeters));
+        List<Location> list = createLocations(new Random(42), 333);
+        final int chains = 4;
 
-        // Copy the required configuration files over to the new configuration
-        // directory.
-        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/machine.xml"),
-                new File(workingDirectory, "machine.xml"));
-        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/packages.xml"),
-                new File(workingDirectory, "packages.xml"));
-        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/parts.xml"),
-                new File(workingDirectory, "parts.xml"));
+        TravellingSalesman<Location> single = createSolver(list);
+        double singleCost = single.solve(1, 0);
+        TravellingSalesman<Location> parallel = createSolver(list);
+        double parallelCost = parallel.solve(chains, 0);
+        System.out.println("TavellingSalesmanTest.testTravellingSalesmanParallelChains() "+list.size()+" locations, "
+                +Runtime.getRuntime().availableProcessors()+" processors, 1 chain: "+singleCost+"sec, "+single.getSolverDuration()+"ms, "
+                +chains+" chains: "+parallelCost+"sec, "+parallel.getSolverDuration()+"ms");
+        if (parallelCost > singleCost) {
+            throw new Exception(chains+" chains cost "+parallelCost+" is worse than 1 chain cost "+singleCost);
+        }
 
-        Configuration.initialize(workingDirectory);
-        Configuration.get().load();
+        // Same seed and number of chains, same route.
+        List<Location> smallList = createLocations(new Random(43), 30);
+        TravellingSalesman<Location> first = createSolver(smallList);
+        first.setSeed(7);
+        first.solve(chains, 0);
+        TravellingSalesman<Location> second = createSolver(smallList);
+        second.setSeed(7);
+        second.solve(chains, 0);
+        if (!first.getTravel().equals(second.getTravel())) {
+            throw new Exception("Solver is not deterministic for a fixed seed and number of chains.");
+        }
 
-        // configure the machine with the right acceleration for this test
-        Machine machine = Configuration.get().getMachine();
-        HeadMountable hm = machine.getDefaultHead().getDefaultCamera();
-        CoordinateAxis rawAxisX = HeadSolutions.getRawAxis(machine, hm.getAxisX());
-        CoordinateAxis rawAxisY = HeadSolutions.getRawAxis(machine, hm.getAxisY());
-        ReferenceControllerAxis referenceControllerAxisX = (ReferenceControllerAxis)rawAxisX;
-        ReferenceControllerAxis referenceControllerAxisY = (ReferenceControllerAxis)rawAxisY;
-        referenceControllerAxisX.setAccelerationPerSecond2(xacceleration);
-        referenceControllerAxisY.setAccelerationPerSecond2(yacceleration);
+        // Time budget.
+        final long timeBudget = 200;
+        TravellingSalesman<Location> budgeted = createSolver(list);
+        double budgetedCost = budgeted.solve(chains, timeBudget);
+        System.out.println("TavellingSalesmanTest.testTravellingSalesmanParallelChains() "+timeBudget+"ms budget: "
+                +budgetedCost+"sec, "+budgeted.getSolverDuration()+"ms");
+        // The chains check the deadline between steps, allow a generous margin for slow build machines.
+        final long timeMargin = 5000;
+        if (budgeted.getSolverDuration() > timeBudget + timeMargin) {
+            throw new Exception("Time budget "+timeBudget+"ms not respected, took "+budgeted.getSolverDuration()+"ms");
+        }
+        // The chains are deterministic, stopping them early can not find a better route.
+        if (budgetedCost < parallelCost - 1e-6) {
+            throw new Exception("Time budgeted cost "+budgetedCost+" is better than unlimited cost "+parallelCost);
+        }
+        if (budgeted.getTravel().size() != list.size()) {
+            throw new Exception("Time budgeted route is incomplete.");
+        }
+    }
 
-        for (int t = 2, scale = 100; scale > 0; t--, scale /= 10) {
-            // make this test repeatable, by seeding the random generator.
-            Random rnd = new java.util.Random(42);
-            List<Location> list = new ArrayList<Location>();
-            // add some random Locations all over 
-            for (int i = 0; i < 1*scale+10; i++) {
-                list.add(new Location(LengthUnit.Millimeters, rnd.nextDouble()*1000.0, rnd.nextDouble()*500.0, rnd.nextDouble()*20.0, 0.0));
+    /**
+     * Compare the org.openpnp.util.RouteOptimizer<T> local search to the simulated annealing on a panel sized 
+     * problem (2008 locations) and a small one. Both routes are rated with the same XYZ travel cost. The local 
+     * search must find a complete route of about the same cost, far better than the input order. On the small 
+     * problem, where all the Locations are neighbours, no single 2-opt move may improve the route any further.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testRouteOptimizer() throws Exception {
+        loadMachine(new Length(3000, LengthUnit.Millimeters), new Length(500, LengthUnit.Millimeters));
+        for (int scale : new int[] { 333, 10 }) {
+            List<Location> list = createLocations(new Random(42), scale);
+
+            TravellingSalesman<Location> tsm = createSolver(list);
+            tsm.solve();
+            // rate the annealed route with the metric of the RouteOptimizer
+            double annealedCost = createOptimizer(tsm.getTravel()).getTravellingDistance();
+
+            RouteOptimizer<Location> optimizer = createOptimizer(list);
+            double optimizedCost = optimizer.solve();
+            System.out.println("TavellingSalesmanTest.testRouteOptimizer() "+list.size()+" locations, simulated annealing: "
+                    +annealedCost+"sec, "+tsm.getSolverDuration()+"ms, local search: "
+                    +optimizedCost+"sec, "+optimizer.getSolverDuration()+"ms");
+
+            List<Location> travel = optimizer.getTravel();
+            if (travel.size() != list.size() || !new HashSet<>(travel).equals(new HashSet<>(list))) {
+                throw new Exception("Optimized route does not visit all locations exactly once.");
             }
-            // add some X-aligned rows of feeders
-            for (int i = 0; i < 3*scale; i++) {
-                list.add(new Location(LengthUnit.Millimeters, Math.floor(rnd.nextDouble()*5.0)*250.0+rnd.nextDouble()*20.0, rnd.nextDouble()*500.0, rnd.nextDouble()*10.0, 0.0));
+            if (optimizedCost > annealedCost*1.05) {
+                throw new Exception("Local search cost "+optimizedCost+" is quite worse than simulated annealing cost "+annealedCost);
             }
-            // add some Y-aligned rows of feeders
-            for (int i = 0; i < 2*scale; i++) {
-                list.add(new Location(LengthUnit.Millimeters, rnd.nextDouble()*1000.0, Math.floor(rnd.nextDouble()*2.0)*500.0+rnd.nextDouble()*20.0, rnd.nextDouble()*10.0, 0.0));
+            // The optimizer must use the same XYZ travel cost as the simulated annealing.
+            TravelCost travelCost = new TravelCost();
+            if (Math.abs(getXyzCost(travelCost, travel) - optimizedCost) > 1e-6) {
+                throw new Exception("Local search cost "+optimizedCost+" is not the XYZ travel cost "+getXyzCost(travelCost, travel));
             }
+            double inputCost = getXyzCost(travelCost, list);
+            if (optimizedCost*2 > inputCost) {
+                throw new Exception("Local search cost "+optimizedCost+" is not much better than input order cost "+inputCost);
+            }
+            if (scale < 100) {
+                for (int i = 0; i < travel.size(); i++) {
+                    // Reversing the whole route only swaps the first Location, which 2-opt does not cover.
+                    for (int j = i + 1; j < travel.size() - (i == 0 ? 1 : 0); j++) {
+                        List<Location> reversed = new ArrayList<>(travel);
+                        Collections.reverse(reversed.subList(i, j + 1));
+                        double reversedCost = getXyzCost(travelCost, reversed);
+                        if (reversedCost < optimizedCost - 1e-6) {
+                            throw new Exception("Reversing "+i+".."+j+" improves the local search cost "+optimizedCost+" to "+reversedCost);
+                        }
+                    }
+                }
+            }
+            if (!travel.equals(solve(createOptimizer(list)).getTravel())) {
+                throw new Exception("Route optimizer is not deterministic.");
+            }
+        }
+    }
+
+    public void test(String name,Length xacceleration, Length yacceleration, double targets[]) throws Exception {
+        loadMachine(xacceleration, yacceleration);
+
+        for (int t = 2, scale = 100; scale > 0; t--, scale /= 10) {
+            // make this test repeatable, by seeding the random generator.
+            Random rnd = new java.util.Random(42);
+            List<Location> list = createLocations(rnd, scale);
 
             // create the solver
             TravellingSalesman<Location> tsm = new TravellingSalesman<>(
@@ -156,4 +240,99 @@ public class TavellingSalesmanTest {
             }
         }
     }
+
+    private static TravellingSalesman<Location> createSolver(List<Location> list) {
+        return new TravellingSalesman<>(
+                list, 
+                new TravellingSalesman.Locator<Location>() { 
+                    @Override
+                    public Location getLocation(Location locatable) {
+                        return locatable;
+                    }
+                }, 
+                // start from origin, no given end location
+                new Location(LengthUnit.Millimeters), 
+                null);
+    }
+
+    private static RouteOptimizer<Location> createOptimizer(List<Location> list) {
+        return new RouteOptimizer<>(
+                list, 
+                new TravellingSalesman.Locator<Location>() { 
+                    @Override
+                    public Location getLocation(Location locatable) {
+                        return locatable;
+                    }
+                }, 
+                // start from origin, no given end location
+                new Location(LengthUnit.Millimeters), 
+                null);
+    }
+
+    /**
+     * @return The XYZ travel cost of the route from the origin, with no given end location.
+     */
+    private static double getXyzCost(TravelCost travelCost, List<Location> travel) {
+        double cost = 0.0;
+        Location previous = new Location(LengthUnit.Millimeters);
+        for (Location location : travel) {
+            cost += travelCost.getXyzCost(previous, location);
+            previous = location;
+        }
+        return cost;
+    }
+
+    private static RouteOptimizer<Location> solve(RouteOptimizer<Location> optimizer) {
+        optimizer.solve();
+        return optimizer;
+    }
+
+    private void loadMachine(Length xacceleration, Length yacceleration) throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        System.out.println("Configuration directory: " + workingDirectory);
+
+        // Copy the required configuration files over to the new configuration
+        // directory.
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/machine.xml"),
+                new File(workingDirectory, "machine.xml"));
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/packages.xml"),
+                new File(workingDirectory, "packages.xml"));
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/parts.xml"),
+                new File(workingDirectory, "parts.xml"));
+
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        // configure the machine with the right acceleration for this test
+        Machine machine = Configuration.get().getMachine();
+        HeadMountable hm = machine.getDefaultHead().getDefaultCamera();
+        CoordinateAxis rawAxisX = HeadSolutions.getRawAxis(machine, hm.getAxisX());
+        CoordinateAxis rawAxisY = HeadSolutions.getRawAxis(machine, hm.getAxisY());
+        ReferenceControllerAxis referenceControllerAxisX = (ReferenceControllerAxis)rawAxisX;
+        ReferenceControllerAxis referenceControllerAxisY = (ReferenceControllerAxis)rawAxisY;
+        referenceControllerAxisX.setAccelerationPerSecond2(xacceleration);
+        referenceControllerAxisY.setAccelerationPerSecond2(yacceleration);
+    }
+
+    /**
+     * Generate Locations roughly arranged in X- and Y-aligned rows, like feeders would be, plus some 
+     * additional random Locations strewn in all over. 
+     */
+    private static List<Location> createLocations(Random rnd, int scale) {
+        List<Location> list = new ArrayList<Location>();
+        // add some random Locations all over 
+        for (int i = 0; i < 1*scale+10; i++) {
+            list.add(new Location(LengthUnit.Millimeters, rnd.nextDouble()*1000.0, rnd.nextDouble()*500.0, rnd.nextDouble()*20.0, 0.0));
+        }
+        // add some X-aligned rows of feeders
+        for (int i = 0; i < 3*scale; i++) {
+            list.add(new Location(LengthUnit.Millimeters, Math.floor(rnd.nextDouble()*5.0)*250.0+rnd.nextDouble()*20.0, rnd.nextDouble()*500.0, rnd.nextDouble()*10.0, 0.0));
+        }
+        // add some Y-aligned rows of feeders
+        for (int i = 0; i < 2*scale; i++) {
+            list.add(new Location(LengthUnit.Millimeters, rnd.nextDouble()*1000.0, Math.floor(rnd.nextDouble()*2.0)*500.0+rnd.nextDouble()*20.0, rnd.nextDouble()*10.0, 0.0));
+        }
+        return list;
+    }
 }
@@ -0,0 +1,159 @@
+import java.io.File;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.openpnp.machine.reference.ReferenceMachine;
+import org.openpnp.machine.reference.ReferenceNozzle;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor.SimplePnpJobPlanner;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor.TimeOptimalPnpJobPlanner;
+import org.openpnp.machine.reference.camera.AbstractSettlingCamera;
+import org.openpnp.machine.reference.camera.SimulatedUpCamera;
+import org.openpnp.machine.reference.driver.NullDriver;
+import org.openpnp.machine.reference.driver.NullMotionPlanner;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Motion;
+import org.openpnp.model.Motion.MotionOption;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.spi.PnpJobPlanner;
+import org.openpnp.util.TravelTime;
+import org.openpnp.util.VisionUtils;
+import org.pmw.tinylog.Configurator;
+import org.pmw.tinylog.Level;
+
+import com.google.common.io.Files;
+
+public class TimeOptimalPnpJobPlannerTest {
+    /**
+     * Executes the motion like the NullMotionPlanner, and sums up the planned time of the motion,
+     * i.e. the time the simulated machine takes to execute it.
+     */
+    static class TimingMotionPlanner extends NullMotionPlanner {
+        double machineTime;
+
+        @Override
+        protected void emitExecutionPlan(List<Motion> executionPlan, List<Head> movedHeads)
+                throws Exception {
+            for (Motion motion : executionPlan) {
+                if (!motion.hasOption(MotionOption.Stillstand)) {
+                    machineTime += motion.getTime();
+                }
+            }
+            super.emitExecutionPlan(executionPlan, movedHeads);
+        }
+    }
+
+    /**
+     * Runs the pnp-test sample job of SampleJobTest with the stock SimplePnpJobPlanner and with the
+     * TimeOptimalPnpJobPlanner. The simulated machine time of the time optimal job must be lower.
+     */
+    @Test
+    public void testSampleJob() throws Exception {
+        assertMachineTimeReduced("pnp-test.job.xml");
+    }
+
+    /**
+     * Same as {@link #testSampleJob()} with the panelized job of SamplePanelizedJobTest.
+     */
+    @Test
+    public void testSamplePanelizedJob() throws Exception {
+        assertMachineTimeReduced("pnp-test-panelized.job.xml");
+    }
+
+    /**
+     * Moves across the ±180° boundary take the short way round.
+     */
+    @Test
+    public void testRotationTime() throws Exception {
+        loadMachine();
+        Nozzle nozzle = Configuration.get().getMachine().getDefaultHead().getDefaultNozzle();
+        TravelTime travelTime = new TravelTime(nozzle);
+        double across = travelTime.getXyzcTime(new Location(LengthUnit.Millimeters, 0, 0, 0, 175), new Location(LengthUnit.Millimeters, 0, 0, 0, -175));
+        double short10 = travelTime.getXyzcTime(new Location(LengthUnit.Millimeters, 0, 0, 0, 5), new Location(LengthUnit.Millimeters, 0, 0, 0, -5));
+        double long350 = travelTime.getXyzcTime(new Location(LengthUnit.Millimeters, 0, 0, 0, 0), new Location(LengthUnit.Millimeters, 0, 0, 0, 350));
+        if (!(short10 > 0)) {
+            throw new Exception("Rotation time not estimated");
+        }
+        if (Math.abs(across - short10) > 1e-9) {
+            throw new Exception("Rotating 10° across the ±180° boundary estimated "+across
+                    +"s, but "+short10+"s elsewhere");
+        }
+        if (Math.abs(long350 - short10) > 1e-9) {
+            throw new Exception("Rotating 350° estimated "+long350+"s, but "+short10+"s for the short way round");
+        }
+    }
+
+    private void assertMachineTimeReduced(String jobName) throws Exception {
+        double stockTime = runJob(new SimplePnpJobPlanner(), jobName);
+        double optimalTime = runJob(new TimeOptimalPnpJobPlanner(), jobName);
+        System.out.println("TimeOptimalPnpJobPlannerTest "+jobName+": stock "+stockTime
+                +"s, time optimal "+optimalTime+"s machine time");
+        if (!(optimalTime < stockTime)) {
+            throw new Exception("Time optimal planning of "+jobName+" took "+optimalTime
+                    +"s machine time, not less than stock "+stockTime+"s");
+        }
+    }
+
+    private static ReferenceMachine loadMachine() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        System.out.println("Configuration directory: " + workingDirectory);
+
+        Configurator
+        .currentConfig()
+        .level(Level.INFO) // change this for other log levels.
+        .activate();
+
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        return (ReferenceMachine) Configuration.get().getMachine();
+    }
+
+    /**
+     * Runs the sample job with the given planner.
+     *
+     * @return the simulated machine time in seconds.
+     */
+    private double runJob(PnpJobPlanner planner, String jobName) throws Exception {
+        ReferenceMachine machine = loadMachine();
+        // Make the simulation fast, but keep the axis limits, the machine time is based on them.
+        NullDriver driver = (NullDriver) machine.getDefaultDriver();
+        driver.setFeedRateMmPerMinute(0);
+        SimulatedUpCamera camera = (SimulatedUpCamera) VisionUtils.getBottomVisionCamera();
+        camera.setSettleMethod(AbstractSettlingCamera.SettleMethod.FixedTime);
+        camera.setSettleTimeMs(0);
+        for (Nozzle nozzle : machine.getDefaultHead().getNozzles()) {
+            ((ReferenceNozzle) nozzle).setPickDwellMilliseconds(0);
+            ((ReferenceNozzle) nozzle).setPlaceDwellMilliseconds(0);
+        }
+        TimingMotionPlanner motionPlanner = new TimingMotionPlanner();
+        machine.setMotionPlanner(motionPlanner);
+
+        ReferencePnpJobProcessor jobProcessor = (ReferencePnpJobProcessor) machine.getPnpJobProcessor();
+        jobProcessor.planner = planner;
+
+        File jobFile = new File("samples");
+        jobFile = new File(jobFile, "pnp-test");
+        jobFile = new File(jobFile, jobName);
+        Job job = Configuration.get().loadJob(jobFile);
+
+        machine.setEnabled(true);
+        machine.home();
+        machine.execute(() -> {
+            machine.home();
+            // Only time the job.
+            motionPlanner.machineTime = 0;
+            jobProcessor.initialize(job);
+            while (jobProcessor.next()) {
+                //spin
+            };
+            return null;
+        }, false, 10000);
+        machine.setEnabled(false);
+        return motionPlanner.machineTime;
+    }
+}
@@ -0,0 +1,62 @@
+package org.openpnp.api.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.openpnp.model.Configuration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.Files;
+
+import io.javalin.websocket.WsConnectContext;
+import io.javalin.websocket.WsContext;
+
+public class CameraStreamServiceTest {
+
+    @AfterEach
+    public void after() {
+        CameraStreamService.cleanup();
+    }
+
+    /**
+     * Запрос стрима неизвестной камеры отвечает ошибкой и не оставляет сессию в списке подписчиков
+     */
+    @Test
+    public void unknownCameraIsRejected() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        Session session = mock(Session.class);
+        RemoteEndpoint remote = mock(RemoteEndpoint.class);
+        when(session.getRemote()).thenReturn(remote);
+        when(session.isOpen()).thenReturn(true);
+        WsContext ctx = new WsConnectContext("session-1", session);
+
+        CameraStreamService.StreamRequest request = new CameraStreamService.StreamRequest();
+        request.cameraId = "NO-SUCH-CAMERA";
+        CameraStreamService.startCameraStream(ctx, request);
+
+        ArgumentCaptor<String> sent = ArgumentCaptor.forClass(String.class);
+        verify(remote).sendString(sent.capture());
+        JsonNode message = new ObjectMapper().readTree(sent.getValue());
+        assertEquals("error", message.get("type").asText());
+        assertTrue(message.get("error").asText().contains("NO-SUCH-CAMERA"), message.toString());
+
+        assertEquals(0, CameraStreamService.getActiveStreamCount());
+        assertEquals(0, CameraStreamService.getActiveStreamCountForCamera("NO-SUCH-CAMERA"));
+        assertTrue(CameraStreamService.getActiveStreams().isEmpty());
+    }
+}
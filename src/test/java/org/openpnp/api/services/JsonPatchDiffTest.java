@@ -0,0 +1,88 @@
+package org.openpnp.api.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class JsonPatchDiffTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void equalDocumentsProduceNoOps() throws Exception {
+        JsonNode a = mapper.readTree("{\"enabled\":true,\"axes\":[{\"id\":\"X\",\"position\":1.0}]}");
+        assertEquals(0, JsonPatchDiff.diff(a, a.deepCopy()).size());
+    }
+
+    @Test
+    public void changedAxisPositionIsSingleReplace() throws Exception {
+        JsonNode a = mapper.readTree(
+                "{\"busy\":false,\"axes\":[{\"id\":\"X\",\"position\":1.0},{\"id\":\"Y\",\"position\":2.0}]}");
+        JsonNode b = mapper.readTree(
+                "{\"busy\":false,\"axes\":[{\"id\":\"X\",\"position\":1.0},{\"id\":\"Y\",\"position\":2.5}]}");
+        ArrayNode ops = JsonPatchDiff.diff(a, b);
+        assertEquals(1, ops.size());
+        assertEquals("replace", ops.get(0).get("op").asText());
+        assertEquals("/axes/1/position", ops.get(0).get("path").asText());
+        assertEquals(2.5, ops.get(0).get("value").asDouble());
+    }
+
+    @Test
+    public void addedRemovedAndResizedFieldsRoundTrip() throws Exception {
+        JsonNode a = mapper.readTree(
+                "{\"currentTask\":null,\"old\":1,\"a/b\":{\"~x\":1},\"feeders\":[{\"id\":\"F1\"}]}");
+        JsonNode b = mapper.readTree(
+                "{\"currentTask\":\"job\",\"new\":2,\"a/b\":{\"~x\":3},\"feeders\":[{\"id\":\"F1\"},{\"id\":\"F2\"}]}");
+        ArrayNode ops = JsonPatchDiff.diff(a, b);
+        assertEquals(b, apply(a, ops));
+    }
+
+    /**
+     * Применить операции, полученные из {@link JsonPatchDiff#diff(JsonNode, JsonNode)}, к документу,
+     * как это делает клиент.
+     *
+     * @return Новый документ (исходный не изменяется)
+     */
+    private static JsonNode apply(JsonNode document, ArrayNode ops) {
+        JsonNode result = document.deepCopy();
+        for (JsonNode op : ops) {
+            String path = op.get("path").asText();
+            if (path.isEmpty()) {
+                result = op.get("value").deepCopy();
+                continue;
+            }
+            int split = path.lastIndexOf('/');
+            JsonNode parent = result.at(path.substring(0, split));
+            String key = unescape(path.substring(split + 1));
+            String type = op.get("op").asText();
+            if (parent instanceof ObjectNode) {
+                if ("remove".equals(type)) {
+                    ((ObjectNode) parent).remove(key);
+                } else {
+                    ((ObjectNode) parent).set(key, op.get("value").deepCopy());
+                }
+            } else if (parent instanceof ArrayNode) {
+                ArrayNode array = (ArrayNode) parent;
+                int index = Integer.parseInt(key);
+                if ("remove".equals(type)) {
+                    array.remove(index);
+                } else if ("add".equals(type)) {
+                    array.insert(index, op.get("value").deepCopy());
+                } else {
+                    array.set(index, op.get("value").deepCopy());
+                }
+            } else {
+                throw new IllegalArgumentException("Путь не найден: " + path);
+            }
+        }
+        return result;
+    }
+
+    private static String unescape(String key) {
+        return key.replace("~1", "/").replace("~0", "~");
+    }
+}
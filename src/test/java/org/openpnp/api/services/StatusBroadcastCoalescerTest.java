@@ -0,0 +1,139 @@
+package org.openpnp.api.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class StatusBroadcastCoalescerTest {
+
+    /**
+     * Ручное время и планировщик: задачи выполняются только в {@link #advance(long)}
+     */
+    static class ManualScheduler implements StatusBroadcastCoalescer.Scheduler {
+        private long nanos = 0;
+        private final List<FutureTask<?>> tasks = new ArrayList<>();
+        private final List<Long> due = new ArrayList<>();
+
+        long nanoTime() {
+            return nanos;
+        }
+
+        @Override
+        public Future<?> schedule(Runnable task, long delayNanos) {
+            FutureTask<?> future = new FutureTask<>(task, null);
+            tasks.add(future);
+            due.add(nanos + delayNanos);
+            return future;
+        }
+
+        /**
+         * Сдвинуть время и выполнить наступившие задачи
+         */
+        void advance(long deltaNanos) {
+            nanos += deltaNanos;
+            boolean ran;
+            do {
+                ran = false;
+                for (int i = 0; i < tasks.size(); i++) {
+                    if (due.get(i) <= nanos) {
+                        FutureTask<?> task = tasks.remove(i);
+                        due.remove(i);
+                        task.run();
+                        ran = true;
+                        break;
+                    }
+                }
+            } while (ran);
+        }
+
+        int getPendingCount() {
+            int pending = 0;
+            for (FutureTask<?> task : tasks) {
+                if (!task.isCancelled()) {
+                    pending++;
+                }
+            }
+            return pending;
+        }
+    }
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void burstIsMergedIntoFewPublications() throws Exception {
+        ManualScheduler scheduler = new ManualScheduler();
+        List<Long> published = new ArrayList<>();
+        StatusBroadcastCoalescer coalescer = new StatusBroadcastCoalescer(
+                () -> published.add(scheduler.nanoTime()), 10, scheduler::nanoTime, scheduler);
+
+        for (int i = 0; i < 10000; i++) {
+            coalescer.requestUpdate();
+        }
+        // Весь всплеск сливается в одну публикацию, она выполняется сразу
+        assertEquals(1, scheduler.getPendingCount());
+        scheduler.advance(0);
+        assertEquals(List.of(0L), published);
+        assertEquals(10000, coalescer.getRequestedCount());
+        assertEquals(1, coalescer.getEmittedCount());
+        assertEquals(9999, coalescer.getSuppressedCount());
+
+        // Следующая публикация - не раньше чем через 100 мс после предыдущей
+        coalescer.requestUpdate();
+        coalescer.requestUpdate();
+        scheduler.advance(100 * MS - 1);
+        assertEquals(1, published.size());
+        scheduler.advance(1);
+        assertEquals(List.of(0L, 100 * MS), published);
+        assertEquals(2, coalescer.getEmittedCount());
+        assertEquals(coalescer.getRequestedCount(), coalescer.getEmittedCount() + coalescer.getSuppressedCount());
+    }
+
+    @Test
+    public void publishRateIsLimited() throws Exception {
+        ManualScheduler scheduler = new ManualScheduler();
+        List<Long> published = new ArrayList<>();
+        StatusBroadcastCoalescer coalescer = new StatusBroadcastCoalescer(
+                () -> published.add(scheduler.nanoTime()), 20, scheduler::nanoTime, scheduler);
+
+        // Запрос каждую мс в течение 0.5 с
+        for (int i = 0; i < 500; i++) {
+            coalescer.requestUpdate();
+            scheduler.advance(MS);
+        }
+        scheduler.advance(50 * MS);
+        assertEquals(500, coalescer.getRequestedCount());
+        // 20 Гц: не чаще чем раз в 50 мс, 10 публикаций за 0.5 с и завершающая
+        assertEquals(11, published.size(), "published " + published);
+        for (int i = 1; i < published.size(); i++) {
+            assertTrue(published.get(i) - published.get(i - 1) >= 50 * MS, "published " + published);
+        }
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void cancelDropsPendingPublication() throws Exception {
+        ManualScheduler scheduler = new ManualScheduler();
+        List<Long> published = new ArrayList<>();
+        StatusBroadcastCoalescer coalescer = new StatusBroadcastCoalescer(
+                () -> published.add(scheduler.nanoTime()), 10, scheduler::nanoTime, scheduler);
+
+        coalescer.requestUpdate();
+        scheduler.advance(0);
+        coalescer.requestUpdate();
+        coalescer.cancel();
+        scheduler.advance(1000 * MS);
+        assertEquals(1, published.size());
+
+        // После отмены новый запрос снова планирует публикацию
+        coalescer.requestUpdate();
+        scheduler.advance(0);
+        assertEquals(2, published.size());
+    }
+}
@@ -0,0 +1,139 @@
+package org.openpnp.machine.reference.driver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openpnp.machine.reference.ReferenceMachine;
+import org.openpnp.machine.reference.driver.AbstractReferenceDriver.CommunicationsType;
+import org.openpnp.machine.reference.driver.GcodeDriver.CommandType;
+import org.openpnp.model.Configuration;
+import org.openpnp.spi.Machine;
+import org.openpnp.util.GcodeServer;
+
+import com.google.common.io.Files;
+
+/**
+ * Streams commands through the GcodeAsyncDriver confirmation flow control into a GcodeServer with a
+ * modeled receive buffer.
+ */
+public class GcodeAsyncDriverTest {
+    static final int RX_BUFFER_SIZE = 64;
+    static final int COMMANDS = 200;
+
+    GcodeServer server;
+    GcodeAsyncDriver driver;
+
+    @BeforeEach
+    public void before() throws Exception {
+        server = new GcodeServer();
+        server.addCommandResponse("G21 ; Set millimeters mode", "ok");
+        server.addCommandResponse("G90 ; Set absolute positioning mode", "ok");
+        server.addCommandResponse("M82 ; Set absolute mode for extruder", "ok");
+        for (int i = 0; i < 10; i++) {
+            server.addCommandResponse("G1 X"+i, "ok");
+        }
+        server.addCommandResponse("BAD", "error:bad command\nok");
+        server.setRxBufferSize(RX_BUFFER_SIZE);
+        server.setLineProcessingMilliseconds(1);
+
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        driver = new GcodeAsyncDriver();
+        driver.createDefaults();
+        driver.setCommand(null, CommandType.COMMAND_ERROR_REGEX, "^error:.*");
+        driver.setConnectionKeepAlive(false);
+        driver.setCommunicationsType(CommunicationsType.tcp);
+        TcpCommunications tcp = (TcpCommunications) driver.getCommunications();
+        tcp.setIpAddress("localhost");
+        tcp.setPort(server.getListenerPort());
+        driver.setConnectWaitTimeMilliseconds(0);
+        driver.setTimeoutMilliseconds(2000);
+        driver.setReportedLocationConfirmation(false);
+        driver.setConfirmationFlowControl(true);
+
+        ReferenceMachine referenceMachine = (ReferenceMachine) Configuration.get().getMachine();
+        while (referenceMachine.getDrivers().size() > 0) {
+            referenceMachine.removeDriver(referenceMachine.getDrivers().get(0));
+        }
+        referenceMachine.addDriver(driver);
+
+        Machine machine = Configuration.get().getMachine();
+        machine.setEnabled(true);
+        // Only count the streamed commands, not the CONNECT_COMMAND.
+        driver.drainCommandQueue(10000);
+        server.resetRxBufferStatistics();
+    }
+
+    @Test
+    public void testCharacterCounting() throws Exception {
+        driver.setConfirmationWindowCommands(COMMANDS);
+        driver.setControllerRxBufferSize(RX_BUFFER_SIZE);
+        sendCommands();
+
+        // More than one command must have been in flight.
+        assertTrue(server.getRxBufferPeak() > "G1 X0\n".length(),
+                "peak "+server.getRxBufferPeak()+" is not streaming");
+    }
+
+    @Test
+    public void testCommandWindow() throws Exception {
+        // 8 commands of 6 characters fit into the buffer.
+        driver.setConfirmationWindowCommands(8);
+        sendCommands();
+
+        assertTrue(server.getRxBufferPeak() > "G1 X0\n".length(),
+                "peak "+server.getRxBufferPeak()+" is not streaming");
+    }
+
+    @Test
+    public void testStopAndWait() throws Exception {
+        driver.setConfirmationWindowCommands(1);
+        sendCommands();
+
+        assertTrue(server.getRxBufferPeak() <= "G1 X0\n".length());
+    }
+
+    @Test
+    public void testErrorAttribution() throws Exception {
+        driver.setConfirmationWindowCommands(8);
+        driver.sendCommand("G1 X1");
+        driver.sendCommand("G1 X2");
+        driver.sendCommand("BAD");
+        driver.sendCommand("G1 X3");
+        driver.drainCommandQueue(10000);
+        try {
+            driver.sendCommand("G1 X4");
+            fail("Expected the error response to be reported.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("response to BAD"), e.getMessage());
+        }
+    }
+
+    /**
+     * Streams the commands and checks that the controller receive buffer never overflowed.
+     */
+    private void sendCommands() throws Exception {
+        for (int i = 0; i < COMMANDS; i++) {
+            driver.sendCommand("G1 X"+(i % 10));
+        }
+        driver.drainCommandQueue(10000);
+        assertEquals(0, server.getRxBufferOverflows());
+        assertTrue(server.getRxBufferPeak() <= RX_BUFFER_SIZE,
+                "peak "+server.getRxBufferPeak()+" exceeds the rx buffer of "+RX_BUFFER_SIZE);
+    }
+
+    @AfterEach
+    public void after() throws Exception {
+        server.shutdown();
+    }
+}
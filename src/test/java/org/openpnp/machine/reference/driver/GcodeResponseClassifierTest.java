@@ -0,0 +1,294 @@
+package org.openpnp.machine.reference.driver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openpnp.machine.reference.axis.ReferenceControllerAxis;
+import org.openpnp.machine.reference.driver.GcodeDriver.CommandType;
+import org.openpnp.model.AxesLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Length;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.spi.Axis;
+import org.openpnp.spi.Driver;
+import org.openpnp.spi.Machine;
+
+import com.google.common.io.Files;
+
+/**
+ * Checks the GcodeResponseClassifier against the String.matches() based classification that the
+ * reader thread used before, on synthetic receive traces. The traces are hand-written in the response
+ * formats of Smoothieware and Marlin, they are not captured from real controllers.
+ */
+public class GcodeResponseClassifierTest {
+    static final String CONFIRM_REGEX = "^ok.*";
+
+    static final String SMOOTHIE_ERROR_REGEX = "^(?:!!|error:).*";
+    static final String SMOOTHIE_POSITION_REGEX =
+            "^.*C:\\s*X:(?<X>-?\\d+\\.\\d+)\\s*Y:(?<Y>-?\\d+\\.\\d+)\\s*Z:(?<Z>-?\\d+\\.\\d+).*";
+
+    static final String SMOOTHIE_ROTATION_POSITION_REGEX =
+            "^.*C:\\s*X:(?<X>-?\\d+\\.\\d+)\\s*Y:(?<Y>-?\\d+\\.\\d+)\\s*Z:(?<Z>-?\\d+\\.\\d+)\\s*A:(?<A>-?\\d+\\.\\d+).*";
+
+    static final String MARLIN_ERROR_REGEX = "^Error.*";
+    static final String MARLIN_POSITION_REGEX =
+            "^X:(?<X>-?\\d+\\.\\d+) Y:(?<Y>-?\\d+\\.\\d+) Z:(?<Z>-?\\d+\\.\\d+).*";
+
+    @Test
+    public void testSmoothiewareTrace() throws Exception {
+        testTrace("/gcode/smoothieware-m114.log", SMOOTHIE_ERROR_REGEX, SMOOTHIE_POSITION_REGEX);
+    }
+
+    @Test
+    public void testMarlinTrace() throws Exception {
+        testTrace("/gcode/marlin-m114.log", MARLIN_ERROR_REGEX, MARLIN_POSITION_REGEX);
+    }
+
+    /**
+     * Parses the Smoothieware position reports, in inches. The rotation axis is not converted from the 
+     * driver units, the B axis is not mapped as its letter is missing in the regex.
+     */
+    @Test
+    public void testSmoothiewarePositionReports() throws Exception {
+        testPositionReports("/gcode/smoothieware-m114.log", SMOOTHIE_ERROR_REGEX, SMOOTHIE_ROTATION_POSITION_REGEX, 
+                LengthUnit.Inches);
+    }
+
+    /**
+     * Parses the Marlin position reports, in millimeters. The A axis is not mapped, as the regex has no
+     * rotation group. The Count X: Y: Z: stepper counts must not be taken.
+     */
+    @Test
+    public void testMarlinPositionReports() throws Exception {
+        testPositionReports("/gcode/marlin-m114.log", MARLIN_ERROR_REGEX, MARLIN_POSITION_REGEX, 
+                LengthUnit.Millimeters);
+    }
+
+    /**
+     * Compares the speed of the classifier against the legacy classification, on both traces. Timing 
+     * depends on the machine, therefore it only runs with -Dopenpnp.benchmarks=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "openpnp.benchmarks", matches = "true")
+    public void testPerformance() throws Exception {
+        benchmark("/gcode/smoothieware-m114.log", SMOOTHIE_ERROR_REGEX, SMOOTHIE_POSITION_REGEX);
+        benchmark("/gcode/marlin-m114.log", MARLIN_ERROR_REGEX, MARLIN_POSITION_REGEX);
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        GcodeDriver driver = new GcodeDriver();
+        driver.createDefaultCommands();
+        GcodeResponseClassifier classifier = driver.getResponseClassifier();
+        assertSame(classifier, driver.getResponseClassifier());
+        assertEquals(0, classifier.classify("!! halted") & GcodeResponseClassifier.ERROR);
+
+        driver.setCommand(null, CommandType.COMMAND_ERROR_REGEX, SMOOTHIE_ERROR_REGEX);
+        GcodeResponseClassifier updated = driver.getResponseClassifier();
+        assertNotSame(classifier, updated);
+        assertEquals(GcodeResponseClassifier.ERROR, updated.classify("!! halted"));
+        assertSame(updated, driver.getResponseClassifier());
+
+        // Editing the commands of another driver does not invalidate this driver's classifier.
+        GcodeDriver otherDriver = new GcodeDriver();
+        otherDriver.createDefaultCommands();
+        otherDriver.setCommand(null, CommandType.COMMAND_ERROR_REGEX, MARLIN_ERROR_REGEX);
+        assertSame(updated, driver.getResponseClassifier());
+    }
+
+    private void testPositionReports(String resource, String errorRegex, String positionRegex, LengthUnit units) 
+            throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        Machine machine = Configuration.get().getMachine();
+
+        GcodeDriver driver = new GcodeDriver();
+        GcodeDriver otherDriver = new GcodeDriver();
+        ReferenceControllerAxis axisX = createAxis(machine, driver, Axis.Type.X, "X");
+        ReferenceControllerAxis axisY = createAxis(machine, driver, Axis.Type.Y, "Y");
+        ReferenceControllerAxis axisZ = createAxis(machine, driver, Axis.Type.Z, "Z");
+        ReferenceControllerAxis axisA = createAxis(machine, driver, Axis.Type.Rotation, "A");
+        ReferenceControllerAxis axisB = createAxis(machine, driver, Axis.Type.Rotation, "B");
+        // Same letter, but on another driver.
+        ReferenceControllerAxis otherAxisX = createAxis(machine, otherDriver, Axis.Type.X, "X");
+        boolean hasRotation = positionRegex.contains("(?<A>");
+
+        GcodeResponseClassifier classifier =
+                new GcodeResponseClassifier(CONFIRM_REGEX, errorRegex, positionRegex, 0);
+        double scale = new Length(1, units).convertToUnits(AxesLocation.getUnits()).getValue();
+        int positionReports = 0;
+        for (String line : readTrace(resource)) {
+            int type = classifier.classify(line);
+            AxesLocation location = classifier.parsePositionReport(line, driver, machine, units);
+            if ((type & GcodeResponseClassifier.POSITION_REPORT) == 0) {
+                assertNull(location, line);
+                continue;
+            }
+            positionReports++;
+            assertEquals(hasRotation ? 4 : 3, location.size(), line);
+            assertEquals(getCoordinate(line, "X")*scale, location.getCoordinate(axisX), 1e-9, line);
+            assertEquals(getCoordinate(line, "Y")*scale, location.getCoordinate(axisY), 1e-9, line);
+            assertEquals(getCoordinate(line, "Z")*scale, location.getCoordinate(axisZ), 1e-9, line);
+            if (hasRotation) {
+                assertEquals(getCoordinate(line, "A"), location.getCoordinate(axisA), 1e-9, line);
+            }
+            assertTrue(!location.contains(axisB) && !location.contains(otherAxisX), line);
+        }
+        assertTrue(positionReports > 0, "trace has no position reports");
+
+        // The mapping follows letter changes.
+        String line = "X:1.00 Y:2.00 Z:3.00 A:4.00 C: X:1.00 Y:2.00 Z:3.00 A:4.00";
+        assertEquals(GcodeResponseClassifier.POSITION_REPORT, classifier.classify(line));
+        axisY.setLetter("Q");
+        AxesLocation location = classifier.parsePositionReport(line, driver, machine, units);
+        assertTrue(!location.contains(axisY));
+        assertEquals(1.0*scale, location.getCoordinate(axisX), 1e-9);
+        axisY.setLetter("Y");
+        location = classifier.parsePositionReport(line, driver, machine, units);
+        assertEquals(2.0*scale, location.getCoordinate(axisY), 1e-9);
+    }
+
+    private static ReferenceControllerAxis createAxis(Machine machine, Driver driver, Axis.Type type, String letter) 
+            throws Exception {
+        ReferenceControllerAxis axis = new ReferenceControllerAxis();
+        axis.setType(type);
+        axis.setName(letter);
+        axis.setLetter(letter);
+        axis.setDriver(driver);
+        machine.addAxis(axis);
+        return axis;
+    }
+
+    /**
+     * @return The first coordinate of the given letter in the line, independently of the regex.
+     */
+    private static double getCoordinate(String line, String letter) {
+        for (String token : line.split("\\s+")) {
+            if (token.startsWith(letter+":")) {
+                return Double.parseDouble(token.substring(letter.length() + 1));
+            }
+        }
+        throw new AssertionError("No "+letter+" in "+line);
+    }
+
+    private void testTrace(String resource, String errorRegex, String positionRegex) throws Exception {
+        List<String> lines = readTrace(resource);
+        assertTrue(lines.size() > 100, "trace is too short");
+
+        GcodeResponseClassifier classifier =
+                new GcodeResponseClassifier(CONFIRM_REGEX, errorRegex, positionRegex, 0);
+        int positionReports = 0;
+        for (String line : lines) {
+            int expected = classifyLegacy(line, CONFIRM_REGEX, errorRegex, positionRegex);
+            assertEquals(expected, classifier.classify(line), line);
+            if ((expected & GcodeResponseClassifier.POSITION_REPORT) != 0) {
+                positionReports++;
+            }
+        }
+        assertTrue(positionReports > 0, "trace has no position reports");
+    }
+
+    /**
+     * The per line classification of the reader thread before the classifier, including the
+     * commands lookup and the compilation of the position report regex.
+     */
+    private static int classifyLegacy(String line, String confirmRegex, String errorRegex, String positionRegex) {
+        int flags = 0;
+        if (line.matches(lookup(confirmRegex))) {
+            flags |= GcodeResponseClassifier.CONFIRMATION;
+        }
+        if (line.matches(lookup(errorRegex))) {
+            flags |= GcodeResponseClassifier.ERROR;
+        }
+        if (line.matches(lookup(positionRegex))) {
+            Matcher matcher = Pattern.compile(lookup(positionRegex)).matcher(line);
+            if (matcher.matches()) {
+                flags |= GcodeResponseClassifier.POSITION_REPORT;
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Stands in for the getCommand() lookup, so the optimizer can't hoist the regex.
+     */
+    private static volatile String lookupSink;
+
+    private static String lookup(String regex) {
+        lookupSink = regex;
+        return lookupSink;
+    }
+
+    private void benchmark(String resource, String errorRegex, String positionRegex) throws Exception {
+        List<String> lines = readTrace(resource);
+        final int passes = 50;
+        // Warm up both paths.
+        GcodeResponseClassifier classifier =
+                new GcodeResponseClassifier(CONFIRM_REGEX, errorRegex, positionRegex, 0);
+        long legacyCount = 0;
+        long classifierCount = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            for (String line : lines) {
+                legacyCount += classifyLegacy(line, CONFIRM_REGEX, errorRegex, positionRegex);
+                classifierCount += classifier.classify(line);
+            }
+        }
+        assertEquals(legacyCount, classifierCount);
+
+        legacyCount = 0;
+        long t0 = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            for (String line : lines) {
+                legacyCount += classifyLegacy(line, CONFIRM_REGEX, errorRegex, positionRegex);
+            }
+        }
+        long legacyNs = System.nanoTime() - t0;
+
+        classifierCount = 0;
+        t0 = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            for (String line : lines) {
+                classifierCount += classifier.classify(line);
+            }
+        }
+        long classifierNs = System.nanoTime() - t0;
+        assertEquals(legacyCount, classifierCount);
+
+        long total = (long) passes * lines.size();
+        System.out.println(String.format("%s: legacy %.0f ns/line, classifier %.0f ns/line", resource,
+                (double) legacyNs / total, (double) classifierNs / total));
+        assertTrue(classifierNs < legacyNs, resource+": the classifier is slower than the legacy classification");
+    }
+
+    private List<String> readTrace(String resource) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (InputStream in = getClass().getResourceAsStream(resource);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
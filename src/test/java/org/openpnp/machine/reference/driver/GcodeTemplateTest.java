@@ -0,0 +1,211 @@
+package org.openpnp.machine.reference.driver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openpnp.util.NanosecondTime;
+
+/**
+ * Checks that the compiled GcodeTemplate renders like the sequential substituteVariable() calls of
+ * GcodeDriver.moveTo().
+ */
+public class GcodeTemplateTest {
+    static final String[] AXES = { "X", "Y", "Z", "A", "B", "C" };
+
+    static final String MOVE_TO_COMMAND = "{Acceleration:M204 S%.1f} G1 {XL}{X:%.4f} {YL}{Y:%.4f} {ZL}{Z:%.4f} "
+            + "{AL}{A:%.4f} {BL}{B:%.4f} {CL}{C:%.4f} {FeedRate:F%.1f} ; Send standard Gcode move";
+
+    static final String TINYG_MOVE_TO_COMMAND = "{XJerkMupm3:M201.3 X%.0f}{YJerkMupm3: Y%.0f}\n"
+            + "G1 {X:X%.4f} {Y:Y%.4f} {Z:Z%.4f} {A:A%.4f} {B:B%.4f} {C:C%.4f} {FeedRate:F%.2f} (move {Name})";
+
+    static final String NESTED_MOVE_TO_COMMAND = "G1 {X:X%.4f<((Y:Y%.3f))>} {Z:Z%.4f}";
+
+    @Test
+    public void testRenderEquivalence() throws Exception {
+        Random random = new Random(0);
+        for (String templateText : new String[] { MOVE_TO_COMMAND, TINYG_MOVE_TO_COMMAND, NESTED_MOVE_TO_COMMAND }) {
+            GcodeTemplate template = new GcodeTemplate(templateText);
+            for (int i = 0; i < 10000; i++) {
+                Move move = new Move(random);
+                assertEquals(move.substitute(templateText), move.bind(template).render().toString());
+            }
+        }
+        assertTrue(new GcodeTemplate(MOVE_TO_COMMAND).isCompiled());
+        assertFalse(new GcodeTemplate(NESTED_MOVE_TO_COMMAND).isCompiled());
+    }
+
+    @Test
+    public void testValueEquivalence() throws Exception {
+        GcodeTemplate template = new GcodeTemplate("{V:%.4f}|{V:V%.1f}|{V:%.0f}|{V:%f}|{V:%s}");
+        double[] values = { 0, -0.0, 0.00005, -0.00005, 0.00015, 1.00005, -1.23455, 2.5, -2.5, 1e7, 123456789.123456,
+                -1e-9, Double.NaN, Double.POSITIVE_INFINITY };
+        for (double value : values) {
+            assertEquals(GcodeDriver.substituteVariable(template.getTemplate(), "V", value),
+                    template.bind().set("V", value).render().toString());
+        }
+        // Values that must be substituted sequentially.
+        GcodeTemplate names = new GcodeTemplate("{Id}/{Name}");
+        assertEquals(GcodeDriver.substituteVariable(GcodeDriver.substituteVariable(names.getTemplate(), "Id", "{Name}"), "Name", "X"),
+                names.bind().set("Id", "{Name}").set("Name", "X").render().toString());
+    }
+
+    @Test
+    public void testRenderedCompression() throws Exception {
+        List<String> sent = new ArrayList<>();
+        GcodeDriver driver = new GcodeDriver() {
+            @Override
+            public void sendCommand(String command, long timeout) throws Exception {
+                sent.add(preProcessCommand(command));
+            }
+        };
+        driver.setCompressGcode(true);
+        driver.setRemoveComments(true);
+        String gCode = "  G1 X10.0000 Y-0.5000 (comment) Z0.0000 ; trailing\n\n M117 [keep 1.000 as is] F100.0 \r\nG4 P0.000";
+        driver.sendRenderedGcode(gCode, 0);
+
+        List<String> expected = new ArrayList<>();
+        for (String command : gCode.split("\n")) {
+            command = command.trim();
+            if (command.length() > 0) {
+                expected.add(driver.preProcessCommand(command));
+            }
+        }
+        assertEquals(expected, sent);
+    }
+
+    @Test
+    public void testCompressedRenderEquivalence() throws Exception {
+        GcodeDriver driver = new GcodeDriver();
+        driver.setCompressGcode(true);
+        driver.setRemoveComments(true);
+        GcodeTemplate template = new GcodeTemplate(MOVE_TO_COMMAND);
+        Random random = new Random(1);
+        StringBuilder compressed = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            Move move = new Move(random);
+            CharSequence rendered = move.bind(template).render();
+            compressed.setLength(0);
+            driver.compressCommand(rendered, 0, rendered.length(), compressed);
+            assertEquals(driver.preProcessCommand(move.substitute(MOVE_TO_COMMAND)), compressed.toString());
+        }
+    }
+
+    /**
+     * Compares the time of rendering moves by sequential substituteVariable() calls and by the compiled 
+     * GcodeTemplate. Timing depends on the machine, therefore it only runs with -Dopenpnp.benchmarks=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "openpnp.benchmarks", matches = "true")
+    public void testRenderPerformance() throws Exception {
+        Random random = new Random(2);
+        Move[] moves = new Move[1000];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = new Move(random);
+        }
+        GcodeTemplate template = new GcodeTemplate(MOVE_TO_COMMAND);
+        double substituteTime = 0;
+        double templateTime = 0;
+        long length = 0;
+        // The first rounds warm up the JIT.
+        for (int round = 0; round < 20; round++) {
+            double t0 = NanosecondTime.getRuntimeSeconds();
+            for (Move move : moves) {
+                length += move.substitute(MOVE_TO_COMMAND).length();
+            }
+            double t1 = NanosecondTime.getRuntimeSeconds();
+            for (Move move : moves) {
+                length += move.bind(template).render().length();
+            }
+            double t2 = NanosecondTime.getRuntimeSeconds();
+            if (round >= 10) {
+                substituteTime += t1 - t0;
+                templateTime += t2 - t1;
+            }
+        }
+        System.out.println(String.format("GcodeTemplateTest.testRenderPerformance() substituteVariable %.1fus, "
+                + "template %.1fus per move (%d)", 
+                substituteTime*1e6/(10*moves.length), templateTime*1e6/(10*moves.length), length));
+        assertTrue(templateTime < substituteTime, "Template rendering is slower than substituteVariable()");
+    }
+
+    /**
+     * The variables of one move, as GcodeDriver.moveTo() substitutes them, with letter variables.
+     */
+    static class Move {
+        final Double feedRate;
+        final Double acceleration;
+        final Double[] coordinates = new Double[AXES.length];
+        final int[] directions = new int[AXES.length];
+
+        Move(Random random) {
+            feedRate = random.nextInt(4) == 0 ? null : random.nextDouble() * 60000;
+            acceleration = random.nextInt(4) == 0 ? null : random.nextDouble() * 5000;
+            for (int i = 0; i < AXES.length; i++) {
+                if (random.nextInt(3) > 0) {
+                    coordinates[i] = Math.round((random.nextDouble() - 0.5) * 8000000) / 10000.0;
+                    directions[i] = random.nextInt(3) - 1;
+                }
+            }
+        }
+
+        String substitute(String command) {
+            command = GcodeDriver.substituteVariable(command, "Id", "N1");
+            command = GcodeDriver.substituteVariable(command, "Name", "N1");
+            command = GcodeDriver.substituteVariable(command, "FeedRate", feedRate);
+            command = GcodeDriver.substituteVariable(command, "FeedRateF", feedRate);
+            command = GcodeDriver.substituteVariable(command, "Acceleration", acceleration);
+            command = GcodeDriver.substituteVariable(command, "AccelerationF", acceleration);
+            command = GcodeDriver.substituteVariable(command, "Jerk", null);
+            command = GcodeDriver.substituteVariable(command, "JerkF", null);
+            for (int i = 0; i < AXES.length; i++) {
+                String variable = AXES[i];
+                Double coordinate = coordinates[i];
+                command = GcodeDriver.substituteVariable(command, variable, coordinate);
+                command = GcodeDriver.substituteVariable(command, variable+"F", coordinate);
+                command = GcodeDriver.substituteVariable(command, variable+"L", coordinate != null ? variable : null);
+                if (coordinate == null) {
+                    command = GcodeDriver.substituteVariable(command, "BacklashOffset"+variable, null);
+                }
+                command = GcodeDriver.substituteVariable(command, variable+"Decreasing", directions[i] < 0 ? true : null);
+                command = GcodeDriver.substituteVariable(command, variable+"Increasing", directions[i] > 0 ? true : null);
+                command = GcodeDriver.substituteVariable(command, variable+"Jerk", coordinate);
+                command = GcodeDriver.substituteVariable(command, variable+"JerkMupm3", coordinate);
+            }
+            return command;
+        }
+
+        GcodeTemplate.Binding bind(GcodeTemplate template) {
+            GcodeTemplate.Binding binding = template.bind();
+            binding.set("Id", "N1");
+            binding.set("Name", "N1");
+            binding.set("FeedRate", feedRate);
+            binding.set("FeedRateF", feedRate);
+            binding.set("Acceleration", acceleration);
+            binding.set("AccelerationF", acceleration);
+            binding.set("Jerk", null);
+            binding.set("JerkF", null);
+            for (int i = 0; i < AXES.length; i++) {
+                String variable = AXES[i];
+                Double coordinate = coordinates[i];
+                binding.set(variable, coordinate);
+                binding.set(variable+"F", coordinate);
+                binding.set(variable+"L", coordinate != null ? variable : null);
+                if (coordinate == null) {
+                    binding.set("BacklashOffset"+variable, null);
+                }
+                binding.set(variable+"Decreasing", directions[i] < 0 ? true : null);
+                binding.set(variable+"Increasing", directions[i] > 0 ? true : null);
+                binding.set(variable+"Jerk", coordinate);
+                binding.set(variable+"JerkMupm3", coordinate);
+            }
+            return binding;
+        }
+    }
+}
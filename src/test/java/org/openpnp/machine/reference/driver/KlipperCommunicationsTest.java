@@ -0,0 +1,146 @@
+package org.openpnp.machine.reference.driver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Checks the JSON-RPC mode of the KlipperCommunications against a scripted API server, without a
+ * UNIX socket.
+ */
+public class KlipperCommunicationsTest {
+    private static final char TERMINATOR = 0x03;
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private KlipperCommunications comms;
+    private ByteArrayOutputStream sent;
+
+    private void connect(int batchLines) {
+        comms = new KlipperCommunications();
+        comms.setJsonRpc(true);
+        comms.setJsonRpcBatchLines(batchLines);
+        sent = new ByteArrayOutputStream();
+        comms.output = new DataOutputStream(sent);
+    }
+
+    /**
+     * Let the API server answer with the given messages, each framed by the terminator.
+     */
+    private void respond(String... messages) {
+        StringBuilder data = new StringBuilder();
+        for (String message : messages) {
+            data.append(message);
+            data.append(TERMINATOR);
+        }
+        comms.input = new BufferedReader(new StringReader(data.toString()));
+    }
+
+    /**
+     * @return the requests sent to the API server, split at the terminator.
+     */
+    private List<JsonNode> getRequests() throws Exception {
+        String data = new String(sent.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals(TERMINATOR, data.charAt(data.length() - 1), "Last request not terminated");
+        List<JsonNode> requests = new ArrayList<>();
+        for (String message : data.substring(0, data.length() - 1).split(String.valueOf(TERMINATOR), -1)) {
+            requests.add(objectMapper.readTree(message));
+        }
+        return requests;
+    }
+
+    private List<String> readLines() throws Exception {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = comms.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        connect(3);
+        comms.writeLine("G1 X1", false);
+        comms.writeLine("G1 X2", false);
+        // The batch is full with the third line.
+        comms.writeLine("G1 X3", false);
+        comms.writeLine("G1 X4", false);
+        comms.flush();
+        // Flushing without queued lines sends nothing.
+        comms.flush();
+        comms.writeLine("M114");
+
+        List<JsonNode> requests = getRequests();
+        assertEquals(3, requests.size());
+        String[] scripts = { "G1 X1\nG1 X2\nG1 X3", "G1 X4", "M114" };
+        for (int i = 0; i < scripts.length; i++) {
+            JsonNode request = requests.get(i);
+            assertEquals(i + 1, request.get("id").asLong());
+            assertEquals("gcode/script", request.get("method").asText());
+            assertEquals(scripts[i], request.get("params").get("script").asText());
+        }
+    }
+
+    @Test
+    public void testConfirmations() throws Exception {
+        connect(16);
+        comms.writeLine("G1 X1", false);
+        comms.writeLine("G1 X2", false);
+        comms.flush();
+        comms.writeLine("M114");
+        respond("{\"id\":1,\"result\":{}}",
+                "{\"params\":{\"response\":\"X:1.000 Y:2.000 Z:0.000 E:0.000\\n\"}}",
+                "{\"id\":2,\"result\":{}}",
+                // Unknown and malformed messages are skipped.
+                "{\"id\":99,\"result\":{}}",
+                "not json");
+        assertEquals(List.of("ok", "ok", "X:1.000 Y:2.000 Z:0.000 E:0.000", "ok"), readLines());
+        assertNull(comms.readLine());
+    }
+
+    @Test
+    public void testBatchError() throws Exception {
+        connect(16);
+        comms.writeLine("G1 X1", false);
+        comms.writeLine("G1 X1000", false);
+        comms.writeLine("G1 X2", false);
+        comms.flush();
+        comms.writeLine("G1 X3");
+        comms.writeLine("G1 X4");
+        respond(// Klipper outputs the error, then answers the request.
+                "{\"params\":{\"response\":\"!! Move out of range: 1000.000 0.000 0.000 [0.000]\"}}",
+                "{\"id\":1,\"error\":{\"error\":\"WebRequestError\",\"message\":\"Move out of range: 1000.000 0.000 0.000 [0.000]\"}}",
+                // Without the output, the error is taken from the answer.
+                "{\"id\":2,\"error\":{\"error\":\"WebRequestError\",\"message\":\"Unknown command\"}}",
+                "{\"id\":3,\"result\":{}}");
+        String outOfRange = "!! Move out of range: 1000.000 0.000 0.000 [0.000]";
+        // The whole batch fails, the output error is not repeated for the first line.
+        assertEquals(List.of(outOfRange, "ok", outOfRange, "ok", outOfRange, "ok",
+                "!! Unknown command", "ok",
+                "ok"), readLines());
+    }
+
+    @Test
+    public void testOutputErrorNotSuppressedForLaterRequest() throws Exception {
+        connect(16);
+        comms.writeLine("G1 X1000");
+        comms.writeLine("G1 X1000");
+        respond("{\"params\":{\"response\":\"!! Move out of range\"}}",
+                "{\"id\":1,\"error\":{\"message\":\"Move out of range\"}}",
+                // The same error again, but Klipper did not output it this time.
+                "{\"id\":2,\"error\":{\"message\":\"Move out of range\"}}");
+        assertEquals(List.of("!! Move out of range", "ok", "!! Move out of range", "ok"), readLines());
+    }
+}
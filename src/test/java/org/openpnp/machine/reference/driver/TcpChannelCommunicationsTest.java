@@ -0,0 +1,181 @@
+package org.openpnp.machine.reference.driver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the line framing and the batched writes of the TcpChannelCommunications against the
+ * byte by byte readUntil() of the ReferenceDriverCommunications.
+ */
+public class TcpChannelCommunicationsTest {
+
+    @Test
+    public void testReadLineFraming() throws Exception {
+        Random random = new Random(0);
+        StringBuilder data = new StringBuilder();
+        String[] endings = { "\n", "\r\n", "\r", "\n\n", "\r\n\r\n" };
+        for (int i = 0; i < 2000; i++) {
+            int length = random.nextInt(i % 100 == 0 ? 1000 : 40);
+            for (int j = 0; j < length; j++) {
+                data.append((char) (' ' + random.nextInt(95)));
+            }
+            data.append(endings[random.nextInt(endings.length)]);
+        }
+        data.append("unterminated");
+        byte[] bytes = data.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        List<String> expected = new ArrayList<>();
+        StreamCommunications legacy = new StreamCommunications(new ByteArrayInputStream(bytes));
+        String line;
+        while ((line = legacy.readLine()) != null) {
+            expected.add(line);
+        }
+
+        AtomicReference<IOException> serverError = new AtomicReference<>();
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    OutputStream out = socket.getOutputStream();
+                    // Send in odd chunks, so lines are split across reads.
+                    int offset = 0;
+                    while (offset < bytes.length) {
+                        int length = Math.min(bytes.length - offset, 1 + random.nextInt(300));
+                        out.write(bytes, offset, length);
+                        out.flush();
+                        offset += length;
+                    }
+                }
+                catch (IOException e) {
+                    serverError.set(e);
+                }
+            });
+            server.start();
+
+            TcpChannelCommunications comms = new TcpChannelCommunications();
+            comms.setIpAddress("localhost");
+            comms.setPort(serverSocket.getLocalPort());
+            comms.connect();
+            try {
+                List<String> received = new ArrayList<>();
+                while ((line = comms.readLine()) != null) {
+                    received.add(line);
+                }
+                assertEquals(expected, received);
+                assertNull(comms.readLine());
+            }
+            finally {
+                comms.disconnect();
+                server.join();
+            }
+            assertNoServerError(serverError);
+        }
+    }
+
+    @Test
+    public void testBatchedWrites() throws Exception {
+        List<String> received = new ArrayList<>();
+        AtomicReference<IOException> serverError = new AtomicReference<>();
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = serverSocket.accept();
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                StandardCharsets.ISO_8859_1))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        received.add(line);
+                    }
+                }
+                catch (IOException e) {
+                    serverError.set(e);
+                }
+            });
+            server.start();
+
+            TcpChannelCommunications comms = new TcpChannelCommunications();
+            comms.setIpAddress("localhost");
+            comms.setPort(serverSocket.getLocalPort());
+            comms.connect();
+            List<String> expected = new ArrayList<>();
+            StringBuilder longLine = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                longLine.append('X');
+            }
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    String line = (i % 100 == 99) ? longLine.toString() : "G1 X"+i+" Y-"+i+" F1000";
+                    expected.add(line);
+                    comms.writeLine(line, i % 10 == 9);
+                }
+                comms.writeLine("M400");
+                expected.add("M400");
+                comms.writeLine("queued", false);
+                comms.flush();
+                expected.add("queued");
+            }
+            finally {
+                comms.disconnect();
+                server.join();
+            }
+            assertNoServerError(serverError);
+            assertEquals(expected, received);
+        }
+    }
+
+    private static void assertNoServerError(AtomicReference<IOException> serverError) {
+        IOException e = serverError.get();
+        if (e != null) {
+            fail("Server thread failed", e);
+        }
+    }
+
+    /**
+     * The legacy byte by byte line reading, over an InputStream.
+     */
+    static class StreamCommunications extends ReferenceDriverCommunications {
+        final InputStream in;
+
+        StreamCommunications(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public void connect() throws Exception {
+        }
+
+        @Override
+        public void disconnect() throws Exception {
+        }
+
+        @Override
+        public String getConnectionName() {
+            return "stream";
+        }
+
+        @Override
+        protected void writeBytes(byte[] data) throws IOException {
+        }
+
+        @Override
+        public int read() throws TimeoutException, IOException {
+            return in.read();
+        }
+    }
+}
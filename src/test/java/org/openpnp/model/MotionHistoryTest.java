@@ -0,0 +1,205 @@
+package org.openpnp.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openpnp.model.Motion.MotionOption;
+import org.openpnp.util.NanosecondTime;
+
+public class MotionHistoryTest {
+
+    private static Motion [] createMotions(int count) {
+        Motion [] motions = new Motion[count];
+        for (int i = 0; i < count; i++) {
+            motions[i] = new Motion(null, AxesLocation.zero, AxesLocation.zero, 1.0, MotionOption.Stillstand);
+        }
+        return motions;
+    }
+
+    /**
+     * Compare against the TreeMap the motion plan used to be.
+     */
+    @Test
+    public void testAgainstTreeMap() {
+        Random random = new Random(0);
+        Motion [] motions = createMotions(16);
+        MotionHistory history = new MotionHistory(4);
+        TreeMap<Double, Motion> map = new TreeMap<>();
+        // Far in the future, so nothing is ever overwritten.
+        double t = NanosecondTime.getRuntimeSeconds() + 1e6;
+        for (int i = 0; i < 20000; i++) {
+            int op = random.nextInt(10);
+            if (op < 5) {
+                // Mostly in order, sometimes the same time or out of order.
+                double time = (op == 0 && !map.isEmpty()) ? map.lastKey()
+                        : (op == 1 ? t - random.nextDouble()*10 : (t += random.nextDouble()));
+                Motion motion = motions[random.nextInt(motions.length)];
+                history.put(time, motion);
+                map.put(time, motion);
+            }
+            else if (op < 9) {
+                double time = t - random.nextDouble()*100;
+                Map.Entry<Double, Motion> entry = map.higherEntry(time);
+                assertSame(entry == null ? null : entry.getValue(), history.getHigher(time));
+            }
+            else {
+                double time = t - random.nextDouble()*50;
+                history.removeOlderThan(time);
+                while (!map.isEmpty() && map.firstKey() < time) {
+                    map.remove(map.firstKey());
+                }
+            }
+            assertEquals(map.size(), history.size());
+            if (!map.isEmpty()) {
+                assertEquals((double) map.firstKey(), history.getFirstTime());
+                assertEquals((double) map.lastKey(), history.getLastTime());
+            }
+        }
+        assertEquals(0, history.getOverwritten());
+        history.clear();
+        assertTrue(history.isEmpty());
+        assertNull(history.getHigher(0));
+    }
+
+    @Test
+    public void testOverwriteAndGrow() {
+        Motion [] motions = createMotions(16);
+        MotionHistory history = new MotionHistory(4);
+        double now = NanosecondTime.getRuntimeSeconds();
+        // Past motions are overwritten when full.
+        for (int i = 0; i < 10; i++) {
+            history.put(now - 100 + i, motions[i]);
+        }
+        assertEquals(4, history.getCapacity());
+        assertEquals(4, history.size());
+        assertEquals(6, history.getOverwritten());
+        assertEquals(now - 100 + 6, history.getFirstTime());
+        assertSame(motions[6], history.getHigher(now - 1000));
+        // Future motions are never overwritten, the history grows instead.
+        history.clear();
+        for (int i = 0; i < 10; i++) {
+            history.put(now + 100 + i, motions[i]);
+        }
+        assertEquals(16, history.getCapacity());
+        assertEquals(10, history.size());
+        assertSame(motions[0], history.getHigher(now));
+        assertSame(motions[9], history.getHigher(now + 108.5));
+        assertNull(history.getHigher(now + 109));
+    }
+
+    /**
+     * Soak the history like a long shift would, i.e. many moves with momentary lookups and periodic trimming,
+     * then many moves without trimming. The ring must never grow, and must hold exactly the latest motions.
+     */
+    @Test
+    public void testSoak() {
+        final int moves = 2_000_000;
+        final int capacity = 1024;
+        Motion [] motions = createMotions(64);
+        MotionHistory history = new MotionHistory(capacity);
+        // The times of the latest moves, by move number.
+        double [] times = new double[capacity];
+        // Past times, so the history may overwrite and age out.
+        double t = NanosecondTime.getRuntimeSeconds() - 2*moves*0.01 - 1;
+        int found = 0;
+        double trimmed = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < moves; i++) {
+            t += 0.01;
+            times[i % capacity] = t;
+            history.put(t, motions[i & 63]);
+            if (history.getHigher(t - 0.005) == motions[i & 63]) {
+                found++;
+            }
+            if ((i & 0xFF) == 0) {
+                // Like waitForCompletion() does.
+                trimmed = t - 5;
+                history.removeOlderThan(trimmed);
+            }
+            assertEquals(capacity, history.getCapacity());
+        }
+        assertEquals(moves, found);
+        // Trimming keeps the history well below capacity, nothing is overwritten.
+        assertEquals(0, history.getOverwritten());
+        int kept = 0;
+        for (int i = moves - 1; i >= moves - capacity && times[i % capacity] >= trimmed; i--) {
+            kept++;
+        }
+        assertEquals(kept, history.size());
+        assertTrue(kept < capacity);
+        assertContent(history, motions, times, moves, kept);
+
+        // Without trimming, the oldest motions are overwritten.
+        for (int i = moves; i < 2*moves; i++) {
+            t += 0.01;
+            times[i % capacity] = t;
+            history.put(t, motions[i & 63]);
+            assertEquals(capacity, history.getCapacity());
+        }
+        assertEquals(capacity, history.size());
+        assertEquals(moves + kept - capacity, history.getOverwritten());
+        assertContent(history, motions, times, 2*moves, capacity);
+    }
+
+    /**
+     * Measure the bytes the soak loop allocates on this thread. The ring must not allocate per move, unlike 
+     * the TreeMap with its entry per motion. Allocation accounting depends on the JVM, therefore it only 
+     * runs with -Dopenpnp.benchmarks=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "openpnp.benchmarks", matches = "true")
+    public void testSoakAllocation() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean 
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+        final int moves = 2_000_000;
+        Motion [] motions = createMotions(64);
+        MotionHistory history = new MotionHistory(1024);
+        double t = NanosecondTime.getRuntimeSeconds() - moves*0.01 - 1;
+        int found = 0;
+        long threadId = Thread.currentThread().getId();
+        long bytes0 = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < moves; i++) {
+            t += 0.01;
+            history.put(t, motions[i & 63]);
+            if (history.getHigher(t - 0.005) == motions[i & 63]) {
+                found++;
+            }
+            if ((i & 0xFF) == 0) {
+                history.removeOlderThan(t - 5);
+            }
+        }
+        long bytes = allocationBean.getThreadAllocatedBytes(threadId) - bytes0;
+        assertEquals(moves, found);
+        System.out.println("MotionHistoryTest.testSoakAllocation() "+bytes+" bytes allocated for "+moves+" moves");
+        // Generous bound: less than a byte per move, a TreeMap entry takes 40 bytes and more.
+        assertTrue(bytes < moves, bytes+" bytes allocated for "+moves+" moves");
+    }
+
+    /**
+     * Assert the history holds exactly the given number of latest moves, in order.
+     */
+    private static void assertContent(MotionHistory history, Motion [] motions, double [] times, int moves,
+            int count) {
+        int capacity = times.length;
+        assertEquals(times[(moves - count) % capacity], history.getFirstTime());
+        assertEquals(times[(moves - 1) % capacity], history.getLastTime());
+        assertSame(motions[(moves - count) & 63], history.getHigher(history.getFirstTime() - 1));
+        for (int i = moves - count; i < moves; i++) {
+            assertSame(motions[i & 63], history.getHigher(times[i % capacity] - 0.005));
+        }
+        assertNull(history.getHigher(history.getLastTime()));
+    }
+}
@@ -0,0 +1,69 @@
+package org.openpnp.spi.base;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.openpnp.model.Configuration;
+import org.openpnp.spi.Machine;
+
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.FutureCallback;
+
+public class AbstractMachineTest {
+
+    /**
+     * When a task fails, the queued tasks are cancelled and their callbacks are notified, instead of
+     * being dropped silently.
+     */
+    @Test
+    public void testQueuedTasksCancelledAfterFailure() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        Machine machine = Configuration.get().getMachine();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Exception failure = new Exception("Task failed");
+        Future<Void> failing = machine.submit(() -> {
+            started.countDown();
+            release.await();
+            throw failure;
+        }, null, true);
+        started.await();
+
+        AtomicReference<Throwable> notified = new AtomicReference<>();
+        Future<Void> queued = machine.submit(() -> null, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                notified.set(t);
+            }
+        }, true);
+        release.countDown();
+
+        ExecutionException e = assertThrows(ExecutionException.class, failing::get);
+        assertSame(failure, e.getCause());
+        // The queued task is cancelled before the failed task completes.
+        assertTrue(queued.isCancelled());
+        assertTrue(notified.get() instanceof CancellationException);
+        assertSame(failure, notified.get().getCause());
+
+        // The machine accepts new tasks.
+        assertEquals("next", machine.submit(() -> "next", null, true).get());
+    }
+}
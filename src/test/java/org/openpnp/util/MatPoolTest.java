@@ -0,0 +1,87 @@
+package org.openpnp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+public class MatPoolTest {
+
+    @Test
+    public void testReuse() {
+        MatPool pool = new MatPool(4);
+        Mat first = pool.obtain(480, 640, CvType.CV_8UC3);
+        assertEquals(1, pool.getAllocations());
+        pool.recycle(first);
+        assertEquals(1, pool.size());
+        // Same size and type, the recycled Mat is reused.
+        Mat second = pool.obtain(480, 640, CvType.CV_8UC3);
+        assertSame(first, second);
+        assertEquals(1, pool.getAllocations());
+        assertEquals(0, pool.size());
+        // Different size or type, a new Mat is allocated.
+        pool.recycle(second);
+        Mat other = pool.obtain(480, 640, CvType.CV_8UC1);
+        assertNotSame(second, other);
+        assertEquals(480, other.rows());
+        assertEquals(640, other.cols());
+        assertEquals(CvType.CV_8UC1, other.type());
+        Mat smaller = pool.obtain(240, 320, CvType.CV_8UC3);
+        assertNotSame(second, smaller);
+        assertEquals(3, pool.getAllocations());
+        assertEquals(1, pool.size());
+        // Frame after frame, nothing more is allocated.
+        pool.recycle(other);
+        pool.recycle(smaller);
+        for (int i = 0; i < 100; i++) {
+            Mat a = pool.obtain(480, 640, CvType.CV_8UC3);
+            Mat b = pool.obtain(240, 320, CvType.CV_8UC3);
+            pool.recycle(a);
+            pool.recycle(b);
+        }
+        assertEquals(3, pool.getAllocations());
+        assertEquals(3, pool.size());
+        pool.clear();
+    }
+
+    @Test
+    public void testRelease() {
+        MatPool pool = new MatPool(2);
+        Mat a = pool.obtain(10, 10, CvType.CV_8UC1);
+        Mat b = pool.obtain(10, 10, CvType.CV_8UC1);
+        Mat c = pool.obtain(10, 10, CvType.CV_8UC1);
+        pool.recycle(a);
+        pool.recycle(b);
+        pool.recycle(c);
+        // Over capacity, the least recently recycled Mat is released.
+        assertEquals(2, pool.size());
+        assertTrue(a.empty());
+        assertFalse(b.empty());
+        assertFalse(c.empty());
+        assertSame(b, pool.obtain(10, 10, CvType.CV_8UC1));
+        assertSame(c, pool.obtain(10, 10, CvType.CV_8UC1));
+
+        // Submatrices and empty Mats are released, not pooled.
+        Mat sub = new Mat(b, new Rect(0, 0, 5, 5));
+        pool.recycle(sub);
+        assertTrue(sub.empty());
+        assertFalse(b.empty());
+        pool.recycle(new Mat());
+        pool.recycle(null);
+        assertEquals(0, pool.size());
+
+        // Clearing releases the pooled Mats.
+        pool.recycle(b);
+        pool.recycle(c);
+        pool.clear();
+        assertEquals(0, pool.size());
+        assertTrue(b.empty());
+        assertTrue(c.empty());
+    }
+}